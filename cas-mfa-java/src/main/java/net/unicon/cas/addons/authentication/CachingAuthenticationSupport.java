@@ -0,0 +1,246 @@
+package net.unicon.cas.addons.authentication;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.springframework.webflow.core.collection.MutableAttributeMap;
+import org.springframework.webflow.execution.RequestContext;
+import org.springframework.webflow.execution.RequestContextHolder;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An <code>AuthenticationSupport</code> that looks up each TGT in CAS' <code>TicketRegistry</code> at most once per request,
+ * and keeps recently looked up TGTs in a small near cache shared by all requests.
+ *
+ * <p>A single login asks for the authentication of the same TGT from several webflow actions and argument extractors.
+ * The first lookup of a request is remembered in the webflow request scope, and later lookups of the same request are
+ * answered from there. Lookups made outside of a webflow request only use the near cache.</p>
+ *
+ * <p>The near cache is bounded, and its entries are dropped after a short time to live, so that a TGT destroyed
+ * on another node is only served for as long. A cached TGT that has expired, e.g. because it was destroyed through
+ * this node's registry, is looked up again. TGTs destroyed or upgraded through the
+ * {@link net.unicon.cas.mfa.MultiFactorAwareCentralAuthenticationService} or the
+ * {@link net.unicon.cas.mfa.ticket.TicketGrantingTicketDestructionQueue} are removed right away with
+ * {@link #invalidate(String)}.</p>
+ */
+public final class CachingAuthenticationSupport implements AuthenticationSupport {
+
+    /** Prefix of the request scope attributes that hold the TGTs looked up during the request. */
+    private static final String REQUEST_ATTRIBUTE_PREFIX = CachingAuthenticationSupport.class.getName() + '.';
+
+    /** Remembers in the request scope that there is no TGT for the id. */
+    private static final String NO_TICKET = REQUEST_ATTRIBUTE_PREFIX + "NO_TICKET";
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    private final ConcurrentMap<String, CachedTicket> nearCache = new ConcurrentHashMap<>();
+
+    @Min(0)
+    private int maxCacheSize = 10000;
+
+    @Min(0)
+    private long timeToLiveInMillis = 5000;
+
+    private final AtomicLong requestHits = new AtomicLong();
+
+    private final AtomicLong nearCacheHits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the ticket registry
+     */
+    public CachingAuthenticationSupport(final TicketRegistry ticketRegistry) {
+        this.ticketRegistry = ticketRegistry;
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public Authentication getAuthenticationFrom(final String ticketGrantingTicketId) throws RuntimeException {
+        final TicketGrantingTicket tgt = getTicketGrantingTicket(ticketGrantingTicketId);
+        return tgt == null ? null : tgt.getAuthentication();
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public Principal getAuthenticatedPrincipalFrom(final String ticketGrantingTicketId) throws RuntimeException {
+        final Authentication auth = getAuthenticationFrom(ticketGrantingTicketId);
+        return auth == null ? null : auth.getPrincipal();
+    }
+
+    @Override
+    /** {@inheritDoc} */
+    public Map<String, Object> getPrincipalAttributesFrom(final String ticketGrantingTicketId) throws RuntimeException {
+        final Principal principal = getAuthenticatedPrincipalFrom(ticketGrantingTicketId);
+        return principal == null ? null : principal.getAttributes();
+    }
+
+    /**
+     * Forget the TGT, in the near cache and in the current request, e.g. because it was destroyed or upgraded.
+     *
+     * @param ticketGrantingTicketId the TGT id
+     */
+    public void invalidate(final String ticketGrantingTicketId) {
+        if (ticketGrantingTicketId == null) {
+            return;
+        }
+        this.nearCache.remove(ticketGrantingTicketId);
+        final MutableAttributeMap requestScope = getRequestScope();
+        if (requestScope != null) {
+            requestScope.remove(REQUEST_ATTRIBUTE_PREFIX + ticketGrantingTicketId);
+        }
+    }
+
+    /**
+     * Find the TGT in the current request, then in the near cache, and finally in the ticket registry.
+     *
+     * @param ticketGrantingTicketId the TGT id
+     * @return the TGT, or null if the registry holds none with that id
+     */
+    private TicketGrantingTicket getTicketGrantingTicket(final String ticketGrantingTicketId) {
+        if (ticketGrantingTicketId == null) {
+            return null;
+        }
+
+        final MutableAttributeMap requestScope = getRequestScope();
+        final String attributeName = REQUEST_ATTRIBUTE_PREFIX + ticketGrantingTicketId;
+        if (requestScope != null) {
+            final Object memoized = requestScope.get(attributeName);
+            if (NO_TICKET.equals(memoized)) {
+                this.requestHits.incrementAndGet();
+                return null;
+            }
+            if (memoized instanceof TicketGrantingTicket && !((TicketGrantingTicket) memoized).isExpired()) {
+                this.requestHits.incrementAndGet();
+                return (TicketGrantingTicket) memoized;
+            }
+        }
+
+        TicketGrantingTicket tgt = getCachedTicket(ticketGrantingTicketId);
+        if (tgt != null) {
+            this.nearCacheHits.incrementAndGet();
+        } else {
+            this.misses.incrementAndGet();
+            tgt = (TicketGrantingTicket) this.ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+            if (tgt != null && !tgt.isExpired()) {
+                cacheTicket(tgt);
+            }
+        }
+
+        if (requestScope != null) {
+            requestScope.put(attributeName, tgt != null ? tgt : NO_TICKET);
+        }
+        return tgt;
+    }
+
+    /**
+     * Get the TGT from the near cache, unless it has lived too long or has expired.
+     *
+     * @param ticketGrantingTicketId the TGT id
+     * @return the cached TGT, or null
+     */
+    private TicketGrantingTicket getCachedTicket(final String ticketGrantingTicketId) {
+        final CachedTicket cached = this.nearCache.get(ticketGrantingTicketId);
+        if (cached == null) {
+            return null;
+        }
+        if (System.currentTimeMillis() - cached.cachedAt > this.timeToLiveInMillis || cached.ticket.isExpired()) {
+            this.nearCache.remove(ticketGrantingTicketId, cached);
+            return null;
+        }
+        return cached.ticket;
+    }
+
+    /**
+     * Put the TGT in the near cache. When the cache is full, an arbitrary entry is evicted to make room.
+     *
+     * @param tgt the TGT
+     */
+    private void cacheTicket(final TicketGrantingTicket tgt) {
+        if (this.maxCacheSize == 0) {
+            return;
+        }
+        if (this.nearCache.size() >= this.maxCacheSize) {
+            final Iterator<String> it = this.nearCache.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        this.nearCache.put(tgt.getId(), new CachedTicket(tgt));
+    }
+
+    /**
+     * Get the request scope of the current webflow request.
+     *
+     * @return the request scope, or null outside of a webflow request
+     */
+    private static MutableAttributeMap getRequestScope() {
+        final RequestContext context = RequestContextHolder.getRequestContext();
+        return context == null ? null : context.getRequestScope();
+    }
+
+    public void setMaxCacheSize(final int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    public void setTimeToLiveInMillis(final long timeToLiveInMillis) {
+        this.timeToLiveInMillis = timeToLiveInMillis;
+    }
+
+    /**
+     * Fraction of lookups answered from the current request.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    @Gauge(name = "AUTHENTICATION_SUPPORT_REQUEST_HIT_RATE")
+    public double getRequestHitRate() {
+        final long total = this.requestHits.get() + this.nearCacheHits.get() + this.misses.get();
+        return total == 0 ? 0 : (double) this.requestHits.get() / total;
+    }
+
+    /**
+     * Fraction of lookups answered from the near cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    @Gauge(name = "AUTHENTICATION_SUPPORT_NEAR_CACHE_HIT_RATE")
+    public double getNearCacheHitRate() {
+        final long total = this.requestHits.get() + this.nearCacheHits.get() + this.misses.get();
+        return total == 0 ? 0 : (double) this.nearCacheHits.get() / total;
+    }
+
+    @Gauge(name = "AUTHENTICATION_SUPPORT_REGISTRY_LOOKUPS")
+    public long getRegistryLookups() {
+        return this.misses.get();
+    }
+
+    @Gauge(name = "AUTHENTICATION_SUPPORT_NEAR_CACHE_SIZE")
+    public int getNearCacheSize() {
+        return this.nearCache.size();
+    }
+
+    /**
+     * A TGT in the near cache, along with the time it was cached at.
+     */
+    private static final class CachedTicket {
+        private final TicketGrantingTicket ticket;
+        private final long cachedAt = System.currentTimeMillis();
+
+        CachedTicket(final TicketGrantingTicket ticket) {
+            this.ticket = ticket;
+        }
+    }
+}
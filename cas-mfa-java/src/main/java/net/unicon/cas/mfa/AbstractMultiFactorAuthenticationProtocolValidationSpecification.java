@@ -72,6 +72,10 @@ public abstract class AbstractMultiFactorAuthenticationProtocolValidationSpecifi
      * of the failure. Exceptions are unchecked, yet are expected to be caught by the caller
      * in order to digest the failure.
      *
+     * <p>Only the last authentication of the chain, i.e. that of the user, is looked at, and the requested
+     * method is looked up among the fulfilled methods without copying them. The fulfilled methods are
+     * only collected when the check fails, to describe the failure.
+     *
      * @see UnacceptableMultiFactorAuthenticationMethodException
      * @see UnrecognizedMultiFactorAuthenticationMethodException
      */
@@ -79,10 +83,11 @@ public abstract class AbstractMultiFactorAuthenticationProtocolValidationSpecifi
     protected final boolean isSatisfiedByInternal(final Assertion assertion) {
         final Authentication authentication = MultiFactorUtils.getAuthenticationFromAssertion(assertion);
         if (authentication != null) {
-            final Set<String> previouslyAchievedAuthenticationMethods =
-                    MultiFactorUtils.getSatisfiedAuthenticationMethods(authentication);
+            if (!StringUtils.isBlank(getAuthenticationMethod())
+                    && !MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, getAuthenticationMethod())) {
+                final Set<String> previouslyAchievedAuthenticationMethods =
+                        MultiFactorUtils.getSatisfiedAuthenticationMethods(authentication);
 
-            if (!StringUtils.isBlank(getAuthenticationMethod())) {
                 if (previouslyAchievedAuthenticationMethods.isEmpty()) {
                     final String msg = String.format("Requested authentication method [%s] is not available", getAuthenticationMethod());
                     logger.debug(msg);
@@ -90,14 +95,12 @@ public abstract class AbstractMultiFactorAuthenticationProtocolValidationSpecifi
                             getAuthenticationMethod());
                 }
 
-                if (!previouslyAchievedAuthenticationMethods.contains(getAuthenticationMethod())) {
-                    final String msg = String.format("Requested authentication method [%s] does not "
-                            + "match the authentication method used [%s]", getAuthenticationMethod(),
-                            previouslyAchievedAuthenticationMethods);
-                    logger.debug(msg);
-                    throw new UnrecognizedMultiFactorAuthenticationMethodException("UNRECOGNIZED_AUTHENTICATION_METHOD", msg,
-                            getAuthenticationMethod());
-                }
+                final String msg = String.format("Requested authentication method [%s] does not "
+                        + "match the authentication method used [%s]", getAuthenticationMethod(),
+                        previouslyAchievedAuthenticationMethods);
+                logger.debug(msg);
+                throw new UnrecognizedMultiFactorAuthenticationMethodException("UNRECOGNIZED_AUTHENTICATION_METHOD", msg,
+                        getAuthenticationMethod());
             }
             return validateProxyAuthenticationRequests ? true : assertion.getChainedAuthentications().size() == 1;
         }
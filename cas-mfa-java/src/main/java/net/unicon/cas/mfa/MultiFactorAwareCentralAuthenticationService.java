@@ -7,8 +7,23 @@ import org.jasig.cas.authentication.Credential;
 import org.jasig.cas.authentication.handler.AuthenticationException;
 import org.jasig.cas.ticket.Ticket;
 import org.jasig.inspektr.audit.annotation.Audit;
+import net.unicon.cas.addons.authentication.AuthenticationSupport;
+import net.unicon.cas.addons.authentication.CachingAuthenticationSupport;
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
 import net.unicon.cas.mfa.authentication.principal.MultiFactorCredentials;
+import net.unicon.cas.mfa.authentication.principal.UnknownPrincipalMatchException;
+import net.unicon.cas.mfa.services.AttributeReleaseProjection;
+import net.unicon.cas.mfa.ticket.PrerenderedValidationAssertion;
+import net.unicon.cas.mfa.ticket.PrerenderedValidationAssertionStore;
+import net.unicon.cas.mfa.ticket.ProxyChainAssertion;
+import net.unicon.cas.mfa.ticket.ShardedUniqueTicketIdGenerator;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketExpirationIndex;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketIndex;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketSessionIndex;
+import net.unicon.cas.mfa.ticket.registry.AuthenticationDeltaAwareTicketRegistry;
+import net.unicon.cas.mfa.ticket.registry.ServiceTicketClaimingTicketRegistry;
 import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.view.Cas20ServiceValidationResponseWriter;
 import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
 import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.CentralAuthenticationService;
@@ -34,17 +49,21 @@ import org.jasig.cas.ticket.TicketValidationException;
 import org.jasig.cas.ticket.registry.TicketRegistry;
 import org.jasig.cas.util.UniqueTicketIdGenerator;
 import org.jasig.cas.validation.Assertion;
-import org.jasig.cas.validation.ImmutableAssertionImpl;
 import org.jasig.inspektr.audit.annotation.Audit;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.util.Assert;
 
 import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * An extension of {@link CentralAuthenticationService} that routes CAS requests to a delegate,
@@ -67,7 +86,8 @@ import java.util.Map;
  *
  * @author Misagh Moayyed
  */
-public final class MultiFactorAwareCentralAuthenticationService implements CentralAuthenticationService {
+public final class MultiFactorAwareCentralAuthenticationService implements CentralAuthenticationService,
+        MultiFactorTicketGrantingTicketUpgrader, RegisteredServiceTicketValidator, TicketGrantingTicketIndex {
 
     /** Log instance for logging events, info, warnings, errors, etc. */
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -99,6 +119,23 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
     @NotNull
     private ServicesManager servicesManager;
 
+    /** Compiled attribute release policies, keyed by registered service id. */
+    private final ConcurrentMap<Long, AttributeReleaseProjection> attributeReleaseProjections = new ConcurrentHashMap<>();
+
+    /** Whether validation responses of mfa services are rendered when their service tickets are granted. */
+    private boolean prerenderValidationPayloads;
+
+    /** Validation responses rendered at grant time, keyed by service ticket id. */
+    private PrerenderedValidationAssertionStore prerenderedValidationAssertions = new PrerenderedValidationAssertionStore(10000);
+
+    /** Index of the expiration deadlines of the ticket granting tickets created here. Optional. */
+    private TicketGrantingTicketExpirationIndex ticketGrantingTicketExpirationIndex;
+
+    /** Index of the ticket granting tickets created here by principal and satisfied authentication method. Optional. */
+    private TicketGrantingTicketSessionIndex ticketGrantingTicketSessionIndex;
+
+    /** The authentication support used by the login flow, told about destroyed and upgraded tickets if it caches them. Optional. */
+    private AuthenticationSupport authenticationSupport;
 
     @Override
     @Audit(
@@ -117,6 +154,69 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
                 this.ticketGrantingTicketExpirationPolicy);
 
         this.ticketRegistry.addTicket(ticketGrantingTicket);
+        index(ticketGrantingTicket);
+        return ticketGrantingTicket;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The ticket can only be upgraded in place if its authentication is a {@link DefaultCompositeAuthentication},
+     * i.e. one that was issued by this service. After the authentication is appended, the change is published to
+     * the registry: registries that are {@link AuthenticationDeltaAwareTicketRegistry} only receive the appended
+     * authentication, while all others receive the ticket again so that replicating registries pick up the change.</p>
+     */
+    @Override
+    @Audit(
+            action="TICKET_GRANTING_TICKET",
+            actionResolverName="UPGRADE_TICKET_GRANTING_TICKET_RESOLVER",
+            resourceResolverName="UPGRADE_TICKET_GRANTING_TICKET_RESOURCE_RESOLVER")
+    @Timed(name = "UPGRADE_TICKET_GRANTING_TICKET_TIMER")
+    @Metered(name = "UPGRADE_TICKET_GRANTING_TICKET_METER")
+    @Counted(name="UPGRADE_TICKET_GRANTING_TICKET_COUNTER", monotonic=true)
+    public TicketGrantingTicket upgradeTicketGrantingTicket(final String ticketGrantingTicketId,
+                                                            final Authentication authentication) throws TicketException {
+        Assert.notNull(ticketGrantingTicketId, "ticketGrantingTicketId cannot be null");
+        Assert.notNull(authentication, "authentication cannot be null");
+
+        final TicketGrantingTicket ticketGrantingTicket = (TicketGrantingTicket)
+                this.ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+
+        if (ticketGrantingTicket == null || ticketGrantingTicket.isExpired()) {
+            logger.info("TicketGrantingTicket [{}] does not exist or has expired.", ticketGrantingTicketId);
+            throw new InvalidTicketException(ticketGrantingTicketId);
+        }
+
+        final Authentication current = ticketGrantingTicket.getAuthentication();
+        if (!(current instanceof DefaultCompositeAuthentication)) {
+            logger.debug("TicketGrantingTicket [{}] does not carry a composite authentication and cannot be upgraded in place",
+                    ticketGrantingTicketId);
+            return null;
+        }
+
+        if (!current.getPrincipal().equals(authentication.getPrincipal())) {
+            logger.warn("The provided principal [{}] does not match the principal [{}] of ticket granting ticket [{}]",
+                    authentication.getPrincipal(), current.getPrincipal(), ticketGrantingTicketId);
+            throw new UnknownPrincipalMatchException(authentication);
+        }
+
+        ((DefaultCompositeAuthentication) current).appendAuthentication(authentication);
+        logger.debug("Upgraded ticket granting ticket [{}] in place. Satisfied authentication methods are now {}",
+                ticketGrantingTicketId, MultiFactorUtils.getSatisfiedAuthenticationMethods(current));
+
+        if (this.ticketRegistry instanceof AuthenticationDeltaAwareTicketRegistry) {
+            ((AuthenticationDeltaAwareTicketRegistry) this.ticketRegistry).publishAuthenticationDelta(
+                    ticketGrantingTicket, authentication);
+        } else {
+            this.ticketRegistry.addTicket(ticketGrantingTicket);
+        }
+        if (this.ticketGrantingTicketExpirationIndex != null) {
+            this.ticketGrantingTicketExpirationIndex.touch(ticketGrantingTicketId);
+        }
+        if (this.ticketGrantingTicketSessionIndex != null) {
+            this.ticketGrantingTicketSessionIndex.index(ticketGrantingTicketId, current);
+        }
+        invalidateCachedAuthentication(ticketGrantingTicketId);
         return ticketGrantingTicket;
     }
 
@@ -136,16 +236,67 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
     @Override
     public ServiceTicket  grantServiceTicket(final String ticketGrantingTicketId, final Service service)
      throws AuthenticationException, TicketException{
-        return this.delegate.grantServiceTicket(ticketGrantingTicketId, service, null);
+        return grantServiceTicket(ticketGrantingTicketId, service, (Credential[]) null);
     }
 
     /*
      * Implements Audit Trail participation by virtue of the delegate's audit trail participation.
+     * When pre-rendering is turned on, the validation response of mfa services is rendered here, once,
+     * since everything it contains is already known when the ticket is granted.
+     * The service ticket is issued in the shard of the ticket granting ticket, if ticket ids are sharded.
      */
     @Override
     public ServiceTicket grantServiceTicket(final String ticketGrantingTicketId, final Service service, final Credential... credentials)
             throws TicketException {
-        return this.delegate.grantServiceTicket(ticketGrantingTicketId, service, credentials);
+        final ServiceTicket serviceTicket;
+        ShardedUniqueTicketIdGenerator.enterShardOf(ticketGrantingTicketId);
+        try {
+            serviceTicket = this.delegate.grantServiceTicket(ticketGrantingTicketId, service, credentials);
+        } finally {
+            ShardedUniqueTicketIdGenerator.exitShard();
+        }
+        if (this.ticketGrantingTicketExpirationIndex != null) {
+            this.ticketGrantingTicketExpirationIndex.touch(ticketGrantingTicketId);
+        }
+        if (this.prerenderValidationPayloads && service instanceof MultiFactorAuthenticationSupportingWebApplicationService) {
+            prerenderValidationPayload(serviceTicket);
+        }
+        return serviceTicket;
+    }
+
+    /**
+     * Build the assertion the service ticket will validate to, render its CAS 2.0 success response
+     * and keep both until the ticket is validated. Failures are logged, and leave the ticket to be validated as usual.
+     *
+     * @param serviceTicket the service ticket just granted
+     */
+    private void prerenderValidationPayload(final ServiceTicket serviceTicket) {
+        final RegisteredService registeredService = this.servicesManager.findServiceBy(serviceTicket.getService());
+        if (registeredService == null || !registeredService.isEnabled()) {
+            return;
+        }
+
+        try {
+            final Assertion assertion = buildAssertion(serviceTicket, registeredService);
+            final List<Authentication> chainedAuthentications = assertion.getChainedAuthentications();
+            final List<String> proxies = new ArrayList<>(chainedAuthentications.size() - 1);
+            for (int i = 0; i < chainedAuthentications.size() - 1; i++) {
+                proxies.add(chainedAuthentications.get(i).getPrincipal().getId());
+            }
+            final Principal principal = chainedAuthentications.get(chainedAuthentications.size() - 1).getPrincipal();
+
+            final StringWriter writer = new StringWriter();
+            Cas20ServiceValidationResponseWriter.writeSuccess(writer, principal.getId(), null, proxies,
+                    principal.getAttributes(), MultiFactorUtils.getFulfilledAuthenticationMethodsAsString(assertion));
+
+            final PrerenderedValidationAssertion prerendered = new PrerenderedValidationAssertion(assertion,
+                    writer.toString().getBytes(StandardCharsets.UTF_8));
+            if (!this.prerenderedValidationAssertions.put(serviceTicket, prerendered)) {
+                logger.debug("No room to keep the rendered validation response of service ticket [{}]", serviceTicket.getId());
+            }
+        } catch (final IOException e) {
+            logger.warn("Unable to render the validation response of service ticket [{}]", serviceTicket.getId(), e);
+        }
     }
 
     /*
@@ -161,8 +312,6 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
         Assert.notNull(serviceTicketId, "serviceTicketId cannot be null");
         Assert.notNull(service, "service cannot be null");
 
-        final ServiceTicket serviceTicket = (ServiceTicket) this.serviceTicketRegistry.getTicket(serviceTicketId, ServiceTicket.class);
-
         final RegisteredService registeredService = this.servicesManager.findServiceBy(service);
 
         if (registeredService == null || !registeredService.isEnabled()) {
@@ -170,80 +319,158 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
             throw new UnauthorizedServiceException("Service not allowed to validate tickets.");
         }
 
+        return validateServiceTicketForRegisteredService(serviceTicketId, service, registeredService);
+    }
+
+    @Override
+    @Audit(
+            action="SERVICE_TICKET_VALIDATE",
+            actionResolverName="VALIDATE_SERVICE_TICKET_RESOLVER",
+            resourceResolverName="VALIDATE_SERVICE_TICKET_RESOURCE_RESOLVER")
+    @Profiled(tag="VALIDATE_SERVICE_TICKET", logFailuresSeparately = false)
+    public Assertion validateServiceTicket(final String serviceTicketId, final Service service,
+                                           final RegisteredService registeredService) throws TicketException {
+        Assert.notNull(serviceTicketId, "serviceTicketId cannot be null");
+        Assert.notNull(service, "service cannot be null");
+        Assert.notNull(registeredService, "registeredService cannot be null");
+
+        return validateServiceTicketForRegisteredService(serviceTicketId, service, registeredService);
+    }
+
+    /**
+     * Claim the service ticket and build its assertion for the registered service.
+     * The ticket is added back to the registry only if its expiration policy allows further uses.
+     *
+     * @param serviceTicketId the service ticket id
+     * @param service the service
+     * @param registeredService the registered service matching the service
+     * @return the assertion
+     * @throws TicketException if the ticket cannot be validated
+     */
+    private Assertion validateServiceTicketForRegisteredService(final String serviceTicketId, final Service service,
+                                                                final RegisteredService registeredService) throws TicketException {
+        final ServiceTicket serviceTicket = claimServiceTicket(serviceTicketId);
+
         if (serviceTicket == null) {
-            logger.info("ServiceTicket [" + serviceTicketId + "] does not exist.");
+            logger.info("ServiceTicket [" + serviceTicketId + "] does not exist, or was already consumed.");
             throw new InvalidTicketException();
         }
 
-        try {
-            synchronized (serviceTicket) {
-                if (serviceTicket.isExpired()) {
-                    logger.info("ServiceTicket [" + serviceTicketId + "] has expired.");
-                    throw new InvalidTicketException();
-                }
-
-                if (!serviceTicket.isValidFor(service)) {
-                    logger.error("ServiceTicket {} with service {}  does not match supplied service {}",
-                            serviceTicketId, serviceTicket.getService().getId(), service);
-                    throw new TicketValidationException(serviceTicket.getService());
-                }
-            }
+        if (serviceTicket.isExpired()) {
+            logger.info("ServiceTicket [" + serviceTicketId + "] has expired.");
+            this.prerenderedValidationAssertions.remove(serviceTicketId);
+            throw new InvalidTicketException();
+        }
 
-            final List<Authentication> chainedAuthenticationsList = serviceTicket.getGrantingTicket().getChainedAuthentications();
-            final Authentication authentication = chainedAuthenticationsList.get(chainedAuthenticationsList.size() - 1);
-            final Principal principal = authentication.getPrincipal();
-
-            final String principalId = determinePrincipalIdForRegisteredService(principal, registeredService, serviceTicket);
-            final Authentication authToUse;
-
-            if (!registeredService.isIgnoreAttributes()) {
-                final Map<String, Object> attributes = new HashMap<String, Object>();
-
-                for (final String attribute : registeredService.getAllowedAttributes()) {
-                    final Object value = principal.getAttributes().get(attribute);
-
-                    if (value != null) {
-                        attributes.put(attribute, value);
-                    }
-                }
-                final String authnMethod = MultiFactorUtils.getFulfilledAuthenticationMethodsAsString(authentication);
-                if (StringUtils.isNotBlank(authnMethod)) {
-                    attributes.put(this.authenticationMethodAttributeName, authnMethod);
-                }
-
-                final Principal modifiedPrincipal = new SimplePrincipal(principalId, attributes);
-                final MutableAuthentication mutableAuthentication = new MutableAuthentication(
-                        modifiedPrincipal, authentication.getAuthenticatedDate());
-                mutableAuthentication.getAttributes().putAll(
-                        authentication.getAttributes());
-                mutableAuthentication.getAuthenticatedDate().setTime(
-                        authentication.getAuthenticatedDate().getTime());
-                authToUse = mutableAuthentication;
-            } else {
+        final boolean validForService = serviceTicket.isValidFor(service);
+        final PrerenderedValidationAssertion prerendered;
+        if (!serviceTicket.isExpired()) {
+            /* The expiration policy allows further uses of this ticket. Put it back, along with the use just consumed. */
+            this.serviceTicketRegistry.addTicket(serviceTicket);
+            prerendered = this.prerenderedValidationAssertions.get(serviceTicketId);
+        } else {
+            prerendered = this.prerenderedValidationAssertions.remove(serviceTicketId);
+        }
 
-                final Map<String, Object> attributes = new HashMap<String, Object>(principal.getAttributes());
-                final String authnMethod = MultiFactorUtils.getFulfilledAuthenticationMethodsAsString(authentication);
-                if (StringUtils.isNotBlank(authnMethod)) {
-                    attributes.put(this.authenticationMethodAttributeName, authnMethod);
-                }
+        if (!validForService) {
+            logger.error("ServiceTicket {} with service {}  does not match supplied service {}",
+                    serviceTicketId, serviceTicket.getService().getId(), service);
+            throw new TicketValidationException(serviceTicket.getService());
+        }
 
-                final Principal modifiedPrincipal = new SimplePrincipal(principalId, attributes);
-                authToUse = new MutableAuthentication(modifiedPrincipal, authentication.getAuthenticatedDate());
+        if (prerendered != null) {
+            logger.debug("Using the validation response rendered when service ticket [{}] was granted", serviceTicketId);
+            return prerendered;
+        }
+        return buildAssertion(serviceTicket, registeredService);
+    }
+
+    /**
+     * Build the assertion of the service ticket, releasing the principal id and attributes
+     * allowed by the registered service along with the fulfilled authentication methods.
+     * The chain of the ticket granting ticket is read once, and the assertion is a view over it rather than a copy.
+     *
+     * @param serviceTicket the service ticket
+     * @param registeredService the registered service
+     * @return the assertion
+     */
+    private Assertion buildAssertion(final ServiceTicket serviceTicket, final RegisteredService registeredService) {
+        final List<Authentication> chainedAuthenticationsList = serviceTicket.getGrantingTicket().getChainedAuthentications();
+        final Authentication authentication = chainedAuthenticationsList.get(chainedAuthenticationsList.size() - 1);
+        final Principal principal = authentication.getPrincipal();
+
+        final AttributeReleaseProjection projection = getAttributeReleaseProjection(registeredService);
+        final String principalId = determinePrincipalIdForRegisteredService(principal, registeredService, projection, serviceTicket);
+        final Authentication authToUse;
+
+        if (!projection.isIgnoreAttributes()) {
+            final Map<String, Object> attributes = projection.project(principal.getAttributes(), 1);
+            final String authnMethod = MultiFactorUtils.getFulfilledAuthenticationMethodsAsString(authentication);
+            if (StringUtils.isNotBlank(authnMethod)) {
+                attributes.put(this.authenticationMethodAttributeName, authnMethod);
             }
 
-            final List<Authentication> authentications = new ArrayList<Authentication>();
+            final Principal modifiedPrincipal = new SimplePrincipal(principalId, attributes);
+            final MutableAuthentication mutableAuthentication = new MutableAuthentication(
+                    modifiedPrincipal, authentication.getAuthenticatedDate());
+            mutableAuthentication.getAttributes().putAll(
+                    authentication.getAttributes());
+            mutableAuthentication.getAuthenticatedDate().setTime(
+                    authentication.getAuthenticatedDate().getTime());
+            authToUse = mutableAuthentication;
+        } else {
 
-            for (int i = 0; i < chainedAuthenticationsList.size() - 1; i++) {
-                authentications.add(serviceTicket.getGrantingTicket().getChainedAuthentications().get(i));
+            final Map<String, Object> attributes = projection.project(principal.getAttributes(), 1);
+            final String authnMethod = MultiFactorUtils.getFulfilledAuthenticationMethodsAsString(authentication);
+            if (StringUtils.isNotBlank(authnMethod)) {
+                attributes.put(this.authenticationMethodAttributeName, authnMethod);
             }
-            authentications.add(authToUse);
 
-            return new ImmutableAssertionImpl(authentications, serviceTicket.getService(), serviceTicket.isFromNewLogin());
-        } finally {
-            if (serviceTicket.isExpired()) {
-                this.serviceTicketRegistry.deleteTicket(serviceTicketId);
-            }
+            final Principal modifiedPrincipal = new SimplePrincipal(principalId, attributes);
+            authToUse = new MutableAuthentication(modifiedPrincipal, authentication.getAuthenticatedDate());
+        }
+
+        return new ProxyChainAssertion(chainedAuthenticationsList, authToUse, serviceTicket.getService(),
+                serviceTicket.isFromNewLogin());
+    }
+
+    /**
+     * Claim the service ticket for validation. The ticket is removed from the registry in the same step, so that
+     * of several concurrent validations of the same ticket exactly one receives it, and validates it on its own.
+     * Registries that implement {@link ServiceTicketClaimingTicketRegistry} claim the ticket with an atomic
+     * compare-and-set; for all others, the outcome of {@link TicketRegistry#deleteTicket(String)} decides which
+     * caller wins.
+     *
+     * @param serviceTicketId the service ticket id
+     * @return the claimed service ticket, or null if it does not exist or was claimed by another caller.
+     */
+    private ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        if (this.serviceTicketRegistry instanceof ServiceTicketClaimingTicketRegistry) {
+            return ((ServiceTicketClaimingTicketRegistry) this.serviceTicketRegistry).claimServiceTicket(serviceTicketId);
+        }
+
+        final ServiceTicket serviceTicket = (ServiceTicket) this.serviceTicketRegistry.getTicket(serviceTicketId, ServiceTicket.class);
+        if (serviceTicket != null && this.serviceTicketRegistry.deleteTicket(serviceTicketId)) {
+            return serviceTicket;
         }
+        return null;
+    }
+
+    /**
+     * Get the compiled attribute release policy of the registered service. Projections are compiled the first time
+     * a registered service is seen, and again whenever the services registry is reloaded with a new instance.
+     *
+     * @param registeredService the registered service
+     * @return the attribute release projection
+     */
+    private AttributeReleaseProjection getAttributeReleaseProjection(final RegisteredService registeredService) {
+        final AttributeReleaseProjection projection = this.attributeReleaseProjections.get(registeredService.getId());
+        if (projection != null && projection.isCompiledFrom(registeredService)) {
+            return projection;
+        }
+        final AttributeReleaseProjection compiled = new AttributeReleaseProjection(registeredService);
+        this.attributeReleaseProjections.put(registeredService.getId(), compiled);
+        return compiled;
     }
 
     /*
@@ -252,6 +479,68 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
     @Override
     public void destroyTicketGrantingTicket(final String ticketGrantingTicketId) {
         this.delegate.destroyTicketGrantingTicket(ticketGrantingTicketId);
+        remove(ticketGrantingTicketId);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The ticket is added to the expiration and session indexes, if they are configured.</p>
+     */
+    @Override
+    public void index(final TicketGrantingTicket ticketGrantingTicket) {
+        if (this.ticketGrantingTicketExpirationIndex != null) {
+            this.ticketGrantingTicketExpirationIndex.track(ticketGrantingTicket.getId());
+        }
+        if (this.ticketGrantingTicketSessionIndex != null) {
+            this.ticketGrantingTicketSessionIndex.index(ticketGrantingTicket.getId(), ticketGrantingTicket.getAuthentication());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The ticket is removed from the expiration and session indexes, and from the authentication support
+     * if it caches tickets. Called for the tickets that the destruction queue removes from the registry itself.</p>
+     */
+    @Override
+    public void remove(final String ticketGrantingTicketId) {
+        if (this.ticketGrantingTicketExpirationIndex != null) {
+            this.ticketGrantingTicketExpirationIndex.untrack(ticketGrantingTicketId);
+        }
+        if (this.ticketGrantingTicketSessionIndex != null) {
+            this.ticketGrantingTicketSessionIndex.remove(ticketGrantingTicketId);
+        }
+        invalidateCachedAuthentication(ticketGrantingTicketId);
+    }
+
+    /**
+     * Drop the ticket granting ticket from the authentication support, if it caches tickets.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    private void invalidateCachedAuthentication(final String ticketGrantingTicketId) {
+        if (this.authenticationSupport instanceof CachingAuthenticationSupport) {
+            ((CachingAuthenticationSupport) this.authenticationSupport).invalidate(ticketGrantingTicketId);
+        }
+    }
+
+    /**
+     * Destroy every live mfa ticket granting ticket of the principal, e.g. when the account is compromised.
+     * Tickets are found through the session index, so the cost is proportional to the number of sessions
+     * of the principal rather than to the size of the registry.
+     *
+     * @param principalId the principal id
+     * @return the number of ticket granting tickets destroyed
+     */
+    public int destroyTicketGrantingTickets(final String principalId) {
+        Assert.notNull(this.ticketGrantingTicketSessionIndex, "ticketGrantingTicketSessionIndex is not configured");
+        final Set<String> ticketGrantingTicketIds = this.ticketGrantingTicketSessionIndex.getTicketGrantingTicketIds(principalId);
+        for (final String ticketGrantingTicketId : ticketGrantingTicketIds) {
+            destroyTicketGrantingTicket(ticketGrantingTicketId);
+        }
+        logger.info("Destroyed {} ticket granting ticket(s) of principal [{}]", ticketGrantingTicketIds.size(), principalId);
+        return ticketGrantingTicketIds.size();
     }
 
     @Override
@@ -261,7 +550,12 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
             resourceResolverName="GRANT_PROXY_GRANTING_TICKET_RESOURCE_RESOLVER")
     @Profiled(tag="GRANT_PROXY_GRANTING_TICKET", logFailuresSeparately = false)
     public String delegateTicketGrantingTicket(final String serviceTicketId, final Credential credentials) throws TicketException {
-        return this.delegate.delegateTicketGrantingTicket(serviceTicketId, credentials);
+        ShardedUniqueTicketIdGenerator.enterShardOf(serviceTicketId);
+        try {
+            return this.delegate.delegateTicketGrantingTicket(serviceTicketId, credentials);
+        } finally {
+            ShardedUniqueTicketIdGenerator.exitShard();
+        }
     }
 
     /**
@@ -278,11 +572,13 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
      *
      * @param principal The principal object to be validated and constructed
      * @param registeredService Requesting service for which a principal is being validated.
+     * @param projection The compiled attribute release policy of the registered service
      * @param serviceTicket An instance of the service ticket used for validation
      *
      * @return The principal id to use for the requesting registered service
      */
     private String determinePrincipalIdForRegisteredService(final Principal principal, final RegisteredService registeredService,
+                                                            final AttributeReleaseProjection projection,
                                                             final ServiceTicket serviceTicket) {
         String principalId = null;
         final String serviceUsernameAttribute = registeredService.getUsernameAttribute();
@@ -292,7 +588,7 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
         } else if (StringUtils.isBlank(serviceUsernameAttribute)) {
             principalId = principal.getId();
         } else {
-            if ((registeredService.isIgnoreAttributes() || registeredService.getAllowedAttributes().contains(serviceUsernameAttribute))
+            if (projection.isReleased(serviceUsernameAttribute)
                     && principal.getAttributes().containsKey(serviceUsernameAttribute)) {
                 principalId = principal.getAttributes().get(registeredService.getUsernameAttribute()).toString();
             } else {
@@ -379,4 +675,36 @@ public final class MultiFactorAwareCentralAuthenticationService implements Centr
     public void setPersistentIdGenerator(final PersistentIdGenerator persistentIdGenerator) {
         this.persistentIdGenerator = persistentIdGenerator;
     }
+
+    /**
+     * Render the validation response of mfa services when their service tickets are granted,
+     * rather than each time a ticket is validated.
+     *
+     * @param prerenderValidationPayloads whether validation responses should be rendered at grant time
+     */
+    public void setPrerenderValidationPayloads(final boolean prerenderValidationPayloads) {
+        this.prerenderValidationPayloads = prerenderValidationPayloads;
+    }
+
+    /**
+     * Index the ticket granting tickets created here by their expiration deadline,
+     * so that expired tickets are found without scanning the registry.
+     *
+     * @param ticketGrantingTicketExpirationIndex the index
+     */
+    public void setTicketGrantingTicketExpirationIndex(final TicketGrantingTicketExpirationIndex ticketGrantingTicketExpirationIndex) {
+        this.ticketGrantingTicketExpirationIndex = ticketGrantingTicketExpirationIndex;
+    }
+
+    public void setTicketGrantingTicketSessionIndex(final TicketGrantingTicketSessionIndex ticketGrantingTicketSessionIndex) {
+        this.ticketGrantingTicketSessionIndex = ticketGrantingTicketSessionIndex;
+    }
+
+    public void setAuthenticationSupport(final AuthenticationSupport authenticationSupport) {
+        this.authenticationSupport = authenticationSupport;
+    }
+
+    public void setMaxPrerenderedValidationPayloads(final int maxPrerenderedValidationPayloads) {
+        this.prerenderedValidationAssertions = new PrerenderedValidationAssertionStore(maxPrerenderedValidationPayloads);
+    }
 }
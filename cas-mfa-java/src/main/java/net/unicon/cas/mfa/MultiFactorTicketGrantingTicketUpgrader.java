@@ -0,0 +1,26 @@
+package net.unicon.cas.mfa;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.TicketException;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+/**
+ * Defines the ability to step up an existing single sign-on session in place, by appending
+ * the authentication established for an additional factor to the existing ticket granting ticket,
+ * rather than issuing a brand new ticket granting ticket and destroying the old one.
+ */
+public interface MultiFactorTicketGrantingTicketUpgrader {
+
+    /**
+     * Append the given authentication to the authentication chain of the ticket granting ticket.
+     * The ticket id and the services already granted under the ticket are preserved.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     * @param authentication the authentication established for the additional factor
+     * @return the upgraded ticket granting ticket, or null if the ticket cannot be upgraded in place
+     * and the caller should fall back to creating a new ticket granting ticket.
+     * @throws TicketException if the ticket granting ticket cannot be found or is expired
+     */
+    TicketGrantingTicket upgradeTicketGrantingTicket(String ticketGrantingTicketId, Authentication authentication)
+            throws TicketException;
+}
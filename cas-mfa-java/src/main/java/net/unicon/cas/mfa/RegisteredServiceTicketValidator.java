@@ -0,0 +1,26 @@
+package net.unicon.cas.mfa;
+
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.ticket.TicketException;
+import org.jasig.cas.validation.Assertion;
+
+/**
+ * Defines the ability to validate a service ticket for a registered service that the caller has already
+ * looked up, so that callers validating many tickets for the same services only look each service up once.
+ */
+public interface RegisteredServiceTicketValidator {
+
+    /**
+     * Validate the service ticket, exactly as {@link org.jasig.cas.CentralAuthenticationService#validateServiceTicket}
+     * would, without looking up the registered service.
+     *
+     * @param serviceTicketId the service ticket id
+     * @param service the service the ticket is validated for
+     * @param registeredService the registered service matching the service, enabled
+     * @return the assertion
+     * @throws TicketException if the ticket cannot be validated
+     */
+    Assertion validateServiceTicket(String serviceTicketId, Service service, RegisteredService registeredService)
+            throws TicketException;
+}
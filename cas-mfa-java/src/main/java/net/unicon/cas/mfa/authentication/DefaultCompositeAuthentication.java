@@ -2,8 +2,10 @@ package net.unicon.cas.mfa.authentication;
 
 import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
 import net.unicon.cas.mfa.util.MultiFactorUtils;
+import org.jasig.cas.authentication.Authentication;
 import org.jasig.cas.authentication.principal.Principal;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.Hashtable;
 import java.util.Map;
@@ -21,7 +23,7 @@ public final class DefaultCompositeAuthentication implements CompositeAuthentica
     private static final long serialVersionUID = 6594344317585898494L;
 
     private final MutablePrincipal principal;
-    private final Date authenticationDate = new Date();
+    private final Date authenticationDate;
     private final Map<String, Object> authenticationAttributes;
 
     /**
@@ -30,8 +32,21 @@ public final class DefaultCompositeAuthentication implements CompositeAuthentica
      * @param attributes attributes for this authentication
      */
     public DefaultCompositeAuthentication(final MutablePrincipal p, final Map<String, Object> attributes) {
+        this(p, attributes, new Date());
+    }
+
+    /**
+     * Initialize this instance with a principal, given authentication attributes and the instant at which
+     * the authentication took place, e.g. when the authentication is restored from a ticket registry.
+     * @param p the principal
+     * @param attributes attributes for this authentication
+     * @param authenticationDate the instant at which the authentication took place
+     */
+    public DefaultCompositeAuthentication(final MutablePrincipal p, final Map<String, Object> attributes,
+                                          final Date authenticationDate) {
         this.principal = p;
         this.authenticationAttributes = attributes;
+        this.authenticationDate = authenticationDate;
     }
 
     /**
@@ -62,4 +77,33 @@ public final class DefaultCompositeAuthentication implements CompositeAuthentica
     public Set<String> getSatisfiedAuthenticationMethods() {
         return MultiFactorUtils.getSatisfiedAuthenticationMethods(this);
     }
+
+    /**
+     * Append the given authentication to this composite, using the same merging strategy as
+     * {@link net.unicon.cas.mfa.authentication.principal.MultiFactorCredentials#getAuthentication()}.
+     * Principal attributes are merged with the latter value overwriting the first, and duplicate
+     * authentication attributes are grouped into a {@link Collection}.
+     *
+     * <p>Each merged attribute value is computed first and then swapped in with a single put, while holding
+     * the monitor of the attribute map. Concurrent readers of {@link #getSatisfiedAuthenticationMethods()}
+     * observe either the previous or the upgraded set of methods, and never a partially updated one.</p>
+     *
+     * @param authentication the authentication to append
+     */
+    public void appendAuthentication(final Authentication authentication) {
+        synchronized (this.authenticationAttributes) {
+            this.principal.getAttributes().putAll(authentication.getPrincipal().getAttributes());
+
+            for (final Map.Entry<String, Object> entry : authentication.getAttributes().entrySet()) {
+                final Object oldValue = this.authenticationAttributes.get(entry.getKey());
+                if (oldValue == null) {
+                    this.authenticationAttributes.put(entry.getKey(), entry.getValue());
+                } else {
+                    final Collection<Object> listOfValues = MultiFactorUtils.convertValueToCollection(oldValue);
+                    listOfValues.add(entry.getValue());
+                    this.authenticationAttributes.put(entry.getKey(), listOfValues);
+                }
+            }
+        }
+    }
 }
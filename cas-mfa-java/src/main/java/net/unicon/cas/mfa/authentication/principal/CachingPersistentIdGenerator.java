@@ -0,0 +1,166 @@
+package net.unicon.cas.mfa.authentication.principal;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.apache.commons.codec.binary.Base64;
+import org.jasig.cas.authentication.principal.PersistentIdGenerator;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Service;
+
+import javax.validation.constraints.Min;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A {@link PersistentIdGenerator} that produces the same identifiers as
+ * {@link org.jasig.cas.authentication.principal.ShibbolethCompatiblePersistentIdGenerator},
+ * and remembers them per principal and service.
+ *
+ * <p>Generated identifiers are kept in a bounded cache keyed by the service and principal ids. When the cache is full,
+ * an arbitrary entry is evicted to make room. Digests are computed with {@link MessageDigest} instances that are
+ * borrowed from a pool rather than created for each identifier. Changing the salt discards every cached identifier.</p>
+ */
+public final class CachingPersistentIdGenerator implements PersistentIdGenerator {
+
+    private static final byte CONST_SEPARATOR = (byte) '!';
+
+    private static final String DIGEST_ALGORITHM = "SHA";
+
+    @Min(1)
+    private int maxCacheSize = 100000;
+
+    /** The salt and the identifiers generated with it. Replaced as a whole when the salt changes. */
+    private volatile SaltedCache saltedCache = new SaltedCache(new byte[0]);
+
+    private final Queue<MessageDigest> digestPool = new ConcurrentLinkedQueue<>();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong computeTimeInNanos = new AtomicLong();
+
+    @Override
+    public String generate(final Principal principal, final Service service) {
+        final SaltedCache current = this.saltedCache;
+        final String key = service.getId() + (char) CONST_SEPARATOR + principal.getId();
+
+        final String cached = current.ids.get(key);
+        if (cached != null) {
+            this.hits.incrementAndGet();
+            return cached;
+        }
+
+        this.misses.incrementAndGet();
+        final long start = System.nanoTime();
+        final String id = computePersistentId(principal, service, current.salt);
+        this.computeTimeInNanos.addAndGet(System.nanoTime() - start);
+
+        if (current.ids.size() >= this.maxCacheSize) {
+            final Iterator<String> it = current.ids.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        current.ids.put(key, id);
+        return id;
+    }
+
+    /**
+     * Compute the identifier the same way the shibboleth compatible generator does.
+     *
+     * @param principal the principal
+     * @param service the service
+     * @param salt the salt
+     * @return the persistent id
+     */
+    private String computePersistentId(final Principal principal, final Service service, final byte[] salt) {
+        final MessageDigest md = borrowDigest();
+        try {
+            md.update(service.getId().getBytes());
+            md.update(CONST_SEPARATOR);
+            md.update(principal.getId().getBytes());
+            md.update(CONST_SEPARATOR);
+            return Base64.encodeBase64String(md.digest(salt)).replaceAll(System.getProperty("line.separator"), "");
+        } finally {
+            md.reset();
+            this.digestPool.offer(md);
+        }
+    }
+
+    /**
+     * Borrow a digest from the pool, creating one if the pool is empty.
+     *
+     * @return the message digest
+     */
+    private MessageDigest borrowDigest() {
+        final MessageDigest md = this.digestPool.poll();
+        if (md != null) {
+            return md;
+        }
+        try {
+            return MessageDigest.getInstance(DIGEST_ALGORITHM);
+        } catch (final NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets the salt. Identifiers cached with the previous salt are discarded.
+     *
+     * @param salt the salt
+     */
+    public void setSalt(final String salt) {
+        this.saltedCache = new SaltedCache(salt.getBytes());
+    }
+
+    public void setMaxCacheSize(final int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    /**
+     * Fraction of identifiers served from the cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    @Gauge(name = "PERSISTENT_ID_CACHE_HIT_RATE")
+    public double getHitRate() {
+        final long h = this.hits.get();
+        final long total = h + this.misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    @Gauge(name = "PERSISTENT_ID_CACHE_SIZE")
+    public int getCacheSize() {
+        return this.saltedCache.ids.size();
+    }
+
+    /**
+     * Average time spent computing an identifier that was not cached.
+     *
+     * @return the average compute time in nanoseconds
+     */
+    @Gauge(name = "PERSISTENT_ID_COMPUTE_TIME")
+    public long getAverageComputeTimeInNanos() {
+        final long m = this.misses.get();
+        return m == 0 ? 0 : this.computeTimeInNanos.get() / m;
+    }
+
+    /**
+     * The salt, along with the identifiers computed with it.
+     */
+    private static final class SaltedCache {
+        private final byte[] salt;
+        private final ConcurrentMap<String, String> ids = new ConcurrentHashMap<>();
+
+        SaltedCache(final byte[] salt) {
+            this.salt = salt;
+        }
+    }
+}
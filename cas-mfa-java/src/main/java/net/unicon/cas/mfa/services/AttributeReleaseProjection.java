@@ -0,0 +1,108 @@
+package net.unicon.cas.mfa.services;
+
+import org.jasig.cas.services.RegisteredService;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The attribute release policy of a {@link RegisteredService}, compiled once so that
+ * releasing attributes during validation does not have to walk the allowed attribute list.
+ *
+ * <p>The allowed attribute names are held in an array that is projected over the principal attributes
+ * in a single pass, and in a hash set for constant-time membership checks. Instances are immutable and
+ * remember the registered service they were compiled from, so callers can tell when the services registry
+ * was reloaded and the projection needs to be compiled again.</p>
+ */
+public final class AttributeReleaseProjection {
+
+    private final RegisteredService registeredService;
+
+    private final boolean ignoreAttributes;
+
+    private final String[] allowedAttributeNames;
+
+    private final Set<String> allowedAttributes;
+
+    /**
+     * Compile the release policy of the registered service.
+     *
+     * @param registeredService the registered service
+     */
+    public AttributeReleaseProjection(final RegisteredService registeredService) {
+        this.registeredService = registeredService;
+        this.ignoreAttributes = registeredService.isIgnoreAttributes();
+
+        final List<String> allowed = registeredService.getAllowedAttributes();
+        if (allowed == null || allowed.isEmpty()) {
+            this.allowedAttributeNames = new String[0];
+            this.allowedAttributes = Collections.emptySet();
+        } else {
+            final Set<String> unique = new HashSet<>(allowed);
+            this.allowedAttributeNames = unique.toArray(new String[unique.size()]);
+            this.allowedAttributes = Collections.unmodifiableSet(unique);
+        }
+    }
+
+    /**
+     * Whether this projection was compiled from the given registered service instance.
+     *
+     * @param service the registered service
+     * @return true if the projection is current for the service
+     */
+    public boolean isCompiledFrom(final RegisteredService service) {
+        return this.registeredService == service;
+    }
+
+    public boolean isIgnoreAttributes() {
+        return this.ignoreAttributes;
+    }
+
+    /**
+     * Whether the named attribute is released to the service.
+     *
+     * @param attributeName the attribute name
+     * @return true if the service ignores the release policy, or the attribute is allowed
+     */
+    public boolean isReleased(final String attributeName) {
+        return this.ignoreAttributes || this.allowedAttributes.contains(attributeName);
+    }
+
+    /**
+     * Project the principal attributes onto the attributes released to the service.
+     *
+     * @param attributes the principal attributes
+     * @param additionalCapacity room to reserve for attributes the caller adds to the result
+     * @return a new, mutable map of the released attributes
+     */
+    public Map<String, Object> project(final Map<String, Object> attributes, final int additionalCapacity) {
+        if (this.ignoreAttributes) {
+            final Map<String, Object> released = new HashMap<>(capacityFor(attributes.size() + additionalCapacity));
+            released.putAll(attributes);
+            return released;
+        }
+
+        final Map<String, Object> released = new HashMap<>(capacityFor(this.allowedAttributeNames.length + additionalCapacity));
+        for (final String name : this.allowedAttributeNames) {
+            final Object value = attributes.get(name);
+            if (value != null) {
+                released.put(name, value);
+            }
+        }
+        return released;
+    }
+
+    /**
+     * Initial capacity for a {@link HashMap} that holds the given number of entries without rehashing.
+     *
+     * @param entries the number of entries
+     * @return the capacity
+     */
+    private static int capacityFor(final int entries) {
+        return entries * 4 / 3 + 1;
+    }
+}
@@ -0,0 +1,96 @@
+package net.unicon.cas.mfa.ticket;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.RegistryCleaner;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cleans the ticket registry of the expired tickets that the {@link TicketGrantingTicketExpirationIndex} does not look
+ * after, in place of the registry cleaner of CAS.
+ *
+ * <p>Ticket granting tickets that are indexed by their expiration deadline are skipped without being checked: the
+ * index destroys them within a tick of their deadline. Every other ticket is checked as the registry cleaner of CAS
+ * would. Expired service tickets are deleted, and expired ticket granting tickets that are not indexed, e.g. those
+ * of logins that did not go through the mfa aware CAS, are handed to the {@link TicketGrantingTicketDestructionQueue},
+ * which destroys them through the mfa aware CAS, along with their single logout.</p>
+ */
+public final class ExpirationIndexAwareTicketRegistryCleaner implements RegistryCleaner {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ExpirationIndexAwareTicketRegistryCleaner.class);
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    @NotNull
+    private final TicketGrantingTicketExpirationIndex ticketGrantingTicketExpirationIndex;
+
+    @NotNull
+    private final TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue;
+
+    private final AtomicLong lastCleanedCount = new AtomicLong();
+
+    private final AtomicLong lastSkippedCount = new AtomicLong();
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the ticket registry
+     * @param ticketGrantingTicketExpirationIndex the index whose tickets are skipped
+     * @param ticketGrantingTicketDestructionQueue the queue that destroys expired ticket granting tickets
+     */
+    public ExpirationIndexAwareTicketRegistryCleaner(final TicketRegistry ticketRegistry,
+                                                     final TicketGrantingTicketExpirationIndex ticketGrantingTicketExpirationIndex,
+                                                     final TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue) {
+        this.ticketRegistry = ticketRegistry;
+        this.ticketGrantingTicketExpirationIndex = ticketGrantingTicketExpirationIndex;
+        this.ticketGrantingTicketDestructionQueue = ticketGrantingTicketDestructionQueue;
+    }
+
+    @Override
+    public Collection<Ticket> clean() {
+        final long start = System.currentTimeMillis();
+        final List<Ticket> expired = new ArrayList<>();
+        int skipped = 0;
+        for (final Ticket ticket : this.ticketRegistry.getTickets()) {
+            if (ticket instanceof TicketGrantingTicket && this.ticketGrantingTicketExpirationIndex.isTracked(ticket.getId())) {
+                skipped++;
+            } else if (ticket.isExpired()) {
+                expired.add(ticket);
+            }
+        }
+
+        for (final Ticket ticket : expired) {
+            if (ticket instanceof TicketGrantingTicket) {
+                this.ticketGrantingTicketDestructionQueue.enqueue(ticket.getId());
+            } else {
+                this.ticketRegistry.deleteTicket(ticket.getId());
+            }
+        }
+
+        this.lastCleanedCount.set(expired.size());
+        this.lastSkippedCount.set(skipped);
+        LOGGER.info("Removed {} expired ticket(s) and skipped {} indexed ticket granting ticket(s) in {} ms",
+                expired.size(), skipped, System.currentTimeMillis() - start);
+        return expired;
+    }
+
+    @Gauge(name = "TICKET_REGISTRY_CLEANER_CLEANED")
+    public long getLastCleanedCount() {
+        return this.lastCleanedCount.get();
+    }
+
+    @Gauge(name = "TICKET_REGISTRY_CLEANER_SKIPPED")
+    public long getLastSkippedCount() {
+        return this.lastSkippedCount.get();
+    }
+}
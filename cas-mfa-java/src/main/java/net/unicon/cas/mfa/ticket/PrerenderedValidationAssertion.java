@@ -0,0 +1,83 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.validation.Assertion;
+
+import java.util.List;
+
+/**
+ * An {@link Assertion} whose CAS 2.0 validation success response was rendered when the service ticket was granted.
+ * Behaves exactly like the assertion it wraps, and additionally carries the rendered response, so that validation
+ * can write it out without building the response again.
+ */
+public final class PrerenderedValidationAssertion implements Assertion {
+
+    private static final long serialVersionUID = 4365829132867011234L;
+
+    private final Assertion assertion;
+
+    private final byte[] payload;
+
+    /**
+     * Ctor.
+     *
+     * @param assertion the assertion the payload was rendered from
+     * @param payload the rendered validation success response, encoded as UTF-8
+     */
+    public PrerenderedValidationAssertion(final Assertion assertion, final byte[] payload) {
+        this.assertion = assertion;
+        this.payload = payload;
+    }
+
+    /**
+     * The rendered validation success response. The array is shared and must not be modified.
+     *
+     * @return the payload, encoded as UTF-8
+     */
+    public byte[] getPayload() {
+        return this.payload;
+    }
+
+    /**
+     * Gets the primary authentication.
+     *
+     * @return the first authentication of the chain
+     */
+    public Authentication getPrimaryAuthentication() {
+        return this.assertion.getChainedAuthentications().get(0);
+    }
+
+    @Override
+    public List<Authentication> getChainedAuthentications() {
+        return this.assertion.getChainedAuthentications();
+    }
+
+    @Override
+    public boolean isFromNewLogin() {
+        return this.assertion.isFromNewLogin();
+    }
+
+    @Override
+    public Service getService() {
+        return this.assertion.getService();
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof PrerenderedValidationAssertion)) {
+            return false;
+        }
+        return this.assertion.equals(((PrerenderedValidationAssertion) o).assertion);
+    }
+
+    @Override
+    public int hashCode() {
+        return this.assertion.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return this.assertion.toString();
+    }
+}
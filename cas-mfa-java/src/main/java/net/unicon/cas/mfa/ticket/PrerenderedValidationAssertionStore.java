@@ -0,0 +1,110 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Holds the {@link PrerenderedValidationAssertion}s of granted service tickets until the tickets are validated.
+ *
+ * <p>The store is local to the node that granted the ticket. A ticket validated on a node that holds no
+ * payload for it is validated as usual. The store is bounded: when it is full, the new assertion is not stored.</p>
+ *
+ * <p>Assertions are also kept in the order they were stored in. Service tickets all share the same expiration policy,
+ * so that order is also the order they expire in, and each put only evicts from the oldest end: assertions of tickets
+ * that have expired without being validated, and entries of assertions that were already removed.</p>
+ */
+public final class PrerenderedValidationAssertionStore {
+
+    private final int capacity;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+
+    private final Queue<Entry> order = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Ctor.
+     *
+     * @param capacity the maximum number of assertions held at once
+     */
+    public PrerenderedValidationAssertionStore(final int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Store the assertion of the service ticket.
+     *
+     * @param serviceTicket the service ticket
+     * @param assertion the assertion
+     * @return true if the assertion was stored, false if the store is full.
+     */
+    public boolean put(final ServiceTicket serviceTicket, final PrerenderedValidationAssertion assertion) {
+        evictExpired();
+        if (this.entries.size() >= this.capacity) {
+            return false;
+        }
+        final Entry entry = new Entry(serviceTicket, assertion);
+        this.entries.put(serviceTicket.getId(), entry);
+        this.order.add(entry);
+        return true;
+    }
+
+    /**
+     * Get the assertion of the service ticket, leaving it in the store.
+     *
+     * @param serviceTicketId the service ticket id
+     * @return the assertion, or null if none is held for the ticket
+     */
+    public PrerenderedValidationAssertion get(final String serviceTicketId) {
+        final Entry entry = this.entries.get(serviceTicketId);
+        return entry == null ? null : entry.assertion;
+    }
+
+    /**
+     * Remove the assertion of the service ticket.
+     *
+     * @param serviceTicketId the service ticket id
+     * @return the assertion, or null if none is held for the ticket
+     */
+    public PrerenderedValidationAssertion remove(final String serviceTicketId) {
+        final Entry entry = this.entries.remove(serviceTicketId);
+        return entry == null ? null : entry.assertion;
+    }
+
+    public int size() {
+        return this.entries.size();
+    }
+
+    /**
+     * Evict the oldest assertions for as long as they have been removed already or their tickets have expired.
+     */
+    private void evictExpired() {
+        Entry oldest = this.order.peek();
+        while (oldest != null) {
+            final String id = oldest.serviceTicket.getId();
+            if (this.entries.get(id) == oldest && !oldest.serviceTicket.isExpired()) {
+                return;
+            }
+            if (this.order.remove(oldest)) {
+                this.entries.remove(id, oldest);
+            }
+            oldest = this.order.peek();
+        }
+    }
+
+    /**
+     * A stored assertion, along with the ticket it belongs to.
+     */
+    private static final class Entry {
+        private final ServiceTicket serviceTicket;
+        private final PrerenderedValidationAssertion assertion;
+
+        Entry(final ServiceTicket serviceTicket, final PrerenderedValidationAssertion assertion) {
+            this.serviceTicket = serviceTicket;
+            this.assertion = assertion;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.validation.Assertion;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * An immutable {@link Assertion} over the chain of authentications of a ticket granting ticket, in which the last
+ * authentication, i.e. that of the user who started the proxy chain, is replaced by the authentication released
+ * to the service.
+ *
+ * <p>The chain is not copied. The chained authentications are a read-only view that reads through to the list
+ * given at construction, which must not be modified afterwards, and the last authentication is available in
+ * constant time regardless of the depth of the proxy chain.</p>
+ */
+public final class ProxyChainAssertion implements Assertion {
+
+    private static final long serialVersionUID = -2683571893457245168L;
+
+    private final List<Authentication> chainedAuthentications;
+
+    private final Authentication lastAuthentication;
+
+    private final Service service;
+
+    private final boolean fromNewLogin;
+
+    /**
+     * Ctor.
+     *
+     * @param ticketGrantingTicketChain the chained authentications of the ticket granting ticket
+     * @param lastAuthentication the authentication that takes the place of the last authentication of the chain
+     * @param service the service
+     * @param fromNewLogin whether the ticket was issued from a new login
+     */
+    public ProxyChainAssertion(final List<Authentication> ticketGrantingTicketChain, final Authentication lastAuthentication,
+                               final Service service, final boolean fromNewLogin) {
+        if (ticketGrantingTicketChain.isEmpty()) {
+            throw new IllegalArgumentException("The chain of authentications cannot be empty");
+        }
+        this.chainedAuthentications = new ChainView(ticketGrantingTicketChain, lastAuthentication);
+        this.lastAuthentication = lastAuthentication;
+        this.service = service;
+        this.fromNewLogin = fromNewLogin;
+    }
+
+    /**
+     * Gets the last authentication of the chain, i.e. the authentication of the user.
+     *
+     * @return the last authentication
+     */
+    public Authentication getLastAuthentication() {
+        return this.lastAuthentication;
+    }
+
+    /**
+     * Gets the primary authentication.
+     *
+     * @return the first authentication of the chain
+     */
+    public Authentication getPrimaryAuthentication() {
+        return this.chainedAuthentications.get(0);
+    }
+
+    @Override
+    public List<Authentication> getChainedAuthentications() {
+        return this.chainedAuthentications;
+    }
+
+    @Override
+    public boolean isFromNewLogin() {
+        return this.fromNewLogin;
+    }
+
+    @Override
+    public Service getService() {
+        return this.service;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+        if (!(o instanceof Assertion)) {
+            return false;
+        }
+        final Assertion other = (Assertion) o;
+        return this.fromNewLogin == other.isFromNewLogin()
+                && this.service.equals(other.getService())
+                && this.chainedAuthentications.equals(other.getChainedAuthentications());
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * this.chainedAuthentications.hashCode() + this.service.hashCode()) + (this.fromNewLogin ? 1 : 0);
+    }
+
+    @Override
+    public String toString() {
+        return "[principal=" + this.lastAuthentication.getPrincipal().getId() + ", proxies="
+                + (this.chainedAuthentications.size() - 1) + ", service=" + this.service.getId() + "]";
+    }
+
+    /**
+     * Read-only view of the chain, with its last element replaced.
+     */
+    private static final class ChainView extends AbstractList<Authentication> implements RandomAccess, Serializable {
+
+        private static final long serialVersionUID = 6517328412071862593L;
+
+        private final List<Authentication> chain;
+
+        private final Authentication last;
+
+        private final int lastIndex;
+
+        ChainView(final List<Authentication> chain, final Authentication last) {
+            this.chain = chain;
+            this.last = last;
+            this.lastIndex = chain.size() - 1;
+        }
+
+        @Override
+        public Authentication get(final int index) {
+            if (index == this.lastIndex) {
+                return this.last;
+            }
+            if (index < 0 || index > this.lastIndex) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+            }
+            return this.chain.get(index);
+        }
+
+        @Override
+        public int size() {
+            return this.lastIndex + 1;
+        }
+    }
+}
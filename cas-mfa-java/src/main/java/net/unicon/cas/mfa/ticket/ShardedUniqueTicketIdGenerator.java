@@ -0,0 +1,141 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+
+import javax.validation.constraints.NotNull;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A {@link UniqueTicketIdGenerator} whose ids carry the shard of the ticket, so that a partitioned ticket registry,
+ * such as the {@link net.unicon.cas.mfa.ticket.registry.ShardRoutingTicketRegistry}, can route every lookup of the
+ * ticket to the one partition that holds it.
+ *
+ * <p>The id of the wrapped generator is kept, and the shard is inserted after its prefix,
+ * e.g. <code>TGT-S3-12-abcdef-cas01</code> for shard 3. New ticket granting tickets are spread over the shards
+ * in turn. A ticket granted from another ticket, e.g. a service ticket or a proxy granting ticket, inherits the
+ * shard of the ticket it is granted from: the
+ * {@link net.unicon.cas.mfa.MultiFactorAwareCentralAuthenticationService} enters that shard with
+ * {@link #enterShardOf(String)} for the duration of the grant, and every sharded generator used by the current
+ * thread, including those of the delegate service, issues its ids in that shard.</p>
+ *
+ * <p>A ticket granted from a ticket whose id carries no shard, e.g. a proxy ticket granted from a proxy granting
+ * ticket issued by the stock generator of the delegate service, is issued in the shard that the hash of that id
+ * picks, i.e. the partition the {@link net.unicon.cas.mfa.ticket.registry.ShardRoutingTicketRegistry} places the
+ * granting ticket in.</p>
+ */
+public final class ShardedUniqueTicketIdGenerator implements UniqueTicketIdGenerator {
+
+    /** Returned when the ticket id carries no shard. */
+    public static final int NO_SHARD = -1;
+
+    /** Marks the shard, right after the prefix of the id. */
+    private static final String SHARD_MARKER = "-S";
+
+    /** The id of the ticket whose shard the current thread entered, if any. Shared by every sharded generator. */
+    private static final ThreadLocal<String> CURRENT_GRANTING_TICKET = new ThreadLocal<>();
+
+    @NotNull
+    private final UniqueTicketIdGenerator uniqueTicketIdGenerator;
+
+    private final int shardCount;
+
+    private final AtomicInteger nextShard = new AtomicInteger();
+
+    /**
+     * Ctor.
+     *
+     * @param uniqueTicketIdGenerator the generator of the ids the shard is added to
+     * @param shardCount the number of shards
+     */
+    public ShardedUniqueTicketIdGenerator(final UniqueTicketIdGenerator uniqueTicketIdGenerator, final int shardCount) {
+        if (shardCount < 1) {
+            throw new IllegalArgumentException("There must be at least one shard");
+        }
+        this.uniqueTicketIdGenerator = uniqueTicketIdGenerator;
+        this.shardCount = shardCount;
+    }
+
+    @Override
+    public String getNewTicketId(final String prefix) {
+        final String grantingTicketId = CURRENT_GRANTING_TICKET.get();
+        final int shard = grantingTicketId != null ? getShard(grantingTicketId, this.shardCount)
+                : (this.nextShard.getAndIncrement() & Integer.MAX_VALUE) % this.shardCount;
+
+        final String id = this.uniqueTicketIdGenerator.getNewTicketId(prefix);
+        final StringBuilder builder = new StringBuilder(id.length() + SHARD_MARKER.length() + 4)
+                .append(prefix).append(SHARD_MARKER).append(shard);
+        if (id.startsWith(prefix + '-')) {
+            builder.append(id, prefix.length(), id.length());
+        } else {
+            builder.append('-').append(id);
+        }
+        return builder.toString();
+    }
+
+    public int getShardCount() {
+        return this.shardCount;
+    }
+
+    /**
+     * Find the shard carried by the ticket id.
+     *
+     * @param ticketId the ticket id
+     * @return the shard, or {@link #NO_SHARD} if the id was not issued by a sharded generator
+     */
+    public static int getShard(final String ticketId) {
+        if (ticketId == null) {
+            return NO_SHARD;
+        }
+        final int marker = ticketId.indexOf('-');
+        if (marker < 0 || !ticketId.startsWith(SHARD_MARKER, marker)) {
+            return NO_SHARD;
+        }
+        final int start = marker + SHARD_MARKER.length();
+        int shard = 0;
+        int i = start;
+        while (i < ticketId.length() && ticketId.charAt(i) != '-') {
+            final char c = ticketId.charAt(i);
+            if (c < '0' || c > '9' || i - start > 8) {
+                return NO_SHARD;
+            }
+            shard = shard * 10 + c - '0';
+            i++;
+        }
+        return i > start && i < ticketId.length() ? shard : NO_SHARD;
+    }
+
+    /**
+     * Find the shard the ticket is placed in, among the given number of shards: the shard carried by its id,
+     * or else the one picked by the hash of its id.
+     *
+     * @param ticketId the ticket id
+     * @param shardCount the number of shards
+     * @return the shard
+     */
+    public static int getShard(final String ticketId, final int shardCount) {
+        final int shard = getShard(ticketId);
+        if (shard != NO_SHARD && shard < shardCount) {
+            return shard;
+        }
+        return (ticketId.hashCode() & Integer.MAX_VALUE) % shardCount;
+    }
+
+    /**
+     * Issue the ids generated by the current thread in the shard of the given ticket, until {@link #exitShard()}
+     * is called. If the ticket id carries no shard, the shard picked by the hash of the id is used.
+     *
+     * @param ticketId the id of the ticket that tickets are about to be granted from
+     */
+    public static void enterShardOf(final String ticketId) {
+        if (ticketId != null) {
+            CURRENT_GRANTING_TICKET.set(ticketId);
+        }
+    }
+
+    /**
+     * Stop issuing the ids generated by the current thread in the shard entered with {@link #enterShardOf(String)}.
+     */
+    public static void exitShard() {
+        CURRENT_GRANTING_TICKET.remove();
+    }
+}
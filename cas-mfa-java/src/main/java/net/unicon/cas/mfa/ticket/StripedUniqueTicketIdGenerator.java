@@ -0,0 +1,188 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * A {@link UniqueTicketIdGenerator} that issues ids of the same form as the default generator of CAS,
+ * i.e. <code>PREFIX-number-random-suffix</code>, without making concurrent logins wait on one another.
+ *
+ * <p>The default generator draws every id from one shared {@link SecureRandom}, on which all threads serialize
+ * during a login storm. Here, ids are drawn from stripes, twice as many as there are processors, and each thread
+ * always uses the same stripe. Each stripe has its own deterministic random generator and its own counter, so
+ * threads only contend when they share a stripe. The number of the id is unique across stripes, since each stripe
+ * issues the numbers congruent to its index, modulo the number of stripes.</p>
+ *
+ * <p>The generator of a stripe is created on first use, and is seeded from the non-blocking random source of the
+ * platform rather than seeding itself, which may block on entropy at startup. It is reseeded after a configurable
+ * number of ids. The random part of the id is drawn uniformly from letters and digits.</p>
+ */
+public final class StripedUniqueTicketIdGenerator implements UniqueTicketIdGenerator, InitializingBean {
+
+    private static final char[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789".toCharArray();
+
+    /** Random bytes at or above this value are discarded, so that every character is equally likely. */
+    private static final int UNBIASED_LIMIT = 256 - 256 % ALPHABET.length;
+
+    private static final int SEED_LENGTH = 32;
+
+    private final int randomLength;
+
+    private final String suffix;
+
+    private final Stripe[] stripes;
+
+    private final int stripeMask;
+
+    /** Source of the seeds of the stripes. */
+    private final SecureRandom seedSource = new SecureRandom();
+
+    @NotNull
+    private String algorithm = "SHA1PRNG";
+
+    @Min(1)
+    private long reseedInterval = 1L << 20;
+
+    /**
+     * Instantiates a new generator of ids without suffix.
+     *
+     * @param maxLength the length of the random part of the id
+     */
+    public StripedUniqueTicketIdGenerator(final int maxLength) {
+        this(maxLength, null);
+    }
+
+    /**
+     * Instantiates a new generator.
+     *
+     * @param maxLength the length of the random part of the id
+     * @param suffix the suffix of the id, e.g. the host name, or null
+     */
+    public StripedUniqueTicketIdGenerator(final int maxLength, final String suffix) {
+        if (maxLength < 1) {
+            throw new IllegalArgumentException("maxLength must be positive");
+        }
+        this.randomLength = maxLength;
+        this.suffix = suffix;
+
+        int count = 1;
+        while (count < 2 * Runtime.getRuntime().availableProcessors()) {
+            count <<= 1;
+        }
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe(i);
+        }
+        this.stripeMask = count - 1;
+    }
+
+    /**
+     * Make sure that the configured random generator algorithm is available.
+     *
+     * @throws Exception if the algorithm is not available
+     */
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        SecureRandom.getInstance(this.algorithm);
+    }
+
+    @Override
+    public String getNewTicketId(final String prefix) {
+        final Stripe stripe = this.stripes[(int) Thread.currentThread().getId() & this.stripeMask];
+        final char[] random = new char[this.randomLength];
+        final long number = stripe.next(random);
+
+        final StringBuilder builder = new StringBuilder(prefix.length() + this.randomLength
+                + (this.suffix != null ? this.suffix.length() : 0) + 24);
+        builder.append(prefix).append('-').append(number).append('-').append(random);
+        if (this.suffix != null) {
+            builder.append('-').append(this.suffix);
+        }
+        return builder.toString();
+    }
+
+    public void setAlgorithm(final String algorithm) {
+        this.algorithm = algorithm;
+    }
+
+    public void setReseedInterval(final long reseedInterval) {
+        this.reseedInterval = reseedInterval;
+    }
+
+    public int getStripeCount() {
+        return this.stripes.length;
+    }
+
+    /**
+     * Draw a new seed from the random source of the platform.
+     *
+     * @return the seed
+     */
+    private byte[] newSeed() {
+        final byte[] seed = new byte[SEED_LENGTH];
+        this.seedSource.nextBytes(seed);
+        return seed;
+    }
+
+    /**
+     * A random generator and a counter, used by the threads mapped to the stripe.
+     */
+    private final class Stripe {
+
+        private final int index;
+
+        private final byte[] bytes;
+
+        /** Created on first use. Guarded by this. */
+        private SecureRandom random;
+
+        /** Number of ids issued by the stripe. Guarded by this. */
+        private long count;
+
+        /**
+         * Instantiates a new stripe.
+         *
+         * @param index the index of the stripe
+         */
+        Stripe(final int index) {
+            this.index = index;
+            this.bytes = new byte[randomLength + randomLength / 8 + 1];
+        }
+
+        /**
+         * Fill in the random part of the next id, and return the number of the id.
+         *
+         * @param chars the random part of the id to fill in
+         * @return the number of the id
+         */
+        synchronized long next(final char[] chars) {
+            if (this.random == null) {
+                try {
+                    this.random = SecureRandom.getInstance(algorithm);
+                } catch (final NoSuchAlgorithmException e) {
+                    throw new IllegalStateException("Unable to create random generator " + algorithm, e);
+                }
+                this.random.setSeed(newSeed());
+            } else if (this.count % reseedInterval == 0) {
+                this.random.setSeed(newSeed());
+            }
+
+            int filled = 0;
+            while (filled < chars.length) {
+                this.random.nextBytes(this.bytes);
+                for (int i = 0; i < this.bytes.length && filled < chars.length; i++) {
+                    final int b = this.bytes[i] & 0xFF;
+                    if (b < UNBIASED_LIMIT) {
+                        chars[filled++] = ALPHABET[b % ALPHABET.length];
+                    }
+                }
+            }
+            return this.count++ * stripes.length + this.index + 1;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package net.unicon.cas.mfa.ticket;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A hierarchical timing wheel that indexes ticket ids by the time at which they are due to be checked for expiration.
+ *
+ * <p>Time is divided into ticks. The wheel has four levels of 64 slots; the first level holds the tickets due within
+ * the current block of 64 ticks, and each further level covers 64 times the span of the level below. When the wheel
+ * moves into a new block, the slot of the level above that covers it is cascaded, i.e. its tickets are spread over the
+ * level below. Deadlines beyond the span of the wheel are parked and cascaded when the top level wraps around.
+ * Advancing the wheel therefore only touches the tickets whose slot has come due, regardless of how many tickets
+ * are indexed.</p>
+ *
+ * <p>Tickets may be scheduled and cancelled from any thread: scheduling only records the deadline and queues it,
+ * and the queue is transferred into the wheel by {@link #advance(long)}, which must only ever be called by a single
+ * thread. Scheduling a ticket again replaces its previous deadline; superseded and cancelled entries are skipped
+ * when their slot comes due.</p>
+ */
+public final class TicketExpirationWheel {
+
+    private static final int LEVELS = 4;
+
+    private static final int SLOT_BITS = 6;
+
+    private static final int SLOTS = 1 << SLOT_BITS;
+
+    private static final int SLOT_MASK = SLOTS - 1;
+
+    private final long tickInMillis;
+
+    /** The current deadline of every indexed ticket. */
+    private final ConcurrentMap<String, Deadline> deadlines = new ConcurrentHashMap<>();
+
+    /** Deadlines scheduled since the wheel last advanced. */
+    private final Queue<Deadline> pending = new ConcurrentLinkedQueue<>();
+
+    private final List<Deadline>[][] wheels;
+
+    private List<Deadline> overflow = new ArrayList<>();
+
+    private long currentTick;
+
+    /**
+     * Ctor.
+     *
+     * @param tickInMillis the resolution of the wheel
+     * @param startTimeInMillis the time the wheel starts at
+     */
+    @SuppressWarnings("unchecked")
+    public TicketExpirationWheel(final long tickInMillis, final long startTimeInMillis) {
+        if (tickInMillis <= 0) {
+            throw new IllegalArgumentException("tickInMillis must be positive");
+        }
+        this.tickInMillis = tickInMillis;
+        this.currentTick = startTimeInMillis / tickInMillis;
+        this.wheels = new List[LEVELS][SLOTS];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < SLOTS; slot++) {
+                this.wheels[level][slot] = new ArrayList<>();
+            }
+        }
+    }
+
+    /**
+     * Schedule the ticket to come due at the given time, replacing any deadline it had.
+     * Rescheduling a ticket within the tick it is already due at has no effect.
+     *
+     * @param ticketId the ticket id
+     * @param deadlineInMillis the time at which the ticket is due
+     */
+    public void schedule(final String ticketId, final long deadlineInMillis) {
+        final long deadlineTick = (deadlineInMillis + this.tickInMillis - 1) / this.tickInMillis;
+        final Deadline previous = this.deadlines.get(ticketId);
+        if (previous != null && previous.tick == deadlineTick) {
+            return;
+        }
+        final Deadline deadline = new Deadline(ticketId, deadlineTick);
+        this.deadlines.put(ticketId, deadline);
+        this.pending.offer(deadline);
+    }
+
+    /**
+     * Remove the ticket from the index.
+     *
+     * @param ticketId the ticket id
+     */
+    public void cancel(final String ticketId) {
+        this.deadlines.remove(ticketId);
+    }
+
+    /**
+     * Whether the ticket is indexed.
+     *
+     * @param ticketId the ticket id
+     * @return true if the ticket is scheduled and has not come due yet
+     */
+    public boolean isScheduled(final String ticketId) {
+        return this.deadlines.containsKey(ticketId);
+    }
+
+    /**
+     * Number of indexed tickets.
+     *
+     * @return the size
+     */
+    public int size() {
+        return this.deadlines.size();
+    }
+
+    /**
+     * Advance the wheel up to the given time, and remove the tickets that have come due from the index.
+     * Must not be called concurrently.
+     *
+     * @param nowInMillis the current time
+     * @return the ids of the tickets that have come due
+     */
+    public List<String> advance(final long nowInMillis) {
+        Deadline scheduled = this.pending.poll();
+        while (scheduled != null) {
+            if (isCurrent(scheduled)) {
+                insert(scheduled, this.currentTick + 1);
+            }
+            scheduled = this.pending.poll();
+        }
+
+        final List<String> due = new ArrayList<>();
+        final long targetTick = nowInMillis / this.tickInMillis;
+        while (this.currentTick < targetTick) {
+            this.currentTick++;
+            cascade();
+
+            final int slot = (int) (this.currentTick & SLOT_MASK);
+            final List<Deadline> entries = this.wheels[0][slot];
+            if (entries.isEmpty()) {
+                continue;
+            }
+            this.wheels[0][slot] = new ArrayList<>();
+            for (final Deadline deadline : entries) {
+                if (!isCurrent(deadline)) {
+                    continue;
+                }
+                if (deadline.tick > this.currentTick) {
+                    insert(deadline, this.currentTick);
+                } else if (this.deadlines.remove(deadline.ticketId, deadline)) {
+                    due.add(deadline.ticketId);
+                }
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Spread the slots of the upper levels that cover the block the wheel just moved into over the levels below.
+     * Upper levels go first, so that their tickets can cascade further down within the same tick.
+     */
+    private void cascade() {
+        if ((this.currentTick & ((1L << (SLOT_BITS * LEVELS)) - 1)) == 0 && !this.overflow.isEmpty()) {
+            final List<Deadline> parked = this.overflow;
+            this.overflow = new ArrayList<>();
+            reinsert(parked);
+        }
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = SLOT_BITS * level;
+            if ((this.currentTick & ((1L << shift) - 1)) != 0) {
+                continue;
+            }
+            final int slot = (int) ((this.currentTick >>> shift) & SLOT_MASK);
+            final List<Deadline> entries = this.wheels[level][slot];
+            if (!entries.isEmpty()) {
+                this.wheels[level][slot] = new ArrayList<>();
+                reinsert(entries);
+            }
+        }
+    }
+
+    /**
+     * Insert the entries that are still current again.
+     *
+     * @param entries the entries
+     */
+    private void reinsert(final List<Deadline> entries) {
+        for (final Deadline deadline : entries) {
+            if (isCurrent(deadline)) {
+                insert(deadline, this.currentTick);
+            }
+        }
+    }
+
+    /**
+     * Place the deadline on the lowest level whose current block contains it. Deadlines earlier than
+     * the earliest tick are placed at that tick.
+     *
+     * @param deadline the deadline
+     * @param earliestTick the earliest tick the deadline can be placed at
+     */
+    private void insert(final Deadline deadline, final long earliestTick) {
+        final long tick = Math.max(deadline.tick, earliestTick);
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = SLOT_BITS * (level + 1);
+            if ((tick >>> shift) == (this.currentTick >>> shift)) {
+                this.wheels[level][(int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK)].add(deadline);
+                return;
+            }
+        }
+        this.overflow.add(deadline);
+    }
+
+    /**
+     * Whether the entry is still the deadline of its ticket, i.e. it was neither superseded nor cancelled.
+     *
+     * @param deadline the entry
+     * @return true if current
+     */
+    private boolean isCurrent(final Deadline deadline) {
+        return this.deadlines.get(deadline.ticketId) == deadline;
+    }
+
+    /**
+     * A ticket id, along with the tick at which it comes due.
+     */
+    private static final class Deadline {
+        private final String ticketId;
+        private final long tick;
+
+        Deadline(final String ticketId, final long tick) {
+            this.ticketId = ticketId;
+            this.tick = tick;
+        }
+    }
+}
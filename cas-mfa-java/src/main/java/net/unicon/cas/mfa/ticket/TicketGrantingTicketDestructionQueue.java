@@ -0,0 +1,301 @@
+package net.unicon.cas.mfa.ticket;
+
+import com.codahale.metrics.annotation.Gauge;
+import net.unicon.cas.addons.authentication.AuthenticationSupport;
+import net.unicon.cas.addons.authentication.CachingAuthenticationSupport;
+import org.jasig.cas.CentralAuthenticationService;
+import net.unicon.cas.mfa.ticket.registry.BatchWritingTicketRegistry;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractDistributedTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Destroys superseded ticket granting tickets off the request thread.
+ *
+ * <p>When a ticket granting ticket is queued, it is marked as expired and written back to the registry right away,
+ * so that it can no longer be used to grant service tickets, on this node or any other. Single logout notifications
+ * and the removal of the ticket from the registry are then carried out by a background worker that drains the queue
+ * in batches. Each batch is removed with one grouped write if the registry is a {@link BatchWritingTicketRegistry},
+ * and one ticket at a time otherwise. When asynchronous destruction
+ * is turned off, the ticket is destroyed inline through the {@link CentralAuthenticationService}, as it would have
+ * been without this component. When the queue is full, the ticket is destroyed on the calling thread.</p>
+ *
+ * <p>The central authentication service is the mfa aware one, which lives in the servlet context and is handed to
+ * the queue from there. Since it also implements {@link TicketGrantingTicketIndex}, the tickets destroyed in batches
+ * are removed from the indexes it keeps, the same way they would be if it had destroyed them itself. Until it is
+ * set, tickets are destroyed inline by the queue.</p>
+ *
+ * <p>Tickets that are still pending when the application context shuts down are drained before
+ * the worker exits.</p>
+ */
+public final class TicketGrantingTicketDestructionQueue implements InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketGrantingTicketDestructionQueue.class);
+
+    private static final long POLL_INTERVAL_MILLIS = 500;
+
+    /** The central authentication service used for inline destruction, set once the servlet context is up. */
+    private volatile CentralAuthenticationService centralAuthenticationService;
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    private final BlockingQueue<PendingDestruction> queue;
+
+    private final AtomicLong lastLagInMillis = new AtomicLong();
+
+    private final AtomicLong destroyedCount = new AtomicLong();
+
+    private boolean asynchronous = true;
+
+    @Min(1)
+    private int batchSize = 100;
+
+    private long shutdownTimeoutInMillis = TimeUnit.SECONDS.toMillis(10);
+
+    private volatile boolean running;
+
+    private Thread worker;
+
+    /** The authentication support used by the login flow, told about queued tickets if it caches them. Optional. */
+    private AuthenticationSupport authenticationSupport;
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the ticket registry
+     * @param capacity the maximum number of tickets pending destruction
+     */
+    public TicketGrantingTicketDestructionQueue(final TicketRegistry ticketRegistry, final int capacity) {
+        this.ticketRegistry = ticketRegistry;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!this.asynchronous) {
+            return;
+        }
+        this.running = true;
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "tgt-destruction-queue");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Stop accepting tickets, and wait for the worker to drain whatever is still pending.
+     * Tickets that could not be drained in time are destroyed on the calling thread.
+     *
+     * @throws Exception if the worker cannot be joined
+     */
+    @Override
+    public void destroy() throws Exception {
+        if (this.worker == null) {
+            return;
+        }
+        this.running = false;
+        this.worker.join(this.shutdownTimeoutInMillis);
+
+        final List<PendingDestruction> remaining = new ArrayList<>();
+        this.queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            LOGGER.info("Destroying {} pending ticket granting ticket(s) on shutdown", remaining.size());
+            destroyBatch(remaining);
+        }
+    }
+
+    /**
+     * Destroy the ticket granting ticket. The ticket is expired immediately, and its destruction
+     * is queued. If the queue is full, the ticket is destroyed on the calling thread.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    public void enqueue(final String ticketGrantingTicketId) {
+        if (this.authenticationSupport instanceof CachingAuthenticationSupport) {
+            ((CachingAuthenticationSupport) this.authenticationSupport).invalidate(ticketGrantingTicketId);
+        }
+        final CentralAuthenticationService cas = this.centralAuthenticationService;
+        if (!this.running && cas != null) {
+            cas.destroyTicketGrantingTicket(ticketGrantingTicketId);
+            return;
+        }
+
+        final TicketGrantingTicket ticket = (TicketGrantingTicket)
+                this.ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+        if (ticket == null) {
+            LOGGER.debug("Ticket granting ticket [{}] is no longer in the registry", ticketGrantingTicketId);
+            return;
+        }
+        if (!this.running) {
+            destroyBatch(Collections.singletonList(new PendingDestruction(ticket)));
+            return;
+        }
+
+        ticket.markTicketExpired();
+        if (!(this.ticketRegistry instanceof AbstractDistributedTicketRegistry)) {
+            // distributed registries hand out proxies that write the change back themselves.
+            this.ticketRegistry.addTicket(ticket);
+        }
+        final PendingDestruction pending = new PendingDestruction(ticket);
+        if (!this.queue.offer(pending)) {
+            LOGGER.warn("Destruction queue is full; destroying ticket granting ticket [{}] inline", ticketGrantingTicketId);
+            destroyBatch(Collections.singletonList(pending));
+        }
+    }
+
+    /**
+     * Worker loop. Blocks for the next ticket, then takes whatever else is pending up to the batch size.
+     */
+    private void drain() {
+        final List<PendingDestruction> batch = new ArrayList<>(this.batchSize);
+        while (this.running || !this.queue.isEmpty()) {
+            try {
+                final PendingDestruction head = this.queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (head != null) {
+                    batch.add(head);
+                    this.queue.drainTo(batch, this.batchSize - 1);
+                    destroyBatch(batch);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Exception e) {
+                LOGGER.error("Unable to destroy batch of ticket granting tickets", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Expire every ticket in the batch, which logs it out of the services it granted the same way the central
+     * authentication service does, and then remove the batch from the registry, with one grouped write if the
+     * registry supports it, and from the indexes of the central authentication service.
+     *
+     * @param batch the batch
+     */
+    private void destroyBatch(final List<PendingDestruction> batch) {
+        for (final PendingDestruction pending : batch) {
+            try {
+                pending.getTicket().expire();
+            } catch (final Exception e) {
+                LOGGER.warn("Single logout for ticket granting ticket [{}] failed", pending.getTicket().getId(), e);
+            }
+        }
+
+        final List<String> ticketIds = new ArrayList<>(batch.size());
+        for (final PendingDestruction pending : batch) {
+            ticketIds.add(pending.getTicket().getId());
+        }
+        if (this.ticketRegistry instanceof BatchWritingTicketRegistry) {
+            ((BatchWritingTicketRegistry) this.ticketRegistry).writeTickets(Collections.<Ticket>emptyList(), ticketIds);
+        } else {
+            for (final String ticketId : ticketIds) {
+                this.ticketRegistry.deleteTicket(ticketId);
+            }
+        }
+        final CentralAuthenticationService cas = this.centralAuthenticationService;
+        if (cas instanceof TicketGrantingTicketIndex) {
+            for (final String ticketId : ticketIds) {
+                ((TicketGrantingTicketIndex) cas).remove(ticketId);
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        for (final PendingDestruction pending : batch) {
+            this.lastLagInMillis.set(now - pending.getQueuedAt());
+        }
+        this.destroyedCount.addAndGet(batch.size());
+        LOGGER.debug("Destroyed batch of {} ticket granting ticket(s)", batch.size());
+    }
+
+    @Gauge(name = "TGT_DESTRUCTION_QUEUE_DEPTH")
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Age of the oldest ticket still waiting to be destroyed, or the lag of the last
+     * destroyed ticket if the queue is empty.
+     *
+     * @return the lag in milliseconds
+     */
+    @Gauge(name = "TGT_DESTRUCTION_QUEUE_LAG")
+    public long getLagInMillis() {
+        final PendingDestruction head = this.queue.peek();
+        if (head != null) {
+            return System.currentTimeMillis() - head.getQueuedAt();
+        }
+        return this.lastLagInMillis.get();
+    }
+
+    @Gauge(name = "TGT_DESTRUCTION_QUEUE_DESTROYED")
+    public long getDestroyedCount() {
+        return this.destroyedCount.get();
+    }
+
+    /**
+     * Set the central authentication service that destroys tickets inline, i.e. the mfa aware CAS.
+     *
+     * @param centralAuthenticationService the central authentication service
+     */
+    public void setCentralAuthenticationService(final CentralAuthenticationService centralAuthenticationService) {
+        this.centralAuthenticationService = centralAuthenticationService;
+    }
+
+    public void setAsynchronous(final boolean asynchronous) {
+        this.asynchronous = asynchronous;
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setAuthenticationSupport(final AuthenticationSupport authenticationSupport) {
+        this.authenticationSupport = authenticationSupport;
+    }
+
+    public void setShutdownTimeoutInMillis(final long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    /**
+     * A ticket granting ticket waiting to be destroyed, along with the time it was queued.
+     */
+    private static final class PendingDestruction {
+        private final TicketGrantingTicket ticket;
+        private final long queuedAt = System.currentTimeMillis();
+
+        PendingDestruction(final TicketGrantingTicket ticket) {
+            this.ticket = ticket;
+        }
+
+        TicketGrantingTicket getTicket() {
+            return this.ticket;
+        }
+
+        long getQueuedAt() {
+            return this.queuedAt;
+        }
+    }
+}
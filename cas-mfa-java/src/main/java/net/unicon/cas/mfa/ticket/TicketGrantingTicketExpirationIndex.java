@@ -0,0 +1,221 @@
+package net.unicon.cas.mfa.ticket;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Finds expired multifactor ticket granting tickets without scanning the ticket registry.
+ *
+ * <p>Tickets are indexed in a {@link TicketExpirationWheel} when they are created, at the time they would expire
+ * if they were never used again, i.e. after the time to kill of the ticket granting ticket expiration policy.
+ * Each use of a ticket moves it further out, the same way a sliding expiration policy does. A background worker
+ * advances the wheel once per tick, and only looks at the tickets whose deadline has come due: expired tickets
+ * are handed to the {@link TicketGrantingTicketDestructionQueue}, while tickets the expiration policy still
+ * considers valid are checked again after another time to kill.</p>
+ *
+ * <p>The registry cleaner of CAS is replaced by an {@link ExpirationIndexAwareTicketRegistryCleaner}, which skips the
+ * tickets indexed here and only cleans the others, i.e. service tickets and ticket granting tickets created by the
+ * delegate CAS. Each expired ticket is thus cleaned by exactly one of the two, and indexed tickets are destroyed,
+ * along with their single logout, within a tick of their deadline instead of at the next run of the registry
+ * cleaner.</p>
+ */
+public final class TicketGrantingTicketExpirationIndex implements TicketGrantingTicketIndex, InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketGrantingTicketExpirationIndex.class);
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    @NotNull
+    private final TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue;
+
+    private final TicketExpirationWheel wheel;
+
+    private final long tickInMillis;
+
+    @Min(1)
+    private long timeToKillInMillis = TimeUnit.HOURS.toMillis(2);
+
+    private final AtomicLong lastExpiredCount = new AtomicLong();
+
+    private final AtomicLong lastVisitedCount = new AtomicLong();
+
+    private final AtomicLong lastCleanerDurationInMillis = new AtomicLong();
+
+    private final AtomicLong expiredCount = new AtomicLong();
+
+    private ScheduledExecutorService cleaner;
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the ticket registry
+     * @param ticketGrantingTicketDestructionQueue the queue that destroys the expired tickets
+     * @param tickInMillis how often the index is checked for expired tickets
+     */
+    public TicketGrantingTicketExpirationIndex(final TicketRegistry ticketRegistry,
+                                               final TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue,
+                                               final long tickInMillis) {
+        this.ticketRegistry = ticketRegistry;
+        this.ticketGrantingTicketDestructionQueue = ticketGrantingTicketDestructionQueue;
+        this.tickInMillis = tickInMillis;
+        this.wheel = new TicketExpirationWheel(tickInMillis, System.currentTimeMillis());
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.cleaner = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "tgt-expiration-index");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.cleaner.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    clean(System.currentTimeMillis());
+                } catch (final Exception e) {
+                    LOGGER.error("Unable to clean expired ticket granting tickets", e);
+                }
+            }
+        }, this.tickInMillis, this.tickInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.cleaner != null) {
+            this.cleaner.shutdownNow();
+        }
+    }
+
+    /**
+     * Index a newly created ticket granting ticket.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    public void track(final String ticketGrantingTicketId) {
+        this.wheel.schedule(ticketGrantingTicketId, System.currentTimeMillis() + this.timeToKillInMillis);
+    }
+
+    /**
+     * Record the use of a ticket granting ticket, which pushes its deadline out.
+     * Tickets that are not indexed are ignored.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    public void touch(final String ticketGrantingTicketId) {
+        if (this.wheel.isScheduled(ticketGrantingTicketId)) {
+            track(ticketGrantingTicketId);
+        }
+    }
+
+    /**
+     * Remove a destroyed ticket granting ticket from the index.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    public void untrack(final String ticketGrantingTicketId) {
+        this.wheel.cancel(ticketGrantingTicketId);
+    }
+
+    /**
+     * Whether the ticket granting ticket is indexed, i.e. whether the index looks after its expiration.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     * @return true if the ticket is indexed
+     */
+    public boolean isTracked(final String ticketGrantingTicketId) {
+        return this.wheel.isScheduled(ticketGrantingTicketId);
+    }
+
+    @Override
+    public void index(final TicketGrantingTicket ticketGrantingTicket) {
+        track(ticketGrantingTicket.getId());
+    }
+
+    @Override
+    public void remove(final String ticketGrantingTicketId) {
+        untrack(ticketGrantingTicketId);
+    }
+
+    /**
+     * Advance the index to the given time, and destroy the tickets that came due and have expired.
+     *
+     * @param nowInMillis the current time
+     * @return the number of expired tickets
+     */
+    int clean(final long nowInMillis) {
+        final long start = System.currentTimeMillis();
+        final List<String> due = this.wheel.advance(nowInMillis);
+
+        int expired = 0;
+        for (final String ticketGrantingTicketId : due) {
+            final TicketGrantingTicket ticket = (TicketGrantingTicket)
+                    this.ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+            if (ticket == null) {
+                continue;
+            }
+            if (ticket.isExpired()) {
+                this.ticketGrantingTicketDestructionQueue.enqueue(ticketGrantingTicketId);
+                expired++;
+            } else {
+                this.wheel.schedule(ticketGrantingTicketId, nowInMillis + this.timeToKillInMillis);
+            }
+        }
+
+        this.lastVisitedCount.set(due.size());
+        this.lastExpiredCount.set(expired);
+        this.expiredCount.addAndGet(expired);
+        this.lastCleanerDurationInMillis.set(System.currentTimeMillis() - start);
+        if (expired > 0) {
+            LOGGER.debug("Expired {} of {} ticket granting ticket(s) that came due", expired, due.size());
+        }
+        return expired;
+    }
+
+    @Gauge(name = "TGT_EXPIRATION_INDEX_SIZE")
+    public int getSize() {
+        return this.wheel.size();
+    }
+
+    @Gauge(name = "TGT_EXPIRATION_INDEX_EXPIRED_PER_TICK")
+    public long getLastExpiredCount() {
+        return this.lastExpiredCount.get();
+    }
+
+    @Gauge(name = "TGT_EXPIRATION_INDEX_VISITED_PER_TICK")
+    public long getLastVisitedCount() {
+        return this.lastVisitedCount.get();
+    }
+
+    @Gauge(name = "TGT_EXPIRATION_INDEX_CLEANER_DURATION")
+    public long getLastCleanerDurationInMillis() {
+        return this.lastCleanerDurationInMillis.get();
+    }
+
+    @Gauge(name = "TGT_EXPIRATION_INDEX_EXPIRED")
+    public long getExpiredCount() {
+        return this.expiredCount.get();
+    }
+
+    public void setTimeToKillInSeconds(final long timeToKillInSeconds) {
+        this.timeToKillInMillis = TimeUnit.SECONDS.toMillis(timeToKillInSeconds);
+    }
+}
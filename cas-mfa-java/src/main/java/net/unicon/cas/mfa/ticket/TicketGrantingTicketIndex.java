@@ -0,0 +1,25 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+/**
+ * An index kept next to the ticket registry over some of its ticket granting tickets. Components that add
+ * ticket granting tickets to the registry, or remove them from it, without going through the mfa aware CAS
+ * use it to keep the index in step with the registry.
+ */
+public interface TicketGrantingTicketIndex {
+
+    /**
+     * Index a ticket granting ticket that was put into the registry.
+     *
+     * @param ticketGrantingTicket the ticket granting ticket
+     */
+    void index(TicketGrantingTicket ticketGrantingTicket);
+
+    /**
+     * Remove a ticket granting ticket that was removed from the registry. Tickets that are not indexed are ignored.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    void remove(String ticketGrantingTicketId);
+}
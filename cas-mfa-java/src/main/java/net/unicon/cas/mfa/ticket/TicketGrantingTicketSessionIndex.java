@@ -0,0 +1,295 @@
+package net.unicon.cas.mfa.ticket;
+
+import com.codahale.metrics.annotation.Gauge;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Secondary indexes over the ticket granting tickets created by the mfa aware CAS: from principal id to the
+ * tickets of the principal, and from authentication method to the tickets whose authentication satisfied it.
+ *
+ * <p>Tickets are indexed when they are created and again when they are upgraded. They are removed when they are
+ * destroyed through the mfa aware CAS or the destruction queue, which the expiration index and the registry cleaner
+ * hand expired tickets to.
+ * Tickets may still leave the registry some other way, e.g. when the stock CAS destroys them on logout; lookups
+ * therefore check the tickets they return against the registry, and drop from the index the ones that are gone or
+ * expired. Lookups only ever touch the tickets of the principal or method they are asked for, regardless of the size
+ * of the registry.</p>
+ *
+ * <p>Tickets of principals that are never looked up again would stay in the index, so a background worker sweeps the
+ * whole index once per sweep interval, and drops the tickets that are gone from the registry or expired.</p>
+ */
+public final class TicketGrantingTicketSessionIndex implements TicketGrantingTicketIndex, InitializingBean, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketGrantingTicketSessionIndex.class);
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    @Min(1)
+    private long sweepIntervalInMillis = TimeUnit.MINUTES.toMillis(5);
+
+    private final AtomicLong lastSweptCount = new AtomicLong();
+
+    private ScheduledExecutorService sweeper;
+
+    private final ConcurrentMap<String, Set<String>> ticketsByPrincipal = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Set<String>> ticketsByMethod = new ConcurrentHashMap<>();
+
+    /** What each ticket is indexed under, so that it can be removed. */
+    private final ConcurrentMap<String, IndexedSession> sessions = new ConcurrentHashMap<>();
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the ticket registry the indexed tickets live in
+     */
+    public TicketGrantingTicketSessionIndex(final TicketRegistry ticketRegistry) {
+        this.ticketRegistry = ticketRegistry;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable r) {
+                final Thread thread = new Thread(r, "tgt-session-index-sweeper");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.sweeper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    sweep();
+                } catch (final Exception e) {
+                    LOGGER.error("Unable to sweep the ticket granting ticket session index", e);
+                }
+            }
+        }, this.sweepIntervalInMillis, this.sweepIntervalInMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        if (this.sweeper != null) {
+            this.sweeper.shutdownNow();
+        }
+    }
+
+    /**
+     * Index the ticket under the principal and satisfied authentication methods of its authentication.
+     * Indexing a ticket again adds the methods it satisfied since.
+     *
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     * @param authentication the authentication of the ticket
+     */
+    public void index(final String ticketGrantingTicketId, final Authentication authentication) {
+        final String principalId = authentication.getPrincipal().getId();
+        final Set<String> methods = MultiFactorUtils.getSatisfiedAuthenticationMethods(authentication);
+
+        final IndexedSession previous = this.sessions.put(ticketGrantingTicketId, new IndexedSession(principalId, methods));
+        if (previous != null && !previous.principalId.equals(principalId)) {
+            removeFrom(this.ticketsByPrincipal, previous.principalId, ticketGrantingTicketId);
+        }
+        addTo(this.ticketsByPrincipal, principalId, ticketGrantingTicketId);
+        for (final String method : methods) {
+            addTo(this.ticketsByMethod, method, ticketGrantingTicketId);
+        }
+        if (previous != null) {
+            for (final String method : previous.methods) {
+                if (!methods.contains(method)) {
+                    removeFrom(this.ticketsByMethod, method, ticketGrantingTicketId);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void index(final TicketGrantingTicket ticketGrantingTicket) {
+        index(ticketGrantingTicket.getId(), ticketGrantingTicket.getAuthentication());
+    }
+
+    @Override
+    public void remove(final String ticketGrantingTicketId) {
+        final IndexedSession session = this.sessions.remove(ticketGrantingTicketId);
+        if (session == null) {
+            return;
+        }
+        removeFrom(this.ticketsByPrincipal, session.principalId, ticketGrantingTicketId);
+        for (final String method : session.methods) {
+            removeFrom(this.ticketsByMethod, method, ticketGrantingTicketId);
+        }
+    }
+
+    /**
+     * The live tickets of the principal.
+     *
+     * @param principalId the principal id
+     * @return the ticket granting ticket ids
+     */
+    public Set<String> getTicketGrantingTicketIds(final String principalId) {
+        return collectLiveTickets(this.ticketsByPrincipal.get(principalId));
+    }
+
+    /**
+     * The live tickets whose authentication satisfied the method.
+     *
+     * @param authenticationMethod the authentication method
+     * @return the ticket granting ticket ids
+     */
+    public Set<String> getTicketGrantingTicketIdsSatisfying(final String authenticationMethod) {
+        return collectLiveTickets(this.ticketsByMethod.get(authenticationMethod));
+    }
+
+    /**
+     * Number of live tickets whose authentication satisfied the method.
+     *
+     * @param authenticationMethod the authentication method
+     * @return the number of sessions
+     */
+    public int countSessionsSatisfying(final String authenticationMethod) {
+        return getTicketGrantingTicketIdsSatisfying(authenticationMethod).size();
+    }
+
+    /**
+     * Drop every indexed ticket that is gone from the registry or expired.
+     *
+     * @return the number of tickets dropped
+     */
+    int sweep() {
+        int swept = 0;
+        for (final String ticketGrantingTicketId : this.sessions.keySet()) {
+            final TicketGrantingTicket ticket = (TicketGrantingTicket)
+                    this.ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+            if (ticket == null || ticket.isExpired()) {
+                remove(ticketGrantingTicketId);
+                swept++;
+            }
+        }
+        this.lastSweptCount.set(swept);
+        if (swept > 0) {
+            LOGGER.debug("Swept {} dead ticket granting ticket(s) from the session index", swept);
+        }
+        return swept;
+    }
+
+    @Gauge(name = "TGT_SESSION_INDEX_TICKETS")
+    public int getIndexedTicketCount() {
+        return this.sessions.size();
+    }
+
+    @Gauge(name = "TGT_SESSION_INDEX_PRINCIPALS")
+    public int getIndexedPrincipalCount() {
+        return this.ticketsByPrincipal.size();
+    }
+
+    @Gauge(name = "TGT_SESSION_INDEX_SWEPT")
+    public long getLastSweptCount() {
+        return this.lastSweptCount.get();
+    }
+
+    public void setSweepIntervalInSeconds(final long sweepIntervalInSeconds) {
+        this.sweepIntervalInMillis = TimeUnit.SECONDS.toMillis(sweepIntervalInSeconds);
+    }
+
+    /**
+     * Copy the tickets that are still live, and drop the others from the index.
+     *
+     * @param ticketGrantingTicketIds the indexed ticket ids, may be null
+     * @return the live ticket ids
+     */
+    private Set<String> collectLiveTickets(final Set<String> ticketGrantingTicketIds) {
+        if (ticketGrantingTicketIds == null) {
+            return Collections.emptySet();
+        }
+        final Set<String> live = new HashSet<>();
+        final Iterator<String> it = ticketGrantingTicketIds.iterator();
+        while (it.hasNext()) {
+            final String ticketGrantingTicketId = it.next();
+            final TicketGrantingTicket ticket = (TicketGrantingTicket)
+                    this.ticketRegistry.getTicket(ticketGrantingTicketId, TicketGrantingTicket.class);
+            if (ticket == null || ticket.isExpired()) {
+                remove(ticketGrantingTicketId);
+            } else {
+                live.add(ticketGrantingTicketId);
+            }
+        }
+        return live;
+    }
+
+    /**
+     * Add the ticket to the set under the key. Retries when the set was discarded for being empty
+     * in the meantime, so that the ticket always ends up in the set that is in the index.
+     *
+     * @param index the index
+     * @param key the key
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    private static void addTo(final ConcurrentMap<String, Set<String>> index, final String key,
+                              final String ticketGrantingTicketId) {
+        while (true) {
+            Set<String> ids = index.get(key);
+            if (ids == null) {
+                final Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                ids = index.putIfAbsent(key, created);
+                if (ids == null) {
+                    ids = created;
+                }
+            }
+            ids.add(ticketGrantingTicketId);
+            if (index.get(key) == ids) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove the ticket from the set under the key, and discard the set once it is empty.
+     *
+     * @param index the index
+     * @param key the key
+     * @param ticketGrantingTicketId the ticket granting ticket id
+     */
+    private static void removeFrom(final ConcurrentMap<String, Set<String>> index, final String key,
+                                   final String ticketGrantingTicketId) {
+        final Set<String> ids = index.get(key);
+        if (ids != null && ids.remove(ticketGrantingTicketId) && ids.isEmpty()) {
+            index.remove(key, ids);
+        }
+    }
+
+    /**
+     * The principal and methods a ticket is indexed under.
+     */
+    private static final class IndexedSession {
+        private final String principalId;
+        private final Set<String> methods;
+
+        IndexedSession(final String principalId, final Set<String> methods) {
+            this.principalId = principalId;
+            this.methods = methods;
+        }
+    }
+}
@@ -0,0 +1,23 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+/**
+ * A ticket registry that is able to replicate the step-up of a ticket granting ticket
+ * by only receiving the authentication appended to its chain, rather than the full ticket.
+ *
+ * @see net.unicon.cas.mfa.MultiFactorTicketGrantingTicketUpgrader
+ * @see WriteBehindTicketRegistry
+ */
+public interface AuthenticationDeltaAwareTicketRegistry {
+
+    /**
+     * Publish the authentication appended to the ticket granting ticket.
+     * Peers are expected to append the same authentication to their copy of the ticket.
+     *
+     * @param ticketGrantingTicket the ticket granting ticket, which already carries the appended authentication
+     * @param authentication the authentication that was appended to the chain
+     */
+    void publishAuthenticationDelta(TicketGrantingTicket ticketGrantingTicket, Authentication authentication);
+}
@@ -0,0 +1,23 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.Ticket;
+
+import java.util.Collection;
+
+/**
+ * A ticket registry that is able to apply several additions and deletions as one grouped write,
+ * e.g. one database transaction or one replication message.
+ *
+ * @see WriteBehindTicketRegistry
+ */
+public interface BatchWritingTicketRegistry {
+
+    /**
+     * Add or replace the given tickets, and delete the given ticket ids, as one write.
+     * A ticket id never appears in both collections.
+     *
+     * @param tickets the tickets to add or replace
+     * @param deletedTicketIds the ids of the tickets to delete
+     */
+    void writeTickets(Collection<Ticket> tickets, Collection<String> deletedTicketIds);
+}
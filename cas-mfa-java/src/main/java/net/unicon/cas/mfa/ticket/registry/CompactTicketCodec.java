@@ -0,0 +1,518 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.ticket.Ticket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidObjectException;
+import java.io.NotSerializableException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes tickets in a compact, versioned binary form, in which the multifactor authentications of the ticket
+ * and of the tickets it was granted from are written without the overhead of default java serialization.
+ *
+ * <p>The ticket graph is still written with java serialization, but every {@link DefaultCompositeAuthentication}
+ * and {@link MutablePrincipal} found in it is replaced by a compact form: the class descriptors and
+ * {@link Hashtable} internals are not written, and attribute names, principal ids and authentication methods are
+ * dictionary-coded, so that each is written once per ticket, however many authentications of the chain carry it.
+ * The dictionary is seeded with well-known attribute names and with the configured authentication methods, in
+ * order, which are then written as their ordinal alone. Attribute values that are strings, numbers, booleans, dates,
+ * lists or sets of these are written inline; other values fall back to java serialization.</p>
+ *
+ * <p>Every node that decodes a ticket must be configured with the same authentication methods, in the same order,
+ * as the node that encoded it. The encoded ticket starts with the version of the encoding and a fingerprint of
+ * the dictionary, and data written by another version or with another dictionary is rejected. Tickets encoded by
+ * {@link SerializationTicketCodec} are recognized and decoded as they are, so that a registry can switch codecs
+ * without losing the tickets it holds.</p>
+ *
+ * <p>Restored authentications and principals keep their attributes in a {@link Hashtable}, like they do when they
+ * are created, and attributes with a null value are dropped.</p>
+ */
+public final class CompactTicketCodec implements TicketCodec {
+
+    /** Version of the encoding. */
+    static final int VERSION = 1;
+
+    /** Length of the version and the dictionary fingerprint that start every encoded ticket. */
+    private static final int HEADER_LENGTH = 5;
+
+    /** First byte of a java serialization stream. */
+    private static final byte JAVA_SERIALIZATION_MAGIC = (byte) 0xAC;
+
+    private static final List<String> WELL_KNOWN_NAMES = Collections.unmodifiableList(Arrays.asList(
+            MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD,
+            "successfulAuthenticationHandlers",
+            "authenticationMethod",
+            "credentialType",
+            "samlAuthenticationStatementAuthMethod",
+            "longTermAuthenticationRequestTokenUsed"));
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_NAME = 2;
+    private static final int TAG_TRUE = 3;
+    private static final int TAG_FALSE = 4;
+    private static final int TAG_INTEGER = 5;
+    private static final int TAG_LONG = 6;
+    private static final int TAG_DATE = 7;
+    private static final int TAG_LIST = 8;
+    private static final int TAG_SET = 9;
+    private static final int TAG_OBJECT = 10;
+
+    /** Longest string that is sure to fit in {@link java.io.DataOutput#writeUTF(String)}. */
+    private static final int MAX_INLINE_STRING_LENGTH = 65535 / 3;
+
+    private final List<String> dictionary;
+
+    private final Map<String, Integer> ordinals = new HashMap<>();
+
+    private final int fingerprint;
+
+    private final SerializationTicketCodec serializationTicketCodec = new SerializationTicketCodec();
+
+    /**
+     * Instantiates a new codec, whose dictionary holds the well-known attribute names only.
+     */
+    public CompactTicketCodec() {
+        this(Collections.<String>emptyList());
+    }
+
+    /**
+     * Instantiates a new codec.
+     *
+     * @param authenticationMethods the configured authentication methods, in an order that is the same on every node
+     */
+    public CompactTicketCodec(final List<String> authenticationMethods) {
+        final List<String> names = new ArrayList<>(WELL_KNOWN_NAMES);
+        for (final String method : authenticationMethods) {
+            if (!names.contains(method)) {
+                names.add(method);
+            }
+        }
+        this.dictionary = Collections.unmodifiableList(names);
+
+        final CRC32 crc = new CRC32();
+        for (int i = 0; i < names.size(); i++) {
+            this.ordinals.put(names.get(i), i);
+            crc.update(names.get(i).getBytes(StandardCharsets.UTF_8));
+            crc.update(0);
+        }
+        this.fingerprint = (int) crc.getValue();
+    }
+
+    @Override
+    public byte[] encode(final Ticket ticket) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        bytes.write(VERSION);
+        bytes.write(this.fingerprint >>> 24);
+        bytes.write(this.fingerprint >>> 16);
+        bytes.write(this.fingerprint >>> 8);
+        bytes.write(this.fingerprint);
+        try (final CodecOutputStream out = new CodecOutputStream(bytes)) {
+            out.writeObject(ticket);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Ticket decode(final byte[] data) throws IOException {
+        if (data.length > 0 && data[0] == JAVA_SERIALIZATION_MAGIC) {
+            return this.serializationTicketCodec.decode(data);
+        }
+        if (data.length < HEADER_LENGTH) {
+            throw new EOFException("Encoded ticket is truncated");
+        }
+        if (data[0] != VERSION) {
+            throw new StreamCorruptedException("Unsupported ticket encoding version " + data[0]);
+        }
+        final int encodedFingerprint = (data[1] & 0xFF) << 24 | (data[2] & 0xFF) << 16 | (data[3] & 0xFF) << 8 | data[4] & 0xFF;
+        if (encodedFingerprint != this.fingerprint) {
+            throw new StreamCorruptedException("Ticket was encoded with another dictionary of authentication methods");
+        }
+        try (final CodecInputStream in = new CodecInputStream(
+                new ByteArrayInputStream(data, HEADER_LENGTH, data.length - HEADER_LENGTH))) {
+            return (Ticket) in.readObject();
+        } catch (final ClassNotFoundException e) {
+            final InvalidObjectException ex = new InvalidObjectException("Unknown class in encoded ticket: " + e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+
+    /**
+     * Object stream that replaces the multifactor authentication types with their compact form, and holds
+     * the dictionary of the ticket being encoded.
+     */
+    private final class CodecOutputStream extends ObjectOutputStream {
+
+        private final Map<String, Integer> names = new HashMap<>(ordinals);
+
+        /**
+         * Instantiates a new stream.
+         *
+         * @param out the stream to write to
+         * @throws IOException if the stream cannot be created
+         */
+        CodecOutputStream(final OutputStream out) throws IOException {
+            super(out);
+            enableReplaceObject(true);
+        }
+
+        /**
+         * The stream header is left out; the version of the encoding is written ahead of the stream instead.
+         */
+        @Override
+        protected void writeStreamHeader() {
+            // nothing to write
+        }
+
+        @Override
+        protected Object replaceObject(final Object obj) {
+            if (obj instanceof DefaultCompositeAuthentication || obj != null && obj.getClass() == MutablePrincipal.class) {
+                return new CompactForm(obj);
+            }
+            return obj;
+        }
+
+        /**
+         * Write the name as its position in the dictionary, or write it in full and add it to the dictionary.
+         *
+         * @param name the name
+         * @throws IOException if the name cannot be written
+         */
+        void writeName(final String name) throws IOException {
+            final Integer ordinal = this.names.get(name);
+            if (ordinal != null) {
+                writeVarInt(ordinal + 1);
+                return;
+            }
+            writeVarInt(0);
+            writeUTF(name);
+            this.names.put(name, this.names.size());
+        }
+
+        /**
+         * Write a non-negative integer in as few bytes as it takes, seven bits at a time.
+         *
+         * @param value the value
+         * @throws IOException if the value cannot be written
+         */
+        void writeVarInt(final int value) throws IOException {
+            int remaining = value;
+            while ((remaining & ~0x7F) != 0) {
+                write(remaining & 0x7F | 0x80);
+                remaining >>>= 7;
+            }
+            write(remaining);
+        }
+
+        /**
+         * Write the attributes. The attributes are copied while holding their monitor first, so that an authentication
+         * that is upgraded while it is encoded is written either before or after the upgrade.
+         *
+         * @param attributes the attributes
+         * @throws IOException if the attributes cannot be written
+         */
+        void writeAttributes(final Map<String, Object> attributes) throws IOException {
+            final Map<String, Object> copy;
+            synchronized (attributes) {
+                copy = new LinkedHashMap<>(attributes);
+            }
+            writeVarInt(copy.size());
+            for (final Map.Entry<String, Object> entry : copy.entrySet()) {
+                writeName(entry.getKey());
+                writeValue(entry.getValue(),
+                        MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD.equals(entry.getKey()));
+            }
+        }
+
+        /**
+         * Write the attribute value. Strings that are authentication methods, or that are already in the
+         * dictionary, are dictionary-coded.
+         *
+         * @param value the value
+         * @param authenticationMethod whether the value is that of the authentication method attribute
+         * @throws IOException if the value cannot be written
+         */
+        private void writeValue(final Object value, final boolean authenticationMethod) throws IOException {
+            if (value == null) {
+                write(TAG_NULL);
+            } else if (value instanceof String) {
+                final String string = (String) value;
+                if (authenticationMethod || this.names.containsKey(string)) {
+                    write(TAG_NAME);
+                    writeName(string);
+                } else if (string.length() <= MAX_INLINE_STRING_LENGTH) {
+                    write(TAG_STRING);
+                    writeUTF(string);
+                } else {
+                    write(TAG_OBJECT);
+                    writeObject(string);
+                }
+            } else if (value instanceof Boolean) {
+                write((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Integer) {
+                write(TAG_INTEGER);
+                writeInt((Integer) value);
+            } else if (value instanceof Long) {
+                write(TAG_LONG);
+                writeLong((Long) value);
+            } else if (value.getClass() == Date.class) {
+                write(TAG_DATE);
+                writeLong(((Date) value).getTime());
+            } else if (value.getClass() == ArrayList.class || value.getClass() == HashSet.class) {
+                final Collection<?> values = (Collection<?>) value;
+                write(value instanceof ArrayList ? TAG_LIST : TAG_SET);
+                writeVarInt(values.size());
+                for (final Object element : values) {
+                    writeValue(element, authenticationMethod);
+                }
+            } else {
+                write(TAG_OBJECT);
+                writeObject(value);
+            }
+        }
+    }
+
+    /**
+     * Object stream that reads what {@link CodecOutputStream} writes.
+     */
+    private final class CodecInputStream extends ObjectInputStream {
+
+        private final List<String> names = new ArrayList<>(dictionary);
+
+        /**
+         * Instantiates a new stream.
+         *
+         * @param in the stream to read from
+         * @throws IOException if the stream cannot be created
+         */
+        CodecInputStream(final InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected void readStreamHeader() {
+            // the stream header is left out by CodecOutputStream
+        }
+
+        /**
+         * Read a name written by {@link CodecOutputStream#writeName(String)}.
+         *
+         * @return the name
+         * @throws IOException if the name cannot be read
+         */
+        String readName() throws IOException {
+            final int reference = readVarInt();
+            if (reference == 0) {
+                final String name = readUTF();
+                this.names.add(name);
+                return name;
+            }
+            if (reference > this.names.size()) {
+                throw new StreamCorruptedException("Unknown dictionary reference " + reference);
+            }
+            return this.names.get(reference - 1);
+        }
+
+        /**
+         * Read an integer written by {@link CodecOutputStream#writeVarInt(int)}.
+         *
+         * @return the value
+         * @throws IOException if the value cannot be read
+         */
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = read();
+                if (b < 0) {
+                    throw new EOFException();
+                }
+                value |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new StreamCorruptedException("Malformed variable-length integer");
+        }
+
+        /**
+         * Read attributes written by {@link CodecOutputStream#writeAttributes(Map)}.
+         *
+         * @return the attributes
+         * @throws IOException if the attributes cannot be read
+         * @throws ClassNotFoundException if the class of an attribute value cannot be found
+         */
+        Map<String, Object> readAttributes() throws IOException, ClassNotFoundException {
+            final int size = readVarInt();
+            final Map<String, Object> attributes = new Hashtable<>(Math.max(11, size * 2));
+            for (int i = 0; i < size; i++) {
+                final String name = readName();
+                final Object value = readValue();
+                if (value != null) {
+                    attributes.put(name, value);
+                }
+            }
+            return attributes;
+        }
+
+        /**
+         * Read an attribute value.
+         *
+         * @return the value
+         * @throws IOException if the value cannot be read
+         * @throws ClassNotFoundException if the class of the value cannot be found
+         */
+        private Object readValue() throws IOException, ClassNotFoundException {
+            final int tag = read();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return readUTF();
+                case TAG_NAME:
+                    return readName();
+                case TAG_TRUE:
+                    return Boolean.TRUE;
+                case TAG_FALSE:
+                    return Boolean.FALSE;
+                case TAG_INTEGER:
+                    return readInt();
+                case TAG_LONG:
+                    return readLong();
+                case TAG_DATE:
+                    return new Date(readLong());
+                case TAG_LIST:
+                    return readValues(new ArrayList<>());
+                case TAG_SET:
+                    return readValues(new HashSet<>());
+                case TAG_OBJECT:
+                    return readObject();
+                default:
+                    throw new StreamCorruptedException("Unknown attribute value tag " + tag);
+            }
+        }
+
+        /**
+         * Read the values of a list or set of attribute values.
+         *
+         * @param values the collection to read the values into
+         * @return the collection
+         * @throws IOException if the values cannot be read
+         * @throws ClassNotFoundException if the class of a value cannot be found
+         */
+        private Collection<Object> readValues(final Collection<Object> values) throws IOException, ClassNotFoundException {
+            final int size = readVarInt();
+            for (int i = 0; i < size; i++) {
+                values.add(readValue());
+            }
+            return values;
+        }
+    }
+
+    /**
+     * Compact form of a {@link DefaultCompositeAuthentication} or a {@link MutablePrincipal}, which stands in for it
+     * in the encoded ticket and is resolved back to it when the ticket is decoded. It can only be written and read
+     * by this codec.
+     */
+    public static final class CompactForm implements Externalizable {
+
+        private static final long serialVersionUID = -4476281745262135981L;
+
+        private static final int AUTHENTICATION = 1;
+
+        private static final int PRINCIPAL = 2;
+
+        private Object value;
+
+        /**
+         * Instantiates an empty form, to be read from an encoded ticket.
+         */
+        public CompactForm() {
+        }
+
+        /**
+         * Instantiates a form that stands in for the given authentication or principal.
+         *
+         * @param value the authentication or principal
+         */
+        private CompactForm(final Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public void writeExternal(final ObjectOutput out) throws IOException {
+            if (!(out instanceof CodecOutputStream)) {
+                throw new NotSerializableException(CompactForm.class.getName());
+            }
+            final CodecOutputStream stream = (CodecOutputStream) out;
+            if (this.value instanceof DefaultCompositeAuthentication) {
+                final DefaultCompositeAuthentication authentication = (DefaultCompositeAuthentication) this.value;
+                stream.write(AUTHENTICATION);
+                stream.writeObject(authentication.getPrincipal());
+                stream.writeLong(authentication.getAuthenticatedDate().getTime());
+                stream.writeAttributes(authentication.getAttributes());
+            } else {
+                final MutablePrincipal principal = (MutablePrincipal) this.value;
+                stream.write(PRINCIPAL);
+                stream.writeName(principal.getId());
+                stream.writeAttributes(principal.getAttributes());
+            }
+        }
+
+        @Override
+        public void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException {
+            if (!(in instanceof CodecInputStream)) {
+                throw new InvalidObjectException("Compact form can only be read by " + CompactTicketCodec.class.getName());
+            }
+            final CodecInputStream stream = (CodecInputStream) in;
+            final int kind = stream.read();
+            if (kind == AUTHENTICATION) {
+                final MutablePrincipal principal = (MutablePrincipal) stream.readObject();
+                final Date authenticationDate = new Date(stream.readLong());
+                this.value = new DefaultCompositeAuthentication(principal, stream.readAttributes(), authenticationDate);
+            } else if (kind == PRINCIPAL) {
+                final MutablePrincipal principal = new MutablePrincipal(stream.readName());
+                principal.getAttributes().putAll(stream.readAttributes());
+                this.value = principal;
+            } else {
+                throw new StreamCorruptedException("Unknown compact form " + kind);
+            }
+        }
+
+        /**
+         * Resolve the form to the authentication or principal it was read into.
+         *
+         * @return the authentication or principal
+         */
+        private Object readResolve() {
+            return this.value;
+        }
+    }
+}
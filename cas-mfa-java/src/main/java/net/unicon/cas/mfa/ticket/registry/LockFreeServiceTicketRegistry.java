@@ -0,0 +1,333 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.springframework.util.Assert;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A registry dedicated to service tickets, which are issued at a high rate, used once and
+ * expire within seconds.
+ *
+ * <p>Tickets are kept in a ring of generations, ordered by time. Each generation is an open-addressing table
+ * filled with linear probing, in which a slot is taken with a single compare-and-set and never emptied again.
+ * New tickets go to the newest generation, which is retired in favor of a fresh one after a fraction of the
+ * time to live, or once it is three quarters full. A generation is dropped as a whole once every ticket in it
+ * is older than the time to live, which must therefore be at least the time to kill of the service ticket
+ * expiration policy.</p>
+ *
+ * <p>Claiming or deleting a ticket is a single compare-and-set on its entry, with no monitor involved.
+ * A ticket that is added again, e.g. because its expiration policy allows further uses, gets a new entry
+ * in the newest generation.</p>
+ */
+public final class LockFreeServiceTicketRegistry extends AbstractTicketRegistry implements ServiceTicketClaimingTicketRegistry {
+
+    private static final int DEFAULT_CAPACITY_PER_GENERATION = 1 << 18;
+
+    private static final int DEFAULT_GENERATIONS_PER_TIME_TO_LIVE = 4;
+
+    private final int capacityPerGeneration;
+
+    private final int maxTicketsPerGeneration;
+
+    private final long timeToLiveInMillis;
+
+    private final long generationLifetimeInMillis;
+
+    private final AtomicReference<Generation[]> ring;
+
+    private final AtomicLong added = new AtomicLong();
+
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Instantiates a new registry holding service tickets for up to 10 seconds.
+     */
+    public LockFreeServiceTicketRegistry() {
+        this(TimeUnit.SECONDS.toMillis(10), DEFAULT_CAPACITY_PER_GENERATION, DEFAULT_GENERATIONS_PER_TIME_TO_LIVE);
+    }
+
+    /**
+     * Instantiates a new registry.
+     *
+     * @param timeToLiveInMillis how long tickets are kept, at least the time to kill of service tickets
+     * @param capacityPerGeneration the number of slots of each generation, rounded up to a power of two
+     * @param generationsPerTimeToLive how many generations are started within the time to live
+     */
+    public LockFreeServiceTicketRegistry(final long timeToLiveInMillis, final int capacityPerGeneration,
+                                         final int generationsPerTimeToLive) {
+        Assert.isTrue(timeToLiveInMillis > 0, "timeToLiveInMillis must be positive");
+        Assert.isTrue(capacityPerGeneration > 1, "capacityPerGeneration must be greater than one");
+        Assert.isTrue(generationsPerTimeToLive > 0, "generationsPerTimeToLive must be positive");
+
+        this.capacityPerGeneration = Integer.highestOneBit(capacityPerGeneration - 1) << 1;
+        this.maxTicketsPerGeneration = this.capacityPerGeneration / 4 * 3;
+        this.timeToLiveInMillis = timeToLiveInMillis;
+        this.generationLifetimeInMillis = Math.max(1, timeToLiveInMillis / generationsPerTimeToLive);
+        this.ring = new AtomicReference<>(new Generation[] {new Generation(this.capacityPerGeneration, System.currentTimeMillis())});
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+        Assert.isInstanceOf(ServiceTicket.class, ticket, "Only service tickets can be added to this registry");
+        logger.debug("Added ticket [{}] to registry.", ticket.getId());
+
+        final Entry entry = new Entry((ServiceTicket) ticket);
+        while (!getCurrentGeneration().insert(entry, this.maxTicketsPerGeneration)) {
+            advance(this.ring.get());
+        }
+        this.added.incrementAndGet();
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        final Entry entry = find(ticketId);
+        return entry != null ? entry.ticket : null;
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        return claimServiceTicket(ticketId) != null;
+    }
+
+    @Override
+    public ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        while (true) {
+            final Entry entry = find(serviceTicketId);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.claim()) {
+                this.claimed.incrementAndGet();
+                return entry.ticket;
+            }
+            // another caller claimed this entry first; look for a newer entry of the same ticket.
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Generations whose tickets are all past the time to live are dropped first.</p>
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        advanceIfDue();
+        final List<Ticket> tickets = new ArrayList<>();
+        for (final Generation generation : this.ring.get()) {
+            generation.collectUnclaimed(tickets);
+        }
+        return Collections.unmodifiableCollection(tickets);
+    }
+
+    /**
+     * Find the newest unclaimed entry of the ticket.
+     *
+     * @param ticketId the ticket id
+     * @return the entry, or null if there is none
+     */
+    private Entry find(final String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+        final Generation[] generations = this.ring.get();
+        final int hash = spread(ticketId.hashCode());
+        for (int i = generations.length - 1; i >= 0; i--) {
+            final Entry entry = generations[i].find(ticketId, hash);
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Get the generation new tickets go to, starting a new one if it is due.
+     *
+     * @return the newest generation
+     */
+    private Generation getCurrentGeneration() {
+        final Generation[] generations = advanceIfDue();
+        return generations[generations.length - 1];
+    }
+
+    /**
+     * Start a new generation if the newest one has lived long enough.
+     *
+     * @return the generations
+     */
+    private Generation[] advanceIfDue() {
+        final Generation[] generations = this.ring.get();
+        final Generation newest = generations[generations.length - 1];
+        if (System.currentTimeMillis() - newest.startedAt >= this.generationLifetimeInMillis) {
+            return advance(generations);
+        }
+        return generations;
+    }
+
+    /**
+     * Start a new generation, and drop the generations whose tickets are all past the time to live.
+     * If another caller changed the ring in the meantime, its change is kept instead.
+     *
+     * @param expected the generations this caller saw
+     * @return the generations
+     */
+    private Generation[] advance(final Generation[] expected) {
+        final long now = System.currentTimeMillis();
+        int firstLive = 0;
+        while (firstLive < expected.length - 1 && now - expected[firstLive + 1].startedAt > this.timeToLiveInMillis) {
+            firstLive++;
+        }
+        final Generation[] advanced = Arrays.copyOfRange(expected, firstLive, expected.length + 1);
+        advanced[advanced.length - 1] = new Generation(this.capacityPerGeneration, now);
+        if (this.ring.compareAndSet(expected, advanced)) {
+            return advanced;
+        }
+        return this.ring.get();
+    }
+
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    @Gauge(name = "SERVICE_TICKET_REGISTRY_GENERATIONS")
+    public int getGenerationCount() {
+        return this.ring.get().length;
+    }
+
+    /**
+     * Number of tickets added and not claimed yet, including tickets that expired without being claimed
+     * and whose generation was not dropped yet.
+     *
+     * @return the number of outstanding tickets
+     */
+    @Gauge(name = "SERVICE_TICKET_REGISTRY_OUTSTANDING")
+    public long getOutstandingTicketCount() {
+        long count = 0;
+        for (final Generation generation : this.ring.get()) {
+            count += generation.size.get() - generation.claimed.get();
+        }
+        return count;
+    }
+
+    @Gauge(name = "SERVICE_TICKET_REGISTRY_ADDED")
+    public long getAddedTicketCount() {
+        return this.added.get();
+    }
+
+    @Gauge(name = "SERVICE_TICKET_REGISTRY_CLAIMED")
+    public long getClaimedTicketCount() {
+        return this.claimed.get();
+    }
+
+    /**
+     * A service ticket, and whether it was claimed.
+     */
+    private static final class Entry {
+        private static final AtomicIntegerFieldUpdater<Entry> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Entry.class, "state");
+
+        private final String id;
+        private final ServiceTicket ticket;
+        private Generation generation;
+        private volatile int state;
+
+        Entry(final ServiceTicket ticket) {
+            this.id = ticket.getId();
+            this.ticket = ticket;
+        }
+
+        boolean isClaimed() {
+            return this.state != 0;
+        }
+
+        boolean claim() {
+            if (STATE.compareAndSet(this, 0, 1)) {
+                this.generation.claimed.incrementAndGet();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /**
+     * An open-addressing table of the entries added within a span of time.
+     */
+    private static final class Generation {
+        private final AtomicReferenceArray<Entry> slots;
+        private final int mask;
+        private final long startedAt;
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicInteger claimed = new AtomicInteger();
+
+        Generation(final int capacity, final long startedAt) {
+            this.slots = new AtomicReferenceArray<>(capacity);
+            this.mask = capacity - 1;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Insert the entry into the first free slot of its probe sequence.
+         *
+         * @param entry the entry
+         * @param maxSize the number of entries beyond which the generation takes no more entries
+         * @return false if the generation is full
+         */
+        boolean insert(final Entry entry, final int maxSize) {
+            if (this.size.incrementAndGet() > maxSize) {
+                this.size.decrementAndGet();
+                return false;
+            }
+            entry.generation = this;
+            int index = spread(entry.id.hashCode()) & this.mask;
+            while (!this.slots.compareAndSet(index, null, entry)) {
+                index = (index + 1) & this.mask;
+            }
+            return true;
+        }
+
+        /**
+         * Find the unclaimed entry of the ticket. The probe sequence ends at the first free slot.
+         *
+         * @param ticketId the ticket id
+         * @param hash the spread hash of the ticket id
+         * @return the entry, or null if there is no unclaimed entry
+         */
+        Entry find(final String ticketId, final int hash) {
+            int index = hash & this.mask;
+            for (int probes = 0; probes <= this.mask; probes++) {
+                final Entry entry = this.slots.get(index);
+                if (entry == null) {
+                    return null;
+                }
+                if (!entry.isClaimed() && entry.id.equals(ticketId)) {
+                    return entry;
+                }
+                index = (index + 1) & this.mask;
+            }
+            return null;
+        }
+
+        void collectUnclaimed(final List<Ticket> tickets) {
+            for (int i = 0; i <= this.mask; i++) {
+                final Entry entry = this.slots.get(i);
+                if (entry != null && !entry.isClaimed()) {
+                    tickets.add(entry.ticket);
+                }
+            }
+        }
+    }
+}
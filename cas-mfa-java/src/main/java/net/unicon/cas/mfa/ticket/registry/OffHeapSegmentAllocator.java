@@ -0,0 +1,201 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out fixed-size slots carved from direct byte buffers, outside of the java heap.
+ *
+ * <p>Slots come in power-of-two size classes, from {@link #MIN_SLOT_SIZE} to {@link #MAX_SLOT_SIZE} bytes,
+ * and each size class carves its slots from segments of the configured size. Freed slots are reused by the
+ * next allocation of the same size class. Segments are never returned once allocated, and no more segments
+ * are allocated once the configured limit is reached.</p>
+ *
+ * <p>An address encodes the size class and the slot number, and stays valid until it is freed.
+ * Reads and writes of distinct slots can proceed concurrently.</p>
+ */
+final class OffHeapSegmentAllocator {
+
+    /** Returned when no slot can be allocated. */
+    static final long NO_ADDRESS = -1;
+
+    /** Size of the smallest slot. */
+    static final int MIN_SLOT_SIZE = 256;
+
+    /** Size of the largest slot. */
+    static final int MAX_SLOT_SIZE = 64 * 1024;
+
+    private static final int SLOT_NUMBER_BITS = 40;
+
+    private final int segmentSize;
+
+    private final long maxReservedBytes;
+
+    private final AtomicLong reservedBytes = new AtomicLong();
+
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private final SizeClass[] sizeClasses;
+
+    /**
+     * Ctor.
+     *
+     * @param segmentSize the size of each segment, at least {@link #MAX_SLOT_SIZE} bytes
+     * @param maxReservedBytes the maximum number of bytes reserved for segments
+     */
+    OffHeapSegmentAllocator(final int segmentSize, final long maxReservedBytes) {
+        if (segmentSize < MAX_SLOT_SIZE) {
+            throw new IllegalArgumentException("Segments must be at least " + MAX_SLOT_SIZE + " bytes");
+        }
+        this.segmentSize = segmentSize;
+        this.maxReservedBytes = maxReservedBytes;
+
+        final int count = Integer.numberOfTrailingZeros(MAX_SLOT_SIZE) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE) + 1;
+        this.sizeClasses = new SizeClass[count];
+        for (int i = 0; i < count; i++) {
+            this.sizeClasses[i] = new SizeClass(MIN_SLOT_SIZE << i, segmentSize / (MIN_SLOT_SIZE << i));
+        }
+    }
+
+    /**
+     * Copy the data into a newly allocated slot.
+     *
+     * @param data the data
+     * @return the address of the slot, or {@link #NO_ADDRESS} if the data is larger than the largest slot,
+     * or the limit of reserved bytes has been reached
+     */
+    long allocate(final byte[] data) {
+        if (data.length > MAX_SLOT_SIZE) {
+            return NO_ADDRESS;
+        }
+        final int classIndex = getSizeClassIndex(data.length);
+        final SizeClass sizeClass = this.sizeClasses[classIndex];
+        final int slotNumber = sizeClass.allocate();
+        if (slotNumber < 0) {
+            return NO_ADDRESS;
+        }
+        final ByteBuffer buffer = sizeClass.locate(slotNumber);
+        buffer.put(data);
+        this.usedBytes.addAndGet(sizeClass.slotSize);
+        return ((long) classIndex << SLOT_NUMBER_BITS) | slotNumber;
+    }
+
+    /**
+     * Read the data held in the slot.
+     *
+     * @param address the address of the slot
+     * @param length the number of bytes to read
+     * @return the data
+     */
+    byte[] read(final long address, final int length) {
+        final byte[] data = new byte[length];
+        this.sizeClasses[(int) (address >>> SLOT_NUMBER_BITS)].locate((int) address).get(data);
+        return data;
+    }
+
+    /**
+     * Free the slot, so that it can be handed out again.
+     *
+     * @param address the address of the slot
+     */
+    void free(final long address) {
+        final SizeClass sizeClass = this.sizeClasses[(int) (address >>> SLOT_NUMBER_BITS)];
+        sizeClass.free((int) address);
+        this.usedBytes.addAndGet(-sizeClass.slotSize);
+    }
+
+    /**
+     * Number of bytes held by allocated slots.
+     *
+     * @return the used bytes
+     */
+    long getUsedBytes() {
+        return this.usedBytes.get();
+    }
+
+    /**
+     * Number of bytes reserved for segments.
+     *
+     * @return the reserved bytes
+     */
+    long getReservedBytes() {
+        return this.reservedBytes.get();
+    }
+
+    /**
+     * Find the smallest size class that fits the length.
+     *
+     * @param length the length
+     * @return the size class index
+     */
+    private static int getSizeClassIndex(final int length) {
+        if (length <= MIN_SLOT_SIZE) {
+            return 0;
+        }
+        return 32 - Integer.numberOfLeadingZeros(length - 1) - Integer.numberOfTrailingZeros(MIN_SLOT_SIZE);
+    }
+
+    /**
+     * Reserve the bytes of a new segment, unless the limit would be exceeded.
+     *
+     * @return true if the segment can be allocated
+     */
+    private boolean reserveSegment() {
+        if (this.reservedBytes.addAndGet(this.segmentSize) > this.maxReservedBytes) {
+            this.reservedBytes.addAndGet(-this.segmentSize);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Slots of one size, and the segments they are carved from.
+     */
+    private final class SizeClass {
+        private final int slotSize;
+        private final int slotsPerSegment;
+        private final List<ByteBuffer> segments = new CopyOnWriteArrayList<>();
+        private int[] freeSlots = new int[16];
+        private int freeCount;
+        private int nextSlot;
+
+        SizeClass(final int slotSize, final int slotsPerSegment) {
+            this.slotSize = slotSize;
+            this.slotsPerSegment = slotsPerSegment;
+        }
+
+        synchronized int allocate() {
+            if (this.freeCount > 0) {
+                return this.freeSlots[--this.freeCount];
+            }
+            if (this.nextSlot == this.segments.size() * this.slotsPerSegment) {
+                if (!reserveSegment()) {
+                    return -1;
+                }
+                this.segments.add(ByteBuffer.allocateDirect(segmentSize));
+            }
+            return this.nextSlot++;
+        }
+
+        synchronized void free(final int slotNumber) {
+            if (this.freeCount == this.freeSlots.length) {
+                this.freeSlots = Arrays.copyOf(this.freeSlots, this.freeCount * 2);
+            }
+            this.freeSlots[this.freeCount++] = slotNumber;
+        }
+
+        /**
+         * A buffer positioned at the start of the slot, and limited to its end.
+         */
+        ByteBuffer locate(final int slotNumber) {
+            final ByteBuffer buffer = this.segments.get(slotNumber / this.slotsPerSegment).duplicate();
+            final int offset = (slotNumber % this.slotsPerSegment) * this.slotSize;
+            buffer.limit(offset + this.slotSize);
+            buffer.position(offset);
+            return buffer;
+        }
+    }
+}
@@ -0,0 +1,640 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.springframework.util.Assert;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ticket registry that keeps ticket granting tickets serialized outside of the java heap, so that millions
+ * of sessions do not weigh on heap size and garbage collection pauses.
+ *
+ * <p>Ticket granting tickets are serialized into slots of direct memory segments, and an on-heap index maps
+ * each ticket id to its slot. The slot is freed when the ticket is deleted, e.g. by the registry cleaner once
+ * it expires. Tickets that are larger than the largest slot, or that arrive once the off-heap limit has been
+ * reached, are kept serialized on heap instead. Service tickets and other short-lived tickets are kept on heap
+ * as they are, and can be claimed with an atomic compare-and-set.</p>
+ *
+ * <p>Ticket granting tickets are handed out behind a proxy, so that the changes the central authentication service
+ * makes to them in place, e.g. granting a service ticket or expiring the ticket, are written back to their slot
+ * right away, whether the ticket was served from the cache or decoded for the caller alone. Such a proxy can be
+ * handed back to {@link #addTicket(Ticket)}. Recently used ticket granting tickets are cached on heap, and when
+ * the cache is full, an arbitrary entry is dropped.</p>
+ *
+ * <p>A service ticket refers to the instance of the ticket granting ticket it was granted from, and is expired along
+ * with that very instance. So that a logout reaches the service tickets that are still live, their ticket granting
+ * ticket is pinned on heap, and handed out as that instance, until the last of them leaves the registry. The pinned
+ * instance is cached as well, so that the cache does not hand out an older instance once it is unpinned.</p>
+ *
+ * <p>Proxy granting tickets, and the tickets they were granted from, are kept on heap as live instances
+ * rather than serialized one at a time, so that a proxy granting ticket keeps referring to the very instance of its
+ * parent that is expired when the parent is destroyed.</p>
+ *
+ * <p>Tickets are encoded with java serialization, unless another {@link TicketCodec} is set, e.g. a
+ * {@link CompactTicketCodec} that keeps multifactor authentications several times smaller.</p>
+ */
+public final class OffHeapTicketRegistry extends AbstractTicketRegistry implements ServiceTicketClaimingTicketRegistry {
+
+    /** Estimated heap bytes taken by an index entry, not counting the ticket id. */
+    private static final int INDEX_ENTRY_OVERHEAD = 112;
+
+    private static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private static final long DEFAULT_MAX_OFF_HEAP_BYTES = 1024L * 1024 * 1024;
+
+    private final OffHeapSegmentAllocator allocator;
+
+    private final ConcurrentMap<String, StoredTicket> index = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Ticket> cache = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Ticket> onHeapTickets = new ConcurrentHashMap<>();
+
+    /** Ticket granting tickets referred to by live service tickets. Changed under its own lock. */
+    private final ConcurrentMap<String, PinnedTicket> pinned = new ConcurrentHashMap<>();
+
+    private final AtomicLong indexBytes = new AtomicLong();
+
+    private final AtomicLong onHeapSerializedBytes = new AtomicLong();
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    @Min(0)
+    private int maxCacheSize = 10000;
+
+    @NotNull
+    private TicketCodec ticketCodec = new SerializationTicketCodec();
+
+    /**
+     * Instantiates a new registry with 4MB segments, and up to 1GB of off-heap memory.
+     */
+    public OffHeapTicketRegistry() {
+        this(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_OFF_HEAP_BYTES);
+    }
+
+    /**
+     * Instantiates a new registry.
+     *
+     * @param segmentSizeInBytes the size of each off-heap segment, at least 64KB
+     * @param maxOffHeapBytes the maximum number of off-heap bytes reserved for tickets
+     */
+    public OffHeapTicketRegistry(final int segmentSizeInBytes, final long maxOffHeapBytes) {
+        this.allocator = new OffHeapSegmentAllocator(segmentSizeInBytes, maxOffHeapBytes);
+    }
+
+    @Override
+    public void addTicket(final Ticket ticketToAdd) {
+        Assert.notNull(ticketToAdd, "ticket cannot be null");
+        final Ticket ticket = unwrap(ticketToAdd);
+        logger.debug("Added ticket [{}] to registry.", ticket.getId());
+        if (!(ticket instanceof TicketGrantingTicket)) {
+            pin(ticket);
+            final Ticket previous = this.onHeapTickets.put(ticket.getId(), ticket);
+            if (previous != null) {
+                unpin(previous);
+            }
+            return;
+        }
+        if (ticket.getGrantingTicket() != null || this.onHeapTickets.containsKey(ticket.getId())) {
+            keepOnHeap((TicketGrantingTicket) ticket);
+            return;
+        }
+
+        final StoredTicket stored = store(ticket);
+        final StoredTicket previous = this.index.put(ticket.getId(), stored);
+        if (previous != null) {
+            release(previous);
+        } else {
+            this.indexBytes.addAndGet(INDEX_ENTRY_OVERHEAD + 2 * ticket.getId().length());
+        }
+        final Ticket proxy = cacheTicket(ticket.getId(), writeBackProxy(ticket), true);
+        synchronized (this.pinned) {
+            final PinnedTicket pin = this.pinned.get(ticket.getId());
+            if (pin != null && unwrap(pin.proxy) != ticket) {
+                pin.proxy = proxy;
+            }
+        }
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+        final Ticket onHeap = this.onHeapTickets.get(ticketId);
+        if (onHeap != null) {
+            return onHeap;
+        }
+        final Ticket cached = getCachedTicket(ticketId);
+        if (cached != null) {
+            this.hits.incrementAndGet();
+            return cached;
+        }
+
+        final Ticket ticket = load(ticketId);
+        if (ticket == null) {
+            return null;
+        }
+        this.misses.incrementAndGet();
+        return cacheTicket(ticketId, writeBackProxy(ticket), false);
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        if (ticketId == null) {
+            return false;
+        }
+        logger.debug("Removing ticket [{}] from registry", ticketId);
+        final Ticket onHeap = this.onHeapTickets.remove(ticketId);
+        if (onHeap != null) {
+            unpin(onHeap);
+            return true;
+        }
+        return removeStored(ticketId);
+    }
+
+    /**
+     * Write the ticket back to its slot after the central authentication service changed it in place.
+     * A ticket that was deleted since, or that is kept on heap, is left alone.
+     *
+     * @param ticket the changed ticket
+     */
+    private void writeBack(final Ticket ticket) {
+        final StoredTicket current = this.index.get(ticket.getId());
+        if (current == null) {
+            return;
+        }
+        final StoredTicket stored = store(ticket);
+        if (this.index.replace(ticket.getId(), current, stored)) {
+            release(current);
+        } else {
+            release(stored);
+        }
+    }
+
+    /**
+     * Wrap the ticket granting ticket into a proxy that writes it back whenever it is changed.
+     *
+     * @param ticket the ticket granting ticket
+     * @return the proxy
+     */
+    private Ticket writeBackProxy(final Ticket ticket) {
+        return (Ticket) Proxy.newProxyInstance(TicketGrantingTicket.class.getClassLoader(),
+                new Class<?>[] {TicketGrantingTicket.class}, new WriteBackHandler((TicketGrantingTicket) ticket));
+    }
+
+    /**
+     * Get the ticket behind a proxy handed out by this registry.
+     *
+     * @param ticket the ticket, or a proxy handed out by this registry
+     * @return the ticket itself
+     */
+    private static Ticket unwrap(final Ticket ticket) {
+        if (Proxy.isProxyClass(ticket.getClass())) {
+            final InvocationHandler handler = Proxy.getInvocationHandler(ticket);
+            if (handler instanceof WriteBackHandler) {
+                return ((WriteBackHandler) handler).ticket;
+            }
+        }
+        return ticket;
+    }
+
+    @Override
+    public ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        if (serviceTicketId == null) {
+            return null;
+        }
+        final Ticket ticket = this.onHeapTickets.get(serviceTicketId);
+        if (!(ticket instanceof ServiceTicket)) {
+            return null;
+        }
+        if (!this.onHeapTickets.remove(serviceTicketId, ticket)) {
+            return null;
+        }
+        unpin(ticket);
+        return (ServiceTicket) ticket;
+    }
+
+    /**
+     * Pin the ticket granting ticket the service ticket was granted from, if it is stored in a slot, so that
+     * it is handed out as the instance the service ticket refers to for as long as the service ticket is live.
+     *
+     * @param ticket the ticket being added
+     */
+    private void pin(final Ticket ticket) {
+        if (!(ticket instanceof ServiceTicket) || ticket.getGrantingTicket() == null) {
+            return;
+        }
+        final TicketGrantingTicket grantingTicket = (TicketGrantingTicket) unwrap(ticket.getGrantingTicket());
+        final String ticketGrantingTicketId = grantingTicket.getId();
+        synchronized (this.pinned) {
+            if (!this.index.containsKey(ticketGrantingTicketId)) {
+                return;
+            }
+            PinnedTicket pin = this.pinned.get(ticketGrantingTicketId);
+            if (pin == null) {
+                final Ticket cached = this.cache.get(ticketGrantingTicketId);
+                pin = new PinnedTicket(cached != null && unwrap(cached) == grantingTicket
+                        ? cached : cacheTicket(ticketGrantingTicketId, writeBackProxy(grantingTicket), true));
+                this.pinned.put(ticketGrantingTicketId, pin);
+            } else if (unwrap(pin.proxy) != grantingTicket) {
+                logger.debug("Service ticket [{}] was granted from another instance of pinned ticket [{}]",
+                        ticket.getId(), ticketGrantingTicketId);
+            }
+            pin.serviceTickets++;
+        }
+    }
+
+    /**
+     * Release the pin the service ticket held on its ticket granting ticket, and unpin the ticket granting ticket
+     * once no live service ticket refers to it.
+     *
+     * @param ticket the ticket that left the registry
+     */
+    private void unpin(final Ticket ticket) {
+        if (!(ticket instanceof ServiceTicket) || ticket.getGrantingTicket() == null) {
+            return;
+        }
+        final String ticketGrantingTicketId = ticket.getGrantingTicket().getId();
+        synchronized (this.pinned) {
+            final PinnedTicket pin = this.pinned.get(ticketGrantingTicketId);
+            if (pin != null && --pin.serviceTickets <= 0) {
+                this.pinned.remove(ticketGrantingTicketId);
+            }
+        }
+    }
+
+    /**
+     * Get the pinned or cached instance of the ticket granting ticket.
+     *
+     * @param ticketId the ticket id
+     * @return the proxy of the ticket granting ticket, or null if it is neither pinned nor cached
+     */
+    private Ticket getCachedTicket(final String ticketId) {
+        final PinnedTicket pin = this.pinned.get(ticketId);
+        return pin != null ? pin.proxy : this.cache.get(ticketId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Ticket granting tickets that are not cached are deserialized one at a time as the collection is iterated,
+     * and are not added to the cache.</p>
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        return new AbstractCollection<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                return new TicketIterator();
+            }
+
+            @Override
+            public int size() {
+                return onHeapTickets.size() + index.size();
+            }
+        };
+    }
+
+    /**
+     * Load the ticket from its slot, without caching it.
+     *
+     * @param ticketId the ticket id
+     * @return the ticket, or null if it is not in the registry
+     */
+    private Ticket load(final String ticketId) {
+        while (true) {
+            final StoredTicket stored = this.index.get(ticketId);
+            if (stored == null) {
+                return null;
+            }
+            final byte[] data = stored.heapCopy != null ? stored.heapCopy : this.allocator.read(stored.address, stored.length);
+            if (this.index.get(ticketId) == stored) {
+                return deserialize(data);
+            }
+            // the slot was replaced or freed while it was read; try again.
+        }
+    }
+
+    /**
+     * Keep the proxy granting ticket, and the tickets it was granted from that are still in the registry,
+     * on heap as the live instances it refers to.
+     *
+     * @param ticket the proxy granting ticket
+     */
+    private void keepOnHeap(final TicketGrantingTicket ticket) {
+        this.onHeapTickets.put(ticket.getId(), ticket);
+        removeStored(ticket.getId());
+        for (TicketGrantingTicket parent = ticket.getGrantingTicket(); parent != null; parent = parent.getGrantingTicket()) {
+            if (this.index.containsKey(parent.getId())) {
+                logger.debug("Keeping ticket [{}] on heap along with proxy granting ticket [{}]", parent.getId(), ticket.getId());
+                this.onHeapTickets.put(parent.getId(), parent);
+                removeStored(parent.getId());
+            }
+        }
+    }
+
+    /**
+     * Remove the ticket from the cache and free its slot.
+     *
+     * @param ticketId the ticket id
+     * @return true if the ticket had a slot
+     */
+    private boolean removeStored(final String ticketId) {
+        final StoredTicket stored;
+        synchronized (this.pinned) {
+            this.pinned.remove(ticketId);
+            this.cache.remove(ticketId);
+            stored = this.index.remove(ticketId);
+        }
+        if (stored == null) {
+            return false;
+        }
+        release(stored);
+        this.indexBytes.addAndGet(-(INDEX_ENTRY_OVERHEAD + 2 * ticketId.length()));
+        return true;
+    }
+
+    /**
+     * Cache the ticket, dropping an arbitrary entry if the cache is full.
+     *
+     * @param ticketId the ticket id
+     * @param ticket the ticket
+     * @param replace whether to replace a cached instance of the ticket
+     * @return the cached instance of the ticket
+     */
+    private Ticket cacheTicket(final String ticketId, final Ticket ticket, final boolean replace) {
+        if (this.maxCacheSize == 0) {
+            return ticket;
+        }
+        if (this.cache.size() >= this.maxCacheSize) {
+            final Iterator<String> it = this.cache.keySet().iterator();
+            if (it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+
+        if (replace) {
+            this.cache.put(ticketId, ticket);
+            return ticket;
+        }
+        final Ticket existing = this.cache.putIfAbsent(ticketId, ticket);
+        if (existing != null) {
+            return existing;
+        }
+        if (!this.index.containsKey(ticketId)) {
+            this.cache.remove(ticketId, ticket);
+        }
+        return ticket;
+    }
+
+    /**
+     * Serialize the ticket into a new slot, or on heap if there is no room off heap.
+     *
+     * @param ticket the ticket
+     * @return the stored ticket
+     */
+    private StoredTicket store(final Ticket ticket) {
+        final byte[] data = serialize(ticket);
+        final long address = this.allocator.allocate(data);
+        if (address == OffHeapSegmentAllocator.NO_ADDRESS) {
+            logger.debug("No off-heap slot available for ticket [{}] of {} bytes; keeping it on heap", ticket.getId(), data.length);
+            this.onHeapSerializedBytes.addAndGet(data.length);
+            return new StoredTicket(address, data.length, data);
+        }
+        return new StoredTicket(address, data.length, null);
+    }
+
+    /**
+     * Free the space held by the stored ticket.
+     *
+     * @param stored the stored ticket
+     */
+    private void release(final StoredTicket stored) {
+        if (stored.heapCopy != null) {
+            this.onHeapSerializedBytes.addAndGet(-stored.length);
+        } else {
+            this.allocator.free(stored.address);
+        }
+    }
+
+    /**
+     * Encode the ticket with the ticket codec.
+     *
+     * @param ticket the ticket
+     * @return the encoded ticket
+     */
+    private byte[] serialize(final Ticket ticket) {
+        try {
+            return this.ticketCodec.encode(ticket);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to serialize ticket " + ticket.getId(), e);
+        }
+    }
+
+    /**
+     * Decode the ticket with the ticket codec.
+     *
+     * @param data the encoded ticket
+     * @return the ticket
+     */
+    private Ticket deserialize(final byte[] data) {
+        try {
+            return this.ticketCodec.decode(data);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to deserialize ticket", e);
+        }
+    }
+
+    public void setMaxCacheSize(final int maxCacheSize) {
+        this.maxCacheSize = maxCacheSize;
+    }
+
+    public void setTicketCodec(final TicketCodec ticketCodec) {
+        this.ticketCodec = ticketCodec;
+    }
+
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_TICKETS")
+    public int getTicketCount() {
+        return this.index.size();
+    }
+
+    /**
+     * Off-heap bytes held by the slots of ticket granting tickets.
+     *
+     * @return the off-heap bytes in use
+     */
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_OFF_HEAP_BYTES")
+    public long getOffHeapBytes() {
+        return this.allocator.getUsedBytes();
+    }
+
+    /**
+     * Off-heap bytes reserved for segments, whether their slots are in use or not.
+     *
+     * @return the reserved off-heap bytes
+     */
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_RESERVED_BYTES")
+    public long getReservedOffHeapBytes() {
+        return this.allocator.getReservedBytes();
+    }
+
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_PINNED")
+    public int getPinnedCount() {
+        return this.pinned.size();
+    }
+
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_OFF_HEAP_BYTES_PER_TICKET")
+    public long getOffHeapBytesPerTicket() {
+        final int tickets = this.index.size();
+        return tickets == 0 ? 0 : this.allocator.getUsedBytes() / tickets;
+    }
+
+    /**
+     * Estimated heap bytes per ticket granting ticket, taking into account the index,
+     * the tickets kept serialized on heap, and the cached tickets, whose size is estimated by their serialized size.
+     *
+     * @return the estimated heap bytes per ticket
+     */
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_HEAP_BYTES_PER_TICKET")
+    public long getHeapBytesPerTicket() {
+        final int tickets = this.index.size();
+        if (tickets == 0) {
+            return 0;
+        }
+        long cachedBytes = 0;
+        for (final String ticketId : this.cache.keySet()) {
+            final StoredTicket stored = this.index.get(ticketId);
+            if (stored != null) {
+                cachedBytes += stored.length;
+            }
+        }
+        return (this.indexBytes.get() + this.onHeapSerializedBytes.get() + cachedBytes) / tickets;
+    }
+
+    /**
+     * Fraction of ticket granting tickets served from the cache.
+     *
+     * @return the hit rate, between 0 and 1
+     */
+    @Gauge(name = "OFF_HEAP_TICKET_REGISTRY_CACHE_HIT_RATE")
+    public double getCacheHitRate() {
+        final long h = this.hits.get();
+        final long total = h + this.misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /**
+     * Where a serialized ticket granting ticket is kept.
+     */
+    private static final class StoredTicket {
+        private final long address;
+        private final int length;
+        private final byte[] heapCopy;
+
+        StoredTicket(final long address, final int length, final byte[] heapCopy) {
+            this.address = address;
+            this.length = length;
+            this.heapCopy = heapCopy;
+        }
+    }
+
+    /**
+     * A ticket granting ticket pinned on heap, and the number of live service tickets that refer to it.
+     */
+    private static final class PinnedTicket {
+        private Ticket proxy;
+        private int serviceTickets;
+
+        PinnedTicket(final Ticket proxy) {
+            this.proxy = proxy;
+        }
+    }
+
+    /**
+     * Passes every call on to the ticket granting ticket, and writes the ticket back after any call
+     * that is not a getter, i.e. one that may have changed it.
+     */
+    private final class WriteBackHandler implements InvocationHandler {
+        private final TicketGrantingTicket ticket;
+
+        WriteBackHandler(final TicketGrantingTicket ticket) {
+            this.ticket = ticket;
+        }
+
+        @Override
+        public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+            final Object result;
+            try {
+                result = method.invoke(this.ticket, args);
+            } catch (final InvocationTargetException e) {
+                throw e.getCause();
+            }
+            final String name = method.getName();
+            if (method.getDeclaringClass() != Object.class && !name.startsWith("get") && !name.startsWith("is")) {
+                writeBack(this.ticket);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Iterates the on-heap tickets, and then the ticket granting tickets,
+     * skipping those that are deleted while the iteration is in progress.
+     */
+    private final class TicketIterator implements Iterator<Ticket> {
+        private final Iterator<Ticket> onHeap = onHeapTickets.values().iterator();
+        private final Iterator<String> ticketGrantingTicketIds = index.keySet().iterator();
+        private Ticket next;
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null) {
+                if (this.onHeap.hasNext()) {
+                    this.next = this.onHeap.next();
+                } else if (this.ticketGrantingTicketIds.hasNext()) {
+                    final String ticketId = this.ticketGrantingTicketIds.next();
+                    final Ticket cached = getCachedTicket(ticketId);
+                    this.next = cached != null ? unwrap(cached) : load(ticketId);
+                } else {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Ticket next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final Ticket ticket = this.next;
+            this.next = null;
+            return ticket;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.springframework.util.Assert;
+
+import javax.validation.constraints.NotNull;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+
+/**
+ * A ticket registry that keeps service tickets in a registry of their own, such as the
+ * {@link LockFreeServiceTicketRegistry}, and every other ticket in a general purpose registry.
+ * Lookups go to the service ticket registry first.
+ *
+ * <p>Configured as the ticket registry of CAS, this lets service tickets issued by CAS itself land in the
+ * dedicated registry, which the {@link net.unicon.cas.mfa.MultiFactorAwareCentralAuthenticationService}
+ * may then also be given as its service ticket registry.</p>
+ */
+public final class PartitionedTicketRegistry extends AbstractTicketRegistry
+        implements ServiceTicketClaimingTicketRegistry, AuthenticationDeltaAwareTicketRegistry {
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    @NotNull
+    private final TicketRegistry serviceTicketRegistry;
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the registry of all tickets but service tickets
+     * @param serviceTicketRegistry the registry of service tickets
+     */
+    public PartitionedTicketRegistry(final TicketRegistry ticketRegistry, final TicketRegistry serviceTicketRegistry) {
+        this.ticketRegistry = ticketRegistry;
+        this.serviceTicketRegistry = serviceTicketRegistry;
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+        if (ticket instanceof ServiceTicket) {
+            this.serviceTicketRegistry.addTicket(ticket);
+        } else {
+            this.ticketRegistry.addTicket(ticket);
+        }
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        final Ticket ticket = this.serviceTicketRegistry.getTicket(ticketId);
+        return ticket != null ? ticket : this.ticketRegistry.getTicket(ticketId);
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        return this.serviceTicketRegistry.deleteTicket(ticketId) || this.ticketRegistry.deleteTicket(ticketId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The authentication is published to the general purpose registry, which gets the ticket again if it cannot
+     * take the authentication alone.</p>
+     */
+    @Override
+    public void publishAuthenticationDelta(final TicketGrantingTicket ticketGrantingTicket, final Authentication authentication) {
+        Assert.notNull(ticketGrantingTicket, "ticketGrantingTicket cannot be null");
+        if (this.ticketRegistry instanceof AuthenticationDeltaAwareTicketRegistry) {
+            ((AuthenticationDeltaAwareTicketRegistry) this.ticketRegistry).publishAuthenticationDelta(ticketGrantingTicket,
+                    authentication);
+        } else {
+            this.ticketRegistry.addTicket(ticketGrantingTicket);
+        }
+    }
+
+    @Override
+    public ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        if (this.serviceTicketRegistry instanceof ServiceTicketClaimingTicketRegistry) {
+            return ((ServiceTicketClaimingTicketRegistry) this.serviceTicketRegistry).claimServiceTicket(serviceTicketId);
+        }
+        final Ticket ticket = this.serviceTicketRegistry.getTicket(serviceTicketId);
+        if (ticket instanceof ServiceTicket && this.serviceTicketRegistry.deleteTicket(serviceTicketId)) {
+            return (ServiceTicket) ticket;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The tickets of both registries are iterated in turn, without being copied.</p>
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        final Collection<Ticket> serviceTickets = this.serviceTicketRegistry.getTickets();
+        final Collection<Ticket> tickets = this.ticketRegistry.getTickets();
+        return new AbstractCollection<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                final Iterator<Ticket> first = serviceTickets.iterator();
+                final Iterator<Ticket> second = tickets.iterator();
+                return new Iterator<Ticket>() {
+                    @Override
+                    public boolean hasNext() {
+                        return first.hasNext() || second.hasNext();
+                    }
+
+                    @Override
+                    public Ticket next() {
+                        return first.hasNext() ? first.next() : second.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return serviceTickets.size() + tickets.size();
+            }
+        };
+    }
+}
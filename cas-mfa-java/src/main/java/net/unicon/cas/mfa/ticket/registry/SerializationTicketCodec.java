@@ -0,0 +1,36 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.Ticket;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+/**
+ * Encodes tickets with default java serialization.
+ */
+public final class SerializationTicketCodec implements TicketCodec {
+
+    @Override
+    public byte[] encode(final Ticket ticket) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(ticket);
+        }
+        return bytes.toByteArray();
+    }
+
+    @Override
+    public Ticket decode(final byte[] data) throws IOException {
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data))) {
+            return (Ticket) in.readObject();
+        } catch (final ClassNotFoundException e) {
+            final InvalidObjectException ex = new InvalidObjectException("Unknown class in encoded ticket: " + e.getMessage());
+            ex.initCause(e);
+            throw ex;
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.ServiceTicket;
+
+/**
+ * A ticket registry that can hand out a service ticket to exactly one caller,
+ * by removing it from the registry with an atomic compare-and-set.
+ */
+public interface ServiceTicketClaimingTicketRegistry {
+
+    /**
+     * Atomically remove the service ticket from the registry and return it.
+     * When several callers race to claim the same ticket, only one of them receives it.
+     *
+     * @param serviceTicketId the service ticket id
+     * @return the claimed ticket, or null if the ticket does not exist, is not a service ticket,
+     * or was claimed by another caller.
+     */
+    ServiceTicket claimServiceTicket(String serviceTicketId);
+}
@@ -0,0 +1,181 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import com.codahale.metrics.annotation.Gauge;
+import net.unicon.cas.mfa.ticket.ShardedUniqueTicketIdGenerator;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.springframework.util.Assert;
+
+import javax.validation.constraints.NotNull;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A ticket registry that spreads tickets over several partitions, e.g. one per node or per backing store, and
+ * routes every operation on a ticket to the one partition that holds it, without hashing or broadcasting.
+ *
+ * <p>The partition of a ticket is the shard carried by its id, as issued by a {@link ShardedUniqueTicketIdGenerator}.
+ * Since service tickets and proxy granting tickets inherit the shard of the ticket granting ticket they are granted
+ * from, a ticket granting ticket and every ticket granted from it live in the same partition, and granting,
+ * validating and destroying them all go to that partition alone. Tickets whose id carries no shard, e.g. those
+ * issued before the generators were sharded, or proxy granting tickets issued by the stock generator, are placed
+ * by the hash of their id; tickets granted from them inherit that placement.</p>
+ */
+public final class ShardRoutingTicketRegistry extends AbstractTicketRegistry
+        implements ServiceTicketClaimingTicketRegistry, AuthenticationDeltaAwareTicketRegistry {
+
+    @NotNull
+    private final List<TicketRegistry> partitions;
+
+    private final AtomicLong routedCount = new AtomicLong();
+
+    private final AtomicLong hashedCount = new AtomicLong();
+
+    /**
+     * Ctor.
+     *
+     * @param partitions the partitions, in shard order
+     */
+    public ShardRoutingTicketRegistry(final List<TicketRegistry> partitions) {
+        Assert.notEmpty(partitions, "partitions cannot be empty");
+        this.partitions = Collections.unmodifiableList(new ArrayList<>(partitions));
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+        getPartition(ticket.getId()).addTicket(ticket);
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+        return getPartition(ticketId).getTicket(ticketId);
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        return ticketId != null && getPartition(ticketId).deleteTicket(ticketId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The authentication is published to the partition of the ticket, which gets the ticket again if it cannot
+     * take the authentication alone.</p>
+     */
+    @Override
+    public void publishAuthenticationDelta(final TicketGrantingTicket ticketGrantingTicket, final Authentication authentication) {
+        Assert.notNull(ticketGrantingTicket, "ticketGrantingTicket cannot be null");
+        final TicketRegistry partition = getPartition(ticketGrantingTicket.getId());
+        if (partition instanceof AuthenticationDeltaAwareTicketRegistry) {
+            ((AuthenticationDeltaAwareTicketRegistry) partition).publishAuthenticationDelta(ticketGrantingTicket, authentication);
+        } else {
+            partition.addTicket(ticketGrantingTicket);
+        }
+    }
+
+    @Override
+    public ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        if (serviceTicketId == null) {
+            return null;
+        }
+        final TicketRegistry partition = getPartition(serviceTicketId);
+        if (partition instanceof ServiceTicketClaimingTicketRegistry) {
+            return ((ServiceTicketClaimingTicketRegistry) partition).claimServiceTicket(serviceTicketId);
+        }
+        final Ticket ticket = partition.getTicket(serviceTicketId);
+        if (ticket instanceof ServiceTicket && partition.deleteTicket(serviceTicketId)) {
+            return (ServiceTicket) ticket;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The tickets of the partitions are iterated in turn, without being copied.</p>
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        final List<Collection<Ticket>> tickets = new ArrayList<>(this.partitions.size());
+        for (final TicketRegistry partition : this.partitions) {
+            tickets.add(partition.getTickets());
+        }
+        return new AbstractCollection<Ticket>() {
+            @Override
+            public Iterator<Ticket> iterator() {
+                final Iterator<Collection<Ticket>> partitionIterator = tickets.iterator();
+                return new Iterator<Ticket>() {
+                    private Iterator<Ticket> current = Collections.<Ticket>emptySet().iterator();
+
+                    @Override
+                    public boolean hasNext() {
+                        while (!this.current.hasNext() && partitionIterator.hasNext()) {
+                            this.current = partitionIterator.next().iterator();
+                        }
+                        return this.current.hasNext();
+                    }
+
+                    @Override
+                    public Ticket next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        return this.current.next();
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                int size = 0;
+                for (final Collection<Ticket> partitionTickets : tickets) {
+                    size += partitionTickets.size();
+                }
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Find the partition of the ticket: that of the shard carried by its id, or else that of the hash of its id.
+     *
+     * @param ticketId the ticket id
+     * @return the partition
+     */
+    TicketRegistry getPartition(final String ticketId) {
+        final int shard = ShardedUniqueTicketIdGenerator.getShard(ticketId);
+        if (shard != ShardedUniqueTicketIdGenerator.NO_SHARD && shard < this.partitions.size()) {
+            this.routedCount.incrementAndGet();
+            return this.partitions.get(shard);
+        }
+        this.hashedCount.incrementAndGet();
+        return this.partitions.get(ShardedUniqueTicketIdGenerator.getShard(ticketId, this.partitions.size()));
+    }
+
+    @Gauge(name = "SHARD_ROUTED_OPERATIONS")
+    public long getRoutedCount() {
+        return this.routedCount.get();
+    }
+
+    @Gauge(name = "SHARD_HASHED_OPERATIONS")
+    public long getHashedCount() {
+        return this.hashedCount.get();
+    }
+}
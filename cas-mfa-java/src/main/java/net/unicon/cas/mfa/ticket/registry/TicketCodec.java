@@ -0,0 +1,33 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.Ticket;
+
+import java.io.IOException;
+
+/**
+ * Turns tickets into bytes and back, for ticket registries that keep tickets outside of the java heap
+ * or send them to other nodes.
+ *
+ * @see SerializationTicketCodec
+ * @see CompactTicketCodec
+ */
+public interface TicketCodec {
+
+    /**
+     * Encode the ticket, along with the tickets it was granted from.
+     *
+     * @param ticket the ticket
+     * @return the encoded ticket
+     * @throws IOException if the ticket cannot be encoded
+     */
+    byte[] encode(Ticket ticket) throws IOException;
+
+    /**
+     * Decode a ticket encoded by {@link #encode(Ticket)}.
+     *
+     * @param data the encoded ticket
+     * @return the ticket
+     * @throws IOException if the data cannot be decoded
+     */
+    Ticket decode(byte[] data) throws IOException;
+}
@@ -0,0 +1,283 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A versioned binary snapshot of the ticket granting tickets of a registry, read through a memory-mapped file.
+ *
+ * <p>The file starts with a header and an index of ticket ids, followed by blocks of tickets. Each block is
+ * serialized with a single object stream and deflated, so class descriptors are written once per block rather than
+ * once per ticket; a ticket granting ticket and the proxy granting tickets that descend from it are always written
+ * to the same block, so that they still share their ancestors once read back. Blocks can be read independently,
+ * in any order. Snapshots are written to a temporary file that is then moved in place, so a snapshot is either
+ * complete or absent.</p>
+ */
+final class TicketRegistrySnapshot {
+
+    /** "CAST". */
+    static final int MAGIC = 0x43415354;
+
+    static final int VERSION = 1;
+
+    private static final int HEADER_LENGTH = 20;
+
+    private static final int TARGET_BLOCK_SIZE = 128;
+
+    private final ByteBuffer buffer;
+
+    private final long createdAt;
+
+    private final int[] blockOffsets;
+
+    private final int[] blockLengths;
+
+    private final Map<String, Integer> blockByTicketId;
+
+    private TicketRegistrySnapshot(final ByteBuffer buffer, final long createdAt, final int[] blockOffsets,
+                                   final int[] blockLengths, final Map<String, Integer> blockByTicketId) {
+        this.buffer = buffer;
+        this.createdAt = createdAt;
+        this.blockOffsets = blockOffsets;
+        this.blockLengths = blockLengths;
+        this.blockByTicketId = blockByTicketId;
+    }
+
+    /**
+     * Write the ticket granting tickets that have not expired to the file. Other tickets are skipped.
+     *
+     * @param file the snapshot file
+     * @param tickets the tickets
+     * @return the number of tickets written
+     * @throws IOException if the snapshot cannot be written
+     */
+    static int write(final File file, final Collection<Ticket> tickets) throws IOException {
+        final Map<String, List<Ticket>> chains = new LinkedHashMap<>();
+        for (final Ticket ticket : tickets) {
+            if (!(ticket instanceof TicketGrantingTicket) || ticket.isExpired()) {
+                continue;
+            }
+            Ticket root = ticket;
+            while (root.getGrantingTicket() != null) {
+                root = root.getGrantingTicket();
+            }
+            List<Ticket> chain = chains.get(root.getId());
+            if (chain == null) {
+                chain = new ArrayList<>();
+                chains.put(root.getId(), chain);
+            }
+            chain.add(ticket);
+        }
+
+        final List<byte[]> blocks = new ArrayList<>();
+        final ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+        final DataOutputStream index = new DataOutputStream(indexBytes);
+        final List<Ticket> block = new ArrayList<>(TARGET_BLOCK_SIZE);
+        int count = 0;
+        for (final List<Ticket> chain : chains.values()) {
+            block.addAll(chain);
+            if (block.size() >= TARGET_BLOCK_SIZE) {
+                blocks.add(serializeBlock(block));
+                count += block.size();
+                block.clear();
+            }
+        }
+        if (!block.isEmpty()) {
+            blocks.add(serializeBlock(block));
+            count += block.size();
+        }
+
+        index.writeInt(blocks.size());
+        for (final byte[] data : blocks) {
+            index.writeInt(data.length);
+        }
+        index.writeInt(count);
+        int blockIndex = 0;
+        int inBlock = 0;
+        for (final List<Ticket> chain : chains.values()) {
+            for (final Ticket ticket : chain) {
+                index.writeUTF(ticket.getId());
+                index.writeInt(blockIndex);
+            }
+            inBlock += chain.size();
+            if (inBlock >= TARGET_BLOCK_SIZE) {
+                blockIndex++;
+                inBlock = 0;
+            }
+        }
+        index.flush();
+
+        long length = HEADER_LENGTH + indexBytes.size();
+        for (final byte[] data : blocks) {
+            length += data.length;
+        }
+
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (final RandomAccessFile out = new RandomAccessFile(temporary, "rw")) {
+            out.setLength(length);
+            final MappedByteBuffer mapped = out.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, length);
+            mapped.putInt(MAGIC);
+            mapped.putInt(VERSION);
+            mapped.putLong(System.currentTimeMillis());
+            mapped.putInt(indexBytes.size());
+            mapped.put(indexBytes.toByteArray());
+            for (final byte[] data : blocks) {
+                mapped.put(data);
+            }
+            mapped.force();
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    /**
+     * Map the snapshot file, and read its index. Blocks are only read on demand.
+     *
+     * @param file the snapshot file
+     * @return the snapshot
+     * @throws IOException if the file cannot be read, or was not written by a supported version
+     */
+    static TicketRegistrySnapshot open(final File file) throws IOException {
+        final ByteBuffer buffer;
+        try (final RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+        }
+        if (buffer.remaining() < HEADER_LENGTH || buffer.getInt() != MAGIC) {
+            throw new IOException(file + " is not a ticket registry snapshot");
+        }
+        final int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported ticket registry snapshot version " + version);
+        }
+        final long createdAt = buffer.getLong();
+        final int indexLength = buffer.getInt();
+
+        final DataInputStream index = new DataInputStream(new ByteBufferInputStream(slice(buffer, HEADER_LENGTH, indexLength)));
+        final int blockCount = index.readInt();
+        final int[] blockOffsets = new int[blockCount];
+        final int[] blockLengths = new int[blockCount];
+        int offset = HEADER_LENGTH + indexLength;
+        for (int i = 0; i < blockCount; i++) {
+            blockOffsets[i] = offset;
+            blockLengths[i] = index.readInt();
+            offset += blockLengths[i];
+        }
+        if (offset != buffer.limit()) {
+            throw new IOException(file + " is truncated");
+        }
+
+        final int ticketCount = index.readInt();
+        final Map<String, Integer> blockByTicketId = new HashMap<>(ticketCount * 4 / 3 + 1);
+        for (int i = 0; i < ticketCount; i++) {
+            blockByTicketId.put(index.readUTF(), index.readInt());
+        }
+        return new TicketRegistrySnapshot(buffer, createdAt, blockOffsets, blockLengths,
+                Collections.unmodifiableMap(blockByTicketId));
+    }
+
+    /**
+     * Read the tickets of a block.
+     *
+     * @param block the block number
+     * @return the tickets
+     * @throws IOException if the block cannot be read
+     */
+    List<Ticket> readBlock(final int block) throws IOException {
+        final InputStream data = new InflaterInputStream(
+                new ByteBufferInputStream(slice(this.buffer, this.blockOffsets[block], this.blockLengths[block])));
+        try (final ObjectInputStream in = new ObjectInputStream(data)) {
+            final int count = in.readInt();
+            final List<Ticket> tickets = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                tickets.add((Ticket) in.readObject());
+            }
+            return tickets;
+        } catch (final ClassNotFoundException e) {
+            throw new IOException("Unable to read block " + block + " of ticket registry snapshot", e);
+        }
+    }
+
+    int getBlockCount() {
+        return this.blockOffsets.length;
+    }
+
+    Map<String, Integer> getBlockByTicketId() {
+        return this.blockByTicketId;
+    }
+
+    long getCreatedAt() {
+        return this.createdAt;
+    }
+
+    private static byte[] serializeBlock(final List<Ticket> tickets) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(tickets.size() * 256);
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (final ObjectOutputStream out = new ObjectOutputStream(new DeflaterOutputStream(bytes, deflater))) {
+            out.writeInt(tickets.size());
+            for (final Ticket ticket : tickets) {
+                out.writeObject(ticket);
+            }
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    private static ByteBuffer slice(final ByteBuffer buffer, final int offset, final int length) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.limit(offset + length);
+        slice.position(offset);
+        return slice;
+    }
+
+    /**
+     * Reads the remaining bytes of a buffer.
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(final ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return this.buffer.hasRemaining() ? this.buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) {
+            if (!this.buffer.hasRemaining()) {
+                return -1;
+            }
+            final int n = Math.min(len, this.buffer.remaining());
+            this.buffer.get(b, off, n);
+            return n;
+        }
+    }
+}
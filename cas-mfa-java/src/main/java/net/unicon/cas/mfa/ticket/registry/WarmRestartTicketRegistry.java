@@ -0,0 +1,328 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import com.codahale.metrics.annotation.Gauge;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketIndex;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import javax.validation.constraints.NotNull;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the ticket granting tickets of an in-memory registry across restarts.
+ *
+ * <p>On graceful shutdown, the live ticket granting tickets of the wrapped registry are written to a
+ * {@link TicketRegistrySnapshot}. On startup, the snapshot is mapped and its index is read, and the tickets
+ * are restored into the wrapped registry by a background worker, so that startup is not held up by the restore.
+ * A ticket that is asked for before the worker gets to it is restored on demand, along with the rest of its block.
+ * Tickets that expired while the node was down are dropped as they are restored, and tickets that are deleted or
+ * replaced before they are restored are never brought back. Once the restore is complete, the snapshot file is
+ * deleted, so that it cannot be restored twice.</p>
+ *
+ * <p>Restored ticket granting tickets are put back into the {@link TicketGrantingTicketIndex indexes} kept next
+ * to the registry, since they did not go through the mfa aware CAS on their way in. The indexes are usually set
+ * after the restore has started, as they refer to this registry; tickets restored before then are indexed when
+ * the indexes are set.</p>
+ *
+ * <p>Service tickets are short-lived and are not kept. A snapshot written by another version, or that cannot be
+ * read, is discarded, and the registry starts empty.</p>
+ */
+public final class WarmRestartTicketRegistry extends AbstractTicketRegistry
+        implements ServiceTicketClaimingTicketRegistry, InitializingBean, DisposableBean {
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    @NotNull
+    private final File snapshotFile;
+
+    /** The snapshot being restored, or null once the restore is complete. */
+    private volatile TicketRegistrySnapshot snapshot;
+
+    /** Ids of the tickets in the snapshot that have been neither restored nor deleted. */
+    private final ConcurrentMap<String, Boolean> pending = new ConcurrentHashMap<>();
+
+    private Object[] blockLocks;
+
+    private boolean[] restoredBlocks;
+
+    private Thread restorer;
+
+    /** The indexes restored ticket granting tickets are put into. */
+    private volatile List<TicketGrantingTicketIndex> ticketGrantingTicketIndexes = Collections.emptyList();
+
+    private final AtomicLong restoredCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the in-memory registry the tickets live in
+     * @param snapshotFile the file the snapshot is written to and restored from
+     */
+    public WarmRestartTicketRegistry(final TicketRegistry ticketRegistry, final File snapshotFile) {
+        this.ticketRegistry = ticketRegistry;
+        this.snapshotFile = snapshotFile;
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        if (!this.snapshotFile.exists()) {
+            logger.info("No ticket registry snapshot found at [{}]", this.snapshotFile);
+            return;
+        }
+
+        final TicketRegistrySnapshot opened;
+        try {
+            opened = TicketRegistrySnapshot.open(this.snapshotFile);
+        } catch (final IOException e) {
+            logger.warn("Discarding unreadable ticket registry snapshot [{}]: {}", this.snapshotFile, e.getMessage());
+            deleteSnapshotFile();
+            return;
+        }
+
+        for (final String ticketId : opened.getBlockByTicketId().keySet()) {
+            this.pending.put(ticketId, Boolean.TRUE);
+        }
+        this.blockLocks = new Object[opened.getBlockCount()];
+        for (int i = 0; i < this.blockLocks.length; i++) {
+            this.blockLocks[i] = new Object();
+        }
+        this.restoredBlocks = new boolean[opened.getBlockCount()];
+        this.snapshot = opened;
+        logger.info("Restoring {} ticket(s) from snapshot [{}] taken {} ms ago", this.pending.size(), this.snapshotFile,
+                System.currentTimeMillis() - opened.getCreatedAt());
+
+        this.restorer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restoreAll();
+            }
+        }, "ticket-registry-restore");
+        this.restorer.setDaemon(true);
+        this.restorer.start();
+    }
+
+    /**
+     * Finish restoring the previous snapshot, and write the live tickets to a new one.
+     *
+     * @throws Exception if the snapshot cannot be written
+     */
+    @Override
+    public void destroy() throws Exception {
+        restoreAll();
+        final long start = System.currentTimeMillis();
+        final int count = TicketRegistrySnapshot.write(this.snapshotFile, this.ticketRegistry.getTickets());
+        logger.info("Wrote {} ticket(s) to snapshot [{}] ({} bytes) in {} ms", count, this.snapshotFile,
+                this.snapshotFile.length(), System.currentTimeMillis() - start);
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+        forget(ticket.getId());
+        this.ticketRegistry.addTicket(ticket);
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        final Ticket ticket = this.ticketRegistry.getTicket(ticketId);
+        if (ticket != null || !this.pending.containsKey(ticketId)) {
+            return ticket;
+        }
+        final TicketRegistrySnapshot current = this.snapshot;
+        if (current != null) {
+            final Integer block = current.getBlockByTicketId().get(ticketId);
+            if (block != null) {
+                restoreBlock(current, block);
+            }
+        }
+        return this.ticketRegistry.getTicket(ticketId);
+    }
+
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        final boolean wasPending = forget(ticketId);
+        return this.ticketRegistry.deleteTicket(ticketId) || wasPending;
+    }
+
+    @Override
+    public ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        if (this.ticketRegistry instanceof ServiceTicketClaimingTicketRegistry) {
+            return ((ServiceTicketClaimingTicketRegistry) this.ticketRegistry).claimServiceTicket(serviceTicketId);
+        }
+        final Ticket ticket = this.ticketRegistry.getTicket(serviceTicketId);
+        if (ticket instanceof ServiceTicket && this.ticketRegistry.deleteTicket(serviceTicketId)) {
+            return (ServiceTicket) ticket;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>Tickets that are still waiting to be restored are not included.</p>
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        return this.ticketRegistry.getTickets();
+    }
+
+    /**
+     * Set the indexes restored ticket granting tickets are put into. The live ticket granting tickets of the
+     * wrapped registry are indexed right away, so that the tickets restored before the indexes were set are not missed.
+     * Indexing a ticket twice is harmless.
+     *
+     * @param ticketGrantingTicketIndexes the ticket granting ticket indexes
+     */
+    public void setTicketGrantingTicketIndexes(final List<TicketGrantingTicketIndex> ticketGrantingTicketIndexes) {
+        this.ticketGrantingTicketIndexes = ticketGrantingTicketIndexes;
+        for (final Ticket ticket : this.ticketRegistry.getTickets()) {
+            if (ticket instanceof TicketGrantingTicket && !ticket.isExpired()) {
+                index((TicketGrantingTicket) ticket);
+            }
+        }
+    }
+
+    /**
+     * Restore every block that has not been restored yet, then delete the snapshot file.
+     */
+    private void restoreAll() {
+        final TicketRegistrySnapshot current = this.snapshot;
+        if (current == null) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        for (int block = 0; block < current.getBlockCount(); block++) {
+            restoreBlock(current, block);
+        }
+        synchronized (this) {
+            if (this.snapshot == current) {
+                this.snapshot = null;
+                this.pending.clear();
+                deleteSnapshotFile();
+                logger.info("Restored {} ticket(s) and dropped {} expired ticket(s) in {} ms",
+                        this.restoredCount.get(), this.droppedCount.get(), System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    /**
+     * Restore the tickets of the block that are still pending. Expired tickets are dropped.
+     *
+     * @param current the snapshot
+     * @param block the block number
+     */
+    private void restoreBlock(final TicketRegistrySnapshot current, final int block) {
+        synchronized (this.blockLocks[block]) {
+            if (this.restoredBlocks[block]) {
+                return;
+            }
+            this.restoredBlocks[block] = true;
+
+            final List<Ticket> tickets;
+            try {
+                tickets = current.readBlock(block);
+            } catch (final IOException | RuntimeException e) {
+                logger.warn("Unable to restore block {} of ticket registry snapshot; its tickets are lost", block, e);
+                return;
+            }
+            for (final Ticket ticket : tickets) {
+                if (this.pending.remove(ticket.getId()) == null) {
+                    continue;
+                }
+                if (ticket.isExpired()) {
+                    this.droppedCount.incrementAndGet();
+                } else {
+                    this.ticketRegistry.addTicket(ticket);
+                    if (ticket instanceof TicketGrantingTicket) {
+                        index((TicketGrantingTicket) ticket);
+                    }
+                    this.restoredCount.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * Make sure the ticket is not restored from the snapshot, because it is being replaced or deleted.
+     * Waits for the restore of its block, if in progress, so that the restored ticket cannot overwrite the change.
+     *
+     * @param ticketId the ticket id
+     * @return true if the ticket was still waiting to be restored
+     */
+    private boolean forget(final String ticketId) {
+        final TicketRegistrySnapshot current = this.snapshot;
+        if (current == null) {
+            return false;
+        }
+        final Integer block = current.getBlockByTicketId().get(ticketId);
+        if (block == null) {
+            return false;
+        }
+        synchronized (this.blockLocks[block]) {
+            return this.pending.remove(ticketId) != null;
+        }
+    }
+
+    /**
+     * Put a restored ticket granting ticket into every index. A failing index does not keep the ticket from the others.
+     *
+     * @param ticketGrantingTicket the ticket granting ticket
+     */
+    private void index(final TicketGrantingTicket ticketGrantingTicket) {
+        for (final TicketGrantingTicketIndex index : this.ticketGrantingTicketIndexes) {
+            try {
+                index.index(ticketGrantingTicket);
+            } catch (final RuntimeException e) {
+                logger.warn("Unable to index restored ticket granting ticket [{}]", ticketGrantingTicket.getId(), e);
+            }
+        }
+    }
+
+    private void deleteSnapshotFile() {
+        if (this.snapshotFile.exists() && !this.snapshotFile.delete()) {
+            logger.warn("Unable to delete ticket registry snapshot [{}]", this.snapshotFile);
+        }
+    }
+
+    /**
+     * Wait for the background restore to complete.
+     *
+     * @param timeoutInMillis the maximum time to wait
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void awaitRestore(final long timeoutInMillis) throws InterruptedException {
+        if (this.restorer != null) {
+            this.restorer.join(timeoutInMillis);
+        }
+    }
+
+    @Gauge(name = "WARM_RESTART_RESTORED")
+    public long getRestoredCount() {
+        return this.restoredCount.get();
+    }
+
+    @Gauge(name = "WARM_RESTART_DROPPED_EXPIRED")
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    @Gauge(name = "WARM_RESTART_PENDING")
+    public int getPendingCount() {
+        return this.pending.size();
+    }
+}
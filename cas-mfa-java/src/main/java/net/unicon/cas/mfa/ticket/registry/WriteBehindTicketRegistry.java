@@ -0,0 +1,500 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes to a remote ticket registry, such as a database or a replicated store, off the request thread.
+ *
+ * <p>Additions, updates and deletions are recorded locally and queued; a background worker drains the queue and
+ * applies them to the wrapped registry in batches, as one grouped write if the registry is a
+ * {@link BatchWritingTicketRegistry}. Until a change is written, reads are answered from the recorded change, so
+ * callers always see their own writes. Successive changes to the same ticket are coalesced into one write.</p>
+ *
+ * <p>If the wrapped registry is an {@link AuthenticationDeltaAwareTicketRegistry}, the step-up of a ticket granting
+ * ticket is written as the authentications appended to its chain, rather than as the full ticket. A step-up of a
+ * ticket whose addition is not written yet is folded into that addition.</p>
+ *
+ * <p>The queue is bounded. When it is full, the caller waits for room for a short while, and then writes the change
+ * itself. A ticket is only ever written by one thread at a time, so a change written inline and a change written by
+ * the worker cannot overtake each other. A batch that cannot be written is retried a few times before its changes are dropped. Changes that are
+ * still queued when the application context shuts down are written before the worker exits.</p>
+ *
+ * <p>Read-your-writes only holds for callers that go through this registry, so it must be the registry shared by
+ * every component of CAS, rather than only by some of them.</p>
+ */
+public final class WriteBehindTicketRegistry extends AbstractTicketRegistry implements ServiceTicketClaimingTicketRegistry,
+        AuthenticationDeltaAwareTicketRegistry, InitializingBean, DisposableBean {
+
+    private static final long POLL_INTERVAL_MILLIS = 500;
+
+    @NotNull
+    private final TicketRegistry ticketRegistry;
+
+    private final BlockingQueue<String> queue;
+
+    /** The latest change of each ticket that is not written yet. */
+    private final ConcurrentMap<String, PendingWrite> pending = new ConcurrentHashMap<>();
+
+    /** The tickets being written right now, by the worker or inline by a caller. */
+    private final Set<String> flushing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    @Min(1)
+    private int batchSize = 100;
+
+    private long backpressureTimeoutInMillis = 100;
+
+    @Min(0)
+    private int maxRetries = 3;
+
+    private long shutdownTimeoutInMillis = TimeUnit.SECONDS.toMillis(10);
+
+    private final AtomicLong lastFlushLatencyInMillis = new AtomicLong();
+
+    private final AtomicLong lastBatchSize = new AtomicLong();
+
+    private final AtomicLong inlineWriteCount = new AtomicLong();
+
+    private final AtomicLong failedWriteCount = new AtomicLong();
+
+    private volatile boolean running;
+
+    private Thread worker;
+
+    /**
+     * Ctor.
+     *
+     * @param ticketRegistry the registry the changes are written to
+     * @param capacity the maximum number of tickets with changes waiting to be written
+     */
+    public WriteBehindTicketRegistry(final TicketRegistry ticketRegistry, final int capacity) {
+        this.ticketRegistry = ticketRegistry;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+    }
+
+    @Override
+    public void afterPropertiesSet() throws Exception {
+        this.running = true;
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "ticket-registry-write-behind");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    /**
+     * Stop the worker, and write whatever is still queued.
+     *
+     * @throws Exception if the worker cannot be joined
+     */
+    @Override
+    public void destroy() throws Exception {
+        this.running = false;
+        if (this.worker != null) {
+            this.worker.join(this.shutdownTimeoutInMillis);
+        }
+        final List<String> remaining = new ArrayList<>();
+        this.queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            logger.info("Writing {} queued ticket change(s) on shutdown", remaining.size());
+            flush(remaining);
+        }
+    }
+
+    @Override
+    public void addTicket(final Ticket ticket) {
+        Assert.notNull(ticket, "ticket cannot be null");
+        logger.debug("Queueing ticket [{}] to be added to registry.", ticket.getId());
+        enqueue(ticket.getId(), new PendingWrite(ticket));
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>If the wrapped registry is not an {@link AuthenticationDeltaAwareTicketRegistry}, the ticket is added again.
+     * A ticket that is waiting to be deleted is left alone.</p>
+     */
+    @Override
+    public void publishAuthenticationDelta(final TicketGrantingTicket ticketGrantingTicket, final Authentication authentication) {
+        Assert.notNull(ticketGrantingTicket, "ticketGrantingTicket cannot be null");
+        if (!(this.ticketRegistry instanceof AuthenticationDeltaAwareTicketRegistry)) {
+            addTicket(ticketGrantingTicket);
+            return;
+        }
+        final String ticketId = ticketGrantingTicket.getId();
+        logger.debug("Queueing authentication appended to ticket [{}] to be written to registry.", ticketId);
+        while (true) {
+            final PendingWrite previous = this.pending.get(ticketId);
+            if (previous == null) {
+                final PendingWrite write = new PendingWrite(ticketGrantingTicket, Collections.singletonList(authentication));
+                if (this.pending.putIfAbsent(ticketId, write) == null) {
+                    queue(ticketId);
+                    return;
+                }
+            } else if (previous.ticket == null) {
+                return;
+            } else if (this.pending.replace(ticketId, previous, previous.append(ticketGrantingTicket, authentication))) {
+                return;
+            }
+        }
+    }
+
+    @Override
+    public Ticket getTicket(final String ticketId) {
+        if (ticketId == null) {
+            return null;
+        }
+        final PendingWrite write = this.pending.get(ticketId);
+        if (write != null) {
+            return write.ticket;
+        }
+        return this.ticketRegistry.getTicket(ticketId);
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The deletion is queued. Whether the ticket existed is answered from the pending change of the ticket only,
+     * so that deleting never reads the wrapped registry on the calling thread: a ticket without a pending change,
+     * i.e. one that is already written, is reported as not found, although its deletion is queued all the same.</p>
+     */
+    @Override
+    public boolean deleteTicket(final String ticketId) {
+        if (ticketId == null) {
+            return false;
+        }
+        final PendingWrite write = this.pending.get(ticketId);
+        final boolean existed = write != null && write.ticket != null;
+        logger.debug("Queueing ticket [{}] to be removed from registry", ticketId);
+        enqueue(ticketId, new PendingWrite(null));
+        return existed;
+    }
+
+    @Override
+    public ServiceTicket claimServiceTicket(final String serviceTicketId) {
+        if (serviceTicketId == null) {
+            return null;
+        }
+        PendingWrite write = this.pending.get(serviceTicketId);
+        while (write != null) {
+            if (!(write.ticket instanceof ServiceTicket)) {
+                return null;
+            }
+            // the id is already queued, so the worker picks up the deletion.
+            if (this.pending.replace(serviceTicketId, write, new PendingWrite(null))) {
+                return (ServiceTicket) write.ticket;
+            }
+            // claimed by another caller, or written to the registry in the meantime.
+            write = this.pending.get(serviceTicketId);
+        }
+        if (this.ticketRegistry instanceof ServiceTicketClaimingTicketRegistry) {
+            return ((ServiceTicketClaimingTicketRegistry) this.ticketRegistry).claimServiceTicket(serviceTicketId);
+        }
+        final Ticket ticket = this.ticketRegistry.getTicket(serviceTicketId);
+        if (ticket instanceof ServiceTicket && this.ticketRegistry.deleteTicket(serviceTicketId)) {
+            return (ServiceTicket) ticket;
+        }
+        return null;
+    }
+
+    /**
+     * {@inheritDoc}
+     * <p>The tickets of the wrapped registry are copied, with the pending changes applied.</p>
+     */
+    @Override
+    public Collection<Ticket> getTickets() {
+        final Map<String, Ticket> tickets = new LinkedHashMap<>();
+        for (final Ticket ticket : this.ticketRegistry.getTickets()) {
+            tickets.put(ticket.getId(), ticket);
+        }
+        for (final Map.Entry<String, PendingWrite> entry : this.pending.entrySet()) {
+            if (entry.getValue().ticket == null) {
+                tickets.remove(entry.getKey());
+            } else {
+                tickets.put(entry.getKey(), entry.getValue().ticket);
+            }
+        }
+        return Collections.unmodifiableCollection(tickets.values());
+    }
+
+    /**
+     * Record the change, and queue the ticket unless it is already queued.
+     * If the queue stays full for longer than the backpressure timeout, the change is written on the calling thread.
+     *
+     * @param ticketId the ticket id
+     * @param write the change
+     */
+    private void enqueue(final String ticketId, final PendingWrite write) {
+        if (this.pending.put(ticketId, write) != null) {
+            return;
+        }
+        queue(ticketId);
+    }
+
+    /**
+     * Queue the ticket whose change was just recorded.
+     * If the queue stays full for longer than the backpressure timeout, the change is written on the calling thread.
+     *
+     * @param ticketId the ticket id
+     */
+    private void queue(final String ticketId) {
+        if (this.running) {
+            try {
+                if (this.queue.offer(ticketId, this.backpressureTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+                this.inlineWriteCount.incrementAndGet();
+                logger.warn("Write-behind queue is full; writing ticket [{}] inline", ticketId);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        flush(Collections.singletonList(ticketId));
+    }
+
+    /**
+     * Worker loop. Blocks for the next ticket, then takes whatever else is queued up to the batch size.
+     */
+    private void drain() {
+        final List<String> batch = new ArrayList<>(this.batchSize);
+        while (this.running) {
+            try {
+                final String head = this.queue.poll(POLL_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+                if (head != null) {
+                    batch.add(head);
+                    this.queue.drainTo(batch, this.batchSize - 1);
+                    flush(batch);
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final Exception e) {
+                logger.error("Unable to write batch of ticket changes", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write the pending changes of the tickets. Tickets that changed again while they were written
+     * are written again. If the write fails, the changes are queued again, up to the maximum number of retries.
+     *
+     * <p>Tickets that another thread is writing are skipped: that thread checks for a newer change of
+     * each ticket once its write is done, and writes it as well.</p>
+     *
+     * @param ticketIds the ticket ids
+     */
+    private void flush(final List<String> ticketIds) {
+        List<String> remaining = ticketIds;
+        while (!remaining.isEmpty()) {
+            final Map<String, PendingWrite> batch = new LinkedHashMap<>();
+            for (final String ticketId : remaining) {
+                if (!this.flushing.add(ticketId)) {
+                    continue;
+                }
+                final PendingWrite write = this.pending.get(ticketId);
+                if (write != null) {
+                    batch.put(ticketId, write);
+                } else {
+                    this.flushing.remove(ticketId);
+                }
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            try {
+                write(batch);
+            } catch (final RuntimeException e) {
+                logger.warn("Unable to write {} ticket change(s) to the registry", batch.size(), e);
+                this.flushing.removeAll(batch.keySet());
+                retry(batch);
+                return;
+            }
+
+            final long now = System.currentTimeMillis();
+            long oldest = now;
+            remaining = new ArrayList<>();
+            for (final Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+                oldest = Math.min(oldest, entry.getValue().queuedAt);
+                this.flushing.remove(entry.getKey());
+                if (!this.pending.remove(entry.getKey(), entry.getValue())) {
+                    remaining.add(entry.getKey());
+                }
+            }
+            this.lastFlushLatencyInMillis.set(now - oldest);
+            this.lastBatchSize.set(batch.size());
+        }
+    }
+
+    /**
+     * Apply the changes to the wrapped registry, as one grouped write if it supports it.
+     * Appended authentications are published after the grouped write.
+     *
+     * @param batch the changes, keyed by ticket id
+     */
+    private void write(final Map<String, PendingWrite> batch) {
+        final List<PendingWrite> deltas = new ArrayList<>();
+        if (this.ticketRegistry instanceof BatchWritingTicketRegistry) {
+            final List<Ticket> tickets = new ArrayList<>(batch.size());
+            final List<String> deletedTicketIds = new ArrayList<>();
+            for (final Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+                if (entry.getValue().ticket == null) {
+                    deletedTicketIds.add(entry.getKey());
+                } else if (entry.getValue().appendedAuthentications != null) {
+                    deltas.add(entry.getValue());
+                } else {
+                    tickets.add(entry.getValue().ticket);
+                }
+            }
+            if (!tickets.isEmpty() || !deletedTicketIds.isEmpty()) {
+                ((BatchWritingTicketRegistry) this.ticketRegistry).writeTickets(tickets, deletedTicketIds);
+            }
+        } else {
+            for (final Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+                if (entry.getValue().ticket == null) {
+                    this.ticketRegistry.deleteTicket(entry.getKey());
+                } else if (entry.getValue().appendedAuthentications != null) {
+                    deltas.add(entry.getValue());
+                } else {
+                    this.ticketRegistry.addTicket(entry.getValue().ticket);
+                }
+            }
+        }
+        for (final PendingWrite delta : deltas) {
+            for (final Authentication authentication : delta.appendedAuthentications) {
+                ((AuthenticationDeltaAwareTicketRegistry) this.ticketRegistry).publishAuthenticationDelta(
+                        (TicketGrantingTicket) delta.ticket, authentication);
+            }
+        }
+    }
+
+    /**
+     * Queue the changes of a failed batch again. Changes that have been retried too many times,
+     * or that cannot be queued, are dropped.
+     *
+     * @param batch the changes, keyed by ticket id
+     */
+    private void retry(final Map<String, PendingWrite> batch) {
+        for (final Map.Entry<String, PendingWrite> entry : batch.entrySet()) {
+            final PendingWrite write = entry.getValue();
+            if (++write.attempts <= this.maxRetries && this.running && this.queue.offer(entry.getKey())) {
+                continue;
+            }
+            if (this.pending.remove(entry.getKey(), write)) {
+                this.failedWriteCount.incrementAndGet();
+                logger.error("Dropping change of ticket [{}] after {} attempt(s)", entry.getKey(), write.attempts);
+            } else if (!this.queue.offer(entry.getKey())) {
+                flush(Collections.singletonList(entry.getKey()));
+            }
+        }
+    }
+
+    @Gauge(name = "WRITE_BEHIND_QUEUE_DEPTH")
+    public int getQueueDepth() {
+        return this.queue.size();
+    }
+
+    /**
+     * Time the oldest change of the last batch waited before it was written.
+     *
+     * @return the flush latency in milliseconds
+     */
+    @Gauge(name = "WRITE_BEHIND_FLUSH_LATENCY")
+    public long getFlushLatencyInMillis() {
+        return this.lastFlushLatencyInMillis.get();
+    }
+
+    @Gauge(name = "WRITE_BEHIND_BATCH_SIZE")
+    public long getLastBatchSize() {
+        return this.lastBatchSize.get();
+    }
+
+    @Gauge(name = "WRITE_BEHIND_INLINE_WRITES")
+    public long getInlineWriteCount() {
+        return this.inlineWriteCount.get();
+    }
+
+    @Gauge(name = "WRITE_BEHIND_FAILED_WRITES")
+    public long getFailedWriteCount() {
+        return this.failedWriteCount.get();
+    }
+
+    public void setBatchSize(final int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public void setBackpressureTimeoutInMillis(final long backpressureTimeoutInMillis) {
+        this.backpressureTimeoutInMillis = backpressureTimeoutInMillis;
+    }
+
+    public void setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setShutdownTimeoutInMillis(final long shutdownTimeoutInMillis) {
+        this.shutdownTimeoutInMillis = shutdownTimeoutInMillis;
+    }
+
+    /**
+     * A change of a ticket waiting to be written: the ticket to add, or null for a deletion. If only authentications
+     * were appended to the ticket since it was last written, they are written in place of the ticket.
+     */
+    private static final class PendingWrite {
+        private final Ticket ticket;
+        private final List<Authentication> appendedAuthentications;
+        private final long queuedAt = System.currentTimeMillis();
+        private int attempts;
+
+        PendingWrite(final Ticket ticket) {
+            this(ticket, null);
+        }
+
+        PendingWrite(final Ticket ticket, final List<Authentication> appendedAuthentications) {
+            this.ticket = ticket;
+            this.appendedAuthentications = appendedAuthentications;
+        }
+
+        /**
+         * Fold an authentication appended to the ticket into this change.
+         *
+         * @param ticket the ticket, which carries the appended authentication
+         * @param authentication the appended authentication
+         * @return the change that replaces this one
+         */
+        PendingWrite append(final Ticket ticket, final Authentication authentication) {
+            if (this.appendedAuthentications == null) {
+                return new PendingWrite(ticket);
+            }
+            final List<Authentication> authentications = new ArrayList<>(this.appendedAuthentications);
+            authentications.add(authentication);
+            return new PendingWrite(ticket, authentications);
+        }
+    }
+}
@@ -1,5 +1,8 @@
 package net.unicon.cas.mfa.util;
 
+import net.unicon.cas.mfa.authentication.AuthenticationMethod;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.ticket.ProxyChainAssertion;
 import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
 import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.authentication.Authentication;
@@ -92,6 +95,54 @@ public final class MultiFactorUtils {
         return Collections.emptySet();
     }
 
+    /**
+     * Determine whether the authentication fulfilled the given authentication method, without
+     * collecting the fulfilled methods into a new set.
+     *
+     * @param authentication the authentication
+     * @param authenticationMethod the authentication method
+     * @return true if the method is among the fulfilled authentication methods
+     */
+    public static boolean hasSatisfiedAuthenticationMethod(final Authentication authentication, final String authenticationMethod) {
+        final Object methods = authentication.getAttributes().get(
+                MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD);
+        if (methods == null) {
+            return false;
+        }
+        if (methods instanceof Collection) {
+            return ((Collection<?>) methods).contains(authenticationMethod);
+        }
+        if (methods.getClass().isArray()) {
+            for (final Object method : (Object[]) methods) {
+                if (authenticationMethod.equals(method)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        return authenticationMethod.equals(methods);
+    }
+
+    /**
+     * Find the rank of the strongest of the given authentication methods. Lower ranks are stronger.
+     *
+     * @param authenticationMethods the authentication methods
+     * @param authenticationMethodConfiguration the configured authentication methods and their ranks
+     * @return the lowest rank among the configured methods, or null if none of them is configured
+     */
+    public static Integer getStrongestAuthenticationMethodRank(final Collection<String> authenticationMethods,
+                                                               final AuthenticationMethodConfigurationProvider
+                                                                       authenticationMethodConfiguration) {
+        Integer strongest = null;
+        for (final String method : authenticationMethods) {
+            final AuthenticationMethod authenticationMethod = authenticationMethodConfiguration.getAuthenticationMethod(method);
+            if (authenticationMethod != null && authenticationMethod.getRank() != null
+                    && (strongest == null || authenticationMethod.getRank() < strongest)) {
+                strongest = authenticationMethod.getRank();
+            }
+        }
+        return strongest;
+    }
 
     /**
      * Gets authentication from assertionfinal.
@@ -100,6 +151,9 @@ public final class MultiFactorUtils {
      * @return the authentication from assertionfinal
      */
     public static Authentication getAuthenticationFromAssertion(final Assertion assertion) {
+        if (assertion instanceof ProxyChainAssertion) {
+            return ((ProxyChainAssertion) assertion).getLastAuthentication();
+        }
         final List<Authentication> chainedAuthentications = assertion.getChainedAuthentications();
         if (!chainedAuthentications.isEmpty()) {
             final int index = chainedAuthentications.size() - 1;
@@ -0,0 +1,348 @@
+package net.unicon.cas.mfa.web;
+
+import com.codahale.metrics.annotation.Counted;
+import com.codahale.metrics.annotation.Gauge;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.RegisteredServiceTicketValidator;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.ticket.UnacceptableMultiFactorAuthenticationMethodException;
+import net.unicon.cas.mfa.ticket.UnrecognizedMultiFactorAuthenticationMethodException;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import net.unicon.cas.mfa.web.view.ServiceValidationJsonResponseWriter;
+import org.apache.commons.lang3.StringUtils;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.jasig.cas.services.UnauthorizedServiceException;
+import org.jasig.cas.ticket.TicketException;
+import org.jasig.cas.ticket.TicketValidationException;
+import org.jasig.cas.validation.Assertion;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.ModelAndView;
+import org.springframework.web.servlet.mvc.AbstractController;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Validates a batch of service tickets in one request.
+ *
+ * <p>The request is a <code>POST</code> whose body is a JSON array of up to {@link #setMaxBatchSize(int)} items,
+ * each naming a <code>ticket</code>, the <code>service</code> it was issued for, and optionally the requested
+ * <code>authn_method</code>:</p>
+ *
+ * <pre>
+ * [{"ticket":"ST-1-...","service":"https://app.example.org","authn_method":"strong_two_factor"}, ...]
+ * </pre>
+ *
+ * <p>Each registered service is looked up once per batch, however many tickets are validated for it, and
+ * validation specifications are shared with the other validation endpoints. Results are streamed back in the
+ * order of the request, each carrying the same <code>serviceResponse</code> as a single <code>format=JSON</code>
+ * validation would:</p>
+ *
+ * <pre>
+ * {"results":[{"ticket":"ST-1-...","service":"https://app.example.org","serviceResponse":{...}}, ...]}
+ * </pre>
+ *
+ * <p>Proxy granting tickets cannot be requested, and renew is not supported.</p>
+ */
+public class MultiFactorBatchServiceValidateController extends AbstractController {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private static final String FIELD_TICKET = "ticket";
+
+    private static final String FIELD_SERVICE = "service";
+
+    private static final String FIELD_AUTHN_METHOD = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+
+    @NotNull
+    private final RegisteredServiceTicketValidator serviceTicketValidator;
+
+    @NotNull
+    private final ServicesManager servicesManager;
+
+    @NotNull
+    private final AuthenticationMethodConfigurationProvider authenticationMethodConfiguration;
+
+    /** Shared validation specifications of the validation protocol we want to use. */
+    private final ValidationSpecificationCache validationSpecifications = new ValidationSpecificationCache();
+
+    @Min(1)
+    private int maxBatchSize = 100;
+
+    private final AtomicLong validatedTicketCount = new AtomicLong();
+
+    /**
+     * Instantiates a new batch validate controller.
+     *
+     * @param serviceTicketValidator the service ticket validator
+     * @param servicesManager the services manager
+     * @param authenticationMethodConfiguration the authentication methods, used to rank the fulfilled methods
+     */
+    public MultiFactorBatchServiceValidateController(final RegisteredServiceTicketValidator serviceTicketValidator,
+                                                     final ServicesManager servicesManager,
+                                                     final AuthenticationMethodConfigurationProvider authenticationMethodConfiguration) {
+        this.serviceTicketValidator = serviceTicketValidator;
+        this.servicesManager = servicesManager;
+        this.authenticationMethodConfiguration = authenticationMethodConfiguration;
+        setSupportedMethods(new String[] {METHOD_POST});
+    }
+
+    @Override
+    @Timed(name = "MFA_BATCH_SERVICE_VALIDATE_TIMER")
+    @Metered(name = "MFA_BATCH_SERVICE_VALIDATE_METER")
+    @Counted(name = "MFA_BATCH_SERVICE_VALIDATE_COUNTER", monotonic = true)
+    public ModelAndView handleRequest(final HttpServletRequest request, final HttpServletResponse response) throws Exception {
+        return super.handleRequest(request, response);
+    }
+
+    @Override
+    protected ModelAndView handleRequestInternal(final HttpServletRequest request, final HttpServletResponse response)
+            throws Exception {
+        final List<BatchItem> items;
+        try {
+            items = readBatch(request.getInputStream());
+        } catch (final JsonProcessingException | IllegalArgumentException e) {
+            logger.debug("Rejecting batch validation request: {}", e.getMessage());
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST, e.getMessage());
+            return null;
+        }
+
+        response.setContentType("application/json;charset=UTF-8");
+        final JsonGenerator json = ServiceValidationJsonResponseWriter.createGenerator(response.getOutputStream());
+        json.writeStartObject();
+        json.writeArrayFieldStart("results");
+
+        final Map<String, RegisteredService> registeredServices = new HashMap<>();
+        for (final BatchItem item : items) {
+            json.writeStartObject();
+            json.writeStringField(FIELD_TICKET, item.ticket);
+            json.writeStringField(FIELD_SERVICE, item.service);
+            validate(json, item, registeredServices);
+            json.writeEndObject();
+        }
+
+        json.writeEndArray();
+        json.writeEndObject();
+        json.flush();
+
+        this.validatedTicketCount.addAndGet(items.size());
+        logger.debug("Validated batch of {} service ticket(s) for {} service(s)", items.size(), registeredServices.size());
+        return null;
+    }
+
+    /**
+     * Validate one item of the batch and write its result.
+     *
+     * @param json the generator, positioned inside the object of the item
+     * @param item the item
+     * @param registeredServices the registered services already looked up in this batch, by service id
+     * @throws IOException if the result cannot be written
+     */
+    private void validate(final JsonGenerator json, final BatchItem item,
+                          final Map<String, RegisteredService> registeredServices) throws IOException {
+        if (StringUtils.isBlank(item.ticket) || StringUtils.isBlank(item.service)) {
+            writeFailure(json, "INVALID_REQUEST", "INVALID_REQUEST", item.authnMethod, null);
+            return;
+        }
+
+        try {
+            final Service service = new SimpleWebApplicationServiceImpl(item.service);
+            final RegisteredService registeredService;
+            if (registeredServices.containsKey(item.service)) {
+                registeredService = registeredServices.get(item.service);
+            } else {
+                registeredService = this.servicesManager.findServiceBy(service);
+                registeredServices.put(item.service, registeredService);
+            }
+
+            if (registeredService == null || !registeredService.isEnabled()) {
+                logger.warn("ServiceManagement: Service {} does not exist or is not enabled in registry.", service);
+                throw new UnauthorizedServiceException("Service not allowed to validate tickets.");
+            }
+
+            final Assertion assertion = this.serviceTicketValidator.validateServiceTicket(item.ticket, service, registeredService);
+            final AbstractMultiFactorAuthenticationProtocolValidationSpecification validationSpecification =
+                    this.validationSpecifications.get(false, item.authnMethod);
+
+            try {
+                if (!validationSpecification.isSatisfiedBy(assertion)) {
+                    logger.debug("ServiceTicket [{}] does not satisfy validation specification.", item.ticket);
+                    writeFailure(json, "INVALID_TICKET", "INVALID_TICKET_SPEC", item.authnMethod, null);
+                    return;
+                }
+            } catch (final UnrecognizedMultiFactorAuthenticationMethodException e) {
+                logger.debug(e.getMessage(), e);
+                writeFailure(json, e.getCode(), e.getMessage(), item.authnMethod, new Object[] {e.getAuthenticationMethod()});
+                return;
+            } catch (final UnacceptableMultiFactorAuthenticationMethodException e) {
+                logger.debug(e.getMessage(), e);
+                writeFailure(json, e.getCode(), e.getMessage(), item.authnMethod,
+                        new Object[] {item.ticket, e.getAuthenticationMethod()});
+                return;
+            }
+
+            writeSuccess(json, assertion);
+        } catch (final TicketValidationException e) {
+            writeFailure(json, e.getCode(), e.getCode(), item.authnMethod,
+                    new Object[] {item.ticket, e.getOriginalService().getId(), item.service});
+        } catch (final TicketException te) {
+            writeFailure(json, te.getCode(), te.getCode(), item.authnMethod, new Object[] {item.ticket});
+        } catch (final UnauthorizedServiceException e) {
+            writeFailure(json, e.getMessage(), e.getMessage(), item.authnMethod, null);
+        }
+    }
+
+    /**
+     * Write the success response of the assertion.
+     *
+     * @param json the generator
+     * @param assertion the assertion
+     * @throws IOException if the response cannot be written
+     */
+    private void writeSuccess(final JsonGenerator json, final Assertion assertion) throws IOException {
+        final List<Authentication> chainedAuthentications = assertion.getChainedAuthentications();
+        final Authentication authentication = chainedAuthentications.get(chainedAuthentications.size() - 1);
+
+        final List<String> proxies = new ArrayList<>(chainedAuthentications.size() - 1);
+        for (int i = 0; i < chainedAuthentications.size() - 1; i++) {
+            proxies.add(chainedAuthentications.get(i).getPrincipal().getId());
+        }
+
+        final Set<String> methods = new TreeSet<>(MultiFactorUtils.getSatisfiedAuthenticationMethods(authentication));
+        ServiceValidationJsonResponseWriter.writeSuccess(json, authentication.getPrincipal().getId(), null, proxies,
+                authentication.getPrincipal().getAttributes(), methods,
+                MultiFactorUtils.getStrongestAuthenticationMethodRank(methods, this.authenticationMethodConfiguration));
+    }
+
+    /**
+     * Write the failure response, described the same way the single validation endpoint describes it.
+     *
+     * @param json the generator
+     * @param code the error code
+     * @param description the default error description
+     * @param authnMethod the requested authentication method
+     * @param args additional values associated with the error, passed down to the message source
+     * @throws IOException if the response cannot be written
+     */
+    private void writeFailure(final JsonGenerator json, final String code, final String description,
+                              final String authnMethod, final Object[] args) throws IOException {
+        final StringBuilder builder = new StringBuilder(getMessageSourceAccessor().getMessage(code, args, description));
+        if (StringUtils.isNotBlank(authnMethod)) {
+            builder.append(FIELD_AUTHN_METHOD);
+            builder.append("=");
+            builder.append(authnMethod);
+        }
+        ServiceValidationJsonResponseWriter.writeFailure(json, code, builder.toString(), authnMethod);
+    }
+
+    /**
+     * Read the items of the batch.
+     *
+     * @param in the request body
+     * @return the items
+     * @throws IOException if the body cannot be read or is not well-formed
+     * @throws IllegalArgumentException if the body is not an array of objects, or has too many items
+     */
+    private List<BatchItem> readBatch(final InputStream in) throws IOException {
+        final List<BatchItem> items = new ArrayList<>();
+        try (final JsonParser parser = JSON_FACTORY.createParser(in)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IllegalArgumentException("Request body must be a JSON array");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+                if (token != JsonToken.START_OBJECT) {
+                    throw new IllegalArgumentException("Batch items must be JSON objects");
+                }
+                if (items.size() == this.maxBatchSize) {
+                    throw new IllegalArgumentException("Batch exceeds the maximum of " + this.maxBatchSize + " tickets");
+                }
+                items.add(readItem(parser));
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Read one item, skipping fields that are not recognized.
+     *
+     * @param parser the parser, positioned at the start of the item
+     * @return the item
+     * @throws IOException if the item cannot be read
+     */
+    private static BatchItem readItem(final JsonParser parser) throws IOException {
+        final BatchItem item = new BatchItem();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            final String field = parser.getCurrentName();
+            final JsonToken value = parser.nextToken();
+            if (value.isStructStart()) {
+                parser.skipChildren();
+            } else if (FIELD_TICKET.equals(field)) {
+                item.ticket = parser.getValueAsString();
+            } else if (FIELD_SERVICE.equals(field)) {
+                item.service = parser.getValueAsString();
+            } else if (FIELD_AUTHN_METHOD.equals(field)) {
+                item.authnMethod = parser.getValueAsString();
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Number of service tickets validated through this endpoint.
+     *
+     * @return the number of tickets
+     */
+    @Gauge(name = "MFA_BATCH_SERVICE_VALIDATE_TICKETS")
+    public long getValidatedTicketCount() {
+        return this.validatedTicketCount.get();
+    }
+
+    /**
+     * @param validationSpecificationClass The authenticationSpecificationClass
+     * to set.
+     */
+    public final void setValidationSpecificationClass(
+            final Class<AbstractMultiFactorAuthenticationProtocolValidationSpecification> validationSpecificationClass) {
+        this.validationSpecifications.setValidationSpecificationClass(validationSpecificationClass);
+    }
+
+    public final void setMaxBatchSize(final int maxBatchSize) {
+        this.maxBatchSize = maxBatchSize;
+    }
+
+    /**
+     * A ticket to validate, along with the service and the requested authentication method.
+     */
+    private static final class BatchItem {
+        private String ticket;
+        private String service;
+        private String authnMethod;
+    }
+}
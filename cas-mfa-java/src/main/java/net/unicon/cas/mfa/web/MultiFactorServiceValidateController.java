@@ -18,10 +18,15 @@
  */
 package net.unicon.cas.mfa.web;
 
+import com.codahale.metrics.annotation.Counted;
+import com.codahale.metrics.annotation.Metered;
+import com.codahale.metrics.annotation.Timed;
 import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.ticket.PrerenderedValidationAssertion;
 import net.unicon.cas.mfa.ticket.UnacceptableMultiFactorAuthenticationMethodException;
 import net.unicon.cas.mfa.ticket.UnrecognizedMultiFactorAuthenticationMethodException;
 import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.support.AsynchronousProxyHandler;
 import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
 import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.CentralAuthenticationService;
@@ -41,14 +46,18 @@ import org.opensaml.xml.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.bind.ServletRequestBindingException;
-import org.springframework.web.bind.ServletRequestDataBinder;
 import org.springframework.web.bind.ServletRequestUtils;
 import org.springframework.web.servlet.ModelAndView;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.validation.constraints.NotNull;
+import java.io.OutputStream;
 import java.net.URL;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 /**
  * Process the /validate and /serviceValidate URL requests.
@@ -69,6 +78,21 @@ import java.net.URL;
  * {@link MultiFactorAuthenticationSupportingWebApplicationService#CONST_PARAM_AUTHN_METHOD}
  * in order to activate validation of mfa requests. Otherwise, it's compliant with the default
  * implementation.
+ *
+ * <p>Validation specifications are never mutated once built, and are shared across requests.
+ * One instance is kept per combination of <code>renew</code> and requested authentication method,
+ * so the specification class is only instantiated the first time a combination is seen.
+ *
+ * <p>Requests carrying <code>format=JSON</code> are answered by the JSON success and failure views rather than
+ * the default views.
+ *
+ * <p>When the ticket validates to a {@link PrerenderedValidationAssertion}, no proxy granting ticket
+ * was requested and the response is not requested as JSON, the response rendered when the ticket was
+ * granted is written out as is, in place of the default success view.
+ *
+ * <p>When the proxy callback is overlapped and the proxy handler is an {@link AsynchronousProxyHandler},
+ * the proxy granting ticket is delivered to the callback url while the service ticket is being validated,
+ * rather than after. If the service ticket then fails to validate, the proxy granting ticket is destroyed.
  * @author Scott Battaglia
  * @author Misagh Moayyed
  * @since 3.0
@@ -83,6 +107,18 @@ public class MultiFactorServiceValidateController extends DelegateController {
     /** View if Service Ticket Validation Succeeds. */
     private static final String DEFAULT_SERVICE_SUCCESS_VIEW_NAME = "casServiceSuccessView";
 
+    /** View if Service Ticket Validation Fails, and a JSON response was requested. */
+    private static final String DEFAULT_SERVICE_JSON_FAILURE_VIEW_NAME = "casServiceJsonFailureView";
+
+    /** View if Service Ticket Validation Succeeds, and a JSON response was requested. */
+    private static final String DEFAULT_SERVICE_JSON_SUCCESS_VIEW_NAME = "casServiceJsonSuccessView";
+
+    /** Request parameter that selects the response format. */
+    private static final String PARAMETER_FORMAT = "format";
+
+    /** Value of the format parameter that selects a JSON response. */
+    private static final String FORMAT_JSON = "JSON";
+
     /** Constant representing the PGTIOU in the model. */
     private static final String MODEL_PROXY_GRANTING_TICKET_IOU = "pgtIou";
 
@@ -96,9 +132,8 @@ public class MultiFactorServiceValidateController extends DelegateController {
     @NotNull
     private CentralAuthenticationService centralAuthenticationService;
 
-    /** The validation protocol we want to use. */
-    @NotNull
-    private Class<AbstractMultiFactorAuthenticationProtocolValidationSpecification> validationSpecificationClass;
+    /** Shared validation specifications of the validation protocol we want to use. */
+    private final ValidationSpecificationCache validationSpecifications = new ValidationSpecificationCache();
 
     /** The proxy handler we want to use with the controller. */
     @NotNull
@@ -112,6 +147,17 @@ public class MultiFactorServiceValidateController extends DelegateController {
     @NotNull
     private String failureView = DEFAULT_SERVICE_FAILURE_VIEW_NAME;
 
+    /** The view to redirect to on a successful validation, when a JSON response is requested. */
+    @NotNull
+    private String jsonSuccessView = DEFAULT_SERVICE_JSON_SUCCESS_VIEW_NAME;
+
+    /** The view to redirect to on a validation failure, when a JSON response is requested. */
+    @NotNull
+    private String jsonFailureView = DEFAULT_SERVICE_JSON_FAILURE_VIEW_NAME;
+
+    /** Whether the proxy granting ticket callback runs while the service ticket is validated. */
+    private boolean overlapProxyCallback;
+
     /** Extracts parameters from Request object. */
     @NotNull
     private ArgumentExtractor argumentExtractor;
@@ -144,17 +190,21 @@ public class MultiFactorServiceValidateController extends DelegateController {
     }
 
     /**
-     * Initialize the binder with the required fields.
-     * @param request the request object
-     * @param binder  the binder instance
+     * {@inheritDoc}
+     * <p>Times mfa validation requests separately from the rest of the CAS endpoints.
      */
-    protected final void initBinder(final HttpServletRequest request, final ServletRequestDataBinder binder) {
-        binder.setRequiredFields("renew");
+    @Override
+    @Timed(name = "MFA_SERVICE_VALIDATE_TIMER")
+    @Metered(name = "MFA_SERVICE_VALIDATE_METER")
+    @Counted(name = "MFA_SERVICE_VALIDATE_COUNTER", monotonic = true)
+    public ModelAndView handleRequest(final HttpServletRequest request, final HttpServletResponse response) throws Exception {
+        return super.handleRequest(request, response);
     }
 
     /**
      * <p>Handle the request. Specially, abides by the default behavior specified in the {@link org.jasig.cas.web.ServiceValidateController}
-     * and then, invokes the {@link #getCommandClass()} method to delegate the task of spec validation.
+     * and then, invokes the shared {@link AbstractMultiFactorAuthenticationProtocolValidationSpecification} to delegate the task
+     * of spec validation.
      * @param request request object
      * @param response response object
      * @return A {@link ModelAndView} object pointing to either {@link #setSuccessView(String)} or {@link #setFailureView(String)}
@@ -166,15 +216,21 @@ public class MultiFactorServiceValidateController extends DelegateController {
         final WebApplicationService service = this.argumentExtractor.extractService(request);
         final String serviceTicketId = service != null ? service.getArtifactId() : null;
         final String authnMethod = getAuthenticationMethodFromRequest(request);
+        final boolean jsonRequested = isJsonRequested(request);
+        final String successViewName = jsonRequested ? this.jsonSuccessView : this.successView;
+        final String failureViewName = jsonRequested ? this.jsonFailureView : this.failureView;
 
         if (service == null || serviceTicketId == null) {
             logger.debug(String.format("Could not process request; Service: %s, Service Ticket Id: %s", service, serviceTicketId));
-            return generateErrorView("INVALID_REQUEST", "INVALID_REQUEST", authnMethod, null);
+            return generateErrorView(failureViewName, "INVALID_REQUEST", "INVALID_REQUEST", authnMethod, null);
         }
 
+        Future<String> pendingProxyIou = null;
+        String proxyGrantingTicketId = null;
+        boolean validated = false;
+
         try {
             final Credential serviceCredentials = getServiceCredentialsFromRequest(request);
-            String proxyGrantingTicketId = null;
 
             if (serviceCredentials != null) {
                 try {
@@ -185,43 +241,46 @@ public class MultiFactorServiceValidateController extends DelegateController {
                 }
             }
 
+            if (proxyGrantingTicketId != null && this.overlapProxyCallback && this.proxyHandler instanceof AsynchronousProxyHandler) {
+                pendingProxyIou = ((AsynchronousProxyHandler) this.proxyHandler).handleAsynchronously(serviceCredentials,
+                        proxyGrantingTicketId);
+            }
+
             final Assertion assertion = this.centralAuthenticationService.validateServiceTicket(serviceTicketId, service);
-            final AbstractMultiFactorAuthenticationProtocolValidationSpecification validationSpecification = this.getCommandClass();
-            final ServletRequestDataBinder binder = new ServletRequestDataBinder(validationSpecification, "validationSpecification");
-            initBinder(request, binder);
-            binder.bind(request);
-
-            /**
-             * The binder does not support field aliases. This means that the request parameter names
-             * must exactly match the validation spec fields, or the match fails. Since the validation request
-             * per the modified protocol will use 'authn_method', we could either create a matching field
-             * inside the validation object, create a custom data binder object that does the conversion,
-             * or simply bind the parameter manually.
-             *
-             * This implementation opts for the latter choice.
-             */
-            validationSpecification.setAuthenticationMethod(authnMethod);
+            final AbstractMultiFactorAuthenticationProtocolValidationSpecification validationSpecification =
+                    this.validationSpecifications.get(isRenewRequested(request), authnMethod);
 
             try {
                 if (!validationSpecification.isSatisfiedBy(assertion)) {
                     logger.debug("ServiceTicket [" + serviceTicketId + "] does not satisfy validation specification.");
-                    return generateErrorView("INVALID_TICKET", "INVALID_TICKET_SPEC", authnMethod, null);
+                    return generateErrorView(failureViewName, "INVALID_TICKET", "INVALID_TICKET_SPEC", authnMethod, null);
                 }
             } catch (final UnrecognizedMultiFactorAuthenticationMethodException e) {
                 logger.debug(e.getMessage(), e);
-                return generateErrorView(e.getCode(), e.getMessage(), authnMethod, new Object[] {e.getAuthenticationMethod()});
+                return generateErrorView(failureViewName, e.getCode(), e.getMessage(), authnMethod,
+                        new Object[] {e.getAuthenticationMethod()});
             } catch (final UnacceptableMultiFactorAuthenticationMethodException e) {
                 logger.debug(e.getMessage(), e);
-                return generateErrorView(e.getCode(), e.getMessage(), authnMethod,
+                return generateErrorView(failureViewName, e.getCode(), e.getMessage(), authnMethod,
                         new Object[] {serviceTicketId, e.getAuthenticationMethod()});
             }
 
+            validated = true;
             onSuccessfulValidation(serviceTicketId, assertion);
 
-            final ModelAndView success = new ModelAndView(this.successView);
+            if (assertion instanceof PrerenderedValidationAssertion && proxyGrantingTicketId == null
+                    && DEFAULT_SERVICE_SUCCESS_VIEW_NAME.equals(successViewName)) {
+                writePrerenderedResponse(response, (PrerenderedValidationAssertion) assertion);
+                logger.debug(String.format("Successfully validated service ticket: %s", serviceTicketId));
+                return null;
+            }
+
+            final ModelAndView success = new ModelAndView(successViewName);
             success.addObject(MODEL_ASSERTION, assertion);
 
-            if (serviceCredentials != null && proxyGrantingTicketId != null) {
+            if (pendingProxyIou != null) {
+                success.addObject(MODEL_PROXY_GRANTING_TICKET_IOU, awaitProxyIou(pendingProxyIou));
+            } else if (serviceCredentials != null && proxyGrantingTicketId != null) {
                 final String proxyIou = this.proxyHandler.handle(serviceCredentials, proxyGrantingTicketId);
                 success.addObject(MODEL_PROXY_GRANTING_TICKET_IOU, proxyIou);
             }
@@ -234,15 +293,72 @@ public class MultiFactorServiceValidateController extends DelegateController {
 
             return success;
         } catch (final TicketValidationException e) {
-            return generateErrorView(e.getCode(), e.getCode(), authnMethod,
+            return generateErrorView(failureViewName, e.getCode(), e.getCode(), authnMethod,
                     new Object[] {serviceTicketId, e.getOriginalService().getId(), service.getId()});
         } catch (final TicketException te) {
-            return generateErrorView(te.getCode(), te.getCode(), authnMethod, new Object[] {serviceTicketId});
+            return generateErrorView(failureViewName, te.getCode(), te.getCode(), authnMethod, new Object[] {serviceTicketId});
         } catch (final UnauthorizedServiceException e) {
-            return generateErrorView(e.getMessage(), e.getMessage(), authnMethod, null);
+            return generateErrorView(failureViewName, e.getMessage(), e.getMessage(), authnMethod, null);
+        } finally {
+            if (pendingProxyIou != null && !validated) {
+                revokeProxyGrantingTicket(pendingProxyIou, proxyGrantingTicketId);
+            }
+        }
+    }
+
+    /**
+     * Wait for the proxy granting ticket callback that was started ahead of validation, for no longer than the
+     * proxy handler allows a callback to take. A callback that does not complete in time is cancelled.
+     * @param pendingProxyIou the pending callback
+     * @return the proxy granting ticket iou, or null if the callback failed or timed out
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private String awaitProxyIou(final Future<String> pendingProxyIou) throws InterruptedException {
+        final long timeoutInMillis = ((AsynchronousProxyHandler) this.proxyHandler).getCallbackTimeoutInMillis();
+        try {
+            return pendingProxyIou.get(timeoutInMillis, TimeUnit.MILLISECONDS);
+        } catch (final ExecutionException e) {
+            logger.warn("Proxy granting ticket callback failed", e.getCause());
+            return null;
+        } catch (final TimeoutException e) {
+            logger.warn("Proxy granting ticket callback did not complete within " + timeoutInMillis + " ms");
+            pendingProxyIou.cancel(true);
+            return null;
+        }
+    }
+
+    /**
+     * Stop the proxy granting ticket callback that was started ahead of validation, and destroy the proxy
+     * granting ticket since the service ticket did not validate. The callback may already have been delivered,
+     * so the ticket cannot simply be left in place.
+     * @param pendingProxyIou the pending callback
+     * @param proxyGrantingTicketId the proxy granting ticket id
+     */
+    private void revokeProxyGrantingTicket(final Future<String> pendingProxyIou, final String proxyGrantingTicketId) {
+        pendingProxyIou.cancel(true);
+        try {
+            this.centralAuthenticationService.destroyTicketGrantingTicket(proxyGrantingTicketId);
+        } catch (final Exception e) {
+            logger.warn("Unable to destroy proxy granting ticket " + proxyGrantingTicketId, e);
         }
     }
 
+    /**
+     * Write the validation response that was rendered when the service ticket was granted.
+     * @param response response object
+     * @param assertion the assertion carrying the rendered response
+     * @throws Exception if the response cannot be written
+     */
+    private void writePrerenderedResponse(final HttpServletResponse response, final PrerenderedValidationAssertion assertion)
+            throws Exception {
+        final byte[] payload = assertion.getPayload();
+        response.setContentType("text/html;charset=UTF-8");
+        response.setContentLength(payload.length);
+        final OutputStream out = response.getOutputStream();
+        out.write(payload);
+        out.flush();
+    }
+
     /**
      * Template method to handle post successful validation event by extensions.
      * @param serviceTicketId service ticket in validation
@@ -254,15 +370,16 @@ public class MultiFactorServiceValidateController extends DelegateController {
 
     /**
      * Generate the error view to indicate a failed validation event.
+     * @param viewName the name of the failure view
      * @param code  the error code
      * @param description error description
      * @param args additional values associated with the error, passed down to the message source
      * @param authnMethod requested authentication method in the request
      * @return A {@link ModelAndView} based on {@link #setFailureView(String)}
      */
-    private ModelAndView generateErrorView(final String code, final String description,
+    private ModelAndView generateErrorView(final String viewName, final String code, final String description,
                                            final String authnMethod, final Object[] args) {
-        final ModelAndView modelAndView = new ModelAndView(this.failureView);
+        final ModelAndView modelAndView = new ModelAndView(viewName);
         final String convertedDescription = getMessageSourceAccessor().getMessage(code, args, description);
 
         final StringBuilder builder = new StringBuilder(convertedDescription);
@@ -280,16 +397,23 @@ public class MultiFactorServiceValidateController extends DelegateController {
     }
 
     /**
-     * Returns the instance of {@link AbstractMultiFactorAuthenticationProtocolValidationSpecification} that is responsible
-     * to validate the incoming validation request based on the augmented spec for MFA.
-     * @return the instance of {@link AbstractMultiFactorAuthenticationProtocolValidationSpecification}
+     * Determine whether renew is requested, accepting the same values the request binder used to.
+     * @param request request object
+     * @return true if renew is requested
      */
-    private AbstractMultiFactorAuthenticationProtocolValidationSpecification getCommandClass() {
-        try {
-            return this.validationSpecificationClass.newInstance();
-        } catch (final Exception e) {
-            throw new RuntimeException(e);
-        }
+    private static boolean isRenewRequested(final HttpServletRequest request) {
+        final String renew = StringUtils.trimToNull(request.getParameter("renew"));
+        return renew != null && ("true".equalsIgnoreCase(renew) || "on".equalsIgnoreCase(renew)
+                || "yes".equalsIgnoreCase(renew) || "1".equals(renew));
+    }
+
+    /**
+     * Determine whether the response should be rendered as JSON, i.e. <code>format=JSON</code>.
+     * @param request request object
+     * @return true if JSON is requested
+     */
+    private static boolean isJsonRequested(final HttpServletRequest request) {
+        return FORMAT_JSON.equalsIgnoreCase(request.getParameter(PARAMETER_FORMAT));
     }
 
     /**
@@ -332,7 +456,7 @@ public class MultiFactorServiceValidateController extends DelegateController {
      */
     public final void setValidationSpecificationClass(
             final Class<AbstractMultiFactorAuthenticationProtocolValidationSpecification> validationSpecificationClass) {
-        this.validationSpecificationClass = validationSpecificationClass;
+        this.validationSpecifications.setValidationSpecificationClass(validationSpecificationClass);
     }
 
     /**
@@ -349,6 +473,20 @@ public class MultiFactorServiceValidateController extends DelegateController {
         this.successView = successView;
     }
 
+    /**
+     * @param jsonFailureView The view to use on a validation failure, when a JSON response is requested.
+     */
+    public final void setJsonFailureView(final String jsonFailureView) {
+        this.jsonFailureView = jsonFailureView;
+    }
+
+    /**
+     * @param jsonSuccessView The view to use on a successful validation, when a JSON response is requested.
+     */
+    public final void setJsonSuccessView(final String jsonSuccessView) {
+        this.jsonSuccessView = jsonSuccessView;
+    }
+
     /**
      * @param proxyHandler The proxyHandler to set.
      */
@@ -356,5 +494,13 @@ public class MultiFactorServiceValidateController extends DelegateController {
         this.proxyHandler = proxyHandler;
     }
 
+    /**
+     * @param overlapProxyCallback Whether the proxy granting ticket callback should run while the service ticket
+     * is validated. Only takes effect with an {@link AsynchronousProxyHandler}.
+     */
+    public final void setOverlapProxyCallback(final boolean overlapProxyCallback) {
+        this.overlapProxyCallback = overlapProxyCallback;
+    }
+
 
 }
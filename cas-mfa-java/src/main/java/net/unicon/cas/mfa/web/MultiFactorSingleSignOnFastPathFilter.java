@@ -0,0 +1,241 @@
+package net.unicon.cas.mfa.web;
+
+import net.unicon.cas.addons.authentication.AuthenticationSupport;
+import net.unicon.cas.mfa.authentication.AuthenticationMethod;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestContext;
+import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestResolver;
+import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationTransactionContext;
+import net.unicon.cas.mfa.authentication.RequestedAuthenticationMethodRankingStrategy;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.support.AbstractMultiFactorAuthenticationArgumentExtractor;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.apache.commons.lang3.StringUtils;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Response.ResponseType;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+
+import static net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_METHOD;
+
+/**
+ * A servlet filter placed in front of the login flow that short-circuits requests whose
+ * existing single sign-on session already satisfies the authentication method required by the service.
+ *
+ * <p>The filter mirrors the decision made by
+ * {@link net.unicon.cas.mfa.web.flow.ValidateInitialMultiFactorAuthenticationRequestAction}: it collects
+ * the mfa requests for the target service from the configured argument extractors and the principal attribute
+ * resolver, ranks them, and compares the highest ranked method against the methods already fulfilled by the
+ * ticket granting ticket. When the session is strong enough, a service ticket is granted and the user agent
+ * is redirected back to the service without ever starting the login webflow.</p>
+ *
+ * <p>Anything the filter is unable to decide with certainty (renew and gateway requests, POST responses,
+ * the warn cookie, missing or insufficient sessions, unauthorized services, etc) falls through
+ * to the full login webflow.</p>
+ *
+ * <p>The filter is turned off by default.</p>
+ */
+public final class MultiFactorSingleSignOnFastPathFilter extends OncePerRequestFilter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiFactorSingleSignOnFastPathFilter.class);
+
+    /** Whether the fast path is active at all. */
+    private boolean enabled;
+
+    /**
+     * The CAS through which service tickets are granted. It is replaced with the mfa aware CAS once the servlet
+     * context that defines it is up; until then, the CAS given at construction is used.
+     */
+    @NotNull
+    private volatile CentralAuthenticationService centralAuthenticationService;
+
+    @NotNull
+    private final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator;
+
+    @NotNull
+    private final Set<AbstractMultiFactorAuthenticationArgumentExtractor> mfaArgumentExtractors;
+
+    @NotNull
+    private final AuthenticationMethodConfigurationProvider authenticationMethodConfiguration;
+
+    @NotNull
+    private final RequestedAuthenticationMethodRankingStrategy authenticationMethodRankingStrategy;
+
+    @NotNull
+    private final AuthenticationSupport authenticationSupport;
+
+    /** Optional resolver for mfa requests sourced from principal attributes. */
+    private MultiFactorAuthenticationRequestResolver multiFactorAuthenticationRequestResolver;
+
+    /** Optional warn cookie generator. If the cookie is present, the user must be warned and the webflow takes over. */
+    private CookieRetrievingCookieGenerator warnCookieGenerator;
+
+    /**
+     * Instantiates a new fast path filter.
+     *
+     * @param centralAuthenticationService the central authentication service
+     * @param ticketGrantingTicketCookieGenerator the ticket granting ticket cookie generator
+     * @param mfaArgumentExtractors the mfa argument extractors
+     * @param authenticationMethodConfiguration the authentication method configuration
+     * @param authenticationMethodRankingStrategy the authentication method ranking strategy
+     * @param authenticationSupport the authentication support
+     */
+    public MultiFactorSingleSignOnFastPathFilter(final CentralAuthenticationService centralAuthenticationService,
+                                                 final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator,
+                                                 final Set<AbstractMultiFactorAuthenticationArgumentExtractor> mfaArgumentExtractors,
+                                                 final AuthenticationMethodConfigurationProvider authenticationMethodConfiguration,
+                                                 final RequestedAuthenticationMethodRankingStrategy authenticationMethodRankingStrategy,
+                                                 final AuthenticationSupport authenticationSupport) {
+        this.centralAuthenticationService = centralAuthenticationService;
+        this.ticketGrantingTicketCookieGenerator = ticketGrantingTicketCookieGenerator;
+        this.mfaArgumentExtractors = mfaArgumentExtractors;
+        this.authenticationMethodConfiguration = authenticationMethodConfiguration;
+        this.authenticationMethodRankingStrategy = authenticationMethodRankingStrategy;
+        this.authenticationSupport = authenticationSupport;
+    }
+
+    @Override
+    protected void doFilterInternal(final HttpServletRequest request, final HttpServletResponse response,
+                                    final FilterChain filterChain) throws ServletException, IOException {
+        final String redirectUrl = this.enabled ? determineFastPathRedirectUrl(request) : null;
+        if (redirectUrl == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        response.sendRedirect(redirectUrl);
+    }
+
+    /**
+     * Determine whether the request can bypass the login webflow, and if so
+     * grant the service ticket and produce the url to which the user agent should be redirected.
+     *
+     * @param request the request
+     * @return the redirect url, or null if the request should proceed to the login webflow.
+     */
+    private String determineFastPathRedirectUrl(final HttpServletRequest request) {
+        if (!"GET".equalsIgnoreCase(request.getMethod())
+                || StringUtils.isNotBlank(request.getParameter("renew"))
+                || StringUtils.isNotBlank(request.getParameter("gateway"))
+                || "POST".equalsIgnoreCase(request.getParameter(CONST_PARAM_METHOD))) {
+            return null;
+        }
+
+        final String tgt = this.ticketGrantingTicketCookieGenerator.retrieveCookieValue(request);
+        if (StringUtils.isBlank(tgt)) {
+            return null;
+        }
+
+        if (this.warnCookieGenerator != null
+                && StringUtils.isNotBlank(this.warnCookieGenerator.retrieveCookieValue(request))) {
+            LOGGER.debug("Warn cookie is present; deferring to the login webflow.");
+            return null;
+        }
+
+        try {
+            final MultiFactorAuthenticationTransactionContext mfaTx = collectMfaRequests(request);
+            if (mfaTx == null) {
+                return null;
+            }
+
+            final Authentication authentication = this.authenticationSupport.getAuthenticationFrom(tgt);
+            if (authentication == null) {
+                LOGGER.debug("No valid authentication could be found for the ticket granting ticket; deferring to the login webflow.");
+                return null;
+            }
+
+            if (this.multiFactorAuthenticationRequestResolver != null) {
+                final MultiFactorAuthenticationSupportingWebApplicationService targetService =
+                        mfaTx.getMfaRequests().iterator().next().getMfaService();
+                final List<MultiFactorAuthenticationRequestContext> principalRequests =
+                        this.multiFactorAuthenticationRequestResolver.resolve(authentication, targetService, ResponseType.REDIRECT);
+                if (principalRequests != null) {
+                    for (final MultiFactorAuthenticationRequestContext ctx : principalRequests) {
+                        mfaTx.addMfaRequest(ctx);
+                    }
+                }
+            }
+
+            final MultiFactorAuthenticationSupportingWebApplicationService mfaService =
+                    this.authenticationMethodRankingStrategy.computeHighestRankingAuthenticationMethod(mfaTx);
+            if (mfaService == null || StringUtils.isBlank(mfaService.getAuthenticationMethod())) {
+                return null;
+            }
+
+            final Set<String> satisfiedMethods = MultiFactorUtils.getSatisfiedAuthenticationMethods(authentication);
+            if (!this.authenticationMethodRankingStrategy.anyPreviouslyAchievedAuthenticationMethodsStrongerThanRequestedOne(
+                    satisfiedMethods, mfaService.getAuthenticationMethod())) {
+                LOGGER.debug("Authentication method [{}] is not yet satisfied by {}; deferring to the login webflow.",
+                        mfaService.getAuthenticationMethod(), satisfiedMethods);
+                return null;
+            }
+
+            final ServiceTicket serviceTicket = this.centralAuthenticationService.grantServiceTicket(tgt, mfaService);
+            LOGGER.debug("Granted service ticket for [{}] without entering the login webflow", mfaService.getId());
+            return mfaService.getResponse(serviceTicket.getId()).getUrl();
+        } catch (final Exception e) {
+            LOGGER.debug("Unable to complete the fast path; deferring to the login webflow", e);
+            return null;
+        }
+    }
+
+    /**
+     * Collect mfa requests for the target service from the configured argument extractors.
+     *
+     * @param request the request
+     * @return the mfa transaction, or null if the service does not require mfa.
+     */
+    private MultiFactorAuthenticationTransactionContext collectMfaRequests(final HttpServletRequest request) {
+        MultiFactorAuthenticationTransactionContext mfaTx = null;
+        for (final AbstractMultiFactorAuthenticationArgumentExtractor extractor : this.mfaArgumentExtractors) {
+            final MultiFactorAuthenticationSupportingWebApplicationService service =
+                    MultiFactorAuthenticationSupportingWebApplicationService.class.cast(extractor.extractService(request));
+            if (service != null) {
+                final AuthenticationMethod method =
+                        this.authenticationMethodConfiguration.getAuthenticationMethod(service.getAuthenticationMethod());
+                if (method == null) {
+                    return null;
+                }
+                if (mfaTx == null) {
+                    mfaTx = new MultiFactorAuthenticationTransactionContext(service.getId());
+                }
+                mfaTx.addMfaRequest(new MultiFactorAuthenticationRequestContext(service, method.getRank()));
+            }
+        }
+        return mfaTx;
+    }
+
+    /**
+     * Replace the CAS through which service tickets are granted.
+     *
+     * @param centralAuthenticationService the central authentication service, normally the mfa aware CAS
+     */
+    public void setCentralAuthenticationService(final CentralAuthenticationService centralAuthenticationService) {
+        this.centralAuthenticationService = centralAuthenticationService;
+    }
+
+    public void setEnabled(final boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setMultiFactorAuthenticationRequestResolver(
+            final MultiFactorAuthenticationRequestResolver multiFactorAuthenticationRequestResolver) {
+        this.multiFactorAuthenticationRequestResolver = multiFactorAuthenticationRequestResolver;
+    }
+
+    public void setWarnCookieGenerator(final CookieRetrievingCookieGenerator warnCookieGenerator) {
+        this.warnCookieGenerator = warnCookieGenerator;
+    }
+}
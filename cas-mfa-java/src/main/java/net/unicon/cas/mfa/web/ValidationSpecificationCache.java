@@ -0,0 +1,76 @@
+package net.unicon.cas.mfa.web;
+
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Shares validation specifications across validation requests. Specifications are never mutated once built,
+ * so one instance is kept per combination of <code>renew</code> and requested authentication method, and
+ * the specification class is only instantiated the first time a combination is seen.
+ */
+final class ValidationSpecificationCache {
+
+    /** Upper bound on the number of shared validation specifications, to guard against arbitrary authentication methods. */
+    private static final int MAX_CACHED_VALIDATION_SPECIFICATIONS = 256;
+
+    /** Shared validation specifications, keyed by renew flag and authentication method. */
+    private final ConcurrentMap<String, AbstractMultiFactorAuthenticationProtocolValidationSpecification> validationSpecifications =
+            new ConcurrentHashMap<>();
+
+    /** The validation protocol we want to use. */
+    private volatile Class<AbstractMultiFactorAuthenticationProtocolValidationSpecification> validationSpecificationClass;
+
+    /**
+     * Returns the instance of {@link AbstractMultiFactorAuthenticationProtocolValidationSpecification} that is responsible
+     * to validate the incoming validation request based on the augmented spec for MFA. Instances are shared and
+     * must not be modified by the caller.
+     * @param renew whether renew was requested
+     * @param authnMethod the requested authentication method, may be null
+     * @return the instance of {@link AbstractMultiFactorAuthenticationProtocolValidationSpecification}
+     */
+    AbstractMultiFactorAuthenticationProtocolValidationSpecification get(final boolean renew, final String authnMethod) {
+        final String key = renew + ":" + StringUtils.defaultString(authnMethod);
+        AbstractMultiFactorAuthenticationProtocolValidationSpecification spec = this.validationSpecifications.get(key);
+        if (spec == null) {
+            spec = create(renew, authnMethod);
+            if (this.validationSpecifications.size() < MAX_CACHED_VALIDATION_SPECIFICATIONS) {
+                final AbstractMultiFactorAuthenticationProtocolValidationSpecification existing =
+                        this.validationSpecifications.putIfAbsent(key, spec);
+                if (existing != null) {
+                    spec = existing;
+                }
+            }
+        }
+        return spec;
+    }
+
+    /**
+     * Create a new validation specification.
+     * @param renew whether renew was requested
+     * @param authnMethod the requested authentication method, may be null
+     * @return the validation specification
+     */
+    private AbstractMultiFactorAuthenticationProtocolValidationSpecification create(final boolean renew, final String authnMethod) {
+        try {
+            final AbstractMultiFactorAuthenticationProtocolValidationSpecification spec = this.validationSpecificationClass.newInstance();
+            spec.setRenew(renew);
+            spec.setAuthenticationMethod(authnMethod);
+            return spec;
+        } catch (final Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Sets the validation specification class, discarding the specifications built from the previous one.
+     * @param validationSpecificationClass the validation specification class
+     */
+    void setValidationSpecificationClass(
+            final Class<AbstractMultiFactorAuthenticationProtocolValidationSpecification> validationSpecificationClass) {
+        this.validationSpecificationClass = validationSpecificationClass;
+        this.validationSpecifications.clear();
+    }
+}
@@ -159,22 +159,7 @@ public abstract class AbstractMultiFactorAuthenticationViaFormAction extends Abs
 
         try {
             final Authentication auth = this.authenticationManager.authenticate(credentials);
-            if (MultiFactorRequestContextUtils.getMultifactorWebApplicationService(context) == null) {
-                final List<MultiFactorAuthenticationRequestContext> mfaRequest =
-                        getMfaRequestOrNull(auth, WebUtils.getService(context), context);
-                //No principal attribute sourced mfa method request. Just get the highest ranked mfa service from existing ones
-                if (mfaRequest == null) {
-                    MultiFactorRequestContextUtils.setMultifactorWebApplicationService(context,
-                            getHighestRankedMfaRequestFromMfaTransaction(context));
-                } else {
-                    MultiFactorRequestContextUtils.setMultifactorWebApplicationService(context,
-                            addToMfaTransactionAndGetHighestRankedMfaRequest(mfaRequest, context));
-                }
-            }
-
-            final Event result = multiFactorAuthenticationSuccessful(auth, context, credentials, messageContext, id);
-            MultiFactorRequestContextUtils.setAuthentication(context, auth);
-            return result;
+            return doMultiFactorAuthentication(context, auth, credentials, messageContext, id);
         } catch (final AuthenticationException e) {
             populateErrorsInstance(e.getCode(), messageContext);
             MultiFactorRequestContextUtils.setAuthenticationExceptionInFlowScope(context, e);
@@ -183,6 +168,42 @@ public abstract class AbstractMultiFactorAuthenticationViaFormAction extends Abs
         return getErrorEvent(context);
     }
 
+    /**
+     * Proceed with the MFA request based on an authentication context that is already established
+     * for the given credentials, and place the authentication context back into the flow.
+     *
+     * @param context request context
+     * @param auth the authentication established for the credentials
+     * @param credentials the requesting credentials
+     * @param messageContext the message bundle manager
+     * @param id the identifier of the credential, based on implementation provided in the flow setup.
+     *
+     * @return the resulting event
+     *
+     * @throws Exception the exception
+     * @see #doMultiFactorAuthentication(RequestContext, Credential, MessageContext, String)
+     */
+    protected final Event doMultiFactorAuthentication(final RequestContext context, final Authentication auth,
+                                                      final Credential credentials, final MessageContext messageContext,
+                                                      final String id) throws Exception {
+        if (MultiFactorRequestContextUtils.getMultifactorWebApplicationService(context) == null) {
+            final List<MultiFactorAuthenticationRequestContext> mfaRequest =
+                    getMfaRequestOrNull(auth, WebUtils.getService(context), context);
+            //No principal attribute sourced mfa method request. Just get the highest ranked mfa service from existing ones
+            if (mfaRequest == null) {
+                MultiFactorRequestContextUtils.setMultifactorWebApplicationService(context,
+                        getHighestRankedMfaRequestFromMfaTransaction(context));
+            } else {
+                MultiFactorRequestContextUtils.setMultifactorWebApplicationService(context,
+                        addToMfaTransactionAndGetHighestRankedMfaRequest(mfaRequest, context));
+            }
+        }
+
+        final Event result = multiFactorAuthenticationSuccessful(auth, context, credentials, messageContext, id);
+        MultiFactorRequestContextUtils.setAuthentication(context, auth);
+        return result;
+    }
+
 
     /**
      * In the event of a non-MFA request, return the result of {@link #getErrorEvent(RequestContext)} by default.
@@ -1,6 +1,7 @@
 package net.unicon.cas.mfa.web.flow;
 
 import net.unicon.cas.addons.authentication.AuthenticationSupport;
+import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationTransactionContext;
 import net.unicon.cas.mfa.authentication.principal.MultiFactorCredentials;
 import net.unicon.cas.mfa.web.flow.util.MultiFactorRequestContextUtils;
 import org.apache.commons.lang3.StringUtils;
@@ -86,7 +87,8 @@ public final class GenerateMultiFactorCredentialsAction extends AbstractAction {
 
     /**
      * Obtain the {@link Authentication} object from the webflow's flow scope. If none,
-     * attempt to obtain the authentication object from the current TGT.
+     * attempt to obtain the primary authentication held by the mfa transaction, when creation
+     * of the primary TGT is deferred, and then the authentication object from the current TGT.
      * @param context the request context
      * @return the {@link Authentication} object
      */
@@ -95,6 +97,12 @@ public final class GenerateMultiFactorCredentialsAction extends AbstractAction {
         final Authentication authentication = MultiFactorRequestContextUtils.getAuthentication(context);
 
         if (authentication == null) {
+            final MultiFactorAuthenticationTransactionContext mfaTx = MultiFactorRequestContextUtils.getMfaTransaction(context);
+            if (mfaTx != null && mfaTx.getPrimaryAuthentication() != null) {
+                LOGGER.debug("Retrieving primary authentication context from the multifactor transaction");
+                return mfaTx.getPrimaryAuthentication();
+            }
+
             LOGGER.debug("Request is missing authentication context. Examining TGT...");
             final String tgt = MultiFactorRequestContextUtils.getTicketGrantingTicketId(context);
             if (!StringUtils.isBlank(tgt)) {
@@ -22,13 +22,18 @@ package net.unicon.cas.mfa.web.flow;
 import net.unicon.cas.addons.authentication.AuthenticationSupport;
 import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestContext;
 import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestResolver;
+import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationTransactionContext;
 import net.unicon.cas.mfa.authentication.RequestedAuthenticationMethodRankingStrategy;
+import net.unicon.cas.mfa.authentication.principal.MultiFactorCredentials;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketDestructionQueue;
 import net.unicon.cas.mfa.web.flow.util.MultiFactorRequestContextUtils;
 import net.unicon.cas.mfa.web.support.AuthenticationMethodVerifier;
 
 import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.authentication.Authentication;
-import org.jasig.cas.authentication.principal.Credentials;
+import org.jasig.cas.authentication.Credential;
+import org.jasig.cas.authentication.handler.AuthenticationException;
+import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.web.flow.AuthenticationViaFormAction;
 import org.jasig.cas.web.support.WebUtils;
 import org.springframework.binding.message.MessageContext;
@@ -36,6 +41,7 @@ import org.springframework.web.util.CookieGenerator;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
+import javax.servlet.http.HttpServletResponse;
 import java.util.List;
 
 /**
@@ -55,6 +61,21 @@ public class InitiatingMultiFactorAuthenticationViaFormAction extends AbstractMu
      */
     private final AuthenticationViaFormAction wrapperAuthenticationAction;
 
+    /**
+     * Whether creation of the primary TGT should be deferred until all factors are satisfied.
+     */
+    private boolean deferPrimaryTicketGrantingTicket;
+
+    /**
+     * The warn cookie generator, used when the primary TGT is deferred.
+     */
+    private CookieGenerator warnCookieGenerator;
+
+    /**
+     * Optional queue that destroys the previous SSO session off the request thread.
+     */
+    private TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue;
+
     /**
      * Ctor.
      *
@@ -79,13 +100,21 @@ public class InitiatingMultiFactorAuthenticationViaFormAction extends AbstractMu
     }
 
     @Override
-    protected final Event doAuthentication(final RequestContext context, final Credentials credentials,
+    protected final Event doAuthentication(final RequestContext context, final Credential credentials,
                                            final MessageContext messageContext, final String id) throws Exception {
 
 
         final String tgt = WebUtils.getTicketGrantingTicketId(context);
         if (!StringUtils.isBlank(tgt)) {
-            this.cas.destroyTicketGrantingTicket(tgt);
+            if (this.ticketGrantingTicketDestructionQueue != null) {
+                this.ticketGrantingTicketDestructionQueue.enqueue(tgt);
+            } else {
+                this.cas.destroyTicketGrantingTicket(tgt);
+            }
+        }
+
+        if (this.deferPrimaryTicketGrantingTicket) {
+            return doAuthenticationWithDeferredTicketGrantingTicket(context, credentials, messageContext, id);
         }
 
         final String primaryAuthnEventId = this.wrapperAuthenticationAction.submit(context, credentials, messageContext);
@@ -108,18 +137,109 @@ public class InitiatingMultiFactorAuthenticationViaFormAction extends AbstractMu
         return primaryAuthnEvent;
     }
 
+    /**
+     * Authenticate the primary credentials without creating a TGT. If the authentication
+     * resolves an mfa request, or the mfa transaction already holds requests collected from the service
+     * by the argument extractors, the primary authentication is only held in the mfa transaction
+     * and the flow proceeds to the next factor, so that the ticket registry is written to once after the
+     * final factor succeeds. Otherwise, the TGT is created right away from the primary authentication.
+     *
+     * @param context the context
+     * @param credentials the credentials
+     * @param messageContext the message context
+     * @param id the id
+     * @return the event
+     * @throws Exception the exception
+     */
+    private Event doAuthenticationWithDeferredTicketGrantingTicket(final RequestContext context, final Credential credentials,
+                                                                   final MessageContext messageContext,
+                                                                   final String id) throws Exception {
+        final Authentication primaryAuthentication;
+        try {
+            primaryAuthentication = this.authenticationManager.authenticate(credentials);
+        } catch (final AuthenticationException e) {
+            populateErrorsInstance(e.getCode(), messageContext);
+            logger.debug(e.getMessage(), e);
+            return getErrorEvent(context);
+        }
+
+        final List<MultiFactorAuthenticationRequestContext> mfaRequests =
+                getMfaRequestOrNull(primaryAuthentication, WebUtils.getService(context), context);
+        putWarnCookieIfRequestParameterPresent(context);
+
+        if (mfaRequests != null) {
+            MultiFactorRequestContextUtils.setMultifactorWebApplicationService(context,
+                    addToMfaTransactionAndGetHighestRankedMfaRequest(mfaRequests, context));
+        }
+
+        final MultiFactorAuthenticationTransactionContext mfaTx = MultiFactorRequestContextUtils.getMfaTransaction(context);
+        if (mfaTx != null && !mfaTx.getMfaRequests().isEmpty()) {
+            mfaTx.setPrimaryAuthentication(primaryAuthentication);
+            logger.debug("Deferred creation of the primary TGT for [{}] until multifactor authentication completes",
+                    primaryAuthentication.getPrincipal().getId());
+            return doMultiFactorAuthentication(context, primaryAuthentication, credentials, messageContext, id);
+        }
+
+        final MultiFactorCredentials mfaCredentials = new MultiFactorCredentials();
+        mfaCredentials.addAuthenticationToChain(primaryAuthentication);
+        mfaCredentials.getChainedCredentials().put(id, credentials);
+
+        final TicketGrantingTicket ticketGrantingTicket = this.cas.createTicketGrantingTicket(mfaCredentials);
+        WebUtils.putTicketGrantingTicketInRequestScope(context, ticketGrantingTicket.getId());
+        return success();
+    }
+
+    /**
+     * Put warn cookie if request parameter present, as the wrapped authentication action would.
+     *
+     * @param context the context
+     */
+    private void putWarnCookieIfRequestParameterPresent(final RequestContext context) {
+        if (this.warnCookieGenerator == null) {
+            return;
+        }
+        final HttpServletResponse response = WebUtils.getHttpServletResponse(context);
+        if (StringUtils.isNotBlank(context.getExternalContext().getRequestParameterMap().get("warn"))) {
+            this.warnCookieGenerator.addCookie(response, "true");
+        } else {
+            this.warnCookieGenerator.removeCookie(response);
+        }
+    }
+
     /**
      * Sets the warn cookie generator.
      *
      * @param warnCookieGenerator the new warn cookie generator
      */
     public final void setWarnCookieGenerator(final CookieGenerator warnCookieGenerator) {
+        this.warnCookieGenerator = warnCookieGenerator;
         this.wrapperAuthenticationAction.setWarnCookieGenerator(warnCookieGenerator);
     }
 
+    /**
+     * Defer creation of the primary TGT when multifactor authentication is immediately required.
+     * The primary authentication is then carried by the mfa transaction and a single TGT is
+     * created once the final factor succeeds.
+     *
+     * @param deferPrimaryTicketGrantingTicket the flag
+     */
+    public final void setDeferPrimaryTicketGrantingTicket(final boolean deferPrimaryTicketGrantingTicket) {
+        this.deferPrimaryTicketGrantingTicket = deferPrimaryTicketGrantingTicket;
+    }
+
+    /**
+     * Destroy the previous SSO session through the given queue, rather than on the request thread.
+     *
+     * @param ticketGrantingTicketDestructionQueue the queue
+     */
+    public final void setTicketGrantingTicketDestructionQueue(
+            final TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue) {
+        this.ticketGrantingTicketDestructionQueue = ticketGrantingTicketDestructionQueue;
+    }
+
     @Override
     protected final Event multiFactorAuthenticationSuccessful(final Authentication authentication, final RequestContext context,
-                                                              final Credentials credentials,
+                                                              final Credential credentials,
                                                               final MessageContext messageContext, final String id) {
         return super.getSuccessEvent(context);
     }
@@ -2,6 +2,7 @@ package net.unicon.cas.mfa.web.flow;
 
 import net.unicon.cas.addons.authentication.AuthenticationSupport;
 import net.unicon.cas.mfa.authentication.principal.MultiFactorCredentials;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketDestructionQueue;
 import net.unicon.cas.mfa.web.flow.util.MultiFactorRequestContextUtils;
 import org.jasig.cas.CentralAuthenticationService;
 import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
@@ -28,6 +29,9 @@ import javax.validation.constraints.NotNull;
  * Deployments that require that type of caching will need to disable destroying the primary authn TGT
  * via {@link #setDestroyPreviousSSOSession(boolean)}.
  *
+ * If the ticket granting ticket was stepped up in place, its id is unchanged and
+ * the SSO session is left intact.
+ *
  * @author Misagh Moayyed
  */
 public final class SendTicketGrantingTicketAction extends org.springframework.webflow.action.AbstractAction {
@@ -44,6 +48,9 @@ public final class SendTicketGrantingTicketAction extends org.springframework.we
 
     private boolean destroyPreviousSSOSession = true;
 
+    /** Optional queue that destroys the previous SSO session off the request thread. */
+    private TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue;
+
     @Override
     protected Event doExecute(final RequestContext context) {
 
@@ -59,12 +66,22 @@ public final class SendTicketGrantingTicketAction extends org.springframework.we
         this.ticketGrantingTicketCookieGenerator.addCookie(WebUtils.getHttpServletRequest(context), WebUtils
                 .getHttpServletResponse(context), ticketGrantingTicketId);
 
+        if (ticketGrantingTicketId.equals(ticketGrantingTicketValueFromCookie)) {
+            logger.debug("Ticket granting ticket [{}] was upgraded in place; the SSO session is left intact.",
+                    ticketGrantingTicketId);
+            return success();
+        }
+
         if ((mfa == null || this.destroyPreviousSSOSession)
                 && ticketGrantingTicketValueFromCookie != null
                 && !ticketGrantingTicketId.equals(ticketGrantingTicketValueFromCookie)) {
             logger.debug("Destroying the previous SSO session mapped to [{}] because, this is not an MFA request,"
                     + " or configuration dictated destroying the SSO session.", ticketGrantingTicketValueFromCookie);
-            this.centralAuthenticationService.destroyTicketGrantingTicket(ticketGrantingTicketValueFromCookie);
+            if (this.ticketGrantingTicketDestructionQueue != null) {
+                this.ticketGrantingTicketDestructionQueue.enqueue(ticketGrantingTicketValueFromCookie);
+            } else {
+                this.centralAuthenticationService.destroyTicketGrantingTicket(ticketGrantingTicketValueFromCookie);
+            }
         }
 
         return success();
@@ -86,4 +103,9 @@ public final class SendTicketGrantingTicketAction extends org.springframework.we
     public void setDestroyPreviousSSOSession(final boolean destroyPreviousSSOSession) {
         this.destroyPreviousSSOSession = destroyPreviousSSOSession;
     }
+
+    public void setTicketGrantingTicketDestructionQueue(
+            final TicketGrantingTicketDestructionQueue ticketGrantingTicketDestructionQueue) {
+        this.ticketGrantingTicketDestructionQueue = ticketGrantingTicketDestructionQueue;
+    }
 }
@@ -1,6 +1,7 @@
 package net.unicon.cas.mfa.web.flow;
 
 import net.unicon.cas.addons.authentication.AuthenticationSupport;
+import net.unicon.cas.mfa.MultiFactorTicketGrantingTicketUpgrader;
 import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestResolver;
 import net.unicon.cas.mfa.authentication.RequestedAuthenticationMethodRankingStrategy;
 import net.unicon.cas.mfa.authentication.principal.MultiFactorCredentials;
@@ -8,8 +9,10 @@ import net.unicon.cas.mfa.web.flow.util.MultiFactorRequestContextUtils;
 
 import net.unicon.cas.mfa.web.support.AuthenticationMethodVerifier;
 import org.jasig.cas.authentication.Authentication;
+import org.apache.commons.lang3.StringUtils;
 import org.jasig.cas.authentication.principal.Credentials;
 import org.jasig.cas.ticket.TicketException;
+import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.web.support.WebUtils;
 import org.springframework.binding.message.MessageContext;
 import org.springframework.webflow.execution.Event;
@@ -23,6 +26,11 @@ import org.springframework.webflow.execution.RequestContext;
  */
 public class TerminatingMultiFactorAuthenticationViaFormAction extends AbstractMultiFactorAuthenticationViaFormAction {
 
+    /**
+     * Whether an existing ticket granting ticket should be stepped up in place
+     * rather than replaced by a new one.
+     */
+    private boolean upgradeTicketGrantingTicketInPlace;
 
     /**
      * Ctor.
@@ -52,7 +60,10 @@ public class TerminatingMultiFactorAuthenticationViaFormAction extends AbstractM
     }
 
     /**
-     * Creates the ticket granting ticket.
+     * Creates the ticket granting ticket. If configured to do so and the flow already carries a ticket granting ticket,
+     * the authentication established for this factor is appended to the existing ticket instead, which preserves the
+     * ticket id and the services already granted under it. If the existing ticket cannot be upgraded in place,
+     * a new ticket granting ticket is created.
      *
      * @param authentication the authentication
      * @param context the context
@@ -72,6 +83,18 @@ public class TerminatingMultiFactorAuthenticationViaFormAction extends AbstractM
 
         MultiFactorRequestContextUtils.setMfaCredentials(context, mfa);
 
+        final String existingTgt = MultiFactorRequestContextUtils.getTicketGrantingTicketId(context);
+        if (this.upgradeTicketGrantingTicketInPlace && StringUtils.isNotBlank(existingTgt)
+                && this.cas instanceof MultiFactorTicketGrantingTicketUpgrader) {
+            final TicketGrantingTicket upgraded = ((MultiFactorTicketGrantingTicketUpgrader) this.cas)
+                    .upgradeTicketGrantingTicket(existingTgt, authentication);
+            if (upgraded != null) {
+                logger.debug("Appended authentication for [{}] to existing ticket granting ticket [{}]", id, existingTgt);
+                WebUtils.putTicketGrantingTicketInRequestScope(context, upgraded.getId());
+                return getSuccessEvent(context);
+            }
+        }
+
         final String tgt = this.cas.createTicketGrantingTicket(mfa);
         WebUtils.putTicketGrantingTicketInRequestScope(context, tgt);
             return getSuccessEvent(context);
@@ -85,4 +108,8 @@ public class TerminatingMultiFactorAuthenticationViaFormAction extends AbstractM
             final MessageContext messageContext, final String id) throws Exception {
         return super.getErrorEvent(context);
     }
+
+    public void setUpgradeTicketGrantingTicketInPlace(final boolean upgradeTicketGrantingTicketInPlace) {
+        this.upgradeTicketGrantingTicketInPlace = upgradeTicketGrantingTicketInPlace;
+    }
 }
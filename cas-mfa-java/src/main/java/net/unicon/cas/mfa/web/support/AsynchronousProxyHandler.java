@@ -0,0 +1,29 @@
+package net.unicon.cas.mfa.web.support;
+
+import org.jasig.cas.authentication.Credential;
+import org.jasig.cas.ticket.proxy.ProxyHandler;
+
+import java.util.concurrent.Future;
+
+/**
+ * A {@link ProxyHandler} that can deliver the proxy granting ticket to the callback url in the background,
+ * so that the caller can carry on with other work while the callback is in flight.
+ */
+public interface AsynchronousProxyHandler extends ProxyHandler {
+
+    /**
+     * Start delivering the proxy granting ticket to the callback url of the credential.
+     *
+     * @param credential the credential carrying the callback url
+     * @param proxyGrantingTicketId the proxy granting ticket id
+     * @return the future proxy granting ticket iou, which completes with null if the callback fails
+     */
+    Future<String> handleAsynchronously(Credential credential, String proxyGrantingTicketId);
+
+    /**
+     * The longest a callback may take to be delivered. Callers waiting on a future callback should give up after it.
+     *
+     * @return the callback timeout in milliseconds
+     */
+    long getCallbackTimeoutInMillis();
+}
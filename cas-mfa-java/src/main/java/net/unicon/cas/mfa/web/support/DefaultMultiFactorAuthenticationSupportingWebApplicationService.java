@@ -13,6 +13,7 @@ import org.springframework.util.StringUtils;
 import javax.validation.constraints.NotNull;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 /**
  * The MultiFactorAuthenticationService is an extension of the generic CAS service
@@ -46,6 +47,9 @@ public final class DefaultMultiFactorAuthenticationSupportingWebApplicationServi
     /** The type of HTTP response. **/
     private final ResponseType responseType;
 
+    /** Optional dispatcher that sends the logout callback in parallel with others. Not replicated. **/
+    private transient SingleLogoutCallbackDispatcher singleLogoutCallbackDispatcher;
+
     /**
      * Create an instance of {@link DefaultMultiFactorAuthenticationSupportingWebApplicationService}.
      *
@@ -128,6 +132,36 @@ public final class DefaultMultiFactorAuthenticationSupportingWebApplicationServi
         return Response.getRedirectResponse(getOriginalUrl(), parameters);
     }
 
+    /**
+     * {@inheritDoc}
+     *
+     * <p>If a {@link SingleLogoutCallbackDispatcher} is available, the callback is queued with the dispatcher
+     * and this method returns without waiting for the service to respond. This is called when the ticket granting
+     * ticket is expired, whether it is destroyed by the central authentication service or by the destruction queue.
+     * The service is marked as logged out the same way, so that it is never logged out twice.</p>
+     */
+    @Override
+    public synchronized boolean logOutOfService(final String sessionIdentifier) {
+        if (this.singleLogoutCallbackDispatcher == null) {
+            return super.logOutOfService(sessionIdentifier);
+        }
+        if (isLoggedOutAlready()) {
+            return true;
+        }
+        setLoggedOutAlready(true);
+        LOGGER.debug("Queuing logout request for: {}", getId());
+        final Future<Boolean> outcome = this.singleLogoutCallbackDispatcher.dispatch(getOriginalUrl(), sessionIdentifier);
+        try {
+            return !outcome.isDone() || outcome.get();
+        } catch (final Exception e) {
+            return false;
+        }
+    }
+
+    void setSingleLogoutCallbackDispatcher(final SingleLogoutCallbackDispatcher singleLogoutCallbackDispatcher) {
+        this.singleLogoutCallbackDispatcher = singleLogoutCallbackDispatcher;
+    }
+
     @Override
     public String getAuthenticationMethod() {
         return this.authenticationMethod;
@@ -28,6 +28,11 @@ public final class DefaultMultiFactorWebApplicationServiceFactory implements Mul
      */
     private final HttpClient httpClient;
 
+    /**
+     * Optional dispatcher that sends logout callbacks in parallel.
+     */
+    private SingleLogoutCallbackDispatcher singleLogoutCallbackDispatcher;
+
     /**
      * Ctor.
      *
@@ -50,10 +55,15 @@ public final class DefaultMultiFactorWebApplicationServiceFactory implements Mul
         Assert.notNull(authenticationMethod, "authnMethod cannot be null.");
         Assert.notNull(authenticationMethodSource, "authenticationMethodSource cannot be null.");
 
-        return new DefaultMultiFactorAuthenticationSupportingWebApplicationService(
-                id, originalUrl, artifactId, responseType,
-                getHttpClientIfSingleSignOutEnabled(),
-                authenticationMethod, authenticationMethodSource);
+        final DefaultMultiFactorAuthenticationSupportingWebApplicationService service =
+                new DefaultMultiFactorAuthenticationSupportingWebApplicationService(
+                    id, originalUrl, artifactId, responseType,
+                    getHttpClientIfSingleSignOutEnabled(),
+                    authenticationMethod, authenticationMethodSource);
+        if (!this.disableSingleSignOut) {
+            service.setSingleLogoutCallbackDispatcher(this.singleLogoutCallbackDispatcher);
+        }
+        return service;
     }
 
     /**
@@ -65,5 +75,9 @@ public final class DefaultMultiFactorWebApplicationServiceFactory implements Mul
         return !this.disableSingleSignOut ? this.httpClient : null;
     }
 
+    public void setSingleLogoutCallbackDispatcher(final SingleLogoutCallbackDispatcher singleLogoutCallbackDispatcher) {
+        this.singleLogoutCallbackDispatcher = singleLogoutCallbackDispatcher;
+    }
+
 
 }
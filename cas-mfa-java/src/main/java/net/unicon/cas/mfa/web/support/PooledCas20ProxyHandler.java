@@ -0,0 +1,293 @@
+package net.unicon.cas.mfa.web.support;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.authentication.Credential;
+import org.jasig.cas.authentication.principal.HttpBasedServiceCredentials;
+import org.jasig.cas.util.DefaultUniqueTicketIdGenerator;
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import javax.validation.constraints.NotNull;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers proxy granting tickets to the callback url of the proxying service the way the CAS 2.0 proxy handler
+ * does: the proxy granting ticket and a freshly generated iou are passed as the <code>pgtId</code> and
+ * <code>pgtIou</code> parameters of a GET request, and the iou is only handed out if the callback answers
+ * with an acceptable status.
+ *
+ * <p>Callbacks are executed by a bounded pool of workers with strict connect and read timeouts, so that a slow
+ * or unreachable callback cannot hold on to a validation thread for longer than those timeouts. The number of
+ * concurrent callbacks to a single host is capped, and responses are drained so that connections are returned
+ * to the keep-alive cache and reused. When the pool and its queue are exhausted, the callback fails immediately.</p>
+ */
+public final class PooledCas20ProxyHandler implements AsynchronousProxyHandler, DisposableBean {
+
+    /** The proxy granting ticket iou prefix. */
+    private static final String PGTIOU_PREFIX = "PGTIOU";
+
+    private static final int[] ACCEPTABLE_CODES = {HttpURLConnection.HTTP_OK, HttpURLConnection.HTTP_NOT_MODIFIED,
+            HttpURLConnection.HTTP_MOVED_TEMP, HttpURLConnection.HTTP_MOVED_PERM, HttpURLConnection.HTTP_ACCEPTED};
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(PooledCas20ProxyHandler.class);
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    @NotNull
+    private UniqueTicketIdGenerator uniqueTicketIdGenerator = new DefaultUniqueTicketIdGenerator();
+
+    private int connectTimeoutInMillis = 2000;
+
+    private int readTimeoutInMillis = 3000;
+
+    private int maxConnectionsPerHost = 10;
+
+    /**
+     * Ctor.
+     *
+     * @param maxParallelism the maximum number of callbacks in flight at once
+     * @param queueCapacity the maximum number of callbacks waiting for a worker before callbacks are rejected
+     */
+    public PooledCas20ProxyHandler(final int maxParallelism, final int queueCapacity) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxParallelism, maxParallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "pgt-callback-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    @Override
+    public String handle(final Credential credential, final String proxyGrantingTicketId) {
+        final Future<String> proxyIou = handleAsynchronously(credential, proxyGrantingTicketId);
+        try {
+            return proxyIou.get(getCallbackTimeoutInMillis(), TimeUnit.MILLISECONDS);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            proxyIou.cancel(true);
+            return null;
+        } catch (final ExecutionException | TimeoutException e) {
+            LOGGER.warn("Proxy granting ticket callback did not complete: {}", e.getMessage());
+            proxyIou.cancel(true);
+            return null;
+        }
+    }
+
+    @Override
+    public Future<String> handleAsynchronously(final Credential credential, final String proxyGrantingTicketId) {
+        final URL callbackUrl = ((HttpBasedServiceCredentials) credential).getCallbackUrl();
+        final String proxyIou = this.uniqueTicketIdGenerator.getNewTicketId(PGTIOU_PREFIX);
+        final String callback = buildCallbackUrl(callbackUrl, proxyIou, proxyGrantingTicketId);
+
+        final Callable<String> delivery = new Callable<String>() {
+            @Override
+            public String call() throws Exception {
+                return deliver(callbackUrl, callback) ? proxyIou : null;
+            }
+        };
+
+        try {
+            return this.executor.submit(delivery);
+        } catch (final RejectedExecutionException e) {
+            this.rejectedCount.incrementAndGet();
+            LOGGER.warn("Proxy granting ticket callback pool is saturated; rejecting callback to [{}]", callbackUrl);
+            final FutureTask<String> rejected = new FutureTask<>(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return null;
+                }
+            });
+            rejected.run();
+            return rejected;
+        }
+    }
+
+    @Override
+    public boolean canHandle(final Credential credential) {
+        return credential instanceof HttpBasedServiceCredentials;
+    }
+
+    /**
+     * Append the iou and the proxy granting ticket to the callback url.
+     *
+     * @param callbackUrl the callback url
+     * @param proxyIou the proxy granting ticket iou
+     * @param proxyGrantingTicketId the proxy granting ticket id
+     * @return the url to call
+     */
+    private static String buildCallbackUrl(final URL callbackUrl, final String proxyIou, final String proxyGrantingTicketId) {
+        final String base = callbackUrl.toExternalForm();
+        final StringBuilder builder = new StringBuilder(base.length() + proxyIou.length() + proxyGrantingTicketId.length() + 15);
+        builder.append(base);
+        builder.append(callbackUrl.getQuery() != null ? '&' : '?');
+        builder.append("pgtIou=").append(proxyIou);
+        builder.append("&pgtId=").append(proxyGrantingTicketId);
+        return builder.toString();
+    }
+
+    /**
+     * Call the callback url.
+     *
+     * @param callbackUrl the callback url as configured, used to identify the host
+     * @param callback the url to call, carrying the iou and proxy granting ticket
+     * @return true if the callback answered with an acceptable status
+     * @throws InterruptedException if interrupted while waiting for a host permit
+     */
+    private boolean deliver(final URL callbackUrl, final String callback) throws InterruptedException {
+        final Semaphore permits = getHostPermits(callbackUrl);
+        if (!permits.tryAcquire(this.connectTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("Too many concurrent proxy granting ticket callbacks to [{}]", callbackUrl.getHost());
+            this.failedCount.incrementAndGet();
+            return false;
+        }
+        try {
+            final int status = get(new URL(callback));
+            for (final int code : ACCEPTABLE_CODES) {
+                if (status == code) {
+                    this.deliveredCount.incrementAndGet();
+                    return true;
+                }
+            }
+            LOGGER.debug("Proxy granting ticket callback to [{}] answered with status {}", callbackUrl, status);
+        } catch (final IOException e) {
+            LOGGER.debug("Proxy granting ticket callback to [{}] failed: {}", callbackUrl, e.getMessage());
+        } finally {
+            permits.release();
+        }
+        this.failedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Issue the GET request. Redirects are not followed, and the response is drained so the connection can be reused.
+     *
+     * @param url the url
+     * @return the response status code
+     * @throws IOException if the endpoint cannot be reached
+     */
+    private int get(final URL url) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(this.connectTimeoutInMillis);
+        connection.setReadTimeout(this.readTimeoutInMillis);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod("GET");
+
+        final int status = connection.getResponseCode();
+        final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                final byte[] buffer = new byte[512];
+                while (in.read(buffer) != -1) {
+                    continue;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Gets the permits limiting concurrent callbacks to the host of the url.
+     *
+     * @param url the url
+     * @return the permits
+     */
+    private Semaphore getHostPermits(final URL url) {
+        final String host = url.getHost() + ':' + url.getPort();
+        Semaphore permits = this.hostPermits.get(host);
+        if (permits == null) {
+            final Semaphore created = new Semaphore(this.maxConnectionsPerHost);
+            permits = this.hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.executor.shutdownNow();
+    }
+
+    @Gauge(name = "PGT_CALLBACK_QUEUE_DEPTH")
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    @Gauge(name = "PGT_CALLBACK_ACTIVE")
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    @Gauge(name = "PGT_CALLBACK_DELIVERED")
+    public long getDeliveredCount() {
+        return this.deliveredCount.get();
+    }
+
+    @Gauge(name = "PGT_CALLBACK_FAILED")
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    @Gauge(name = "PGT_CALLBACK_REJECTED")
+    public long getRejectedCount() {
+        return this.rejectedCount.get();
+    }
+
+    @Override
+    public long getCallbackTimeoutInMillis() {
+        return this.connectTimeoutInMillis + this.readTimeoutInMillis;
+    }
+
+    public void setUniqueTicketIdGenerator(final UniqueTicketIdGenerator uniqueTicketIdGenerator) {
+        this.uniqueTicketIdGenerator = uniqueTicketIdGenerator;
+    }
+
+    public void setConnectTimeoutInMillis(final int connectTimeoutInMillis) {
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+    }
+
+    public void setReadTimeoutInMillis(final int readTimeoutInMillis) {
+        this.readTimeoutInMillis = readTimeoutInMillis;
+    }
+
+    public void setMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+}
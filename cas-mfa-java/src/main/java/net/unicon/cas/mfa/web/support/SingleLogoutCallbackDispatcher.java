@@ -0,0 +1,292 @@
+package net.unicon.cas.mfa.web.support;
+
+import com.codahale.metrics.annotation.Gauge;
+import org.jasig.cas.util.DefaultUniqueTicketIdGenerator;
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends single logout callbacks to services in parallel.
+ *
+ * <p>Callbacks are executed by a bounded pool of workers, fed by a bounded queue. When both are exhausted,
+ * further callbacks are dropped rather than blocking the thread that destroys the ticket granting ticket;
+ * drops are counted and logged. The number of concurrent callbacks to any single host is capped, and each
+ * response is fully consumed so that the underlying connection is returned to the keep-alive cache and
+ * reused for the next callback to the same host.</p>
+ *
+ * <p>Each callback is bounded by connect and read timeouts, and is retried with exponential backoff
+ * when the endpoint is unreachable or answers with an error status.</p>
+ */
+public final class SingleLogoutCallbackDispatcher implements DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleLogoutCallbackDispatcher.class);
+
+    private static final UniqueTicketIdGenerator LOGOUT_REQUEST_ID_GENERATOR = new DefaultUniqueTicketIdGenerator();
+
+    private final ThreadPoolExecutor executor;
+
+    private final ConcurrentMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private int connectTimeoutInMillis = 5000;
+
+    private int readTimeoutInMillis = 5000;
+
+    private int maxRetries = 2;
+
+    private long initialBackoffInMillis = 100;
+
+    private int maxConnectionsPerHost = 10;
+
+    /**
+     * Ctor.
+     *
+     * @param maxParallelism the maximum number of callbacks in flight at once
+     * @param queueCapacity the maximum number of callbacks waiting for a worker before callbacks are dropped
+     */
+    public SingleLogoutCallbackDispatcher(final int maxParallelism, final int queueCapacity) {
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(maxParallelism, maxParallelism, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(queueCapacity), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable r) {
+                        final Thread thread = new Thread(r, "slo-dispatcher-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }, new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Queue the logout callback for the service.
+     *
+     * @param url the service url to which the logout request is posted
+     * @param sessionIdentifier the session identifier, i.e. the service ticket issued to the service
+     * @return the future outcome of the callback. If the callback is dropped,
+     * the future is already completed with false.
+     */
+    public Future<Boolean> dispatch(final String url, final String sessionIdentifier) {
+        final Callable<Boolean> callback = new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return deliver(url, buildLogoutRequest(sessionIdentifier));
+            }
+        };
+
+        try {
+            return this.executor.submit(callback);
+        } catch (final RejectedExecutionException e) {
+            this.droppedCount.incrementAndGet();
+            LOGGER.warn("Logout callback dispatcher is saturated; dropping logout callback to [{}]", url);
+            final FutureTask<Boolean> dropped = new FutureTask<>(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    return false;
+                }
+            });
+            dropped.run();
+            return dropped;
+        }
+    }
+
+    /**
+     * Post the logout request, retrying with exponential backoff.
+     *
+     * @param url the url
+     * @param logoutRequest the logout request message
+     * @return true if the endpoint accepted the callback
+     * @throws InterruptedException if interrupted while waiting for a host permit or backing off
+     */
+    private boolean deliver(final String url, final String logoutRequest) throws InterruptedException {
+        final URL endpoint;
+        try {
+            endpoint = new URL(url);
+        } catch (final IOException e) {
+            LOGGER.warn("Invalid logout callback url [{}]", url);
+            this.failedCount.incrementAndGet();
+            return false;
+        }
+
+        final Semaphore permits = getHostPermits(endpoint);
+        long backoff = this.initialBackoffInMillis;
+        for (int attempt = 0; attempt <= this.maxRetries; attempt++) {
+            if (attempt > 0) {
+                Thread.sleep(backoff);
+                backoff *= 2;
+            }
+
+            permits.acquire();
+            try {
+                final int status = post(endpoint, logoutRequest);
+                if (status >= HttpURLConnection.HTTP_OK && status < HttpURLConnection.HTTP_BAD_REQUEST) {
+                    return true;
+                }
+                LOGGER.debug("Logout callback to [{}] answered with status {} on attempt {}", url, status, attempt + 1);
+            } catch (final IOException e) {
+                LOGGER.debug("Logout callback to [{}] failed on attempt {}: {}", url, attempt + 1, e.getMessage());
+            } finally {
+                permits.release();
+            }
+        }
+
+        LOGGER.warn("Giving up on logout callback to [{}] after {} attempt(s)", url, this.maxRetries + 1);
+        this.failedCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Post the message as the <code>logoutRequest</code> form parameter.
+     * Redirects are not followed, and the response is drained so the connection can be reused.
+     *
+     * @param endpoint the endpoint
+     * @param logoutRequest the logout request message
+     * @return the response status code
+     * @throws IOException if the endpoint cannot be reached
+     */
+    private int post(final URL endpoint, final String logoutRequest) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+        connection.setConnectTimeout(this.connectTimeoutInMillis);
+        connection.setReadTimeout(this.readTimeoutInMillis);
+        connection.setInstanceFollowRedirects(false);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+
+        final byte[] body = ("logoutRequest=" + URLEncoder.encode(logoutRequest, "UTF-8"))
+                .getBytes(StandardCharsets.UTF_8);
+        connection.setFixedLengthStreamingMode(body.length);
+        try (final OutputStream out = connection.getOutputStream()) {
+            out.write(body);
+        }
+
+        final int status = connection.getResponseCode();
+        final InputStream in = status < HttpURLConnection.HTTP_BAD_REQUEST
+                ? connection.getInputStream() : connection.getErrorStream();
+        if (in != null) {
+            try {
+                final byte[] buffer = new byte[512];
+                while (in.read(buffer) != -1) {
+                    continue;
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return status;
+    }
+
+    /**
+     * Gets the permits limiting concurrent callbacks to the host of the endpoint.
+     *
+     * @param endpoint the endpoint
+     * @return the permits
+     */
+    private Semaphore getHostPermits(final URL endpoint) {
+        final String host = endpoint.getHost() + ':' + endpoint.getPort();
+        Semaphore permits = this.hostPermits.get(host);
+        if (permits == null) {
+            final Semaphore created = new Semaphore(this.maxConnectionsPerHost);
+            permits = this.hostPermits.putIfAbsent(host, created);
+            if (permits == null) {
+                permits = created;
+            }
+        }
+        return permits;
+    }
+
+    /**
+     * Builds the SAML logout request, in the same format CAS sends for single logout.
+     *
+     * @param sessionIdentifier the session identifier
+     * @return the logout request
+     */
+    private static String buildLogoutRequest(final String sessionIdentifier) {
+        final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+
+        return "<samlp:LogoutRequest xmlns:samlp=\"urn:oasis:names:tc:SAML:2.0:protocol\" ID=\""
+                + LOGOUT_REQUEST_ID_GENERATOR.getNewTicketId("LR")
+                + "\" Version=\"2.0\" IssueInstant=\"" + format.format(new Date())
+                + "\"><saml:NameID xmlns:saml=\"urn:oasis:names:tc:SAML:2.0:assertion\">@NOT_USED@</saml:NameID>"
+                + "<samlp:SessionIndex>" + sessionIdentifier + "</samlp:SessionIndex></samlp:LogoutRequest>";
+    }
+
+    @Override
+    public void destroy() throws Exception {
+        this.executor.shutdown();
+        if (!this.executor.awaitTermination(this.readTimeoutInMillis, TimeUnit.MILLISECONDS)) {
+            LOGGER.warn("{} logout callback(s) were still pending on shutdown", this.executor.getQueue().size());
+            this.executor.shutdownNow();
+        }
+    }
+
+    @Gauge(name = "SLO_DISPATCHER_QUEUE_DEPTH")
+    public int getQueueDepth() {
+        return this.executor.getQueue().size();
+    }
+
+    @Gauge(name = "SLO_DISPATCHER_ACTIVE")
+    public int getActiveCount() {
+        return this.executor.getActiveCount();
+    }
+
+    @Gauge(name = "SLO_DISPATCHER_DROPPED")
+    public long getDroppedCount() {
+        return this.droppedCount.get();
+    }
+
+    @Gauge(name = "SLO_DISPATCHER_FAILED")
+    public long getFailedCount() {
+        return this.failedCount.get();
+    }
+
+    public void setConnectTimeoutInMillis(final int connectTimeoutInMillis) {
+        this.connectTimeoutInMillis = connectTimeoutInMillis;
+    }
+
+    public void setReadTimeoutInMillis(final int readTimeoutInMillis) {
+        this.readTimeoutInMillis = readTimeoutInMillis;
+    }
+
+    public void setMaxRetries(final int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public void setInitialBackoffInMillis(final long initialBackoffInMillis) {
+        this.initialBackoffInMillis = initialBackoffInMillis;
+    }
+
+    public void setMaxConnectionsPerHost(final int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+    }
+}
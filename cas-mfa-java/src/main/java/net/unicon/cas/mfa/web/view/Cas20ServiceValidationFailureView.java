@@ -0,0 +1,56 @@
+package net.unicon.cas.mfa.web.view;
+
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.springframework.web.servlet.view.AbstractView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Renders the CAS 2.0 validation failure response straight to the servlet output stream.
+ * Output is identical to that of <code>casServiceValidationFailure.jsp</code>, which this view replaces,
+ * and reads the same model: the error <code>code</code>, its <code>description</code> and the requested
+ * authentication method.
+ *
+ * @see Cas20ServiceValidationResponseWriter
+ */
+public final class Cas20ServiceValidationFailureView extends AbstractView {
+
+    private static final String MODEL_CODE = "code";
+
+    private static final String MODEL_DESCRIPTION = "description";
+
+    private static final String MODEL_AUTHN_METHOD = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    /**
+     * Instantiates a new failure view.
+     */
+    public Cas20ServiceValidationFailureView() {
+        setContentType("text/plain;charset=UTF-8");
+    }
+
+    @Override
+    protected void renderMergedOutputModel(final Map<String, Object> model, final HttpServletRequest request,
+                                           final HttpServletResponse response) throws Exception {
+        response.setContentType(getContentType());
+        final Writer out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        Cas20ServiceValidationResponseWriter.writeFailure(out, toString(model.get(MODEL_CODE)),
+                toString(model.get(MODEL_DESCRIPTION)), toString(model.get(MODEL_AUTHN_METHOD)));
+        out.flush();
+    }
+
+    /**
+     * Convert the model value to a string, as EL would.
+     *
+     * @param value the value
+     * @return the value as a string, or null
+     */
+    private static String toString(final Object value) {
+        return value == null ? null : value.toString();
+    }
+}
@@ -0,0 +1,175 @@
+package net.unicon.cas.mfa.web.view;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes CAS 2.0 service validation responses exactly as <code>casServiceValidationSuccess.jsp</code>
+ * and <code>casServiceValidationFailure.jsp</code> render them, down to the whitespace and line endings
+ * left behind by the JSP directives and tags, so that clients see the same bytes regardless of which one
+ * produced the response.
+ */
+public final class Cas20ServiceValidationResponseWriter {
+
+    /** Whitespace left by the JSP comment and directives that open the views. */
+    private static final String JSP_PROLOG = "\n\n\n\n";
+
+    private static final String SERVICE_RESPONSE_START = "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\n";
+
+    private static final String SERVICE_RESPONSE_END = "</cas:serviceResponse>\n";
+
+    private static final String INDENT = "        ";
+
+    /** The failure view is stored with windows line endings, which end up in its output. */
+    private static final String FAILURE_PROLOG = "\r\n\r\n\r\n\r\n"
+            + "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\r\n"
+            + "    <cas:authenticationFailure code='";
+
+    private static final String FAILURE_EPILOG = "\r\n    </cas:authenticationFailure>\r\n"
+            + "</cas:serviceResponse>\r\n";
+
+    /**
+     * Utility class.
+     */
+    private Cas20ServiceValidationResponseWriter() {
+    }
+
+    /**
+     * Write the success response.
+     *
+     * @param out the writer
+     * @param user the principal id released to the service
+     * @param proxyGrantingTicketIou the proxy granting ticket iou, may be null
+     * @param proxies the ids of the proxies, from the first to the last; may be empty
+     * @param attributes the principal attributes released to the service
+     * @param authenticationMethods the fulfilled authentication methods, may be null
+     * @throws IOException if the response cannot be written
+     */
+    public static void writeSuccess(final Writer out, final String user, final String proxyGrantingTicketIou,
+                                    final List<String> proxies, final Map<String, Object> attributes,
+                                    final String authenticationMethods) throws IOException {
+        out.write(JSP_PROLOG);
+        out.write(SERVICE_RESPONSE_START);
+        out.write("    <cas:authenticationSuccess>\n");
+        out.write(INDENT);
+        out.write("<cas:user>");
+        writeEscaped(out, user);
+        out.write("</cas:user>\n");
+
+        out.write(INDENT);
+        if (StringUtils.isNotEmpty(proxyGrantingTicketIou)) {
+            out.write("\n            <cas:proxyGrantingTicket>");
+            out.write(proxyGrantingTicketIou);
+            out.write("</cas:proxyGrantingTicket>\n        ");
+        }
+        out.write("\n\n");
+
+        out.write(INDENT);
+        if (proxies != null && !proxies.isEmpty()) {
+            out.write("\n            <cas:proxies>\n                ");
+            for (final String proxy : proxies) {
+                out.write("\n                    <cas:proxy>");
+                writeEscaped(out, proxy);
+                out.write("</cas:proxy>\n                ");
+            }
+            out.write("\n            </cas:proxies>\n        ");
+        }
+        out.write("\n\n");
+
+        out.write(INDENT);
+        if (attributes != null && !attributes.isEmpty()) {
+            out.write("\n            <cas:attributes>\n                ");
+            for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+                out.write("\n                    <cas:");
+                writeEscaped(out, attr.getKey());
+                out.write('>');
+                writeEscaped(out, attr.getValue() == null ? "" : attr.getValue().toString());
+                out.write("</cas:");
+                writeEscaped(out, attr.getKey());
+                out.write(">\n                ");
+            }
+            out.write("\n            </cas:attributes>\n        ");
+        }
+        out.write("\n\n");
+
+        out.write(INDENT);
+        if (StringUtils.isNotEmpty(authenticationMethods)) {
+            out.write("\n            <cas:authn_method>");
+            out.write(authenticationMethods);
+            out.write("</cas:authn_method>\n        ");
+        }
+        out.write('\n');
+        out.write("    </cas:authenticationSuccess>\n");
+        out.write(SERVICE_RESPONSE_END);
+    }
+
+    /**
+     * Write the failure response.
+     *
+     * @param out the writer
+     * @param code the error code
+     * @param description the error description
+     * @param authenticationMethod the requested authentication method, may be null
+     * @throws IOException if the response cannot be written
+     */
+    public static void writeFailure(final Writer out, final String code, final String description,
+                                    final String authenticationMethod) throws IOException {
+        out.write(FAILURE_PROLOG);
+        if (code != null) {
+            out.write(code);
+        }
+        out.write("'>\r\n        ");
+        writeEscaped(out, description);
+        out.write("\r\n        ");
+        if (StringUtils.isNotEmpty(authenticationMethod)) {
+            out.write("\r\n            <cas:authn_method>");
+            writeEscaped(out, authenticationMethod);
+            out.write("</cas:authn_method>\r\n        ");
+        }
+        out.write(FAILURE_EPILOG);
+    }
+
+    /**
+     * Write the value escaped the same way as the JSTL <code>fn:escapeXml</code> function.
+     *
+     * @param out the writer
+     * @param value the value
+     * @throws IOException if the value cannot be written
+     */
+    static void writeEscaped(final Writer out, final String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final String replacement;
+            switch (value.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&#034;";
+                    break;
+                case '\'':
+                    replacement = "&#039;";
+                    break;
+                default:
+                    continue;
+            }
+            out.write(value, start, i - start);
+            out.write(replacement);
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+    }
+}
@@ -0,0 +1,70 @@
+package net.unicon.cas.mfa.web.view;
+
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.validation.Assertion;
+import org.springframework.web.servlet.view.AbstractView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Renders the CAS 2.0 validation success response straight to the servlet output stream.
+ * Output is identical to that of <code>casServiceValidationSuccess.jsp</code>, which this view replaces,
+ * and reads the same model: the <code>assertion</code>, the <code>pgtIou</code> and the fulfilled
+ * authentication methods.
+ *
+ * @see Cas20ServiceValidationResponseWriter
+ */
+public final class Cas20ServiceValidationSuccessView extends AbstractView {
+
+    private static final String MODEL_ASSERTION = "assertion";
+
+    private static final String MODEL_PROXY_GRANTING_TICKET_IOU = "pgtIou";
+
+    private static final String MODEL_AUTHN_METHOD = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    /**
+     * Instantiates a new success view.
+     */
+    public Cas20ServiceValidationSuccessView() {
+        setContentType("text/html;charset=UTF-8");
+    }
+
+    @Override
+    protected void renderMergedOutputModel(final Map<String, Object> model, final HttpServletRequest request,
+                                           final HttpServletResponse response) throws Exception {
+        final Assertion assertion = (Assertion) model.get(MODEL_ASSERTION);
+        final List<Authentication> chainedAuthentications = assertion.getChainedAuthentications();
+        final Authentication authentication = chainedAuthentications.get(chainedAuthentications.size() - 1);
+
+        final List<String> proxies = new ArrayList<>(chainedAuthentications.size() - 1);
+        for (int i = 0; i < chainedAuthentications.size() - 1; i++) {
+            proxies.add(chainedAuthentications.get(i).getPrincipal().getId());
+        }
+
+        response.setContentType(getContentType());
+        final Writer out = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), StandardCharsets.UTF_8));
+        Cas20ServiceValidationResponseWriter.writeSuccess(out, authentication.getPrincipal().getId(),
+                toString(model.get(MODEL_PROXY_GRANTING_TICKET_IOU)), proxies,
+                authentication.getPrincipal().getAttributes(), toString(model.get(MODEL_AUTHN_METHOD)));
+        out.flush();
+    }
+
+    /**
+     * Convert the model value to a string, as EL would.
+     *
+     * @param value the value
+     * @return the value as a string, or null
+     */
+    private static String toString(final Object value) {
+        return value == null ? null : value.toString();
+    }
+}
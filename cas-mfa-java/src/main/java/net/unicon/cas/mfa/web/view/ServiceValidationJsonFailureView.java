@@ -0,0 +1,48 @@
+package net.unicon.cas.mfa.web.view;
+
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.springframework.web.servlet.view.AbstractView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Map;
+
+/**
+ * Renders the validation failure response as JSON, straight to the servlet output stream.
+ * Reads the same model as {@link Cas20ServiceValidationFailureView}.
+ *
+ * @see ServiceValidationJsonResponseWriter
+ */
+public final class ServiceValidationJsonFailureView extends AbstractView {
+
+    private static final String MODEL_CODE = "code";
+
+    private static final String MODEL_DESCRIPTION = "description";
+
+    private static final String MODEL_AUTHN_METHOD = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    /**
+     * Instantiates a new JSON failure view.
+     */
+    public ServiceValidationJsonFailureView() {
+        setContentType("application/json;charset=UTF-8");
+    }
+
+    @Override
+    protected void renderMergedOutputModel(final Map<String, Object> model, final HttpServletRequest request,
+                                           final HttpServletResponse response) throws Exception {
+        response.setContentType(getContentType());
+        ServiceValidationJsonResponseWriter.writeFailure(response.getOutputStream(), toString(model.get(MODEL_CODE)),
+                toString(model.get(MODEL_DESCRIPTION)), toString(model.get(MODEL_AUTHN_METHOD)));
+    }
+
+    /**
+     * Convert the model value to a string.
+     *
+     * @param value the value
+     * @return the value as a string, or null
+     */
+    private static String toString(final Object value) {
+        return value == null ? null : value.toString();
+    }
+}
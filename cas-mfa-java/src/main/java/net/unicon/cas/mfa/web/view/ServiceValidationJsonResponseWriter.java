@@ -0,0 +1,188 @@
+package net.unicon.cas.mfa.web.view;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes service validation responses as JSON, for clients that ask for <code>format=JSON</code>.
+ * The document is streamed as it is generated, and always has the same shape: every field is present,
+ * with a <code>null</code> or empty value when there is nothing to report, and attribute values are always arrays.
+ *
+ * <pre>
+ * {"serviceResponse":{"authenticationSuccess":{"user":"casuser","proxyGrantingTicket":null,"proxies":[],
+ *   "attributes":{"mail":["casuser@example.org"]},"authnMethods":["strong_two_factor"],"authnRank":1}}}
+ *
+ * {"serviceResponse":{"authenticationFailure":{"code":"INVALID_TICKET","description":"...","authnMethod":null}}}
+ * </pre>
+ */
+public final class ServiceValidationJsonResponseWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * Utility class.
+     */
+    private ServiceValidationJsonResponseWriter() {
+    }
+
+    /**
+     * Write the success response.
+     *
+     * @param out the output stream, left open
+     * @param user the principal id released to the service
+     * @param proxyGrantingTicketIou the proxy granting ticket iou, may be null
+     * @param proxies the ids of the proxies, from the first to the last; may be empty
+     * @param attributes the principal attributes released to the service
+     * @param authenticationMethods the fulfilled authentication methods
+     * @param authenticationRank the rank of the strongest fulfilled authentication method, may be null
+     * @throws IOException if the response cannot be written
+     */
+    public static void writeSuccess(final OutputStream out, final String user, final String proxyGrantingTicketIou,
+                                    final List<String> proxies, final Map<String, Object> attributes,
+                                    final Collection<String> authenticationMethods,
+                                    final Integer authenticationRank) throws IOException {
+        final JsonGenerator json = createGenerator(out);
+        json.writeStartObject();
+        writeSuccess(json, user, proxyGrantingTicketIou, proxies, attributes, authenticationMethods, authenticationRank);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Write the <code>serviceResponse</code> field of a success response into the object being generated.
+     *
+     * @param json the generator, positioned inside an object
+     * @param user the principal id released to the service
+     * @param proxyGrantingTicketIou the proxy granting ticket iou, may be null
+     * @param proxies the ids of the proxies, from the first to the last; may be empty
+     * @param attributes the principal attributes released to the service
+     * @param authenticationMethods the fulfilled authentication methods
+     * @param authenticationRank the rank of the strongest fulfilled authentication method, may be null
+     * @throws IOException if the response cannot be written
+     */
+    public static void writeSuccess(final JsonGenerator json, final String user, final String proxyGrantingTicketIou,
+                                    final List<String> proxies, final Map<String, Object> attributes,
+                                    final Collection<String> authenticationMethods,
+                                    final Integer authenticationRank) throws IOException {
+        json.writeObjectFieldStart("serviceResponse");
+        json.writeObjectFieldStart("authenticationSuccess");
+        json.writeStringField("user", user);
+        json.writeStringField("proxyGrantingTicket", proxyGrantingTicketIou);
+
+        json.writeArrayFieldStart("proxies");
+        if (proxies != null) {
+            for (final String proxy : proxies) {
+                json.writeString(proxy);
+            }
+        }
+        json.writeEndArray();
+
+        json.writeObjectFieldStart("attributes");
+        if (attributes != null) {
+            for (final Map.Entry<String, Object> attr : attributes.entrySet()) {
+                json.writeArrayFieldStart(attr.getKey());
+                writeValues(json, attr.getValue());
+                json.writeEndArray();
+            }
+        }
+        json.writeEndObject();
+
+        json.writeArrayFieldStart("authnMethods");
+        for (final String method : authenticationMethods) {
+            json.writeString(method);
+        }
+        json.writeEndArray();
+
+        json.writeFieldName("authnRank");
+        if (authenticationRank == null) {
+            json.writeNull();
+        } else {
+            json.writeNumber(authenticationRank);
+        }
+
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    /**
+     * Write the failure response.
+     *
+     * @param out the output stream, left open
+     * @param code the error code
+     * @param description the error description
+     * @param authenticationMethod the requested authentication method, may be null
+     * @throws IOException if the response cannot be written
+     */
+    public static void writeFailure(final OutputStream out, final String code, final String description,
+                                    final String authenticationMethod) throws IOException {
+        final JsonGenerator json = createGenerator(out);
+        json.writeStartObject();
+        writeFailure(json, code, description, authenticationMethod);
+        json.writeEndObject();
+        json.flush();
+    }
+
+    /**
+     * Write the <code>serviceResponse</code> field of a failure response into the object being generated.
+     *
+     * @param json the generator, positioned inside an object
+     * @param code the error code
+     * @param description the error description
+     * @param authenticationMethod the requested authentication method, may be null
+     * @throws IOException if the response cannot be written
+     */
+    public static void writeFailure(final JsonGenerator json, final String code, final String description,
+                                    final String authenticationMethod) throws IOException {
+        json.writeObjectFieldStart("serviceResponse");
+        json.writeObjectFieldStart("authenticationFailure");
+        json.writeStringField("code", code);
+        json.writeStringField("description", description);
+        json.writeStringField("authnMethod", authenticationMethod);
+        json.writeEndObject();
+        json.writeEndObject();
+    }
+
+    /**
+     * Create a generator that leaves the stream open once the document is written.
+     *
+     * @param out the output stream
+     * @return the generator
+     * @throws IOException if the generator cannot be created
+     */
+    public static JsonGenerator createGenerator(final OutputStream out) throws IOException {
+        final JsonGenerator json = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+        json.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        return json;
+    }
+
+    /**
+     * Write the attribute value as the elements of an array.
+     *
+     * @param json the generator
+     * @param value the attribute value, a single value, a collection or an array
+     * @throws IOException if the value cannot be written
+     */
+    private static void writeValues(final JsonGenerator json, final Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof Collection) {
+            for (final Object v : (Collection<?>) value) {
+                json.writeString(String.valueOf(v));
+            }
+        } else if (value.getClass().isArray() && !value.getClass().getComponentType().isPrimitive()) {
+            for (final Object v : (Object[]) value) {
+                json.writeString(String.valueOf(v));
+            }
+        } else {
+            json.writeString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package net.unicon.cas.mfa.web.view;
+
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.validation.Assertion;
+import org.springframework.web.servlet.view.AbstractView;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Renders the validation success response as JSON, straight to the servlet output stream.
+ * Reads the same model as {@link Cas20ServiceValidationSuccessView}. The fulfilled authentication methods
+ * are listed in alphabetical order, along with the rank of the strongest of them.
+ *
+ * @see ServiceValidationJsonResponseWriter
+ */
+public final class ServiceValidationJsonSuccessView extends AbstractView {
+
+    private static final String MODEL_ASSERTION = "assertion";
+
+    private static final String MODEL_PROXY_GRANTING_TICKET_IOU = "pgtIou";
+
+    @NotNull
+    private final AuthenticationMethodConfigurationProvider authenticationMethodConfiguration;
+
+    /**
+     * Instantiates a new JSON success view.
+     *
+     * @param authenticationMethodConfiguration the authentication methods, used to rank the fulfilled methods
+     */
+    public ServiceValidationJsonSuccessView(final AuthenticationMethodConfigurationProvider authenticationMethodConfiguration) {
+        this.authenticationMethodConfiguration = authenticationMethodConfiguration;
+        setContentType("application/json;charset=UTF-8");
+    }
+
+    @Override
+    protected void renderMergedOutputModel(final Map<String, Object> model, final HttpServletRequest request,
+                                           final HttpServletResponse response) throws Exception {
+        final Assertion assertion = (Assertion) model.get(MODEL_ASSERTION);
+        final List<Authentication> chainedAuthentications = assertion.getChainedAuthentications();
+        final Authentication authentication = chainedAuthentications.get(chainedAuthentications.size() - 1);
+
+        final List<String> proxies = new ArrayList<>(chainedAuthentications.size() - 1);
+        for (int i = 0; i < chainedAuthentications.size() - 1; i++) {
+            proxies.add(chainedAuthentications.get(i).getPrincipal().getId());
+        }
+
+        final Set<String> methods = new TreeSet<>(MultiFactorUtils.getSatisfiedAuthenticationMethods(authentication));
+        final Object pgtIou = model.get(MODEL_PROXY_GRANTING_TICKET_IOU);
+
+        response.setContentType(getContentType());
+        ServiceValidationJsonResponseWriter.writeSuccess(response.getOutputStream(), authentication.getPrincipal().getId(),
+                pgtIou == null ? null : pgtIou.toString(), proxies, authentication.getPrincipal().getAttributes(),
+                methods, MultiFactorUtils.getStrongestAuthenticationMethodRank(methods, this.authenticationMethodConfiguration));
+    }
+}
@@ -0,0 +1,128 @@
+package net.unicon.cas.addons.authentication;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.webflow.core.collection.LocalAttributeMap;
+import org.springframework.webflow.execution.RequestContext;
+import org.springframework.webflow.execution.RequestContextHolder;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class CachingAuthenticationSupportTests {
+
+    private TicketRegistry registry;
+
+    private CachingAuthenticationSupport authenticationSupport;
+
+    @Before
+    public void setup() {
+        this.registry = mock(TicketRegistry.class);
+        this.authenticationSupport = new CachingAuthenticationSupport(this.registry);
+    }
+
+    @After
+    public void tearDown() {
+        RequestContextHolder.setRequestContext(null);
+    }
+
+    private TicketGrantingTicket liveTicket(final String id) {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn(id);
+        when(tgt.getAuthentication()).thenReturn(mock(Authentication.class));
+        when(this.registry.getTicket(id, TicketGrantingTicket.class)).thenReturn(tgt);
+        return tgt;
+    }
+
+    private static void startRequest() {
+        final RequestContext context = mock(RequestContext.class);
+        when(context.getRequestScope()).thenReturn(new LocalAttributeMap());
+        RequestContextHolder.setRequestContext(context);
+    }
+
+    @Test
+    public void testTicketIsLookedUpOncePerRequest() {
+        final TicketGrantingTicket tgt = liveTicket("TGT-1");
+        this.authenticationSupport.setMaxCacheSize(0);
+
+        startRequest();
+        assertSame(tgt.getAuthentication(), this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+        assertSame(tgt.getAuthentication(), this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+        assertSame(tgt.getAuthentication().getPrincipal(), this.authenticationSupport.getAuthenticatedPrincipalFrom("TGT-1"));
+        verify(this.registry, times(1)).getTicket("TGT-1", TicketGrantingTicket.class);
+
+        startRequest();
+        this.authenticationSupport.getAuthenticationFrom("TGT-1");
+        verify(this.registry, times(2)).getTicket("TGT-1", TicketGrantingTicket.class);
+        assertEquals(0.5, this.authenticationSupport.getRequestHitRate(), 0);
+    }
+
+    @Test
+    public void testMissingTicketIsRememberedForTheRequestOnly() {
+        startRequest();
+        assertNull(this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+        assertNull(this.authenticationSupport.getPrincipalAttributesFrom("TGT-1"));
+        verify(this.registry, times(1)).getTicket("TGT-1", TicketGrantingTicket.class);
+
+        RequestContextHolder.setRequestContext(null);
+        final TicketGrantingTicket tgt = liveTicket("TGT-1");
+        assertSame(tgt.getAuthentication(), this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+    }
+
+    @Test
+    public void testNearCacheServesRequestsUntilTicketIsInvalidated() {
+        final TicketGrantingTicket tgt = liveTicket("TGT-1");
+
+        assertSame(tgt.getAuthentication(), this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+        assertSame(tgt.getAuthentication(), this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+        verify(this.registry, times(1)).getTicket("TGT-1", TicketGrantingTicket.class);
+        assertEquals(1, this.authenticationSupport.getNearCacheSize());
+        assertEquals(0.5, this.authenticationSupport.getNearCacheHitRate(), 0);
+
+        this.authenticationSupport.invalidate("TGT-1");
+        assertEquals(0, this.authenticationSupport.getNearCacheSize());
+        this.authenticationSupport.getAuthenticationFrom("TGT-1");
+        verify(this.registry, times(2)).getTicket("TGT-1", TicketGrantingTicket.class);
+    }
+
+    @Test
+    public void testInvalidatedTicketIsLookedUpAgainInTheSameRequest() {
+        liveTicket("TGT-1");
+
+        startRequest();
+        this.authenticationSupport.getAuthenticationFrom("TGT-1");
+        this.authenticationSupport.invalidate("TGT-1");
+        when(this.registry.getTicket("TGT-1", TicketGrantingTicket.class)).thenReturn(null);
+        assertNull(this.authenticationSupport.getAuthenticationFrom("TGT-1"));
+    }
+
+    @Test
+    public void testExpiredTicketIsLookedUpAgain() {
+        final TicketGrantingTicket tgt = liveTicket("TGT-1");
+        this.authenticationSupport.getAuthenticationFrom("TGT-1");
+
+        when(tgt.isExpired()).thenReturn(true);
+        this.authenticationSupport.getAuthenticationFrom("TGT-1");
+        this.authenticationSupport.getAuthenticationFrom("TGT-1");
+        verify(this.registry, times(3)).getTicket("TGT-1", TicketGrantingTicket.class);
+        assertEquals(0, this.authenticationSupport.getNearCacheSize());
+    }
+
+    @Test
+    public void testNearCacheIsBounded() {
+        this.authenticationSupport.setMaxCacheSize(2);
+        for (int i = 0; i < 5; i++) {
+            liveTicket("TGT-" + i);
+            this.authenticationSupport.getAuthenticationFrom("TGT-" + i);
+        }
+        assertEquals(2, this.authenticationSupport.getNearCacheSize());
+        assertEquals(5, this.authenticationSupport.getRegistryLookups());
+    }
+}
@@ -2,12 +2,17 @@ package net.unicon.cas.mfa.authentication;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
 
 import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
 import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
 
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -51,4 +56,26 @@ public class DefaultCompositeAuthenticationTests {
         final Collection c = this.authentication.getSatisfiedAuthenticationMethods();
         assertEquals(c.size(), 2);
     }
+
+    @Test
+    public void testAppendAuthenticationMergesMethodsAndAttributes() {
+        final MutablePrincipal p = new MutablePrincipal("casuser");
+        p.getAttributes().put("uid", "casuser");
+        final Map<String, Object> attrs = new Hashtable<String, Object>();
+        attrs.put(PARAM_NAME, "first_method");
+        final DefaultCompositeAuthentication composite = new DefaultCompositeAuthentication(p, attrs);
+
+        final Map<String, Object> principalAttrs = new HashMap<String, Object>();
+        principalAttrs.put("cn", "commonName");
+        final Authentication second = mock(Authentication.class);
+        when(second.getPrincipal()).thenReturn(new SimplePrincipal("casuser", principalAttrs));
+        when(second.getAttributes()).thenReturn(Collections.singletonMap(PARAM_NAME, (Object) "second_method"));
+
+        composite.appendAuthentication(second);
+
+        assertEquals(2, composite.getSatisfiedAuthenticationMethods().size());
+        assertTrue(composite.getSatisfiedAuthenticationMethods().contains("second_method"));
+        assertEquals("commonName", composite.getPrincipal().getAttributes().get("cn"));
+        assertEquals("casuser", composite.getPrincipal().getAttributes().get("uid"));
+    }
 }
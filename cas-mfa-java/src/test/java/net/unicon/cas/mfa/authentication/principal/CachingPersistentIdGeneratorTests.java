@@ -0,0 +1,64 @@
+package net.unicon.cas.mfa.authentication.principal;
+
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.ShibbolethCompatiblePersistentIdGenerator;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class CachingPersistentIdGeneratorTests {
+
+    private static Service service(final String id) {
+        final Service service = mock(Service.class);
+        when(service.getId()).thenReturn(id);
+        return service;
+    }
+
+    @Test
+    public void testIdentifiersMatchShibbolethCompatibleGenerator() {
+        final ShibbolethCompatiblePersistentIdGenerator reference = new ShibbolethCompatiblePersistentIdGenerator();
+        reference.setSalt("scottssalt");
+        final CachingPersistentIdGenerator generator = new CachingPersistentIdGenerator();
+        generator.setSalt("scottssalt");
+
+        final Principal principal = new SimplePrincipal("casuser");
+        final Service service = service("https://app.example.org");
+
+        final String expected = reference.generate(principal, service);
+        assertEquals(expected, generator.generate(principal, service));
+        assertEquals(expected, generator.generate(principal, service));
+        assertEquals(0.5, generator.getHitRate(), 0.0001);
+    }
+
+    @Test
+    public void testChangingSaltDiscardsCachedIdentifiers() {
+        final CachingPersistentIdGenerator generator = new CachingPersistentIdGenerator();
+        generator.setSalt("first");
+        final Principal principal = new SimplePrincipal("casuser");
+        final Service service = service("https://app.example.org");
+
+        final String first = generator.generate(principal, service);
+        generator.setSalt("second");
+        assertEquals(0, generator.getCacheSize());
+        assertNotEquals(first, generator.generate(principal, service));
+    }
+
+    @Test
+    public void testCacheIsBounded() {
+        final CachingPersistentIdGenerator generator = new CachingPersistentIdGenerator();
+        generator.setSalt("salt");
+        generator.setMaxCacheSize(10);
+
+        final Service service = service("https://app.example.org");
+        for (int i = 0; i < 100; i++) {
+            generator.generate(new SimplePrincipal("user" + i), service);
+        }
+        assertTrue(generator.getCacheSize() <= 10);
+    }
+}
@@ -0,0 +1,52 @@
+package net.unicon.cas.mfa.services;
+
+import org.jasig.cas.services.RegisteredService;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class AttributeReleaseProjectionTests {
+
+    private static Map<String, Object> principalAttributes() {
+        final Map<String, Object> attributes = new HashMap<>();
+        attributes.put("uid", "casuser");
+        attributes.put("mail", "casuser@example.org");
+        attributes.put("secret", "hidden");
+        return attributes;
+    }
+
+    @Test
+    public void testOnlyAllowedAttributesAreReleased() {
+        final RegisteredService service = mock(RegisteredService.class);
+        when(service.getAllowedAttributes()).thenReturn(Arrays.asList("uid", "mail", "cn", "uid"));
+
+        final AttributeReleaseProjection projection = new AttributeReleaseProjection(service);
+        final Map<String, Object> released = projection.project(principalAttributes(), 1);
+
+        assertEquals(2, released.size());
+        assertEquals("casuser", released.get("uid"));
+        assertEquals("casuser@example.org", released.get("mail"));
+        assertTrue(projection.isReleased("cn"));
+        assertFalse(projection.isReleased("secret"));
+        assertTrue(projection.isCompiledFrom(service));
+        assertFalse(projection.isCompiledFrom(mock(RegisteredService.class)));
+    }
+
+    @Test
+    public void testIgnoreAttributesReleasesEverything() {
+        final RegisteredService service = mock(RegisteredService.class);
+        when(service.isIgnoreAttributes()).thenReturn(true);
+
+        final AttributeReleaseProjection projection = new AttributeReleaseProjection(service);
+        assertEquals(3, projection.project(principalAttributes(), 0).size());
+        assertTrue(projection.isReleased("secret"));
+    }
+}
@@ -0,0 +1,83 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class ExpirationIndexAwareTicketRegistryCleanerTests {
+
+    private TicketRegistry registry;
+
+    private CentralAuthenticationService cas;
+
+    private TicketGrantingTicketExpirationIndex index;
+
+    private ExpirationIndexAwareTicketRegistryCleaner cleaner;
+
+    @Before
+    public void setup() {
+        this.registry = mock(TicketRegistry.class);
+        this.cas = mock(CentralAuthenticationService.class);
+        final TicketGrantingTicketDestructionQueue destructionQueue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 10);
+        destructionQueue.setCentralAuthenticationService(this.cas);
+        destructionQueue.setAsynchronous(false);
+        this.index = new TicketGrantingTicketExpirationIndex(this.registry, destructionQueue, 1000);
+        this.cleaner = new ExpirationIndexAwareTicketRegistryCleaner(this.registry, this.index, destructionQueue);
+    }
+
+    private static <T extends Ticket> T mockTicket(final Class<T> type, final String id, final boolean expired) {
+        final T ticket = mock(type);
+        when(ticket.getId()).thenReturn(id);
+        when(ticket.isExpired()).thenReturn(expired);
+        return ticket;
+    }
+
+    @Test
+    public void testIndexedTicketsAreLeftToTheIndex() {
+        final TicketGrantingTicket indexed = mockTicket(TicketGrantingTicket.class, "TGT-1", true);
+        this.index.track("TGT-1");
+        when(this.registry.getTickets()).thenReturn(Collections.<Ticket>singletonList(indexed));
+
+        assertTrue(this.cleaner.clean().isEmpty());
+        verify(indexed, never()).isExpired();
+        verify(this.cas, never()).destroyTicketGrantingTicket(anyString());
+        verify(this.registry, never()).deleteTicket(anyString());
+        assertEquals(1, this.cleaner.getLastSkippedCount());
+    }
+
+    @Test
+    public void testOtherExpiredTicketsAreCleaned() {
+        final TicketGrantingTicket expiredTgt = mockTicket(TicketGrantingTicket.class, "TGT-2", true);
+        final TicketGrantingTicket liveTgt = mockTicket(TicketGrantingTicket.class, "TGT-3", false);
+        final ServiceTicket expiredSt = mockTicket(ServiceTicket.class, "ST-1", true);
+        final ServiceTicket liveSt = mockTicket(ServiceTicket.class, "ST-2", false);
+        when(this.registry.getTickets()).thenReturn(Arrays.<Ticket>asList(expiredTgt, liveTgt, expiredSt, liveSt));
+
+        final Collection<Ticket> cleaned = this.cleaner.clean();
+
+        assertEquals(2, cleaned.size());
+        assertTrue(cleaned.contains(expiredTgt));
+        assertTrue(cleaned.contains(expiredSt));
+        verify(this.cas).destroyTicketGrantingTicket("TGT-2");
+        verify(this.registry).deleteTicket("ST-1");
+        verify(this.cas, never()).destroyTicketGrantingTicket("TGT-3");
+        verify(this.registry, never()).deleteTicket("ST-2");
+        assertEquals(2, this.cleaner.getLastCleanedCount());
+        assertEquals(0, this.cleaner.getLastSkippedCount());
+    }
+}
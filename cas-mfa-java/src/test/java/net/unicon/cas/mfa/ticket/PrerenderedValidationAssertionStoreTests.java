@@ -0,0 +1,70 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.validation.Assertion;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class PrerenderedValidationAssertionStoreTests {
+
+    private static ServiceTicket mockTicket(final String id) {
+        final ServiceTicket st = mock(ServiceTicket.class);
+        when(st.getId()).thenReturn(id);
+        return st;
+    }
+
+    private static PrerenderedValidationAssertion newAssertion() {
+        return new PrerenderedValidationAssertion(mock(Assertion.class), new byte[] {1});
+    }
+
+    @Test
+    public void testRemoveConsumesAssertion() {
+        final PrerenderedValidationAssertionStore store = new PrerenderedValidationAssertionStore(10);
+        final PrerenderedValidationAssertion assertion = newAssertion();
+        assertTrue(store.put(mockTicket("ST-1"), assertion));
+
+        assertSame(assertion, store.get("ST-1"));
+        assertSame(assertion, store.remove("ST-1"));
+        assertNull(store.remove("ST-1"));
+        assertEquals(0, store.size());
+    }
+
+    @Test
+    public void testFullStoreEvictsExpiredTickets() {
+        final PrerenderedValidationAssertionStore store = new PrerenderedValidationAssertionStore(2);
+        final ServiceTicket expired = mockTicket("ST-1");
+        assertTrue(store.put(expired, newAssertion()));
+        assertTrue(store.put(mockTicket("ST-2"), newAssertion()));
+
+        assertFalse(store.put(mockTicket("ST-3"), newAssertion()));
+        assertNull(store.get("ST-3"));
+
+        when(expired.isExpired()).thenReturn(true);
+        assertTrue(store.put(mockTicket("ST-3"), newAssertion()));
+        assertNull(store.get("ST-1"));
+        assertNotNull(store.get("ST-2"));
+        assertNotNull(store.get("ST-3"));
+    }
+
+    @Test
+    public void testOnlyOldestAssertionsAreEvicted() {
+        final PrerenderedValidationAssertionStore store = new PrerenderedValidationAssertionStore(2);
+        assertTrue(store.put(mockTicket("ST-1"), newAssertion()));
+        final ServiceTicket expired = mockTicket("ST-2");
+        assertTrue(store.put(expired, newAssertion()));
+        when(expired.isExpired()).thenReturn(true);
+
+        assertFalse(store.put(mockTicket("ST-3"), newAssertion()));
+        assertNotNull(store.get("ST-2"));
+
+        store.remove("ST-1");
+        assertTrue(store.put(mockTicket("ST-3"), newAssertion()));
+        assertNull(store.get("ST-2"));
+        assertEquals(1, store.size());
+    }
+}
@@ -0,0 +1,94 @@
+package net.unicon.cas.mfa.ticket;
+
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.MutableAuthentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.validation.Assertion;
+import org.jasig.cas.validation.ImmutableAssertionImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class ProxyChainAssertionBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyChainAssertionBenchmark.class);
+
+    private static final String PARAM_NAME = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    private final Service service = new SimpleWebApplicationServiceImpl("https://backend.example.org");
+
+    private static Authentication authentication(final String principalId, final String authnMethod) {
+        final MutableAuthentication authentication = new MutableAuthentication(new SimplePrincipal(principalId), new Date());
+        if (authnMethod != null) {
+            authentication.getAttributes().put(PARAM_NAME, Collections.singleton(authnMethod));
+        }
+        return authentication;
+    }
+
+    /**
+     * A ticket granting ticket chain of the given depth: the proxies, most recent first, followed by the user.
+     */
+    private static List<Authentication> chain(final int depth) {
+        final List<Authentication> chain = new ArrayList<>(depth);
+        for (int i = 1; i < depth; i++) {
+            chain.add(authentication("https://proxy" + i + ".example.org", null));
+        }
+        chain.add(authentication("casuser", "strong_two_factor"));
+        return Collections.unmodifiableList(chain);
+    }
+
+    @Test
+    public void testProxyChainValidationAtDepthOneThroughFive() {
+        final AbstractMultiFactorAuthenticationProtocolValidationSpecification spec =
+                new AbstractMultiFactorAuthenticationProtocolValidationSpecification.WithProxy();
+        spec.setAuthenticationMethod("strong_two_factor");
+        final int iterations = 200000;
+
+        for (int depth = 1; depth <= 5; depth++) {
+            final List<Authentication> chain = chain(depth);
+            final Authentication released = authentication("casuser", "strong_two_factor");
+
+            for (int round = 0; round < 2; round++) {
+                long start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    final List<Authentication> authentications = new ArrayList<>();
+                    for (int j = 0; j < chain.size() - 1; j++) {
+                        authentications.add(chain.get(j));
+                    }
+                    authentications.add(released);
+                    final Assertion copied = new ImmutableAssertionImpl(authentications, this.service, false);
+                    assertTrue(spec.isSatisfiedBy(copied));
+                }
+                final long copiedNanos = (System.nanoTime() - start) / iterations;
+
+                start = System.nanoTime();
+                for (int i = 0; i < iterations; i++) {
+                    assertTrue(spec.isSatisfiedBy(new ProxyChainAssertion(chain, released, this.service, false)));
+                }
+                final long viewNanos = (System.nanoTime() - start) / iterations;
+
+                if (round == 1) {
+                    LOGGER.info("Proxy chain depth {}: copied chain {} ns/validation, chain view {} ns/validation",
+                            depth, copiedNanos, viewNanos);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package net.unicon.cas.mfa.ticket;
+
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.MutableAuthentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimplePrincipal;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ProxyChainAssertionTests {
+
+    private static final String PARAM_NAME = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    private final Service service = new SimpleWebApplicationServiceImpl("https://backend.example.org");
+
+    private static Authentication authentication(final String principalId, final String authnMethod) {
+        final MutableAuthentication authentication = new MutableAuthentication(new SimplePrincipal(principalId), new Date());
+        if (authnMethod != null) {
+            authentication.getAttributes().put(PARAM_NAME, Collections.singleton(authnMethod));
+        }
+        return authentication;
+    }
+
+    /**
+     * A ticket granting ticket chain of the given depth: the proxies, most recent first, followed by the user.
+     */
+    private static List<Authentication> chain(final int depth) {
+        final List<Authentication> chain = new ArrayList<>(depth);
+        for (int i = 1; i < depth; i++) {
+            chain.add(authentication("https://proxy" + i + ".example.org", null));
+        }
+        chain.add(authentication("casuser", "strong_two_factor"));
+        return Collections.unmodifiableList(chain);
+    }
+
+    @Test
+    public void testChainIsViewedWithLastAuthenticationReplaced() {
+        final List<Authentication> chain = chain(3);
+        final Authentication released = authentication("released-id", "strong_two_factor");
+        final ProxyChainAssertion assertion = new ProxyChainAssertion(chain, released, this.service, true);
+
+        final List<Authentication> chained = assertion.getChainedAuthentications();
+        assertEquals(3, chained.size());
+        assertSame(chain.get(0), chained.get(0));
+        assertSame(chain.get(1), chained.get(1));
+        assertSame(released, chained.get(2));
+        assertSame(released, assertion.getLastAuthentication());
+        assertSame(released, MultiFactorUtils.getAuthenticationFromAssertion(assertion));
+        assertSame(chained, assertion.getChainedAuthentications());
+        assertTrue(assertion.isFromNewLogin());
+
+        final List<Authentication> copy = new ArrayList<>(chain.subList(0, 2));
+        copy.add(released);
+        assertEquals(copy, chained);
+        assertEquals(new ProxyChainAssertion(chain, released, this.service, true), assertion);
+        assertEquals(new ProxyChainAssertion(chain, released, this.service, true).hashCode(), assertion.hashCode());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testChainIsReadOnly() {
+        final List<Authentication> chain = chain(2);
+        new ProxyChainAssertion(chain, chain.get(1), this.service, false).getChainedAuthentications().remove(0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testChainIsBounded() {
+        final List<Authentication> chain = chain(2);
+        new ProxyChainAssertion(chain, chain.get(1), this.service, false).getChainedAuthentications().get(2);
+    }
+
+    @Test
+    public void testSpecificationChecksLastAuthentication() {
+        final AbstractMultiFactorAuthenticationProtocolValidationSpecification spec =
+                new AbstractMultiFactorAuthenticationProtocolValidationSpecification.WithProxy();
+        spec.setAuthenticationMethod("strong_two_factor");
+
+        final List<Authentication> chain = chain(4);
+        assertTrue(spec.isSatisfiedBy(new ProxyChainAssertion(chain, chain.get(3), this.service, false)));
+
+        try {
+            spec.isSatisfiedBy(new ProxyChainAssertion(chain, authentication("casuser", null), this.service, false));
+            fail("The user did not authenticate with the requested method");
+        } catch (final UnacceptableMultiFactorAuthenticationMethodException e) {
+            assertEquals("strong_two_factor", e.getAuthenticationMethod());
+        }
+    }
+}
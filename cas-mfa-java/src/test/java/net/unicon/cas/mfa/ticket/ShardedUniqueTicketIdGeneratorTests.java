@@ -0,0 +1,74 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.util.DefaultUniqueTicketIdGenerator;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ShardedUniqueTicketIdGeneratorTests {
+
+    private final ShardedUniqueTicketIdGenerator generator =
+            new ShardedUniqueTicketIdGenerator(new DefaultUniqueTicketIdGenerator(20, "cas01"), 4);
+
+    @After
+    public void cleanup() {
+        ShardedUniqueTicketIdGenerator.exitShard();
+    }
+
+    @Test
+    public void testNewTicketGrantingTicketsAreSpreadOverShards() {
+        final int[] counts = new int[4];
+        for (int i = 0; i < 400; i++) {
+            final String id = this.generator.getNewTicketId("TGT");
+            assertTrue(id.startsWith("TGT-S"));
+            assertTrue(id.endsWith("-cas01"));
+            counts[ShardedUniqueTicketIdGenerator.getShard(id)]++;
+        }
+        for (final int count : counts) {
+            assertEquals(100, count);
+        }
+    }
+
+    @Test
+    public void testTicketGrantedFromAnotherInheritsItsShard() {
+        final String tgtId = this.generator.getNewTicketId("TGT");
+        final int shard = ShardedUniqueTicketIdGenerator.getShard(tgtId);
+
+        ShardedUniqueTicketIdGenerator.enterShardOf(tgtId);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(shard, ShardedUniqueTicketIdGenerator.getShard(this.generator.getNewTicketId("ST")));
+        }
+        ShardedUniqueTicketIdGenerator.exitShard();
+
+        final String next = this.generator.getNewTicketId("TGT");
+        assertNotEquals(shard, ShardedUniqueTicketIdGenerator.getShard(next));
+    }
+
+    @Test
+    public void testIdsWithoutShard() {
+        assertEquals(ShardedUniqueTicketIdGenerator.NO_SHARD, ShardedUniqueTicketIdGenerator.getShard(null));
+        assertEquals(ShardedUniqueTicketIdGenerator.NO_SHARD, ShardedUniqueTicketIdGenerator.getShard("TGT-12-abcdef-cas01"));
+        assertEquals(ShardedUniqueTicketIdGenerator.NO_SHARD, ShardedUniqueTicketIdGenerator.getShard("TGT-Sx-abcdef"));
+        assertEquals(ShardedUniqueTicketIdGenerator.NO_SHARD, ShardedUniqueTicketIdGenerator.getShard("TGT-S3"));
+        assertEquals(ShardedUniqueTicketIdGenerator.NO_SHARD, ShardedUniqueTicketIdGenerator.getShard("TGT-S12345678901-a"));
+        assertEquals(3, ShardedUniqueTicketIdGenerator.getShard("TGT-S3-12-abcdef-cas01"));
+
+    }
+
+    @Test
+    public void testTicketGrantedFromUnshardedTicketInheritsItsHashedShard() {
+        final String pgtId = "PGT-12-abcdef-cas01";
+        final int shard = ShardedUniqueTicketIdGenerator.getShard(pgtId, 4);
+        assertEquals((pgtId.hashCode() & Integer.MAX_VALUE) % 4, shard);
+        assertEquals(3, ShardedUniqueTicketIdGenerator.getShard("TGT-S3-12-abcdef-cas01", 4));
+
+        ShardedUniqueTicketIdGenerator.enterShardOf(pgtId);
+        for (int i = 0; i < 4; i++) {
+            assertEquals(shard, ShardedUniqueTicketIdGenerator.getShard(this.generator.getNewTicketId("PT")));
+        }
+    }
+}
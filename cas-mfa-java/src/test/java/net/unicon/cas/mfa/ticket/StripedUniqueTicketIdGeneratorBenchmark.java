@@ -0,0 +1,83 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.util.DefaultUniqueTicketIdGenerator;
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class StripedUniqueTicketIdGeneratorBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripedUniqueTicketIdGeneratorBenchmark.class);
+
+    /**
+     * Generate ids from the given number of threads at once.
+     *
+     * @return the time it took, in nanoseconds
+     */
+    private static long generate(final UniqueTicketIdGenerator generator, final int threads, final int idsPerThread,
+                                 final Set<String> ids) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch ready = new CountDownLatch(threads);
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ready.countDown();
+                        start.await();
+                        for (int i = 0; i < idsPerThread; i++) {
+                            final String id = generator.getNewTicketId("TGT");
+                            if (ids != null) {
+                                ids.add(id);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            ready.await();
+            final long begin = System.nanoTime();
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+            return System.nanoTime() - begin;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testThroughputFromOneToSixtyFourThreads() throws Exception {
+        final UniqueTicketIdGenerator[] generators = {
+            new DefaultUniqueTicketIdGenerator(50, "cas01"), new StripedUniqueTicketIdGenerator(50, "cas01")};
+        final int totalIds = 64 * 2000;
+
+        for (final UniqueTicketIdGenerator generator : generators) {
+            generate(generator, 4, totalIds / 4, null);
+            for (int threads = 1; threads <= 64; threads *= 2) {
+                final long elapsed = generate(generator, threads, totalIds / threads, null);
+                LOGGER.info("{} with {} thread(s): {} ids per second", generator.getClass().getSimpleName(), threads,
+                        totalIds * 1000000000L / Math.max(1, elapsed));
+            }
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class StripedUniqueTicketIdGeneratorTests {
+
+    /**
+     * Generate ids from the given number of threads at once.
+     */
+    private static void generate(final UniqueTicketIdGenerator generator, final int threads, final int idsPerThread,
+                                 final Set<String> ids) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            final CountDownLatch ready = new CountDownLatch(threads);
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        ready.countDown();
+                        start.await();
+                        for (int i = 0; i < idsPerThread; i++) {
+                            final String id = generator.getNewTicketId("TGT");
+                            if (ids != null) {
+                                ids.add(id);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            ready.await();
+            start.countDown();
+            for (final Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIdsHaveTheFormOfTheDefaultGenerator() throws Exception {
+        final StripedUniqueTicketIdGenerator generator = new StripedUniqueTicketIdGenerator(50, "cas01");
+        generator.afterPropertiesSet();
+        assertTrue(generator.getNewTicketId("TGT").matches("TGT-\\d+-[A-Za-z0-9]{50}-cas01"));
+        assertTrue(new StripedUniqueTicketIdGenerator(20).getNewTicketId("ST").matches("ST-\\d+-[A-Za-z0-9]{20}"));
+    }
+
+    @Test(expected = NoSuchAlgorithmException.class)
+    public void testUnknownAlgorithmIsRejected() throws Exception {
+        final StripedUniqueTicketIdGenerator generator = new StripedUniqueTicketIdGenerator(50, "cas01");
+        generator.setAlgorithm("NoSuchPRNG");
+        generator.afterPropertiesSet();
+    }
+
+    @Test
+    public void testIdsAreUniqueAcrossThreads() throws Exception {
+        final StripedUniqueTicketIdGenerator generator = new StripedUniqueTicketIdGenerator(20, "cas01");
+        generator.setReseedInterval(1000);
+        final Set<String> ids = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        generate(generator, 16, 5000, ids);
+        assertEquals(16 * 5000, ids.size());
+
+        final Set<String> numbers = new HashSet<>();
+        for (final String id : ids) {
+            numbers.add(id.split("-")[1]);
+        }
+        assertEquals(ids.size(), numbers.size());
+    }
+}
@@ -0,0 +1,50 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class TicketExpirationWheelBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TicketExpirationWheelBenchmark.class);
+
+    private static final long TICK = 1000;
+
+    @Test
+    public void testAdvancingThroughTwoHoursOfTicks() {
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, 0);
+        final int size = 180000;
+        for (int i = 0; i < size; i++) {
+            wheel.schedule("TGT-" + i, TimeUnit.HOURS.toMillis(2) + (i % 60) * TICK);
+        }
+        wheel.advance(TICK);
+
+        long start = System.nanoTime();
+        for (long now = 2 * TICK; now < TimeUnit.HOURS.toMillis(2); now += TICK) {
+            assertTrue(wheel.advance(now).isEmpty());
+        }
+        LOGGER.info("Advanced through 2 hours of ticks with {} tickets indexed in {} ms",
+                size, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        start = System.nanoTime();
+        int due = 0;
+        for (long now = TimeUnit.HOURS.toMillis(2); now < TimeUnit.HOURS.toMillis(2) + 60 * TICK; now += TICK) {
+            final List<String> expired = wheel.advance(now);
+            assertEquals(size / 60, expired.size());
+            due += expired.size();
+        }
+        LOGGER.info("Expired {} tickets over 60 ticks in {} ms", due, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        assertEquals(size, due);
+    }
+}
@@ -0,0 +1,97 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class TicketExpirationWheelTests {
+
+    private static final long TICK = 1000;
+
+    @Test
+    public void testTicketsComeDueAtTheirDeadline() {
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, 0);
+        wheel.schedule("TGT-1", 5 * TICK);
+        wheel.schedule("TGT-2", 3 * TICK + 1);
+        assertEquals(2, wheel.size());
+
+        assertTrue(wheel.advance(3 * TICK).isEmpty());
+        assertEquals(Collections.singletonList("TGT-2"), wheel.advance(4 * TICK));
+        assertEquals(Collections.singletonList("TGT-1"), wheel.advance(10 * TICK));
+        assertEquals(0, wheel.size());
+        assertTrue(wheel.advance(100 * TICK).isEmpty());
+    }
+
+    @Test
+    public void testPastDeadlineComesDueOnNextTick() {
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, 10 * TICK);
+        wheel.schedule("TGT-1", 0);
+        assertEquals(Collections.singletonList("TGT-1"), wheel.advance(11 * TICK));
+    }
+
+    @Test
+    public void testRescheduleSupersedesPreviousDeadline() {
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, 0);
+        wheel.schedule("TGT-1", 5 * TICK);
+        wheel.advance(2 * TICK);
+        wheel.schedule("TGT-1", 200 * TICK);
+
+        assertTrue(wheel.advance(199 * TICK).isEmpty());
+        assertTrue(wheel.isScheduled("TGT-1"));
+        assertEquals(Collections.singletonList("TGT-1"), wheel.advance(200 * TICK));
+    }
+
+    @Test
+    public void testCancelledTicketNeverComesDue() {
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, 0);
+        wheel.schedule("TGT-1", 5 * TICK);
+        wheel.cancel("TGT-1");
+        assertFalse(wheel.isScheduled("TGT-1"));
+        assertTrue(wheel.advance(10 * TICK).isEmpty());
+    }
+
+    @Test
+    public void testDeadlinesCascadeAcrossLevels() {
+        final long start = 12345 * TICK;
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, start);
+        final long[] offsets = {1, 63, 64, 65, 4095, 4096, 4097, 262143, 262144, 300000, 16777216, 20000000};
+        for (final long offset : offsets) {
+            wheel.schedule("TGT-" + offset, start + offset * TICK);
+        }
+
+        for (final long offset : offsets) {
+            assertTrue(wheel.advance(start + (offset - 1) * TICK).isEmpty());
+            assertEquals(Arrays.asList("TGT-" + offset), wheel.advance(start + offset * TICK));
+        }
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testAdvancingOnlyVisitsDueTickets() {
+        final TicketExpirationWheel wheel = new TicketExpirationWheel(TICK, 0);
+        final int size = 6000;
+        for (int i = 0; i < size; i++) {
+            wheel.schedule("TGT-" + i, TimeUnit.HOURS.toMillis(2) + (i % 60) * TICK);
+        }
+
+        for (long now = TICK; now < TimeUnit.HOURS.toMillis(2); now += TICK) {
+            assertTrue(wheel.advance(now).isEmpty());
+        }
+        int due = 0;
+        for (long now = TimeUnit.HOURS.toMillis(2); now < TimeUnit.HOURS.toMillis(2) + 60 * TICK; now += TICK) {
+            final List<String> expired = wheel.advance(now);
+            assertEquals(size / 60, expired.size());
+            due += expired.size();
+        }
+        assertEquals(size, due);
+        assertEquals(0, wheel.size());
+    }
+}
@@ -0,0 +1,160 @@
+package net.unicon.cas.mfa.ticket;
+
+import net.unicon.cas.mfa.ticket.registry.BatchWritingTicketRegistry;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InOrder;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TicketGrantingTicketDestructionQueueTests {
+
+    private CentralAuthenticationService cas;
+    private TicketRegistry registry;
+
+    @Before
+    public void setup() {
+        this.cas = mock(CentralAuthenticationService.class);
+        this.registry = mock(TicketRegistry.class);
+    }
+
+    private TicketGrantingTicket mockTicket(final String id) {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn(id);
+        when(this.registry.getTicket(id, TicketGrantingTicket.class)).thenReturn(tgt);
+        return tgt;
+    }
+
+    @Test
+    public void testSynchronousDestructionDelegatesToCas() throws Exception {
+        final TicketGrantingTicketDestructionQueue queue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 10);
+        queue.setCentralAuthenticationService(this.cas);
+        queue.setAsynchronous(false);
+        queue.afterPropertiesSet();
+
+        final TicketGrantingTicket tgt = mockTicket("TGT-1");
+        queue.enqueue("TGT-1");
+        verify(this.cas).destroyTicketGrantingTicket("TGT-1");
+        verifyZeroInteractions(tgt);
+        queue.destroy();
+    }
+
+    @Test
+    public void testSynchronousDestructionBeforeCasIsSetIsInline() throws Exception {
+        final TicketGrantingTicketDestructionQueue queue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 10);
+        queue.setAsynchronous(false);
+        queue.afterPropertiesSet();
+
+        final TicketGrantingTicket tgt = mockTicket("TGT-1");
+        queue.enqueue("TGT-1");
+        final InOrder inOrder = inOrder(tgt, this.registry);
+        inOrder.verify(tgt).expire();
+        inOrder.verify(this.registry).deleteTicket("TGT-1");
+        assertEquals(1, queue.getDestroyedCount());
+    }
+
+    @Test
+    public void testDestroyedTicketsAreRemovedFromIndexesOfCas() throws Exception {
+        this.cas = mock(CentralAuthenticationService.class, withSettings().extraInterfaces(TicketGrantingTicketIndex.class));
+        final TicketGrantingTicketDestructionQueue queue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 100);
+        queue.setCentralAuthenticationService(this.cas);
+        queue.afterPropertiesSet();
+
+        for (int i = 0; i < 10; i++) {
+            mockTicket("TGT-" + i);
+            queue.enqueue("TGT-" + i);
+        }
+        queue.destroy();
+
+        for (int i = 0; i < 10; i++) {
+            final InOrder inOrder = inOrder(this.registry, this.cas);
+            inOrder.verify(this.registry).deleteTicket("TGT-" + i);
+            inOrder.verify((TicketGrantingTicketIndex) this.cas).remove("TGT-" + i);
+        }
+        verify(this.cas, never()).destroyTicketGrantingTicket(anyString());
+    }
+
+    @Test
+    public void testTicketIsExpiredImmediatelyAndDrainedOnShutdown() throws Exception {
+        final TicketGrantingTicketDestructionQueue queue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 100);
+        queue.setCentralAuthenticationService(this.cas);
+        queue.afterPropertiesSet();
+
+        final TicketGrantingTicket[] tickets = new TicketGrantingTicket[50];
+        for (int i = 0; i < tickets.length; i++) {
+            tickets[i] = mockTicket("TGT-" + i);
+            queue.enqueue("TGT-" + i);
+            verify(tickets[i]).markTicketExpired();
+        }
+
+        queue.destroy();
+
+        for (int i = 0; i < tickets.length; i++) {
+            final InOrder inOrder = inOrder(tickets[i], this.registry);
+            inOrder.verify(tickets[i]).markTicketExpired();
+            inOrder.verify(this.registry).addTicket(tickets[i]);
+            inOrder.verify(tickets[i]).expire();
+            inOrder.verify(this.registry).deleteTicket("TGT-" + i);
+        }
+        assertEquals(0, queue.getQueueDepth());
+        assertEquals(tickets.length, queue.getDestroyedCount());
+        verify(this.cas, never()).destroyTicketGrantingTicket(anyString());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testBatchIsDeletedWithGroupedWrites() throws Exception {
+        this.registry = mock(TicketRegistry.class, withSettings().extraInterfaces(BatchWritingTicketRegistry.class));
+        final TicketGrantingTicketDestructionQueue queue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 100);
+        queue.afterPropertiesSet();
+
+        for (int i = 0; i < 10; i++) {
+            mockTicket("TGT-" + i);
+            queue.enqueue("TGT-" + i);
+        }
+        queue.destroy();
+
+        final ArgumentCaptor<Collection> deleted = ArgumentCaptor.forClass(Collection.class);
+        verify((BatchWritingTicketRegistry) this.registry, atLeastOnce()).writeTickets(eq(Collections.<Ticket>emptyList()),
+                deleted.capture());
+        final List<String> deletedTicketIds = new ArrayList<>();
+        for (final Collection<String> batch : deleted.getAllValues()) {
+            deletedTicketIds.addAll(batch);
+        }
+        assertEquals(10, deletedTicketIds.size());
+        verify(this.registry, never()).deleteTicket(anyString());
+        assertEquals(10, queue.getDestroyedCount());
+    }
+
+    @Test
+    public void testMissingTicketIsIgnored() throws Exception {
+        final TicketGrantingTicketDestructionQueue queue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 10);
+        queue.afterPropertiesSet();
+
+        queue.enqueue("TGT-unknown");
+        queue.destroy();
+
+        verify(this.registry, never()).deleteTicket(anyString());
+        assertEquals(0, queue.getDestroyedCount());
+    }
+}
@@ -0,0 +1,119 @@
+package net.unicon.cas.mfa.ticket;
+
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TicketGrantingTicketExpirationIndexTests {
+
+    private static final long TIME_TO_KILL = TimeUnit.SECONDS.toMillis(60);
+
+    private TicketRegistry registry;
+
+    private CentralAuthenticationService cas;
+
+    private TicketGrantingTicketExpirationIndex index;
+
+    @Before
+    public void setup() {
+        this.registry = mock(TicketRegistry.class);
+        this.cas = mock(CentralAuthenticationService.class);
+        final TicketGrantingTicketDestructionQueue destructionQueue =
+                new TicketGrantingTicketDestructionQueue(this.registry, 10);
+        destructionQueue.setCentralAuthenticationService(this.cas);
+        destructionQueue.setAsynchronous(false);
+        this.index = new TicketGrantingTicketExpirationIndex(this.registry, destructionQueue, 1000);
+        this.index.setTimeToKillInSeconds(60);
+    }
+
+    private TicketGrantingTicket mockTicket(final String id, final boolean expired) {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn(id);
+        when(tgt.isExpired()).thenReturn(expired);
+        when(this.registry.getTicket(id, TicketGrantingTicket.class)).thenReturn(tgt);
+        return tgt;
+    }
+
+    @Test
+    public void testExpiredTicketIsDestroyedOnceDue() {
+        mockTicket("TGT-1", true);
+        this.index.track("TGT-1");
+        final long now = System.currentTimeMillis();
+
+        assertEquals(0, this.index.clean(now));
+        verify(this.registry, never()).getTicket(anyString(), eq(TicketGrantingTicket.class));
+
+        assertEquals(1, this.index.clean(now + TIME_TO_KILL + 2000));
+        verify(this.cas).destroyTicketGrantingTicket("TGT-1");
+        assertEquals(1, this.index.getLastExpiredCount());
+        assertEquals(1, this.index.getLastVisitedCount());
+        assertEquals(0, this.index.getSize());
+    }
+
+    @Test
+    public void testValidTicketIsCheckedAgainLater() {
+        final TicketGrantingTicket tgt = mockTicket("TGT-1", false);
+        this.index.track("TGT-1");
+        final long due = System.currentTimeMillis() + TIME_TO_KILL + 2000;
+
+        assertEquals(0, this.index.clean(due));
+        verify(this.cas, never()).destroyTicketGrantingTicket(anyString());
+        assertEquals(1, this.index.getSize());
+
+        when(tgt.isExpired()).thenReturn(true);
+        assertEquals(0, this.index.clean(due + TIME_TO_KILL / 2));
+        assertEquals(1, this.index.clean(due + TIME_TO_KILL + 2000));
+        verify(this.cas).destroyTicketGrantingTicket("TGT-1");
+    }
+
+    @Test
+    public void testUseMovesDeadlineOut() throws Exception {
+        mockTicket("TGT-1", true);
+        this.index.track("TGT-1");
+        final long created = System.currentTimeMillis();
+        Thread.sleep(1500);
+        this.index.touch("TGT-1");
+
+        assertEquals(0, this.index.clean(created + TIME_TO_KILL + 1000));
+        assertEquals(1, this.index.clean(System.currentTimeMillis() + TIME_TO_KILL + 2000));
+    }
+
+    @Test
+    public void testUntrackedAndMissingTicketsAreIgnored() {
+        this.index.track("TGT-1");
+        this.index.track("TGT-2");
+        this.index.untrack("TGT-1");
+        this.index.touch("TGT-3");
+        assertEquals(1, this.index.getSize());
+
+        assertEquals(0, this.index.clean(System.currentTimeMillis() + TIME_TO_KILL + 2000));
+        verify(this.registry, never()).getTicket("TGT-1", TicketGrantingTicket.class);
+        verify(this.registry).getTicket("TGT-2", TicketGrantingTicket.class);
+        verify(this.registry, never()).getTicket("TGT-3", TicketGrantingTicket.class);
+        verify(this.cas, never()).destroyTicketGrantingTicket(anyString());
+    }
+
+    @Test
+    public void testIdleTicketsAreNotVisited() {
+        for (int i = 0; i < 10000; i++) {
+            this.index.track("TGT-" + i);
+        }
+        final long now = System.currentTimeMillis();
+        for (long t = now; t < now + TIME_TO_KILL - 2000; t += 1000) {
+            assertEquals(0, this.index.clean(t));
+            assertEquals(0, this.index.getLastVisitedCount());
+        }
+        verifyZeroInteractions(this.registry);
+        assertEquals(10000, this.index.getSize());
+    }
+}
@@ -0,0 +1,180 @@
+package net.unicon.cas.mfa.ticket;
+
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class TicketGrantingTicketSessionIndexTests {
+
+    private TicketRegistry registry;
+
+    private TicketGrantingTicketSessionIndex index;
+
+    @Before
+    public void setup() {
+        this.registry = mock(TicketRegistry.class);
+        this.index = new TicketGrantingTicketSessionIndex(this.registry);
+    }
+
+    private static Authentication authentication(final String principalId, final String... methods) {
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn(principalId);
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        when(authentication.getAttributes()).thenReturn(Collections.<String, Object>singletonMap(
+                MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD, Arrays.asList(methods)));
+        return authentication;
+    }
+
+    private TicketGrantingTicket liveTicket(final String id) {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn(id);
+        when(this.registry.getTicket(id, TicketGrantingTicket.class)).thenReturn(tgt);
+        return tgt;
+    }
+
+    @Test
+    public void testTicketsAreIndexedByPrincipalAndMethod() {
+        liveTicket("TGT-1");
+        liveTicket("TGT-2");
+        liveTicket("TGT-3");
+        this.index.index("TGT-1", authentication("casuser", "duo-two-factor"));
+        this.index.index("TGT-2", authentication("casuser", "strong_two_factor"));
+        this.index.index("TGT-3", authentication("other", "duo-two-factor"));
+
+        assertEquals(new HashSet<>(Arrays.asList("TGT-1", "TGT-2")), this.index.getTicketGrantingTicketIds("casuser"));
+        assertEquals(Collections.singleton("TGT-3"), this.index.getTicketGrantingTicketIds("other"));
+        assertTrue(this.index.getTicketGrantingTicketIds("unknown").isEmpty());
+        assertEquals(2, this.index.countSessionsSatisfying("duo-two-factor"));
+        assertEquals(1, this.index.countSessionsSatisfying("strong_two_factor"));
+        assertEquals(2, this.index.getIndexedPrincipalCount());
+    }
+
+    @Test
+    public void testUpgradeAddsSatisfiedMethods() {
+        liveTicket("TGT-1");
+        this.index.index("TGT-1", authentication("casuser", "strong_two_factor"));
+        assertEquals(0, this.index.countSessionsSatisfying("duo-two-factor"));
+
+        this.index.index("TGT-1", authentication("casuser", "strong_two_factor", "duo-two-factor"));
+        assertEquals(1, this.index.countSessionsSatisfying("duo-two-factor"));
+        assertEquals(1, this.index.countSessionsSatisfying("strong_two_factor"));
+        assertEquals(1, this.index.getIndexedTicketCount());
+    }
+
+    @Test
+    public void testRemovedTicketLeavesEveryIndex() {
+        liveTicket("TGT-1");
+        this.index.index("TGT-1", authentication("casuser", "duo-two-factor"));
+        this.index.remove("TGT-1");
+
+        assertTrue(this.index.getTicketGrantingTicketIds("casuser").isEmpty());
+        assertEquals(0, this.index.countSessionsSatisfying("duo-two-factor"));
+        assertEquals(0, this.index.getIndexedTicketCount());
+        assertEquals(0, this.index.getIndexedPrincipalCount());
+    }
+
+    @Test
+    public void testExpiredAndMissingTicketsArePruned() {
+        when(liveTicket("TGT-1").isExpired()).thenReturn(true);
+        liveTicket("TGT-3");
+        this.index.index("TGT-1", authentication("casuser", "duo-two-factor"));
+        this.index.index("TGT-2", authentication("casuser", "duo-two-factor"));
+        this.index.index("TGT-3", authentication("casuser", "duo-two-factor"));
+
+        assertEquals(Collections.singleton("TGT-3"), this.index.getTicketGrantingTicketIds("casuser"));
+        assertEquals(1, this.index.getIndexedTicketCount());
+        assertEquals(1, this.index.countSessionsSatisfying("duo-two-factor"));
+    }
+
+    @Test
+    public void testSweepDropsDeadTicketsOfEveryPrincipal() {
+        when(liveTicket("TGT-1").isExpired()).thenReturn(true);
+        liveTicket("TGT-3");
+        this.index.index("TGT-1", authentication("casuser", "duo-two-factor"));
+        this.index.index("TGT-2", authentication("otheruser", "duo-two-factor"));
+        this.index.index("TGT-3", authentication("thirduser", "duo-two-factor"));
+
+        assertEquals(2, this.index.sweep());
+        assertEquals(1, this.index.getIndexedTicketCount());
+        assertEquals(1, this.index.getIndexedPrincipalCount());
+        assertEquals(2, this.index.getLastSweptCount());
+        assertEquals(Collections.singleton("TGT-3"), this.index.getTicketGrantingTicketIdsSatisfying("duo-two-factor"));
+    }
+
+    @Test
+    public void testRestoredTicketIsIndexedFromItsAuthentication() {
+        final TicketGrantingTicket tgt = liveTicket("TGT-1");
+        final Authentication authentication = authentication("casuser", "duo-two-factor");
+        when(tgt.getAuthentication()).thenReturn(authentication);
+        this.index.index(tgt);
+
+        assertEquals(Collections.singleton("TGT-1"), this.index.getTicketGrantingTicketIds("casuser"));
+        assertEquals(1, this.index.countSessionsSatisfying("duo-two-factor"));
+    }
+
+    @Test
+    public void testLookupOnlyTouchesSessionsOfThePrincipal() {
+        for (int i = 0; i < 10000; i++) {
+            this.index.index("TGT-" + i, authentication("user" + (i % 1000), "duo-two-factor"));
+        }
+        liveTicket("TGT-7");
+        liveTicket("TGT-1007");
+
+        assertEquals(new HashSet<>(Arrays.asList("TGT-7", "TGT-1007")), this.index.getTicketGrantingTicketIds("user7"));
+        verify(this.registry, times(10)).getTicket(anyString(), eq(TicketGrantingTicket.class));
+        verify(this.registry, never()).getTickets();
+    }
+
+    @Test
+    public void testConcurrentIndexingAndRemoval() throws Exception {
+        final int threads = 8;
+        final int perThread = 2000;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch done = new CountDownLatch(threads);
+        final List<Authentication> authentications = Arrays.asList(
+                authentication("casuser", "duo-two-factor"), authentication("casuser", "strong_two_factor"));
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perThread; i++) {
+                        final String id = "TGT-" + thread + "-" + i;
+                        index.index(id, authentications.get(i % 2));
+                        if (i % 4 != 0) {
+                            index.remove(id);
+                        }
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        assertEquals(threads * perThread / 4, this.index.getIndexedTicketCount());
+        when(this.registry.getTicket(anyString(), eq(TicketGrantingTicket.class))).thenReturn(mock(TicketGrantingTicket.class));
+        assertEquals(threads * perThread / 4, this.index.getTicketGrantingTicketIds("casuser").size());
+        assertEquals(threads * perThread / 4, this.index.countSessionsSatisfying("duo-two-factor"));
+    }
+}
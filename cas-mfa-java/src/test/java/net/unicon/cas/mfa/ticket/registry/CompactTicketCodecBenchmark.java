@@ -0,0 +1,79 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class CompactTicketCodecBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CompactTicketCodecBenchmark.class);
+
+    private static final List<String> METHODS = Arrays.asList("strong_two_factor", "sample_two_factor");
+
+    private static DefaultCompositeAuthentication authentication(final String principalId) {
+        final MutablePrincipal principal = new MutablePrincipal(principalId);
+        principal.getAttributes().put("mail", principalId + "@example.org");
+        principal.getAttributes().put("memberOf", new ArrayList<>(Arrays.asList("faculty", "staff")));
+
+        final DefaultCompositeAuthentication authentication = new DefaultCompositeAuthentication(principal);
+        authentication.getAttributes().put(MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD,
+                new HashSet<>(METHODS));
+        authentication.getAttributes().put("successfulAuthenticationHandlers",
+                new HashSet<>(Arrays.asList("LdapAuthenticationHandler", "DuoAuthenticationHandler")));
+        authentication.getAttributes().put("longTermAuthenticationRequestTokenUsed", Boolean.FALSE);
+        authentication.getAttributes().put("loginCount", 7);
+        authentication.getAttributes().put("lastLogin", new Date(1234567890L));
+        authentication.getAttributes().put("service", new SimpleWebApplicationServiceImpl("https://app.example.org"));
+        return authentication;
+    }
+
+    private static TicketGrantingTicket ticketGrantingTicket(final String id, final Authentication authentication) {
+        return new TicketGrantingTicketImpl(id, authentication, new NeverExpiresExpirationPolicy());
+    }
+
+    @Test
+    public void testSizeAndTimeAgainstJavaSerialization() throws Exception {
+        final Ticket ticket = ticketGrantingTicket("TGT-1-cas01.example.org", authentication("casuser"));
+        final TicketCodec[] codecs = {new SerializationTicketCodec(), new CompactTicketCodec(METHODS)};
+        final int[] sizes = new int[codecs.length];
+        final int iterations = 20000;
+
+        for (int c = 0; c < codecs.length; c++) {
+            final TicketCodec codec = codecs[c];
+            sizes[c] = codec.encode(ticket).length;
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(codec.encode(ticket));
+            }
+            final long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                codec.decode(codec.encode(ticket));
+            }
+            LOGGER.info("{}: {} bytes per ticket, {} us per round trip", codec.getClass().getSimpleName(), sizes[c],
+                    (System.nanoTime() - start) / 1000 / iterations);
+        }
+        assertTrue(sizes[1] < sizes[0]);
+    }
+}
@@ -0,0 +1,135 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class CompactTicketCodecTests {
+
+    private static final List<String> METHODS = Arrays.asList("strong_two_factor", "sample_two_factor");
+
+    private static DefaultCompositeAuthentication authentication(final String principalId) {
+        final MutablePrincipal principal = new MutablePrincipal(principalId);
+        principal.getAttributes().put("mail", principalId + "@example.org");
+        principal.getAttributes().put("memberOf", new ArrayList<>(Arrays.asList("faculty", "staff")));
+
+        final DefaultCompositeAuthentication authentication = new DefaultCompositeAuthentication(principal);
+        authentication.getAttributes().put(MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD,
+                new HashSet<>(METHODS));
+        authentication.getAttributes().put("successfulAuthenticationHandlers",
+                new HashSet<>(Arrays.asList("LdapAuthenticationHandler", "DuoAuthenticationHandler")));
+        authentication.getAttributes().put("longTermAuthenticationRequestTokenUsed", Boolean.FALSE);
+        authentication.getAttributes().put("loginCount", 7);
+        authentication.getAttributes().put("lastLogin", new Date(1234567890L));
+        authentication.getAttributes().put("service", new SimpleWebApplicationServiceImpl("https://app.example.org"));
+        return authentication;
+    }
+
+    private static TicketGrantingTicket ticketGrantingTicket(final String id, final Authentication authentication) {
+        return new TicketGrantingTicketImpl(id, authentication, new NeverExpiresExpirationPolicy());
+    }
+
+    @Test
+    public void testAuthenticationRoundTrip() throws Exception {
+        final CompactTicketCodec codec = new CompactTicketCodec(METHODS);
+        final DefaultCompositeAuthentication authentication = authentication("casuser");
+
+        final TicketGrantingTicket decoded = (TicketGrantingTicket) codec.decode(
+                codec.encode(ticketGrantingTicket("TGT-1", authentication)));
+
+        assertEquals("TGT-1", decoded.getId());
+        final DefaultCompositeAuthentication restored = (DefaultCompositeAuthentication) decoded.getAuthentication();
+        assertTrue(restored.getPrincipal() instanceof MutablePrincipal);
+        assertEquals("casuser", restored.getPrincipal().getId());
+        assertEquals(authentication.getPrincipal().getAttributes(), restored.getPrincipal().getAttributes());
+        assertEquals(authentication.getAttributes(), restored.getAttributes());
+        assertEquals(authentication.getAuthenticatedDate(), restored.getAuthenticatedDate());
+        assertEquals(new HashSet<>(METHODS), restored.getSatisfiedAuthenticationMethods());
+
+        restored.appendAuthentication(new DefaultCompositeAuthentication(new MutablePrincipal("casuser")));
+        restored.getPrincipal().getAttributes().put("upgraded", "true");
+    }
+
+    @Test
+    public void testProxyChainKeepsSharedAuthentications() throws Exception {
+        final CompactTicketCodec codec = new CompactTicketCodec(METHODS);
+        final TicketGrantingTicket tgt = ticketGrantingTicket("TGT-1", authentication("casuser"));
+        final ServiceTicket st = tgt.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.org"),
+                new NeverExpiresExpirationPolicy(), false);
+        final TicketGrantingTicket pgt = st.grantTicketGrantingTicket("PGT-1", tgt.getAuthentication(),
+                new NeverExpiresExpirationPolicy());
+
+        final TicketGrantingTicket decoded = (TicketGrantingTicket) codec.decode(codec.encode(pgt));
+        final List<Authentication> chain = decoded.getChainedAuthentications();
+        assertEquals(2, chain.size());
+        assertSame(chain.get(0), chain.get(1));
+        assertSame(decoded.getAuthentication(), decoded.getGrantingTicket().getAuthentication());
+        assertEquals("casuser", chain.get(1).getPrincipal().getId());
+        assertTrue(MultiFactorUtils.hasSatisfiedAuthenticationMethod(chain.get(1), "strong_two_factor"));
+    }
+
+    @Test
+    public void testConfiguredMethodsAreWrittenAsOrdinals() throws Exception {
+        final Ticket tgt = ticketGrantingTicket("TGT-1", authentication("casuser"));
+
+        final byte[] withMethods = new CompactTicketCodec(METHODS).encode(tgt);
+        final byte[] withoutMethods = new CompactTicketCodec().encode(tgt);
+        assertFalse(contains(withMethods, "strong_two_factor"));
+        assertTrue(contains(withoutMethods, "strong_two_factor"));
+        assertTrue(withMethods.length < withoutMethods.length);
+    }
+
+    @Test
+    public void testSerializedTicketIsDecoded() throws Exception {
+        final byte[] serialized = new SerializationTicketCodec().encode(ticketGrantingTicket("TGT-1", authentication("casuser")));
+
+        final TicketGrantingTicket decoded = (TicketGrantingTicket) new CompactTicketCodec(METHODS).decode(serialized);
+        assertEquals("casuser", decoded.getAuthentication().getPrincipal().getId());
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherVersionIsRejected() throws Exception {
+        final CompactTicketCodec codec = new CompactTicketCodec(METHODS);
+        final byte[] data = codec.encode(ticketGrantingTicket("TGT-1", authentication("casuser")));
+        data[0] = CompactTicketCodec.VERSION + 1;
+        codec.decode(data);
+    }
+
+    @Test(expected = IOException.class)
+    public void testOtherDictionaryIsRejected() throws Exception {
+        final byte[] data = new CompactTicketCodec(METHODS).encode(ticketGrantingTicket("TGT-1", authentication("casuser")));
+        new CompactTicketCodec(Arrays.asList("sample_two_factor", "strong_two_factor")).decode(data);
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        final Ticket ticket = ticketGrantingTicket("TGT-1-cas01.example.org", authentication("casuser"));
+        assertTrue(new CompactTicketCodec(METHODS).encode(ticket).length < new SerializationTicketCodec().encode(ticket).length);
+    }
+
+    private static boolean contains(final byte[] data, final String value) {
+        return new String(data, StandardCharsets.ISO_8859_1).contains(value);
+    }
+}
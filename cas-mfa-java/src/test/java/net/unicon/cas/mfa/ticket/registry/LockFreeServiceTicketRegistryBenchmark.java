@@ -0,0 +1,117 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.jasig.cas.util.DefaultUniqueTicketIdGenerator;
+import org.jasig.cas.util.UniqueTicketIdGenerator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class LockFreeServiceTicketRegistryBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LockFreeServiceTicketRegistryBenchmark.class);
+
+    private static final int THREADS = 8;
+
+    /**
+     * Claim the service ticket the way validation does: atomically if the registry supports it,
+     * and otherwise by whoever deletes it.
+     *
+     * @return the claimed ticket, or null
+     */
+    private static ServiceTicket claim(final TicketRegistry registry, final String serviceTicketId) {
+        if (registry instanceof ServiceTicketClaimingTicketRegistry) {
+            return ((ServiceTicketClaimingTicketRegistry) registry).claimServiceTicket(serviceTicketId);
+        }
+        final ServiceTicket serviceTicket = (ServiceTicket) registry.getTicket(serviceTicketId);
+        return serviceTicket != null && registry.deleteTicket(serviceTicketId) ? serviceTicket : null;
+    }
+
+    /**
+     * Issue service tickets from a ticket granting ticket per thread, and validate each one right away.
+     *
+     * @return pairs of issued and validated tickets per second
+     */
+    private static long issueAndValidate(final TicketRegistry registry, final int pairsPerThread) throws Exception {
+        final UniqueTicketIdGenerator idGenerator = new DefaultUniqueTicketIdGenerator();
+        final ExpirationPolicy expirationPolicy = new NeverExpiresExpirationPolicy();
+        final Service service = new SimpleWebApplicationServiceImpl("https://app.example.org");
+
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<Integer>> outcomes = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                final TicketGrantingTicket tgt = new TicketGrantingTicketImpl("TGT-" + t,
+                        new DefaultCompositeAuthentication(new MutablePrincipal("casuser")), expirationPolicy);
+                outcomes.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        start.await();
+                        int validated = 0;
+                        for (int i = 0; i < pairsPerThread; i++) {
+                            final ServiceTicket st = tgt.grantServiceTicket(idGenerator.getNewTicketId("ST"),
+                                    service, expirationPolicy, false);
+                            registry.addTicket(st);
+                            final ServiceTicket claimed = claim(registry, st.getId());
+                            if (claimed != null && claimed.isValidFor(service)) {
+                                validated++;
+                            }
+                        }
+                        return validated;
+                    }
+                }));
+            }
+
+            final long begin = System.nanoTime();
+            start.countDown();
+            for (final Future<Integer> outcome : outcomes) {
+                assertEquals(pairsPerThread, outcome.get().intValue());
+            }
+            final long elapsed = System.nanoTime() - begin;
+            return TimeUnit.SECONDS.toNanos(1) * THREADS * pairsPerThread / elapsed;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testIssueAndValidateThroughput() throws Exception {
+        final int pairsPerThread = 25000;
+        long lockFree = 0;
+        for (int round = 0; round < 2; round++) {
+            lockFree = issueAndValidate(new LockFreeServiceTicketRegistry(), pairsPerThread);
+            final long map = issueAndValidate(new DefaultTicketRegistry(), pairsPerThread);
+            LOGGER.info("Round {}: {} issue+validate pairs/s with the lock-free registry, {} pairs/s with DefaultTicketRegistry",
+                    round, lockFree, map);
+        }
+        assertTrue("Expected at least 50k pairs/s, got " + lockFree, lockFree >= 50000);
+    }
+}
@@ -0,0 +1,119 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class LockFreeServiceTicketRegistryTests {
+
+    private static final int THREADS = 8;
+
+    private static ServiceTicket serviceTicket(final String id) {
+        final ServiceTicket st = mock(ServiceTicket.class);
+        when(st.getId()).thenReturn(id);
+        return st;
+    }
+
+    @Test
+    public void testTicketIsClaimedOnce() {
+        final LockFreeServiceTicketRegistry registry = new LockFreeServiceTicketRegistry();
+        final ServiceTicket st = serviceTicket("ST-1");
+        registry.addTicket(st);
+
+        assertSame(st, registry.getTicket("ST-1"));
+        assertEquals(1, registry.getOutstandingTicketCount());
+        assertSame(st, registry.claimServiceTicket("ST-1"));
+        assertNull(registry.getTicket("ST-1"));
+        assertNull(registry.claimServiceTicket("ST-1"));
+        assertFalse(registry.deleteTicket("ST-1"));
+        assertEquals(0, registry.getOutstandingTicketCount());
+
+        registry.addTicket(st);
+        assertTrue(registry.deleteTicket("ST-1"));
+        assertTrue(registry.getTickets().isEmpty());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOnlyServiceTicketsAreAccepted() {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn("TGT-1");
+        new LockFreeServiceTicketRegistry().addTicket(tgt);
+    }
+
+    @Test
+    public void testFullGenerationIsFollowedByANewOne() {
+        final LockFreeServiceTicketRegistry registry = new LockFreeServiceTicketRegistry(TimeUnit.MINUTES.toMillis(1), 4, 1);
+        for (int i = 0; i < 10; i++) {
+            registry.addTicket(serviceTicket("ST-" + i));
+        }
+        assertEquals(4, registry.getGenerationCount());
+        for (int i = 0; i < 10; i++) {
+            assertEquals("ST-" + i, registry.getTicket("ST-" + i).getId());
+        }
+        assertEquals(10, registry.getTickets().size());
+    }
+
+    @Test
+    public void testGenerationsAreDroppedAfterTimeToLive() throws Exception {
+        final LockFreeServiceTicketRegistry registry = new LockFreeServiceTicketRegistry(50, 16, 2);
+        registry.addTicket(serviceTicket("ST-1"));
+        Thread.sleep(100);
+        registry.addTicket(serviceTicket("ST-2"));
+        Thread.sleep(100);
+        registry.addTicket(serviceTicket("ST-3"));
+
+        assertNull(registry.getTicket("ST-1"));
+        assertNotNull(registry.getTicket("ST-3"));
+        assertTrue(registry.getGenerationCount() <= 2);
+    }
+
+    @Test
+    public void testExactlyOneConcurrentClaimWins() throws Exception {
+        final LockFreeServiceTicketRegistry registry = new LockFreeServiceTicketRegistry();
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (int round = 0; round < 100; round++) {
+                final String id = "ST-" + round;
+                registry.addTicket(serviceTicket(id));
+
+                final CountDownLatch start = new CountDownLatch(1);
+                final List<Future<ServiceTicket>> claims = new ArrayList<>();
+                for (int i = 0; i < THREADS; i++) {
+                    claims.add(executor.submit(new Callable<ServiceTicket>() {
+                        @Override
+                        public ServiceTicket call() throws Exception {
+                            start.await();
+                            return registry.claimServiceTicket(id);
+                        }
+                    }));
+                }
+                start.countDown();
+
+                int winners = 0;
+                for (final Future<ServiceTicket> claim : claims) {
+                    if (claim.get() != null) {
+                        winners++;
+                    }
+                }
+                assertEquals(1, winners);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import net.unicon.cas.mfa.util.MultiFactorUtils;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class OffHeapTicketRegistryTests {
+
+    private static final Service SERVICE = new SimpleWebApplicationServiceImpl("https://app.example.org");
+
+    private static TicketGrantingTicket ticketGrantingTicket(final String id) {
+        final DefaultCompositeAuthentication authentication = new DefaultCompositeAuthentication(new MutablePrincipal("casuser"));
+        authentication.getAttributes().put(MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD,
+                Collections.singleton("strong_two_factor"));
+        return new TicketGrantingTicketImpl(id, authentication, new NeverExpiresExpirationPolicy());
+    }
+
+    @Test
+    public void testTicketGrantingTicketIsStoredOffHeap() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        registry.setMaxCacheSize(0);
+        final TicketGrantingTicket tgt = ticketGrantingTicket("TGT-1");
+        registry.addTicket(tgt);
+
+        final TicketGrantingTicket restored = (TicketGrantingTicket) registry.getTicket("TGT-1");
+        assertNotSame(tgt, restored);
+        assertEquals("TGT-1", restored.getId());
+        assertTrue(restored.getAuthentication() instanceof DefaultCompositeAuthentication);
+        assertEquals("casuser", restored.getAuthentication().getPrincipal().getId());
+        assertEquals(Collections.singleton("strong_two_factor"),
+                MultiFactorUtils.getSatisfiedAuthenticationMethods(restored.getAuthentication()));
+
+        assertEquals(1, registry.getTicketCount());
+        assertTrue(registry.getOffHeapBytes() > 0);
+        assertEquals(registry.getOffHeapBytes(), registry.getOffHeapBytesPerTicket());
+        assertTrue(registry.getHeapBytesPerTicket() < registry.getOffHeapBytesPerTicket());
+    }
+
+    @Test
+    public void testTicketGrantingTicketIsStoredWithTicketCodec() {
+        final OffHeapTicketRegistry serializing = new OffHeapTicketRegistry();
+        serializing.addTicket(ticketGrantingTicket("TGT-1"));
+
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        registry.setMaxCacheSize(0);
+        registry.setTicketCodec(new CompactTicketCodec(Collections.singletonList("strong_two_factor")));
+        registry.addTicket(ticketGrantingTicket("TGT-1"));
+
+        final TicketGrantingTicket restored = (TicketGrantingTicket) registry.getTicket("TGT-1");
+        assertEquals("casuser", restored.getAuthentication().getPrincipal().getId());
+        assertEquals(Collections.singleton("strong_two_factor"),
+                MultiFactorUtils.getSatisfiedAuthenticationMethods(restored.getAuthentication()));
+        assertTrue(registry.getOffHeapBytes() <= serializing.getOffHeapBytes());
+    }
+
+    @Test
+    public void testRecentlyUsedTicketIsCachedAndItsChangesAreWrittenBack() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        registry.setMaxCacheSize(1);
+        registry.addTicket(ticketGrantingTicket("TGT-1"));
+
+        final Ticket cached = registry.getTicket("TGT-1");
+        assertSame(cached, registry.getTicket("TGT-1"));
+        ((TicketGrantingTicket) cached).markTicketExpired();
+
+        registry.addTicket(ticketGrantingTicket("TGT-2"));
+        final Ticket restored = registry.getTicket("TGT-1");
+        assertNotSame(cached, restored);
+        assertTrue(restored.isExpired());
+        assertTrue(registry.getCacheHitRate() > 0);
+    }
+
+    @Test
+    public void testChangesAreWrittenBackWithoutCache() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        registry.setMaxCacheSize(0);
+        registry.addTicket(ticketGrantingTicket("TGT-1"));
+
+        final TicketGrantingTicket tgt = (TicketGrantingTicket) registry.getTicket("TGT-1");
+        tgt.grantServiceTicket("ST-1", SERVICE, new NeverExpiresExpirationPolicy(), false);
+        assertEquals(1, registry.getTicket("TGT-1").getCountOfUses());
+
+        registry.addTicket(tgt);
+        assertEquals(1, registry.getTicketCount());
+        assertEquals(1, registry.getTicket("TGT-1").getCountOfUses());
+
+        ((TicketGrantingTicket) registry.getTicket("TGT-1")).markTicketExpired();
+        assertTrue(registry.getTicket("TGT-1").isExpired());
+    }
+
+    @Test
+    public void testProxyGrantingTicketExpiresWithItsParent() {
+        for (final int maxCacheSize : new int[] {0, 10000}) {
+            final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+            registry.setMaxCacheSize(maxCacheSize);
+            registry.addTicket(ticketGrantingTicket("TGT-1"));
+
+            final TicketGrantingTicket parent = (TicketGrantingTicket) registry.getTicket("TGT-1");
+            final ServiceTicket st = parent.grantServiceTicket("ST-1", SERVICE, new NeverExpiresExpirationPolicy(), false);
+            registry.addTicket(st);
+            final TicketGrantingTicket pgt = st.grantProxyGrantingTicket("PGT-1", parent.getAuthentication(),
+                    new NeverExpiresExpirationPolicy());
+            registry.addTicket(pgt);
+            assertSame(pgt, registry.getTicket("PGT-1"));
+            assertSame(pgt.getGrantingTicket(), registry.getTicket("TGT-1"));
+
+            ((TicketGrantingTicket) registry.getTicket("TGT-1")).markTicketExpired();
+            assertTrue(registry.deleteTicket("TGT-1"));
+            assertTrue(registry.getTicket("PGT-1").isExpired());
+            assertEquals(0, registry.getTicketCount());
+        }
+    }
+
+    @Test
+    public void testLogoutReachesServiceTicketsAfterCacheEviction() {
+        for (final int maxCacheSize : new int[] {0, 1}) {
+            final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+            registry.setMaxCacheSize(maxCacheSize);
+            registry.addTicket(ticketGrantingTicket("TGT-1"));
+            final ServiceTicket st = ((TicketGrantingTicket) registry.getTicket("TGT-1"))
+                    .grantServiceTicket("ST-1", SERVICE, new NeverExpiresExpirationPolicy(), false);
+            registry.addTicket(st);
+            assertEquals(1, registry.getPinnedCount());
+
+            registry.addTicket(ticketGrantingTicket("TGT-2"));
+            registry.getTicket("TGT-2");
+
+            ((TicketGrantingTicket) registry.getTicket("TGT-1")).markTicketExpired();
+            assertTrue(registry.deleteTicket("TGT-1"));
+            assertTrue(registry.getTicket("ST-1").isExpired());
+            assertEquals(0, registry.getPinnedCount());
+        }
+    }
+
+    @Test
+    public void testTicketGrantingTicketIsUnpinnedWithItsLastServiceTicket() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        registry.setMaxCacheSize(0);
+        registry.addTicket(ticketGrantingTicket("TGT-1"));
+        final TicketGrantingTicket tgt = (TicketGrantingTicket) registry.getTicket("TGT-1");
+        registry.addTicket(tgt.grantServiceTicket("ST-1", SERVICE, new NeverExpiresExpirationPolicy(), false));
+        registry.addTicket(tgt.grantServiceTicket("ST-2", SERVICE, new NeverExpiresExpirationPolicy(), false));
+        assertEquals(1, registry.getPinnedCount());
+
+        assertNotNull(registry.claimServiceTicket("ST-1"));
+        assertEquals(1, registry.getPinnedCount());
+        assertTrue(registry.deleteTicket("ST-2"));
+        assertEquals(0, registry.getPinnedCount());
+        assertEquals(2, registry.getTicket("TGT-1").getCountOfUses());
+    }
+
+    @Test
+    public void testDeletedTicketFreesItsSlot() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        registry.addTicket(ticketGrantingTicket("TGT-1"));
+        registry.addTicket(ticketGrantingTicket("TGT-1"));
+        final long used = registry.getOffHeapBytes();
+        registry.addTicket(ticketGrantingTicket("TGT-2"));
+        assertEquals(2 * used, registry.getOffHeapBytes());
+
+        assertTrue(registry.deleteTicket("TGT-1"));
+        assertFalse(registry.deleteTicket("TGT-1"));
+        assertNull(registry.getTicket("TGT-1"));
+        assertTrue(registry.deleteTicket("TGT-2"));
+        assertEquals(0, registry.getOffHeapBytes());
+        assertEquals(0, registry.getTicketCount());
+    }
+
+    @Test
+    public void testTicketsBeyondTheOffHeapLimitAreKeptOnHeap() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry(64 * 1024, 64 * 1024);
+        registry.setMaxCacheSize(0);
+        for (int i = 0; i < 200; i++) {
+            registry.addTicket(ticketGrantingTicket("TGT-" + i));
+        }
+        assertEquals(64 * 1024, registry.getReservedOffHeapBytes());
+        for (int i = 0; i < 200; i++) {
+            assertEquals("TGT-" + i, registry.getTicket("TGT-" + i).getId());
+        }
+
+        int count = 0;
+        for (final Ticket ticket : registry.getTickets()) {
+            assertFalse(ticket.isExpired());
+            count++;
+        }
+        assertEquals(200, count);
+    }
+
+    @Test
+    public void testServiceTicketIsKeptOnHeapAndClaimed() {
+        final OffHeapTicketRegistry registry = new OffHeapTicketRegistry();
+        final ServiceTicket st = mock(ServiceTicket.class);
+        when(st.getId()).thenReturn("ST-1");
+        registry.addTicket(st);
+
+        assertSame(st, registry.getTicket("ST-1"));
+        assertEquals(0, registry.getTicketCount());
+        assertSame(st, registry.claimServiceTicket("ST-1"));
+        assertNull(registry.claimServiceTicket("ST-1"));
+    }
+}
@@ -0,0 +1,44 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class PartitionedTicketRegistryTests {
+
+    private final DefaultTicketRegistry ticketRegistry = new DefaultTicketRegistry();
+
+    private final LockFreeServiceTicketRegistry serviceTicketRegistry = new LockFreeServiceTicketRegistry();
+
+    private final PartitionedTicketRegistry registry = new PartitionedTicketRegistry(this.ticketRegistry, this.serviceTicketRegistry);
+
+    @Test
+    public void testServiceTicketsAreKeptApart() {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn("TGT-1");
+        final ServiceTicket st = mock(ServiceTicket.class);
+        when(st.getId()).thenReturn("ST-1");
+
+        this.registry.addTicket(tgt);
+        this.registry.addTicket(st);
+        assertSame(tgt, this.ticketRegistry.getTicket("TGT-1"));
+        assertNull(this.ticketRegistry.getTicket("ST-1"));
+        assertSame(st, this.serviceTicketRegistry.getTicket("ST-1"));
+
+        assertSame(tgt, this.registry.getTicket("TGT-1"));
+        assertSame(st, this.registry.getTicket("ST-1"));
+        assertEquals(2, this.registry.getTickets().size());
+
+        assertSame(st, this.registry.claimServiceTicket("ST-1"));
+        assertNull(this.registry.claimServiceTicket("TGT-1"));
+        assertTrue(this.registry.deleteTicket("TGT-1"));
+        assertTrue(this.registry.getTickets().isEmpty());
+    }
+}
@@ -0,0 +1,190 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import net.unicon.cas.mfa.ticket.ShardedUniqueTicketIdGenerator;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.jasig.cas.util.DefaultUniqueTicketIdGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ShardRoutingTicketRegistryTests {
+
+    private static final int SHARDS = 4;
+
+    private final ShardedUniqueTicketIdGenerator ticketGrantingTicketIds =
+            new ShardedUniqueTicketIdGenerator(new DefaultUniqueTicketIdGenerator(50, "cas01"), SHARDS);
+
+    private final ShardedUniqueTicketIdGenerator serviceTicketIds =
+            new ShardedUniqueTicketIdGenerator(new DefaultUniqueTicketIdGenerator(20, "cas01"), SHARDS);
+
+    /** Proxy granting tickets come from the stock generator of the delegate service, so their ids carry no shard. */
+    private final DefaultUniqueTicketIdGenerator proxyGrantingTicketIds = new DefaultUniqueTicketIdGenerator(50, "cas01");
+
+    private List<CountingTicketRegistry> partitions;
+
+    private ShardRoutingTicketRegistry registry;
+
+    @Before
+    public void setup() {
+        this.partitions = new ArrayList<>();
+        for (int i = 0; i < SHARDS; i++) {
+            this.partitions.add(new CountingTicketRegistry());
+        }
+        this.registry = new ShardRoutingTicketRegistry(new ArrayList<TicketRegistry>(this.partitions));
+    }
+
+    /**
+     * Grant a service ticket the way the central authentication service does, in the shard of the granting ticket.
+     */
+    private ServiceTicket grantServiceTicket(final TicketGrantingTicket tgt) {
+        ShardedUniqueTicketIdGenerator.enterShardOf(tgt.getId());
+        try {
+            final ServiceTicket st = tgt.grantServiceTicket(this.serviceTicketIds.getNewTicketId(ServiceTicket.PREFIX),
+                    new SimpleWebApplicationServiceImpl("https://app.example.org"), new NeverExpiresExpirationPolicy(), false);
+            this.registry.addTicket(st);
+            return st;
+        } finally {
+            ShardedUniqueTicketIdGenerator.exitShard();
+        }
+    }
+
+    /**
+     * Grant a proxy granting ticket the way the central authentication service does, from a validated service ticket.
+     */
+    private TicketGrantingTicket delegateTicketGrantingTicket(final ServiceTicket st) {
+        ShardedUniqueTicketIdGenerator.enterShardOf(st.getId());
+        try {
+            final TicketGrantingTicket pgt = st.grantTicketGrantingTicket(
+                    this.proxyGrantingTicketIds.getNewTicketId("PGT"),
+                    st.getGrantingTicket().getAuthentication(), new NeverExpiresExpirationPolicy());
+            this.registry.addTicket(pgt);
+            return pgt;
+        } finally {
+            ShardedUniqueTicketIdGenerator.exitShard();
+        }
+    }
+
+    private TicketGrantingTicket createTicketGrantingTicket() {
+        final TicketGrantingTicket tgt = new TicketGrantingTicketImpl(
+                this.ticketGrantingTicketIds.getNewTicketId(TicketGrantingTicket.PREFIX),
+                new DefaultCompositeAuthentication(new MutablePrincipal("casuser")), new NeverExpiresExpirationPolicy());
+        this.registry.addTicket(tgt);
+        return tgt;
+    }
+
+    @Test
+    public void testTicketsOfASessionStayInOnePartition() {
+        final List<TicketGrantingTicket> tgts = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            tgts.add(createTicketGrantingTicket());
+        }
+        for (final TicketGrantingTicket tgt : tgts) {
+            for (int i = 0; i < 5; i++) {
+                final ServiceTicket st = grantServiceTicket(tgt);
+                assertSame(st, this.registry.getTicket(st.getId()));
+                assertSame(tgt, this.registry.getTicket(st.getGrantingTicket().getId()));
+                assertSame(st, this.registry.claimServiceTicket(st.getId()));
+            }
+
+            final ServiceTicket proxied = grantServiceTicket(tgt);
+            assertSame(proxied, this.registry.claimServiceTicket(proxied.getId()));
+            final TicketGrantingTicket pgt = delegateTicketGrantingTicket(proxied);
+            for (int i = 0; i < 5; i++) {
+                final ServiceTicket pt = grantServiceTicket(pgt);
+                assertSame(pgt, this.registry.getTicket(pt.getGrantingTicket().getId()));
+                assertSame(pt, this.registry.claimServiceTicket(pt.getId()));
+            }
+            assertTrue(this.registry.deleteTicket(pgt.getId()));
+            assertTrue(this.registry.deleteTicket(tgt.getId()));
+        }
+
+        int added = 0;
+        for (int shard = 0; shard < SHARDS; shard++) {
+            final CountingTicketRegistry partition = this.partitions.get(shard);
+            added += partition.added.size();
+            for (final String ticketId : partition.seen) {
+                assertEquals("Ticket " + ticketId + " was looked up in partition " + shard,
+                        shard, ShardedUniqueTicketIdGenerator.getShard(ticketId, SHARDS));
+            }
+        }
+        assertEquals(40 * 13, added);
+        assertTrue(this.registry.getTickets().isEmpty());
+    }
+
+    @Test
+    public void testTicketsWithoutShardArePlacedByHash() {
+        final TicketGrantingTicket legacy = new TicketGrantingTicketImpl("TGT-12-abcdef-cas01",
+                new DefaultCompositeAuthentication(new MutablePrincipal("casuser")), new NeverExpiresExpirationPolicy());
+        this.registry.addTicket(legacy);
+        final ServiceTicket st = grantServiceTicket(legacy);
+        createTicketGrantingTicket();
+
+        assertSame(legacy, this.registry.getTicket(legacy.getId()));
+        assertSame(st, this.registry.getTicket(st.getId()));
+        assertEquals(3, this.registry.getTickets().size());
+        int found = 0;
+        for (final CountingTicketRegistry partition : this.partitions) {
+            if (partition.getTicket(legacy.getId()) != null) {
+                found++;
+            }
+        }
+        assertEquals(1, found);
+        assertTrue(this.registry.getHashedCount() > 0);
+        assertTrue(this.registry.deleteTicket(legacy.getId()));
+        assertNull(this.registry.getTicket(legacy.getId()));
+    }
+
+    /**
+     * A partition that records the ids of the tickets it was asked about.
+     */
+    private static final class CountingTicketRegistry extends AbstractTicketRegistry {
+        private final DefaultTicketRegistry tickets = new DefaultTicketRegistry();
+        private final Set<String> added = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private final Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        @Override
+        public void addTicket(final Ticket ticket) {
+            this.added.add(ticket.getId());
+            this.seen.add(ticket.getId());
+            this.tickets.addTicket(ticket);
+        }
+
+        @Override
+        public Ticket getTicket(final String ticketId) {
+            this.seen.add(ticketId);
+            return this.tickets.getTicket(ticketId);
+        }
+
+        @Override
+        public boolean deleteTicket(final String ticketId) {
+            this.seen.add(ticketId);
+            return this.tickets.deleteTicket(ticketId);
+        }
+
+        @Override
+        public Collection<Ticket> getTickets() {
+            return this.tickets.getTickets();
+        }
+    }
+}
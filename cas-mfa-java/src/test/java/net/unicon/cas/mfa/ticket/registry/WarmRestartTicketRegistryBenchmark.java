@@ -0,0 +1,72 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class WarmRestartTicketRegistryBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmRestartTicketRegistryBenchmark.class);
+
+    private File snapshotFile;
+
+    @Before
+    public void setup() throws Exception {
+        this.snapshotFile = File.createTempFile("ticket-registry", ".snapshot");
+        assertTrue(this.snapshotFile.delete());
+    }
+
+    @After
+    public void cleanup() {
+        this.snapshotFile.delete();
+    }
+
+    private static TicketGrantingTicket ticketGrantingTicket(final String id, final ExpirationPolicy policy) {
+        return new TicketGrantingTicketImpl(id, new DefaultCompositeAuthentication(new MutablePrincipal("casuser")), policy);
+    }
+
+    private WarmRestartTicketRegistry restart() throws Exception {
+        final WarmRestartTicketRegistry registry = new WarmRestartTicketRegistry(new DefaultTicketRegistry(), this.snapshotFile);
+        registry.afterPropertiesSet();
+        return registry;
+    }
+
+    @Test
+    public void testSnapshotSizeAndRestoreTime() throws Exception {
+        final WarmRestartTicketRegistry before = restart();
+        final int count = 20000;
+        for (int i = 0; i < count; i++) {
+            before.addTicket(ticketGrantingTicket("TGT-" + i + "-cas01.example.org", new NeverExpiresExpirationPolicy()));
+        }
+        long start = System.nanoTime();
+        before.destroy();
+        LOGGER.info("Wrote snapshot of {} tickets in {} ms, {} bytes per ticket",
+                count, (System.nanoTime() - start) / 1000000, this.snapshotFile.length() / count);
+
+        start = System.nanoTime();
+        final WarmRestartTicketRegistry after = restart();
+        LOGGER.info("Opened snapshot in {} ms", (System.nanoTime() - start) / 1000000);
+        after.awaitRestore(30000);
+        LOGGER.info("Restored {} tickets in {} ms", after.getRestoredCount(), (System.nanoTime() - start) / 1000000);
+        assertEquals(count, after.getRestoredCount());
+    }
+}
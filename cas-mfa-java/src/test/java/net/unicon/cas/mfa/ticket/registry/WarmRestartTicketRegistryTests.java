@@ -0,0 +1,170 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import net.unicon.cas.mfa.authentication.DefaultCompositeAuthentication;
+import net.unicon.cas.mfa.authentication.principal.MutablePrincipal;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketIndex;
+import net.unicon.cas.mfa.ticket.TicketGrantingTicketSessionIndex;
+import org.jasig.cas.authentication.principal.SimpleWebApplicationServiceImpl;
+import org.jasig.cas.ticket.ExpirationPolicy;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.TicketGrantingTicketImpl;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.support.HardTimeoutExpirationPolicy;
+import org.jasig.cas.ticket.support.NeverExpiresExpirationPolicy;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class WarmRestartTicketRegistryTests {
+
+    private File snapshotFile;
+
+    @Before
+    public void setup() throws Exception {
+        this.snapshotFile = File.createTempFile("ticket-registry", ".snapshot");
+        assertTrue(this.snapshotFile.delete());
+    }
+
+    @After
+    public void cleanup() {
+        this.snapshotFile.delete();
+    }
+
+    private static TicketGrantingTicket ticketGrantingTicket(final String id, final ExpirationPolicy policy) {
+        return new TicketGrantingTicketImpl(id, new DefaultCompositeAuthentication(new MutablePrincipal("casuser")), policy);
+    }
+
+    private WarmRestartTicketRegistry restart() throws Exception {
+        final WarmRestartTicketRegistry registry = new WarmRestartTicketRegistry(new DefaultTicketRegistry(), this.snapshotFile);
+        registry.afterPropertiesSet();
+        return registry;
+    }
+
+    @Test
+    public void testTicketGrantingTicketsSurviveRestart() throws Exception {
+        final WarmRestartTicketRegistry before = restart();
+        for (int i = 0; i < 300; i++) {
+            before.addTicket(ticketGrantingTicket("TGT-" + i, new NeverExpiresExpirationPolicy()));
+        }
+        final TicketGrantingTicket expired = ticketGrantingTicket("TGT-expired", new NeverExpiresExpirationPolicy());
+        expired.markTicketExpired();
+        before.addTicket(expired);
+        before.addTicket(expired.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.org"),
+                new NeverExpiresExpirationPolicy(), false));
+        before.destroy();
+        assertTrue(this.snapshotFile.exists());
+
+        final WarmRestartTicketRegistry after = restart();
+        final Ticket restored = after.getTicket("TGT-150");
+        assertNotNull(restored);
+        assertEquals("casuser", ((TicketGrantingTicket) restored).getAuthentication().getPrincipal().getId());
+
+        after.awaitRestore(10000);
+        assertEquals(300, after.getTickets().size());
+        assertEquals(300, after.getRestoredCount());
+        assertEquals(0, after.getPendingCount());
+        assertNull(after.getTicket("TGT-expired"));
+        assertNull(after.getTicket("ST-1"));
+        assertFalse(this.snapshotFile.exists());
+    }
+
+    @Test
+    public void testTicketsThatExpiredWhileDownAreDropped() throws Exception {
+        final WarmRestartTicketRegistry before = restart();
+        before.addTicket(ticketGrantingTicket("TGT-1", new HardTimeoutExpirationPolicy(200)));
+        before.addTicket(ticketGrantingTicket("TGT-2", new NeverExpiresExpirationPolicy()));
+        before.destroy();
+        Thread.sleep(300);
+
+        final WarmRestartTicketRegistry after = restart();
+        after.awaitRestore(10000);
+        assertNull(after.getTicket("TGT-1"));
+        assertNotNull(after.getTicket("TGT-2"));
+        assertEquals(1, after.getDroppedCount());
+    }
+
+    @Test
+    public void testTicketDeletedBeforeRestoreIsNotBroughtBack() throws Exception {
+        final WarmRestartTicketRegistry before = restart();
+        for (int i = 0; i < 1000; i++) {
+            before.addTicket(ticketGrantingTicket("TGT-" + i, new NeverExpiresExpirationPolicy()));
+        }
+        before.destroy();
+
+        final WarmRestartTicketRegistry after = restart();
+        assertTrue(after.deleteTicket("TGT-999"));
+        final TicketGrantingTicket replaced = ticketGrantingTicket("TGT-998", new NeverExpiresExpirationPolicy());
+        after.addTicket(replaced);
+        after.awaitRestore(10000);
+
+        assertNull(after.getTicket("TGT-999"));
+        assertFalse(after.deleteTicket("TGT-999"));
+        assertSame(replaced, after.getTicket("TGT-998"));
+        assertEquals(999, after.getTickets().size());
+    }
+
+    @Test
+    public void testProxyGrantingTicketSharesItsRestoredParent() throws Exception {
+        final WarmRestartTicketRegistry before = restart();
+        final TicketGrantingTicket tgt = ticketGrantingTicket("TGT-1", new NeverExpiresExpirationPolicy());
+        final ServiceTicket st = tgt.grantServiceTicket("ST-1", new SimpleWebApplicationServiceImpl("https://app.example.org"),
+                new NeverExpiresExpirationPolicy(), false);
+        final TicketGrantingTicket pgt = st.grantTicketGrantingTicket("PGT-1", tgt.getAuthentication(), new NeverExpiresExpirationPolicy());
+        before.addTicket(pgt);
+        before.addTicket(tgt);
+        before.destroy();
+
+        final WarmRestartTicketRegistry after = restart();
+        final Ticket restoredProxy = after.getTicket("PGT-1");
+        assertSame(after.getTicket("TGT-1"), restoredProxy.getGrantingTicket());
+
+        ((TicketGrantingTicket) after.getTicket("TGT-1")).markTicketExpired();
+        assertTrue(restoredProxy.isExpired());
+    }
+
+    @Test
+    public void testRestoredTicketsAreIndexed() throws Exception {
+        final WarmRestartTicketRegistry before = restart();
+        for (int i = 0; i < 300; i++) {
+            before.addTicket(ticketGrantingTicket("TGT-" + i, new NeverExpiresExpirationPolicy()));
+        }
+        before.destroy();
+
+        final WarmRestartTicketRegistry after = new WarmRestartTicketRegistry(new DefaultTicketRegistry(), this.snapshotFile);
+        final TicketGrantingTicketSessionIndex indexedOnRestore = new TicketGrantingTicketSessionIndex(after);
+        after.setTicketGrantingTicketIndexes(Collections.<TicketGrantingTicketIndex>singletonList(indexedOnRestore));
+        after.afterPropertiesSet();
+        after.awaitRestore(10000);
+        assertEquals(300, indexedOnRestore.getTicketGrantingTicketIds("casuser").size());
+
+        final TicketGrantingTicketSessionIndex indexedWhenSet = new TicketGrantingTicketSessionIndex(after);
+        after.setTicketGrantingTicketIndexes(Collections.<TicketGrantingTicketIndex>singletonList(indexedWhenSet));
+        assertEquals(300, indexedWhenSet.getTicketGrantingTicketIds("casuser").size());
+    }
+
+    @Test
+    public void testUnsupportedSnapshotIsDiscarded() throws Exception {
+        try (final DataOutputStream out = new DataOutputStream(new FileOutputStream(this.snapshotFile))) {
+            out.writeInt(TicketRegistrySnapshot.MAGIC);
+            out.writeInt(TicketRegistrySnapshot.VERSION + 1);
+            out.writeLong(System.currentTimeMillis());
+            out.writeInt(0);
+        }
+
+        final WarmRestartTicketRegistry registry = restart();
+        assertTrue(registry.getTickets().isEmpty());
+        assertFalse(this.snapshotFile.exists());
+    }
+}
@@ -0,0 +1,360 @@
+package net.unicon.cas.mfa.ticket.registry;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.ticket.Ticket;
+import org.jasig.cas.ticket.TicketGrantingTicket;
+import org.jasig.cas.ticket.registry.AbstractTicketRegistry;
+import org.jasig.cas.ticket.registry.DefaultTicketRegistry;
+import org.jasig.cas.ticket.registry.TicketRegistry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class WriteBehindTicketRegistryTests {
+
+    private EmbeddedStore store;
+
+    private WriteBehindTicketRegistry registry;
+
+    @Before
+    public void setup() throws Exception {
+        this.store = new EmbeddedStore();
+        this.registry = new WriteBehindTicketRegistry(this.store, 100);
+        this.registry.afterPropertiesSet();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        this.store.open();
+        this.registry.destroy();
+    }
+
+    private static Ticket ticket(final String id) {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn(id);
+        return tgt;
+    }
+
+    private static ServiceTicket serviceTicket(final String id) {
+        final ServiceTicket st = mock(ServiceTicket.class);
+        when(st.getId()).thenReturn(id);
+        return st;
+    }
+
+    private void awaitWritten(final String ticketId, final boolean present) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while ((this.store.getTicket(ticketId) != null) != present) {
+            assertTrue("Timed out waiting for " + ticketId, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void testReadsSeeWritesBeforeTheyAreFlushed() throws Exception {
+        this.store.close();
+        final Ticket tgt = ticket("TGT-1");
+        this.registry.addTicket(tgt);
+
+        assertSame(tgt, this.registry.getTicket("TGT-1"));
+        assertEquals(1, this.registry.getTickets().size());
+        assertNull(this.store.getTicket("TGT-1"));
+
+        this.store.open();
+        awaitWritten("TGT-1", true);
+        assertSame(tgt, this.registry.getTicket("TGT-1"));
+    }
+
+    @Test
+    public void testChangesAreCoalescedAndBatched() throws Exception {
+        this.store.close();
+        this.registry.addTicket(ticket("TGT-0"));
+        this.store.awaitBlockedWriter();
+
+        for (int i = 1; i <= 50; i++) {
+            this.registry.addTicket(ticket("TGT-" + i));
+        }
+        final Ticket latest = ticket("TGT-1");
+        this.registry.addTicket(latest);
+        this.registry.addTicket(ticket("TGT-doomed"));
+        assertTrue(this.registry.deleteTicket("TGT-doomed"));
+        assertNull(this.registry.getTicket("TGT-doomed"));
+
+        this.store.open();
+        awaitWritten("TGT-50", true);
+        assertSame(latest, this.store.getTicket("TGT-1"));
+        assertNull(this.store.getTicket("TGT-doomed"));
+        assertTrue(this.store.batches.get() <= 3);
+        assertEquals(51, this.store.getTickets().size());
+        assertTrue(this.registry.getLastBatchSize() > 1);
+    }
+
+    @Test
+    public void testFullQueueFallsBackToInlineWrites() throws Exception {
+        final WriteBehindTicketRegistry bounded = new WriteBehindTicketRegistry(this.store, 2);
+        bounded.setBackpressureTimeoutInMillis(10);
+        bounded.afterPropertiesSet();
+        try {
+            this.store.close();
+            bounded.addTicket(ticket("TGT-0"));
+            this.store.awaitBlockedWriter();
+            for (int i = 1; i <= 5; i++) {
+                bounded.addTicket(ticket("TGT-" + i));
+            }
+            assertEquals(2, bounded.getQueueDepth());
+            assertEquals(3, bounded.getInlineWriteCount());
+            assertNotNull(this.store.getTicket("TGT-5"));
+        } finally {
+            this.store.open();
+            bounded.destroy();
+        }
+        for (int i = 0; i <= 5; i++) {
+            assertNotNull(this.store.getTicket("TGT-" + i));
+        }
+    }
+
+    @Test
+    public void testTicketIsNeverWrittenByTwoThreadsAtOnce() throws Exception {
+        final WriteBehindTicketRegistry bounded = new WriteBehindTicketRegistry(this.store, 1);
+        bounded.setBackpressureTimeoutInMillis(0);
+        bounded.afterPropertiesSet();
+        final Ticket[] tickets = {ticket("TGT-0"), ticket("TGT-1"), ticket("TGT-2"), ticket("TGT-3")};
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<Future<Void>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = 0; i < 2000; i++) {
+                            final Ticket ticket = tickets[i % tickets.length];
+                            if (i % 3 == 0) {
+                                bounded.deleteTicket(ticket.getId());
+                            } else {
+                                bounded.addTicket(ticket);
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (final Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+            bounded.destroy();
+        }
+        assertEquals(0, this.store.overlappingWrites.get());
+        for (final Ticket ticket : tickets) {
+            assertSame(this.store.getTicket(ticket.getId()), bounded.getTicket(ticket.getId()));
+        }
+    }
+
+    @Test
+    public void testDeletionDoesNotReadTheRegistry() throws Exception {
+        final TicketRegistry remote = mock(TicketRegistry.class);
+        final WriteBehindTicketRegistry unstarted = new WriteBehindTicketRegistry(remote, 10);
+
+        assertFalse(unstarted.deleteTicket("TGT-1"));
+        verify(remote).deleteTicket("TGT-1");
+        verify(remote, never()).getTicket(anyString());
+    }
+
+    @Test
+    public void testPendingServiceTicketIsClaimedOnce() throws Exception {
+        this.store.close();
+        this.registry.addTicket(serviceTicket("ST-1"));
+
+        assertNotNull(this.registry.claimServiceTicket("ST-1"));
+        assertNull(this.registry.claimServiceTicket("ST-1"));
+        assertNull(this.registry.getTicket("ST-1"));
+
+        this.store.open();
+        this.registry.addTicket(serviceTicket("ST-2"));
+        awaitWritten("ST-2", true);
+        assertNotNull(this.registry.claimServiceTicket("ST-2"));
+        assertNull(this.registry.claimServiceTicket("ST-2"));
+        assertNull(this.store.getTicket("ST-2"));
+    }
+
+    @Test
+    public void testFailedBatchIsRetried() throws Exception {
+        this.store.failures.set(2);
+        this.registry.addTicket(ticket("TGT-1"));
+        awaitWritten("TGT-1", true);
+        assertEquals(0, this.registry.getFailedWriteCount());
+    }
+
+    @Test
+    public void testChangeIsDroppedAfterRetries() throws Exception {
+        this.registry.setMaxRetries(1);
+        this.store.failures.set(Integer.MAX_VALUE);
+        this.registry.addTicket(ticket("TGT-1"));
+
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.registry.getFailedWriteCount() == 0) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertNull(this.registry.getTicket("TGT-1"));
+    }
+
+    @Test
+    public void testAuthenticationDeltaIsWrittenInPlaceOfTheTicket() throws Exception {
+        this.store.close();
+        this.registry.addTicket(ticket("TGT-0"));
+        this.store.awaitBlockedWriter();
+
+        final TicketGrantingTicket added = (TicketGrantingTicket) ticket("TGT-1");
+        this.registry.addTicket(added);
+        this.registry.publishAuthenticationDelta(added, mock(Authentication.class));
+        final TicketGrantingTicket stepped = (TicketGrantingTicket) ticket("TGT-2");
+        final Authentication first = mock(Authentication.class);
+        final Authentication second = mock(Authentication.class);
+        this.registry.publishAuthenticationDelta(stepped, first);
+        this.registry.publishAuthenticationDelta(stepped, second);
+        assertSame(stepped, this.registry.getTicket("TGT-2"));
+
+        this.store.open();
+        awaitWritten("TGT-1", true);
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (this.store.deltas.size() < 2) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+        assertSame(added, this.store.getTicket("TGT-1"));
+        assertNull(this.store.getTicket("TGT-2"));
+        assertEquals(Arrays.asList(first, second), this.store.deltas);
+    }
+
+    @Test
+    public void testAuthenticationDeltaFallsBackToTheTicket() throws Exception {
+        final TicketRegistry remote = mock(TicketRegistry.class);
+        final WriteBehindTicketRegistry unstarted = new WriteBehindTicketRegistry(remote, 10);
+        final TicketGrantingTicket tgt = (TicketGrantingTicket) ticket("TGT-1");
+
+        unstarted.publishAuthenticationDelta(tgt, mock(Authentication.class));
+        verify(remote).addTicket(tgt);
+    }
+
+    @Test
+    public void testQueuedChangesAreWrittenOnShutdown() throws Exception {
+        for (int i = 0; i < 500; i++) {
+            this.registry.addTicket(ticket("TGT-" + i));
+        }
+        this.registry.destroy();
+        assertEquals(500, this.store.getTickets().size());
+        assertEquals(0, this.registry.getQueueDepth());
+    }
+
+    /**
+     * An in-memory store that applies grouped writes. While it is closed, writes of the write-behind worker
+     * are held back; writes made inline by callers go through.
+     */
+    private static final class EmbeddedStore extends AbstractTicketRegistry
+            implements BatchWritingTicketRegistry, AuthenticationDeltaAwareTicketRegistry {
+        private final DefaultTicketRegistry tickets = new DefaultTicketRegistry();
+        private final List<Authentication> deltas = new CopyOnWriteArrayList<>();
+        private final AtomicInteger batches = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private final AtomicInteger overlappingWrites = new AtomicInteger();
+        private final Set<String> writing = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+        private volatile CountDownLatch gate = new CountDownLatch(0);
+        private final CountDownLatch blocked = new CountDownLatch(1);
+
+        void close() {
+            this.gate = new CountDownLatch(1);
+        }
+
+        void open() {
+            this.gate.countDown();
+        }
+
+        void awaitBlockedWriter() throws InterruptedException {
+            assertTrue(this.blocked.await(5, TimeUnit.SECONDS));
+        }
+
+        @Override
+        public void writeTickets(final Collection<Ticket> added, final Collection<String> deletedTicketIds) {
+            final CountDownLatch current = this.gate;
+            if (current.getCount() > 0 && Thread.currentThread().getName().startsWith("ticket-registry-write-behind")) {
+                this.blocked.countDown();
+                try {
+                    current.await();
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (this.failures.getAndDecrement() > 0) {
+                throw new IllegalStateException("store unavailable");
+            }
+            this.batches.incrementAndGet();
+            final List<String> ticketIds = new ArrayList<>(deletedTicketIds);
+            for (final Ticket ticket : added) {
+                ticketIds.add(ticket.getId());
+            }
+            for (final String ticketId : ticketIds) {
+                if (!this.writing.add(ticketId)) {
+                    this.overlappingWrites.incrementAndGet();
+                }
+            }
+            Thread.yield();
+            for (final Ticket ticket : added) {
+                this.tickets.addTicket(ticket);
+            }
+            for (final String ticketId : deletedTicketIds) {
+                this.tickets.deleteTicket(ticketId);
+            }
+            this.writing.removeAll(ticketIds);
+        }
+
+        @Override
+        public void publishAuthenticationDelta(final TicketGrantingTicket ticketGrantingTicket, final Authentication authentication) {
+            this.deltas.add(authentication);
+        }
+
+        @Override
+        public void addTicket(final Ticket ticket) {
+            this.tickets.addTicket(ticket);
+        }
+
+        @Override
+        public Ticket getTicket(final String ticketId) {
+            return this.tickets.getTicket(ticketId);
+        }
+
+        @Override
+        public boolean deleteTicket(final String ticketId) {
+            return this.tickets.deleteTicket(ticketId);
+        }
+
+        @Override
+        public Collection<Ticket> getTickets() {
+            return this.tickets.getTickets();
+        }
+    }
+}
@@ -1,12 +1,18 @@
 package net.unicon.cas.mfa.util;
 
 import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+
+import org.jasig.cas.authentication.Authentication;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -43,4 +49,24 @@ public class MultiFactorUtilsTests {
     public void testConversionOfMapValuesIntoCollection() {
         MultiFactorUtils.convertValueToCollection(new HashMap());
     }
+
+    @Test
+    public void testSatisfiedAuthenticationMethodLookup() {
+        final Map<String, Object> attributes = new HashMap<String, Object>();
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getAttributes()).thenReturn(attributes);
+        assertFalse(MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, "strong_two_factor"));
+
+        final String key = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+        attributes.put(key, "strong_two_factor");
+        assertTrue(MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, "strong_two_factor"));
+        assertFalse(MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, "other_two_factor"));
+
+        attributes.put(key, Collections.singleton("strong_two_factor"));
+        assertTrue(MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, "strong_two_factor"));
+
+        attributes.put(key, new String[] {"other_two_factor", "strong_two_factor"});
+        assertTrue(MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, "strong_two_factor"));
+        assertFalse(MultiFactorUtils.hasSatisfiedAuthenticationMethod(authentication, "weak_two_factor"));
+    }
 }
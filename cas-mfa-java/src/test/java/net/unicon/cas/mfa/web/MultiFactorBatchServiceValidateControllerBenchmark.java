@@ -0,0 +1,171 @@
+package net.unicon.cas.mfa.web;
+
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.RegisteredServiceTicketValidator;
+import net.unicon.cas.mfa.authentication.AuthenticationMethod;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.authentication.principal.WebApplicationService;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.jasig.cas.validation.Assertion;
+import org.jasig.cas.web.support.ArgumentExtractor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.context.support.StaticApplicationContext;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class MultiFactorBatchServiceValidateControllerBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MultiFactorBatchServiceValidateControllerBenchmark.class);
+
+    private static final String PARAM_NAME = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    private MultiFactorBatchServiceValidateController controller;
+
+    private RegisteredServiceTicketValidator validator;
+
+    private ServicesManager servicesManager;
+
+    private Assertion assertion;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn("casuser");
+        when(principal.getAttributes()).thenReturn(Collections.<String, Object>emptyMap());
+
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        when(authentication.getAttributes()).thenReturn(Collections.<String, Object>singletonMap(PARAM_NAME, "strong_two_factor"));
+
+        this.assertion = mock(Assertion.class);
+        when(this.assertion.getChainedAuthentications()).thenReturn(Collections.singletonList(authentication));
+
+        final RegisteredService registeredService = mock(RegisteredService.class);
+        when(registeredService.isEnabled()).thenReturn(true);
+
+        this.servicesManager = mock(ServicesManager.class);
+        when(this.servicesManager.findServiceBy(any(Service.class))).thenReturn(registeredService);
+
+        this.validator = mock(RegisteredServiceTicketValidator.class);
+        when(this.validator.validateServiceTicket(anyString(), any(Service.class), any(RegisteredService.class)))
+                .thenReturn(this.assertion);
+
+        final AuthenticationMethodConfigurationProvider provider = mock(AuthenticationMethodConfigurationProvider.class);
+        when(provider.getAuthenticationMethod("strong_two_factor")).thenReturn(new AuthenticationMethod("strong_two_factor", 1));
+
+        this.controller = new MultiFactorBatchServiceValidateController(this.validator, this.servicesManager, provider);
+        this.controller.setApplicationContext(new StaticApplicationContext());
+        this.controller.setValidationSpecificationClass((Class) AbstractMultiFactorAuthenticationProtocolValidationSpecification.WithoutProxy.class);
+    }
+
+    private static HttpServletRequest newRequest(final String body) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+        });
+        return request;
+    }
+
+    private static HttpServletResponse newResponse(final ByteArrayOutputStream body) throws IOException {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+        return response;
+    }
+
+    private String validate(final String body) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNull(this.controller.handleRequestInternal(newRequest(body), newResponse(out)));
+        return out.toString("UTF-8");
+    }
+
+    /**
+     * Validates the same number of tickets in one batch and one request at a time, and reports the time per ticket.
+     */
+    @Test
+    public void testThroughputAgainstSingleValidation() throws Exception {
+        final int tickets = 100;
+        final int rounds = 50;
+
+        final StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < tickets; i++) {
+            batch.append(i == 0 ? "" : ",").append("{\"ticket\":\"ST-").append(i)
+                    .append("\",\"service\":\"https://app\",\"authn_method\":\"strong_two_factor\"}");
+        }
+        final String body = batch.append(']').toString();
+
+        final WebApplicationService service = mock(WebApplicationService.class);
+        when(service.getArtifactId()).thenReturn("ST-1");
+        final ArgumentExtractor extractor = mock(ArgumentExtractor.class);
+        when(extractor.extractService(any(HttpServletRequest.class))).thenReturn(service);
+        final CentralAuthenticationService cas = mock(CentralAuthenticationService.class);
+        when(cas.validateServiceTicket("ST-1", service)).thenReturn(this.assertion);
+
+        final MultiFactorServiceValidateController single = new MultiFactorServiceValidateController();
+        single.setApplicationContext(new StaticApplicationContext());
+        single.setCentralAuthenticationService(cas);
+        single.setArgumentExtractor(extractor);
+        single.setValidationSpecificationClass(
+                (Class) AbstractMultiFactorAuthenticationProtocolValidationSpecification.WithoutProxy.class);
+        final HttpServletRequest singleRequest = mock(HttpServletRequest.class);
+        when(singleRequest.getParameter(PARAM_NAME)).thenReturn("strong_two_factor");
+        when(singleRequest.getParameter("format")).thenReturn("JSON");
+        final HttpServletResponse singleResponse = mock(HttpServletResponse.class);
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                validate(body);
+            }
+            final long batchNanos = (System.nanoTime() - start) / (rounds * tickets);
+
+            start = System.nanoTime();
+            for (int r = 0; r < rounds; r++) {
+                for (int i = 0; i < tickets; i++) {
+                    assertEquals("casServiceJsonSuccessView",
+                            single.handleRequestInternal(singleRequest, singleResponse).getViewName());
+                }
+            }
+            final long singleNanos = (System.nanoTime() - start) / (rounds * tickets);
+            LOGGER.info("Round {}: batch {} ns/ticket, single {} ns/ticket (excluding view rendering and HTTP)",
+                    round, batchNanos, singleNanos);
+        }
+        assertEquals(2L * rounds * tickets, this.controller.getValidatedTicketCount());
+    }
+}
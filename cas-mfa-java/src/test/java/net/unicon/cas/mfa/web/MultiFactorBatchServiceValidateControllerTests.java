@@ -0,0 +1,158 @@
+package net.unicon.cas.mfa.web;
+
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.RegisteredServiceTicketValidator;
+import net.unicon.cas.mfa.authentication.AuthenticationMethod;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.services.RegisteredService;
+import org.jasig.cas.services.ServicesManager;
+import org.jasig.cas.ticket.InvalidTicketException;
+import org.jasig.cas.validation.Assertion;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.context.support.StaticApplicationContext;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class MultiFactorBatchServiceValidateControllerTests {
+
+    private static final String PARAM_NAME = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    private MultiFactorBatchServiceValidateController controller;
+
+    private RegisteredServiceTicketValidator validator;
+
+    private ServicesManager servicesManager;
+
+    private Assertion assertion;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn("casuser");
+        when(principal.getAttributes()).thenReturn(Collections.<String, Object>emptyMap());
+
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        when(authentication.getAttributes()).thenReturn(Collections.<String, Object>singletonMap(PARAM_NAME, "strong_two_factor"));
+
+        this.assertion = mock(Assertion.class);
+        when(this.assertion.getChainedAuthentications()).thenReturn(Collections.singletonList(authentication));
+
+        final RegisteredService registeredService = mock(RegisteredService.class);
+        when(registeredService.isEnabled()).thenReturn(true);
+
+        this.servicesManager = mock(ServicesManager.class);
+        when(this.servicesManager.findServiceBy(any(Service.class))).thenReturn(registeredService);
+
+        this.validator = mock(RegisteredServiceTicketValidator.class);
+        when(this.validator.validateServiceTicket(anyString(), any(Service.class), any(RegisteredService.class)))
+                .thenReturn(this.assertion);
+
+        final AuthenticationMethodConfigurationProvider provider = mock(AuthenticationMethodConfigurationProvider.class);
+        when(provider.getAuthenticationMethod("strong_two_factor")).thenReturn(new AuthenticationMethod("strong_two_factor", 1));
+
+        this.controller = new MultiFactorBatchServiceValidateController(this.validator, this.servicesManager, provider);
+        this.controller.setApplicationContext(new StaticApplicationContext());
+        this.controller.setValidationSpecificationClass((Class) AbstractMultiFactorAuthenticationProtocolValidationSpecification.WithoutProxy.class);
+    }
+
+    private static HttpServletRequest newRequest(final String body) throws IOException {
+        final ByteArrayInputStream in = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getMethod()).thenReturn("POST");
+        when(request.getInputStream()).thenReturn(new ServletInputStream() {
+            @Override
+            public int read() throws IOException {
+                return in.read();
+            }
+        });
+        return request;
+    }
+
+    private static HttpServletResponse newResponse(final ByteArrayOutputStream body) throws IOException {
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+        return response;
+    }
+
+    private String validate(final String body) throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertNull(this.controller.handleRequestInternal(newRequest(body), newResponse(out)));
+        return out.toString("UTF-8");
+    }
+
+    @Test
+    public void testBatchResultsAreReturnedInOrder() throws Exception {
+        when(this.validator.validateServiceTicket(eq("ST-2"), any(Service.class), any(RegisteredService.class)))
+                .thenThrow(new InvalidTicketException());
+
+        final String json = validate("[{\"ticket\":\"ST-1\",\"service\":\"https://app\",\"authn_method\":\"strong_two_factor\"},"
+                + "{\"ticket\":\"ST-2\",\"service\":\"https://app\",\"extra\":{\"ignored\":[1,2]}},"
+                + "{\"ticket\":\"ST-3\",\"service\":\"https://app\",\"authn_method\":\"other_two_factor\"},"
+                + "{\"service\":\"https://app\"}]");
+
+        final int first = json.indexOf("\"ticket\":\"ST-1\"");
+        final int second = json.indexOf("\"ticket\":\"ST-2\"");
+        final int third = json.indexOf("\"ticket\":\"ST-3\"");
+        assertTrue(first >= 0 && first < second && second < third);
+        assertTrue(json.contains("\"user\":\"casuser\""));
+        assertTrue(json.contains("\"authnMethods\":[\"strong_two_factor\"],\"authnRank\":1"));
+        assertTrue(json.contains("\"code\":\"INVALID_TICKET\""));
+        assertTrue(json.substring(third).startsWith("\"ticket\":\"ST-3\",\"service\":\"https://app\","
+                + "\"serviceResponse\":{\"authenticationFailure\""));
+        assertTrue(json.contains("\"code\":\"INVALID_REQUEST\""));
+
+        verify(this.servicesManager, times(1)).findServiceBy(any(Service.class));
+    }
+
+    @Test
+    public void testUnknownServiceIsRejectedPerItem() throws Exception {
+        when(this.servicesManager.findServiceBy(any(Service.class))).thenReturn(null);
+
+        final String json = validate("[{\"ticket\":\"ST-1\",\"service\":\"https://unknown\"}]");
+        assertTrue(json.contains("\"authenticationFailure\""));
+        verify(this.validator, never()).validateServiceTicket(anyString(), any(Service.class), any(RegisteredService.class));
+    }
+
+    @Test
+    public void testOversizedBatchIsRejected() throws Exception {
+        this.controller.setMaxBatchSize(1);
+        final HttpServletResponse response = newResponse(new ByteArrayOutputStream());
+        this.controller.handleRequestInternal(newRequest("[{\"ticket\":\"ST-1\",\"service\":\"https://app\"},"
+                + "{\"ticket\":\"ST-2\",\"service\":\"https://app\"}]"), response);
+        verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+        verify(this.validator, never()).validateServiceTicket(anyString(), any(Service.class), any(RegisteredService.class));
+    }
+
+    @Test
+    public void testMalformedBatchIsRejected() throws Exception {
+        final HttpServletResponse response = newResponse(new ByteArrayOutputStream());
+        this.controller.handleRequestInternal(newRequest("{\"ticket\":\"ST-1\"}"), response);
+        verify(response).sendError(eq(HttpServletResponse.SC_BAD_REQUEST), anyString());
+    }
+}
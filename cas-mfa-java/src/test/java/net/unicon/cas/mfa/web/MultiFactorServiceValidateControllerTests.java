@@ -0,0 +1,208 @@
+package net.unicon.cas.mfa.web;
+
+import net.unicon.cas.mfa.AbstractMultiFactorAuthenticationProtocolValidationSpecification;
+import net.unicon.cas.mfa.ticket.PrerenderedValidationAssertion;
+import net.unicon.cas.mfa.web.support.AsynchronousProxyHandler;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.Credential;
+import org.jasig.cas.authentication.principal.WebApplicationService;
+import org.jasig.cas.validation.Assertion;
+import org.jasig.cas.web.support.ArgumentExtractor;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.springframework.context.support.StaticApplicationContext;
+import org.springframework.web.servlet.ModelAndView;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class MultiFactorServiceValidateControllerTests {
+
+    private static final String PARAM_NAME = MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD;
+
+    private MultiFactorServiceValidateController controller;
+
+    private Assertion assertion;
+
+    private CentralAuthenticationService cas;
+
+    private WebApplicationService service;
+
+    @Before
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        this.service = mock(WebApplicationService.class);
+        when(this.service.getArtifactId()).thenReturn("ST-1");
+
+        final ArgumentExtractor extractor = mock(ArgumentExtractor.class);
+        when(extractor.extractService(any(HttpServletRequest.class))).thenReturn(this.service);
+
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getAttributes()).thenReturn(Collections.<String, Object>singletonMap(PARAM_NAME, "strong_two_factor"));
+
+        this.assertion = mock(Assertion.class);
+        when(this.assertion.getChainedAuthentications()).thenReturn(Collections.singletonList(authentication));
+
+        this.cas = mock(CentralAuthenticationService.class);
+        when(this.cas.validateServiceTicket("ST-1", this.service)).thenReturn(this.assertion);
+
+        this.controller = new MultiFactorServiceValidateController();
+        this.controller.setApplicationContext(new StaticApplicationContext());
+        this.controller.setCentralAuthenticationService(this.cas);
+        this.controller.setArgumentExtractor(extractor);
+        this.controller.setValidationSpecificationClass((Class) AbstractMultiFactorAuthenticationProtocolValidationSpecification.WithoutProxy.class);
+    }
+
+    private ModelAndView validate(final String renew, final String authnMethod) throws Exception {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("renew")).thenReturn(renew);
+        when(request.getParameter(PARAM_NAME)).thenReturn(authnMethod);
+        when(request.getParameterValues(PARAM_NAME)).thenReturn(authnMethod == null ? null : new String[] {authnMethod});
+        return this.controller.handleRequestInternal(request, mock(HttpServletResponse.class));
+    }
+
+    @Test
+    public void testRequestedMethodIsSatisfied() throws Exception {
+        final ModelAndView mv = validate(null, "strong_two_factor");
+        assertEquals("casServiceSuccessView", mv.getViewName());
+        assertEquals("strong_two_factor", mv.getModel().get(PARAM_NAME));
+    }
+
+    @Test
+    public void testSharedSpecificationsDoNotLeakBetweenRequests() throws Exception {
+        assertEquals("casServiceSuccessView", validate(null, "strong_two_factor").getViewName());
+        assertEquals("casServiceFailureView", validate(null, "other_two_factor").getViewName());
+        assertEquals("casServiceSuccessView", validate(null, "strong_two_factor").getViewName());
+        assertEquals("casServiceSuccessView", validate(null, null).getViewName());
+    }
+
+    @Test
+    public void testRenewRequiresNewLogin() throws Exception {
+        when(this.assertion.isFromNewLogin()).thenReturn(false);
+        assertEquals("casServiceFailureView", validate("true", "strong_two_factor").getViewName());
+        assertEquals("casServiceSuccessView", validate("false", "strong_two_factor").getViewName());
+
+        when(this.assertion.isFromNewLogin()).thenReturn(true);
+        assertEquals("casServiceSuccessView", validate("true", "strong_two_factor").getViewName());
+    }
+
+    @Test
+    public void testPrerenderedResponseIsWrittenAsIs() throws Exception {
+        final byte[] payload = "<cas:serviceResponse/>".getBytes("UTF-8");
+        when(this.cas.validateServiceTicket("ST-1", this.service))
+                .thenReturn(new PrerenderedValidationAssertion(this.assertion, payload));
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter(PARAM_NAME)).thenReturn("strong_two_factor");
+        assertNull(this.controller.handleRequestInternal(request, response));
+        assertArrayEquals(payload, body.toByteArray());
+        verify(response).setContentLength(payload.length);
+    }
+
+    @Test
+    public void testJsonFormatSelectsJsonViews() throws Exception {
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("format")).thenReturn("json");
+        when(request.getParameter(PARAM_NAME)).thenReturn("strong_two_factor");
+        assertEquals("casServiceJsonSuccessView",
+                this.controller.handleRequestInternal(request, mock(HttpServletResponse.class)).getViewName());
+
+        when(request.getParameter(PARAM_NAME)).thenReturn("other_two_factor");
+        assertEquals("casServiceJsonFailureView",
+                this.controller.handleRequestInternal(request, mock(HttpServletResponse.class)).getViewName());
+    }
+
+    @Test
+    public void testJsonFormatIgnoresPrerenderedResponse() throws Exception {
+        when(this.cas.validateServiceTicket("ST-1", this.service))
+                .thenReturn(new PrerenderedValidationAssertion(this.assertion, new byte[] {1}));
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("format")).thenReturn("JSON");
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        assertEquals("casServiceJsonSuccessView", this.controller.handleRequestInternal(request, response).getViewName());
+        verify(response, never()).getOutputStream();
+    }
+
+    @Test
+    public void testPrerenderedResponseRespectsValidationSpecification() throws Exception {
+        when(this.cas.validateServiceTicket("ST-1", this.service))
+                .thenReturn(new PrerenderedValidationAssertion(this.assertion, new byte[] {1}));
+        assertEquals("casServiceFailureView", validate(null, "other_two_factor").getViewName());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOverlappedProxyCallbackIsRevokedWhenValidationFails() throws Exception {
+        when(this.cas.delegateTicketGrantingTicket(eq("ST-1"), any(Credential.class))).thenReturn("PGT-1");
+        final Future<String> pendingProxyIou = mock(Future.class);
+        when(pendingProxyIou.get(5000, TimeUnit.MILLISECONDS)).thenReturn("PGTIOU-1");
+        final AsynchronousProxyHandler proxyHandler = mock(AsynchronousProxyHandler.class);
+        when(proxyHandler.getCallbackTimeoutInMillis()).thenReturn(5000L);
+        when(proxyHandler.handleAsynchronously(any(Credential.class), eq("PGT-1"))).thenReturn(pendingProxyIou);
+        this.controller.setProxyHandler(proxyHandler);
+        this.controller.setOverlapProxyCallback(true);
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("pgtUrl")).thenReturn("https://proxy.example.org/callback");
+        when(request.getParameter(PARAM_NAME)).thenReturn("strong_two_factor");
+
+        final ModelAndView success = this.controller.handleRequestInternal(request, mock(HttpServletResponse.class));
+        assertEquals("PGTIOU-1", success.getModel().get("pgtIou"));
+        verify(proxyHandler, never()).handle(any(Credential.class), anyString());
+        verify(this.cas, never()).destroyTicketGrantingTicket("PGT-1");
+
+        when(request.getParameter(PARAM_NAME)).thenReturn("other_two_factor");
+        assertEquals("casServiceFailureView",
+                this.controller.handleRequestInternal(request, mock(HttpServletResponse.class)).getViewName());
+        verify(pendingProxyIou).cancel(true);
+        verify(this.cas).destroyTicketGrantingTicket("PGT-1");
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testOverlappedProxyCallbackIsCancelledWhenItTimesOut() throws Exception {
+        when(this.cas.delegateTicketGrantingTicket(eq("ST-1"), any(Credential.class))).thenReturn("PGT-1");
+        final Future<String> pendingProxyIou = mock(Future.class);
+        when(pendingProxyIou.get(5000, TimeUnit.MILLISECONDS)).thenThrow(new TimeoutException());
+        final AsynchronousProxyHandler proxyHandler = mock(AsynchronousProxyHandler.class);
+        when(proxyHandler.handleAsynchronously(any(Credential.class), eq("PGT-1"))).thenReturn(pendingProxyIou);
+        when(proxyHandler.getCallbackTimeoutInMillis()).thenReturn(5000L);
+        this.controller.setProxyHandler(proxyHandler);
+        this.controller.setOverlapProxyCallback(true);
+
+        final HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getParameter("pgtUrl")).thenReturn("https://proxy.example.org/callback");
+        when(request.getParameter(PARAM_NAME)).thenReturn("strong_two_factor");
+
+        final ModelAndView success = this.controller.handleRequestInternal(request, mock(HttpServletResponse.class));
+        assertEquals("casServiceSuccessView", success.getViewName());
+        assertNull(success.getModel().get("pgtIou"));
+        verify(pendingProxyIou).cancel(true);
+        verify(pendingProxyIou, never()).get();
+    }
+}
@@ -0,0 +1,195 @@
+package net.unicon.cas.mfa.web;
+
+import net.unicon.cas.addons.authentication.AuthenticationSupport;
+import net.unicon.cas.mfa.authentication.AuthenticationMethod;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.authentication.JsonBackedAuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.authentication.OrderedMultiFactorMethodRankingStrategy;
+import net.unicon.cas.mfa.authentication.RequestedAuthenticationMethodRankingStrategy;
+import net.unicon.cas.mfa.web.support.AbstractMultiFactorAuthenticationArgumentExtractor;
+import net.unicon.cas.mfa.web.support.DefaultAuthenticationMethodVerifier;
+import net.unicon.cas.mfa.web.support.DefaultMultiFactorWebApplicationServiceFactory;
+import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebApplicationService;
+import net.unicon.cas.mfa.web.support.RequestParameterMultiFactorAuthenticationArgumentExtractor;
+import org.jasig.cas.CentralAuthenticationService;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Service;
+import org.jasig.cas.ticket.InvalidTicketException;
+import org.jasig.cas.ticket.ServiceTicket;
+import org.jasig.cas.web.support.ArgumentExtractor;
+import org.jasig.cas.web.support.CasArgumentExtractor;
+import org.jasig.cas.web.support.CookieRetrievingCookieGenerator;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class MultiFactorSingleSignOnFastPathFilterTests {
+
+    private static final String TGT_ID = "TGT-1";
+
+    private static final String SERVICE = "https://app.example.org";
+
+    private CentralAuthenticationService centralAuthenticationService;
+
+    private CookieRetrievingCookieGenerator warnCookieGenerator;
+
+    private Authentication authentication;
+
+    private HttpServletRequest request;
+
+    private HttpServletResponse response;
+
+    private FilterChain filterChain;
+
+    private MultiFactorSingleSignOnFastPathFilter filter;
+
+    @Before
+    public void setup() throws Exception {
+        final SortedSet<AuthenticationMethod> methods = new TreeSet<>();
+        methods.add(new AuthenticationMethod("sample_two_factor", 2));
+        methods.add(new AuthenticationMethod("strong_two_factor", 1));
+        final JsonBackedAuthenticationMethodConfigurationProvider configuration =
+                new JsonBackedAuthenticationMethodConfigurationProvider(methods);
+
+        final AbstractMultiFactorAuthenticationArgumentExtractor extractor = new RequestParameterMultiFactorAuthenticationArgumentExtractor(
+                Collections.<ArgumentExtractor>singletonList(new CasArgumentExtractor()),
+                new DefaultMultiFactorWebApplicationServiceFactory(true, null), new DefaultAuthenticationMethodVerifier(configuration));
+
+        final CookieRetrievingCookieGenerator ticketGrantingTicketCookieGenerator = mock(CookieRetrievingCookieGenerator.class);
+        this.warnCookieGenerator = mock(CookieRetrievingCookieGenerator.class);
+        this.request = mock(HttpServletRequest.class);
+        when(this.request.getMethod()).thenReturn("GET");
+        when(this.request.getParameter("service")).thenReturn(SERVICE);
+        when(this.request.getParameter(MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD))
+                .thenReturn("sample_two_factor");
+        when(ticketGrantingTicketCookieGenerator.retrieveCookieValue(this.request)).thenReturn(TGT_ID);
+
+        this.authentication = mock(Authentication.class);
+        satisfiedMethods("strong_two_factor");
+        final AuthenticationSupport authenticationSupport = mock(AuthenticationSupport.class);
+        when(authenticationSupport.getAuthenticationFrom(TGT_ID)).thenReturn(this.authentication);
+
+        final ServiceTicket serviceTicket = mock(ServiceTicket.class);
+        when(serviceTicket.getId()).thenReturn("ST-1");
+        this.centralAuthenticationService = mock(CentralAuthenticationService.class);
+        when(this.centralAuthenticationService.grantServiceTicket(eq(TGT_ID), any(Service.class))).thenReturn(serviceTicket);
+
+        this.response = mock(HttpServletResponse.class);
+        this.filterChain = mock(FilterChain.class);
+
+        this.filter = new MultiFactorSingleSignOnFastPathFilter(this.centralAuthenticationService,
+                ticketGrantingTicketCookieGenerator, new HashSet<>(Arrays.asList(extractor)), configuration,
+                new OrderedMultiFactorMethodRankingStrategy(configuration), authenticationSupport);
+        this.filter.setWarnCookieGenerator(this.warnCookieGenerator);
+        this.filter.setEnabled(true);
+    }
+
+    private void satisfiedMethods(final String... methods) {
+        final List<String> satisfied = Arrays.asList(methods);
+        when(this.authentication.getAttributes()).thenReturn(Collections.<String, Object>singletonMap(
+                MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD, new HashSet<>(satisfied)));
+    }
+
+    private void assertFallsThroughToTheLoginWebflow() throws Exception {
+        this.filter.doFilterInternal(this.request, this.response, this.filterChain);
+        verify(this.filterChain).doFilter(this.request, this.response);
+        verify(this.response, never()).sendRedirect(anyString());
+    }
+
+    @Test
+    public void testSatisfiedSessionIsRedirectedWithServiceTicket() throws Exception {
+        this.filter.doFilterInternal(this.request, this.response, this.filterChain);
+        verify(this.centralAuthenticationService).grantServiceTicket(eq(TGT_ID), any(Service.class));
+        verify(this.response).sendRedirect(contains("ticket=ST-1"));
+        verify(this.filterChain, never()).doFilter(this.request, this.response);
+    }
+
+    @Test
+    public void testServiceTicketIsGrantedThroughTheCasThatWasHandedOver() throws Exception {
+        final ServiceTicket serviceTicket = mock(ServiceTicket.class);
+        when(serviceTicket.getId()).thenReturn("ST-2");
+        final CentralAuthenticationService mfaAwareCentralAuthenticationService = mock(CentralAuthenticationService.class);
+        when(mfaAwareCentralAuthenticationService.grantServiceTicket(eq(TGT_ID), any(Service.class))).thenReturn(serviceTicket);
+        this.filter.setCentralAuthenticationService(mfaAwareCentralAuthenticationService);
+
+        this.filter.doFilterInternal(this.request, this.response, this.filterChain);
+        verify(mfaAwareCentralAuthenticationService).grantServiceTicket(eq(TGT_ID), any(Service.class));
+        verify(this.response).sendRedirect(contains("ticket=ST-2"));
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testFilterIsDisabledByDefault() throws Exception {
+        this.filter = new MultiFactorSingleSignOnFastPathFilter(this.centralAuthenticationService,
+                mock(CookieRetrievingCookieGenerator.class), Collections.<AbstractMultiFactorAuthenticationArgumentExtractor>emptySet(),
+                mock(AuthenticationMethodConfigurationProvider.class),
+                mock(RequestedAuthenticationMethodRankingStrategy.class), mock(AuthenticationSupport.class));
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testUnsatisfiedRankFallsThrough() throws Exception {
+        when(this.request.getParameter(MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_AUTHN_METHOD))
+                .thenReturn("strong_two_factor");
+        satisfiedMethods("sample_two_factor");
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testRenewFallsThrough() throws Exception {
+        when(this.request.getParameter("renew")).thenReturn("true");
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testGatewayFallsThrough() throws Exception {
+        when(this.request.getParameter("gateway")).thenReturn("true");
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testPostRequestFallsThrough() throws Exception {
+        when(this.request.getMethod()).thenReturn("POST");
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testPostResponseFallsThrough() throws Exception {
+        when(this.request.getParameter(MultiFactorAuthenticationSupportingWebApplicationService.CONST_PARAM_METHOD)).thenReturn("POST");
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testWarnCookieFallsThrough() throws Exception {
+        when(this.warnCookieGenerator.retrieveCookieValue(this.request)).thenReturn("true");
+        assertFallsThroughToTheLoginWebflow();
+        verifyZeroInteractions(this.centralAuthenticationService);
+    }
+
+    @Test
+    public void testFailureToGrantServiceTicketFallsThrough() throws Exception {
+        when(this.centralAuthenticationService.grantServiceTicket(eq(TGT_ID), any(Service.class)))
+                .thenThrow(new InvalidTicketException(TGT_ID));
+        assertFallsThroughToTheLoginWebflow();
+    }
+}
@@ -0,0 +1,154 @@
+package net.unicon.cas.mfa.web.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.jasig.cas.authentication.principal.HttpBasedServiceCredentials;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class PooledCas20ProxyHandlerTests {
+
+    private HttpServer server;
+
+    private final AtomicReference<String> lastQuery = new AtomicReference<>();
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+
+    private volatile int status = 200;
+
+    private volatile long latencyInMillis;
+
+    private volatile boolean blocking;
+
+    private final CountDownLatch unblock = new CountDownLatch(1);
+
+    @Before
+    public void setup() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/callback", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final int current = inFlight.incrementAndGet();
+                int peak = peakInFlight.get();
+                while (current > peak && !peakInFlight.compareAndSet(peak, current)) {
+                    peak = peakInFlight.get();
+                }
+                try {
+                    lastQuery.set(exchange.getRequestURI().getQuery());
+                    if (blocking) {
+                        unblock.await();
+                    } else if (latencyInMillis > 0) {
+                        Thread.sleep(latencyInMillis);
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    inFlight.decrementAndGet();
+                }
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        this.server.setExecutor(Executors.newFixedThreadPool(10));
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.unblock.countDown();
+        this.server.stop(0);
+    }
+
+    private HttpBasedServiceCredentials credentials(final String query) throws Exception {
+        return new HttpBasedServiceCredentials(
+                new URL("http://127.0.0.1:" + this.server.getAddress().getPort() + "/callback" + query));
+    }
+
+    @Test
+    public void testProxyGrantingTicketIsDelivered() throws Exception {
+        final PooledCas20ProxyHandler handler = new PooledCas20ProxyHandler(2, 10);
+
+        final String proxyIou = handler.handle(credentials("?authn_method=strong_two_factor"), "PGT-1");
+        assertNotNull(proxyIou);
+        assertTrue(proxyIou.startsWith("PGTIOU-"));
+        assertEquals("authn_method=strong_two_factor&pgtIou=" + proxyIou + "&pgtId=PGT-1", this.lastQuery.get());
+        assertEquals(1, handler.getDeliveredCount());
+        handler.destroy();
+    }
+
+    @Test
+    public void testErrorStatusFailsDelivery() throws Exception {
+        final PooledCas20ProxyHandler handler = new PooledCas20ProxyHandler(2, 10);
+        this.status = 404;
+
+        assertNull(handler.handle(credentials(""), "PGT-1"));
+        assertEquals("pgtIou=", this.lastQuery.get().substring(0, 7));
+        assertEquals(1, handler.getFailedCount());
+        handler.destroy();
+    }
+
+    @Test
+    public void testSlowCallbackTimesOut() throws Exception {
+        final PooledCas20ProxyHandler handler = new PooledCas20ProxyHandler(2, 10);
+        handler.setReadTimeoutInMillis(100);
+        this.blocking = true;
+
+        assertNull(handler.handleAsynchronously(credentials(""), "PGT-1").get(5, TimeUnit.SECONDS));
+        assertEquals(1, this.inFlight.get());
+        assertEquals(1, handler.getFailedCount());
+        handler.destroy();
+    }
+
+    @Test
+    public void testConcurrentCallbacksPerHostAreCapped() throws Exception {
+        final PooledCas20ProxyHandler handler = new PooledCas20ProxyHandler(8, 10);
+        handler.setMaxConnectionsPerHost(2);
+        this.latencyInMillis = 50;
+
+        final List<Future<String>> outcomes = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            outcomes.add(handler.handleAsynchronously(credentials(""), "PGT-" + i));
+        }
+        for (final Future<String> outcome : outcomes) {
+            assertNotNull(outcome.get(10, TimeUnit.SECONDS));
+        }
+        assertTrue(this.peakInFlight.get() <= 2);
+        assertEquals(8, handler.getDeliveredCount());
+        handler.destroy();
+    }
+
+    @Test
+    public void testSaturatedPoolRejectsCallbacks() throws Exception {
+        final PooledCas20ProxyHandler handler = new PooledCas20ProxyHandler(1, 1);
+        this.blocking = true;
+
+        final List<Future<String>> outcomes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            outcomes.add(handler.handleAsynchronously(credentials(""), "PGT-" + i));
+        }
+        assertEquals(3, handler.getRejectedCount());
+        assertNull(outcomes.get(outcomes.size() - 1).get(10, TimeUnit.SECONDS));
+        handler.destroy();
+    }
+}
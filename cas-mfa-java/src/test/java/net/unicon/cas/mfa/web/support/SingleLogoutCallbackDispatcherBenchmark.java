@@ -0,0 +1,97 @@
+package net.unicon.cas.mfa.web.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class SingleLogoutCallbackDispatcherBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SingleLogoutCallbackDispatcherBenchmark.class);
+
+    private static final int SERVICES = 50;
+
+    private static final long LATENCY_MILLIS = 100;
+
+    private HttpServer server;
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    @Before
+    public void setup() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/logout", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try (final InputStream in = exchange.getRequestBody()) {
+                    final byte[] body = new byte[4096];
+                    final int read = in.read(body);
+                    assertTrue(new String(body, 0, read, "UTF-8").startsWith("logoutRequest="));
+                }
+                try {
+                    Thread.sleep(LATENCY_MILLIS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.incrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.server.setExecutor(Executors.newFixedThreadPool(SERVICES));
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    private String url(final String path, final int index) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path + "?service=" + index;
+    }
+
+    @Test
+    public void testLogoutOfFiftyServicesTakesRoughlyTheSlowestCallback() throws Exception {
+        final SingleLogoutCallbackDispatcher dispatcher = new SingleLogoutCallbackDispatcher(SERVICES, SERVICES);
+        dispatcher.setMaxConnectionsPerHost(SERVICES);
+
+        final long start = System.nanoTime();
+        final List<Future<Boolean>> outcomes = new ArrayList<>();
+        for (int i = 0; i < SERVICES; i++) {
+            outcomes.add(dispatcher.dispatch(url("/logout", i), "ST-" + i));
+        }
+        for (final Future<Boolean> outcome : outcomes) {
+            assertTrue(outcome.get(10, TimeUnit.SECONDS));
+        }
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        LOGGER.info("Logout of {} services took {}ms; sequential callbacks would take at least {}ms",
+                SERVICES, elapsed, SERVICES * LATENCY_MILLIS);
+        assertEquals(SERVICES, this.received.get());
+        assertTrue(elapsed < (SERVICES * LATENCY_MILLIS) / 5);
+        dispatcher.destroy();
+    }
+}
@@ -0,0 +1,137 @@
+package net.unicon.cas.mfa.web.support;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class SingleLogoutCallbackDispatcherTests {
+
+    private static final int SERVICES = 50;
+
+    private static final long LATENCY_MILLIS = 100;
+
+    private HttpServer server;
+
+    private final AtomicInteger received = new AtomicInteger();
+
+    private final AtomicInteger failuresBeforeSuccess = new AtomicInteger();
+
+    private final AtomicBoolean dispatchedSequentially = new AtomicBoolean();
+
+    private volatile CountDownLatch allInFlight;
+
+    @Before
+    public void setup() throws Exception {
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/logout", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try (final InputStream in = exchange.getRequestBody()) {
+                    final byte[] body = new byte[4096];
+                    final int read = in.read(body);
+                    assertTrue(new String(body, 0, read, "UTF-8").startsWith("logoutRequest="));
+                }
+                try {
+                    final CountDownLatch latch = allInFlight;
+                    if (latch == null) {
+                        Thread.sleep(LATENCY_MILLIS);
+                    } else {
+                        latch.countDown();
+                        if (!latch.await(5, TimeUnit.SECONDS)) {
+                            dispatchedSequentially.set(true);
+                        }
+                    }
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                received.incrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                exchange.close();
+            }
+        });
+        this.server.createContext("/flaky", new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                final int status = failuresBeforeSuccess.getAndDecrement() > 0 ? 503 : 200;
+                exchange.sendResponseHeaders(status, -1);
+                exchange.close();
+            }
+        });
+        this.server.setExecutor(Executors.newFixedThreadPool(SERVICES));
+        this.server.start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.stop(0);
+    }
+
+    private String url(final String path, final int index) {
+        return "http://127.0.0.1:" + this.server.getAddress().getPort() + path + "?service=" + index;
+    }
+
+    @Test
+    public void testLogoutOfFiftyServicesIsDispatchedInParallel() throws Exception {
+        final SingleLogoutCallbackDispatcher dispatcher = new SingleLogoutCallbackDispatcher(SERVICES, SERVICES);
+        dispatcher.setMaxConnectionsPerHost(SERVICES);
+        this.allInFlight = new CountDownLatch(SERVICES);
+
+        final List<Future<Boolean>> outcomes = new ArrayList<>();
+        for (int i = 0; i < SERVICES; i++) {
+            outcomes.add(dispatcher.dispatch(url("/logout", i), "ST-" + i));
+        }
+        for (final Future<Boolean> outcome : outcomes) {
+            assertTrue(outcome.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(SERVICES, this.received.get());
+        assertFalse("Callbacks did not all run at once", this.dispatchedSequentially.get());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void testFailedCallbackIsRetried() throws Exception {
+        final SingleLogoutCallbackDispatcher dispatcher = new SingleLogoutCallbackDispatcher(1, 1);
+        dispatcher.setInitialBackoffInMillis(10);
+        dispatcher.setMaxRetries(2);
+        this.failuresBeforeSuccess.set(2);
+
+        assertTrue(dispatcher.dispatch(url("/flaky", 0), "ST-1").get(10, TimeUnit.SECONDS));
+        assertEquals(0, dispatcher.getFailedCount());
+        dispatcher.destroy();
+    }
+
+    @Test
+    public void testSaturatedDispatcherDropsCallbacks() throws Exception {
+        final SingleLogoutCallbackDispatcher dispatcher = new SingleLogoutCallbackDispatcher(1, 1);
+
+        final List<Future<Boolean>> outcomes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            outcomes.add(dispatcher.dispatch(url("/logout", i), "ST-" + i));
+        }
+        assertTrue(dispatcher.getDroppedCount() >= 1);
+        for (final Future<Boolean> outcome : outcomes) {
+            outcome.get(10, TimeUnit.SECONDS);
+        }
+        dispatcher.destroy();
+    }
+}
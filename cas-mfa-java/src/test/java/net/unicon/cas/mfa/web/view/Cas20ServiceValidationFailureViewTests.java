@@ -0,0 +1,45 @@
+package net.unicon.cas.mfa.web.view;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class Cas20ServiceValidationFailureViewTests {
+
+    @Test
+    public void testViewWritesModelToOutputStream() throws Exception {
+        final Map<String, Object> model = new HashMap<>();
+        model.put("code", "INVALID_TICKET");
+        model.put("description", "Ticket 'ST-1' not recognized");
+        model.put("authn_method", null);
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+
+        new Cas20ServiceValidationFailureView().render(model, mock(HttpServletRequest.class), response);
+
+        final StringWriter expected = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeFailure(expected, "INVALID_TICKET", "Ticket 'ST-1' not recognized", null);
+        assertEquals(expected.toString(), body.toString("UTF-8"));
+        verify(response).setContentType("text/plain;charset=UTF-8");
+    }
+}
@@ -0,0 +1,125 @@
+package net.unicon.cas.mfa.web.view;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class Cas20ServiceValidationResponseWriterTests {
+
+    @Test
+    public void testMinimalSuccessMatchesJsp() throws Exception {
+        final StringWriter writer = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeSuccess(writer, "casuser", null,
+                Collections.<String>emptyList(), Collections.<String, Object>emptyMap(), null);
+
+        final String expected = "\n\n\n\n"
+                + "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\n"
+                + "    <cas:authenticationSuccess>\n"
+                + "        <cas:user>casuser</cas:user>\n"
+                + "        \n"
+                + "\n"
+                + "        \n"
+                + "\n"
+                + "        \n"
+                + "\n"
+                + "        \n"
+                + "    </cas:authenticationSuccess>\n"
+                + "</cas:serviceResponse>\n";
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testFullSuccessMatchesJsp() throws Exception {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("mail", "casuser@example.org");
+        attributes.put("authn_method", "strong_two_factor");
+
+        final StringWriter writer = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeSuccess(writer, "casuser", "PGTIOU-1",
+                Arrays.asList("https://proxy1", "https://proxy2"), attributes, "strong_two_factor");
+
+        final String expected = "\n\n\n\n"
+                + "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\n"
+                + "    <cas:authenticationSuccess>\n"
+                + "        <cas:user>casuser</cas:user>\n"
+                + "        \n"
+                + "            <cas:proxyGrantingTicket>PGTIOU-1</cas:proxyGrantingTicket>\n"
+                + "        \n"
+                + "\n"
+                + "        \n"
+                + "            <cas:proxies>\n"
+                + "                \n"
+                + "                    <cas:proxy>https://proxy1</cas:proxy>\n"
+                + "                \n"
+                + "                    <cas:proxy>https://proxy2</cas:proxy>\n"
+                + "                \n"
+                + "            </cas:proxies>\n"
+                + "        \n"
+                + "\n"
+                + "        \n"
+                + "            <cas:attributes>\n"
+                + "                \n"
+                + "                    <cas:mail>casuser@example.org</cas:mail>\n"
+                + "                \n"
+                + "                    <cas:authn_method>strong_two_factor</cas:authn_method>\n"
+                + "                \n"
+                + "            </cas:attributes>\n"
+                + "        \n"
+                + "\n"
+                + "        \n"
+                + "            <cas:authn_method>strong_two_factor</cas:authn_method>\n"
+                + "        \n"
+                + "    </cas:authenticationSuccess>\n"
+                + "</cas:serviceResponse>\n";
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testFailureMatchesJsp() throws Exception {
+        final StringWriter writer = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeFailure(writer, "INVALID_TICKET", "Ticket 'ST-1' not recognized", null);
+
+        final String expected = "\r\n\r\n\r\n\r\n"
+                + "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\r\n"
+                + "    <cas:authenticationFailure code='INVALID_TICKET'>\r\n"
+                + "        Ticket &#039;ST-1&#039; not recognized\r\n"
+                + "        \r\n"
+                + "    </cas:authenticationFailure>\r\n"
+                + "</cas:serviceResponse>\r\n";
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testFailureWithAuthenticationMethodMatchesJsp() throws Exception {
+        final StringWriter writer = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeFailure(writer, "INVALID_TICKET_SPEC", "Invalid <spec>",
+                "strong_two_factor");
+
+        final String expected = "\r\n\r\n\r\n\r\n"
+                + "<cas:serviceResponse xmlns:cas='http://www.yale.edu/tp/cas'>\r\n"
+                + "    <cas:authenticationFailure code='INVALID_TICKET_SPEC'>\r\n"
+                + "        Invalid &lt;spec&gt;\r\n"
+                + "        \r\n"
+                + "            <cas:authn_method>strong_two_factor</cas:authn_method>\r\n"
+                + "        \r\n"
+                + "    </cas:authenticationFailure>\r\n"
+                + "</cas:serviceResponse>\r\n";
+        assertEquals(expected, writer.toString());
+    }
+
+    @Test
+    public void testValuesAreEscapedLikeJstl() throws Exception {
+        final StringWriter writer = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeEscaped(writer, "a&b<c>d\"e'f");
+        assertEquals("a&amp;b&lt;c&gt;d&#034;e&#039;f", writer.toString());
+    }
+}
@@ -0,0 +1,67 @@
+package net.unicon.cas.mfa.web.view;
+
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.validation.Assertion;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class Cas20ServiceValidationSuccessViewTests {
+
+    private static Authentication mockAuthentication(final String id, final Map<String, Object> attributes) {
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn(id);
+        when(principal.getAttributes()).thenReturn(attributes);
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        return authentication;
+    }
+
+    @Test
+    public void testViewWritesModelToOutputStream() throws Exception {
+        final Map<String, Object> attributes = Collections.<String, Object>singletonMap("mail", "cas&user@example.org");
+        final Assertion assertion = mock(Assertion.class);
+        when(assertion.getChainedAuthentications()).thenReturn(Arrays.asList(
+                mockAuthentication("https://proxy", Collections.<String, Object>emptyMap()),
+                mockAuthentication("casuser", attributes)));
+
+        final Map<String, Object> model = new HashMap<>();
+        model.put("assertion", assertion);
+        model.put("pgtIou", "PGTIOU-1");
+        model.put("authn_method", "strong_two_factor");
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+
+        new Cas20ServiceValidationSuccessView().render(model, mock(HttpServletRequest.class), response);
+
+        final StringWriter expected = new StringWriter();
+        Cas20ServiceValidationResponseWriter.writeSuccess(expected, "casuser", "PGTIOU-1",
+                Collections.singletonList("https://proxy"), attributes, "strong_two_factor");
+        assertEquals(expected.toString(), body.toString("UTF-8"));
+        assertTrue(body.toString("UTF-8").contains("<cas:mail>cas&amp;user@example.org</cas:mail>"));
+        verify(response).setContentType("text/html;charset=UTF-8");
+    }
+}
@@ -0,0 +1,73 @@
+package net.unicon.cas.mfa.web.view;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs with the <code>benchmarks</code> profile only, i.e. <code>mvn -Pbenchmarks test</code>.
+ */
+@RunWith(JUnit4.class)
+public class ServiceValidationJsonResponseWriterBenchmark {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ServiceValidationJsonResponseWriterBenchmark.class);
+
+    private static Map<String, Object> newAttributes() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("mail", "casuser@example.org");
+        attributes.put("memberOf", Arrays.asList("staff", "faculty"));
+        attributes.put("authn_method", "strong_two_factor");
+        return attributes;
+    }
+
+    /**
+     * Renders the same success response in both formats, and reports the time and size of each.
+     */
+    @Test
+    public void testCompareWithXml() throws Exception {
+        final Map<String, Object> attributes = newAttributes();
+        final int iterations = 20000;
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(1024);
+
+        long xmlSize = 0;
+        long jsonSize = 0;
+        for (int round = 0; round < 2; round++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                out.reset();
+                final Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+                Cas20ServiceValidationResponseWriter.writeSuccess(writer, "casuser", null, Collections.<String>emptyList(),
+                        attributes, "strong_two_factor");
+                writer.flush();
+            }
+            final long xmlNanos = System.nanoTime() - start;
+            xmlSize = out.size();
+
+            start = System.nanoTime();
+            for (int i = 0; i < iterations; i++) {
+                out.reset();
+                ServiceValidationJsonResponseWriter.writeSuccess(out, "casuser", null, Collections.<String>emptyList(),
+                        attributes, Collections.singletonList("strong_two_factor"), 1);
+            }
+            final long jsonNanos = System.nanoTime() - start;
+            jsonSize = out.size();
+
+            LOGGER.info("Round {}: XML {} ns/op, {} bytes; JSON {} ns/op, {} bytes", round,
+                    xmlNanos / iterations, xmlSize, jsonNanos / iterations, jsonSize);
+        }
+        assertTrue(jsonSize < xmlSize);
+    }
+}
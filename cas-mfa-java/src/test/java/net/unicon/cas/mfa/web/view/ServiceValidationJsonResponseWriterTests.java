@@ -0,0 +1,57 @@
+package net.unicon.cas.mfa.web.view;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+@RunWith(JUnit4.class)
+public class ServiceValidationJsonResponseWriterTests {
+
+    private static Map<String, Object> newAttributes() {
+        final Map<String, Object> attributes = new LinkedHashMap<>();
+        attributes.put("mail", "casuser@example.org");
+        attributes.put("memberOf", Arrays.asList("staff", "faculty"));
+        attributes.put("authn_method", "strong_two_factor");
+        return attributes;
+    }
+
+    @Test
+    public void testSuccess() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ServiceValidationJsonResponseWriter.writeSuccess(out, "cas\"user", null, Collections.<String>emptyList(),
+                newAttributes(), Arrays.asList("sample_two_factor", "strong_two_factor"), 1);
+
+        assertEquals("{\"serviceResponse\":{\"authenticationSuccess\":{\"user\":\"cas\\\"user\",\"proxyGrantingTicket\":null,"
+                + "\"proxies\":[],\"attributes\":{\"mail\":[\"casuser@example.org\"],\"memberOf\":[\"staff\",\"faculty\"],"
+                + "\"authn_method\":[\"strong_two_factor\"]},\"authnMethods\":[\"sample_two_factor\",\"strong_two_factor\"],"
+                + "\"authnRank\":1}}}", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSuccessWithoutMethodsKeepsShape() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ServiceValidationJsonResponseWriter.writeSuccess(out, "casuser", "PGTIOU-1", Collections.singletonList("https://proxy"),
+                Collections.<String, Object>emptyMap(), Collections.<String>emptyList(), null);
+
+        assertEquals("{\"serviceResponse\":{\"authenticationSuccess\":{\"user\":\"casuser\",\"proxyGrantingTicket\":\"PGTIOU-1\","
+                + "\"proxies\":[\"https://proxy\"],\"attributes\":{},\"authnMethods\":[],\"authnRank\":null}}}",
+                out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ServiceValidationJsonResponseWriter.writeFailure(out, "INVALID_TICKET", "Ticket 'ST-1' not recognized", null);
+
+        assertEquals("{\"serviceResponse\":{\"authenticationFailure\":{\"code\":\"INVALID_TICKET\","
+                + "\"description\":\"Ticket 'ST-1' not recognized\",\"authnMethod\":null}}}", out.toString("UTF-8"));
+    }
+}
@@ -0,0 +1,63 @@
+package net.unicon.cas.mfa.web.view;
+
+import net.unicon.cas.mfa.authentication.AuthenticationMethod;
+import net.unicon.cas.mfa.authentication.AuthenticationMethodConfigurationProvider;
+import org.jasig.cas.authentication.Authentication;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.validation.Assertion;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+@RunWith(JUnit4.class)
+public class ServiceValidationJsonSuccessViewTests {
+
+    @Test
+    public void testStrongestRankIsReported() throws Exception {
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn("casuser");
+        when(principal.getAttributes()).thenReturn(Collections.<String, Object>emptyMap());
+        final Authentication authentication = mock(Authentication.class);
+        when(authentication.getPrincipal()).thenReturn(principal);
+        when(authentication.getAttributes()).thenReturn(Collections.<String, Object>singletonMap("authn_method",
+                Arrays.asList("strong_two_factor", "sample_two_factor", "unknown_factor")));
+        final Assertion assertion = mock(Assertion.class);
+        when(assertion.getChainedAuthentications()).thenReturn(Collections.singletonList(authentication));
+
+        final AuthenticationMethodConfigurationProvider provider = mock(AuthenticationMethodConfigurationProvider.class);
+        when(provider.getAuthenticationMethod("strong_two_factor")).thenReturn(new AuthenticationMethod("strong_two_factor", 1));
+        when(provider.getAuthenticationMethod("sample_two_factor")).thenReturn(new AuthenticationMethod("sample_two_factor", 2));
+
+        final Map<String, Object> model = new HashMap<>();
+        model.put("assertion", assertion);
+
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse response = mock(HttpServletResponse.class);
+        when(response.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(final int b) throws IOException {
+                body.write(b);
+            }
+        });
+
+        new ServiceValidationJsonSuccessView(provider).render(model, mock(HttpServletRequest.class), response);
+
+        final String json = body.toString("UTF-8");
+        assertTrue(json.contains("\"authnMethods\":[\"sample_two_factor\",\"strong_two_factor\",\"unknown_factor\"]"));
+        assertTrue(json.contains("\"authnRank\":1"));
+        verify(response).setContentType("application/json;charset=UTF-8");
+    }
+}
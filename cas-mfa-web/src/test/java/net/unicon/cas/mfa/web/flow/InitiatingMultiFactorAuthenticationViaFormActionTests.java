@@ -3,6 +3,7 @@ package net.unicon.cas.mfa.web.flow;
 import net.unicon.cas.addons.authentication.AuthenticationSupport;
 import net.unicon.cas.mfa.authentication.AuthenticationMethod;
 import net.unicon.cas.mfa.authentication.JsonBackedAuthenticationMethodConfigurationProvider;
+import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestContext;
 import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationRequestResolver;
 import net.unicon.cas.mfa.authentication.MultiFactorAuthenticationTransactionContext;
 import net.unicon.cas.mfa.authentication.OrderedMultiFactorMethodRankingStrategy;
@@ -14,9 +15,14 @@ import net.unicon.cas.mfa.web.support.MultiFactorAuthenticationSupportingWebAppl
 import org.jasig.cas.CentralAuthenticationService;
 import org.jasig.cas.authentication.Authentication;
 import org.jasig.cas.authentication.AuthenticationManager;
+import org.jasig.cas.authentication.Credential;
 import org.jasig.cas.authentication.handler.AuthenticationException;
 import org.jasig.cas.authentication.principal.Credentials;
+import org.jasig.cas.authentication.principal.Principal;
+import org.jasig.cas.authentication.principal.Response;
 import org.jasig.cas.authentication.principal.UsernamePasswordCredentials;
+import org.jasig.cas.authentication.principal.WebApplicationService;
+import org.jasig.cas.ticket.TicketGrantingTicket;
 import org.jasig.cas.web.bind.CredentialsBinder;
 import org.jasig.cas.web.flow.AuthenticationViaFormAction;
 import org.jasig.cas.web.support.WebUtils;
@@ -28,12 +34,16 @@ import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.springframework.binding.message.MessageContext;
 import org.springframework.web.util.CookieGenerator;
+import org.springframework.webflow.context.ExternalContext;
 import org.springframework.webflow.core.collection.MutableAttributeMap;
 import org.springframework.webflow.core.collection.ParameterMap;
 import org.springframework.webflow.definition.TransitionDefinition;
 import org.springframework.webflow.execution.Event;
 import org.springframework.webflow.execution.RequestContext;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.util.Collections;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -53,6 +63,10 @@ public class InitiatingMultiFactorAuthenticationViaFormActionTests {
 
     private InitiatingMultiFactorAuthenticationViaFormAction action;
 
+    private MultiFactorAuthenticationSupportingWebApplicationService mfaService;
+
+    private MultiFactorAuthenticationTransactionContext mfaTransaction;
+
     @Mock
     private AuthenticationViaFormAction authViaFormAction;
 
@@ -105,11 +119,11 @@ public class InitiatingMultiFactorAuthenticationViaFormActionTests {
         when(ctx.getConversationScope()).thenReturn(flowScope);
         when(ctx.getMessageContext()).thenReturn(this.msgCtx);
 
-        MultiFactorAuthenticationSupportingWebApplicationService svc = null;
-        svc = mock(MultiFactorAuthenticationSupportingWebApplicationService.class);
-        when(svc.getAuthenticationMethod()).thenReturn(AUTHN_METHOD);
+        this.mfaService = mock(MultiFactorAuthenticationSupportingWebApplicationService.class);
+        when(this.mfaService.getId()).thenReturn("test service");
+        when(this.mfaService.getAuthenticationMethod()).thenReturn(AUTHN_METHOD);
 
-        when(ctx.getFlowScope().get("service")).thenReturn(svc);
+        when(ctx.getFlowScope().get("service")).thenReturn(this.mfaService);
         when(ctx.getFlowScope().remove("loginTicket")).thenReturn(LOGIN_TICKET);
 
         when(ctx.getRequestScope().get("ticketGrantingTicketId")).thenReturn(TGT_ID);
@@ -119,9 +133,19 @@ public class InitiatingMultiFactorAuthenticationViaFormActionTests {
         when(ctx.getRequestParameters()).thenReturn(mock(ParameterMap.class));
         when(ctx.getRequestParameters().get("lt")).thenReturn(LOGIN_TICKET);
 
+        final ExternalContext externalContext = mock(ExternalContext.class);
+        when(externalContext.getNativeRequest()).thenReturn(mock(HttpServletRequest.class));
+        when(externalContext.getNativeResponse()).thenReturn(mock(HttpServletResponse.class));
+        when(externalContext.getRequestParameterMap()).thenReturn(mock(ParameterMap.class));
+        when(ctx.getExternalContext()).thenReturn(externalContext);
+
+        this.mfaTransaction = new MultiFactorAuthenticationTransactionContext("test service");
         when(ctx.getConversationScope().get(MultiFactorAuthenticationTransactionContext.class.getSimpleName()))
-                .thenReturn(new MultiFactorAuthenticationTransactionContext("test service"));
+                .thenReturn(this.mfaTransaction);
 
+        final Principal principal = mock(Principal.class);
+        when(principal.getId()).thenReturn("user");
+        when(this.authentication.getPrincipal()).thenReturn(principal);
         when(manager.authenticate(any(Credentials.class))).thenReturn(this.authentication);
 
         final SortedSet<AuthenticationMethod> validAuthenticationMethods =
@@ -178,6 +202,66 @@ public class InitiatingMultiFactorAuthenticationViaFormActionTests {
         assertEquals(ev.getId(), id);
     }
 
+    @Test
+    public void testServiceMfaRequestNeverCreatesPrimaryTicketGrantingTicket() throws Exception {
+        this.mfaTransaction.addMfaRequest(new MultiFactorAuthenticationRequestContext(this.mfaService, 1));
+        matchMfaTransition();
+
+        for (final boolean defer : new boolean[] {false, true}) {
+            this.action.setDeferPrimaryTicketGrantingTicket(defer);
+            final Event ev = this.action.doExecute(this.ctx);
+            assertEquals(MultiFactorAuthenticationSpringWebflowEventBuilder.MFA_EVENT_ID_PREFIX + AUTHN_METHOD, ev.getId());
+        }
+        verify(this.cas, never()).createTicketGrantingTicket(any(Credential.class));
+    }
+
+    @Test
+    public void testDeferredTicketGrantingTicketForServiceMfaRequest() throws Exception {
+        this.mfaTransaction.addMfaRequest(new MultiFactorAuthenticationRequestContext(this.mfaService, 1));
+        matchMfaTransition();
+        this.action.setDeferPrimaryTicketGrantingTicket(true);
+
+        final Event ev = this.action.doAuthentication(this.ctx, mock(Credential.class), this.msgCtx, "credentials");
+        assertEquals(MultiFactorAuthenticationSpringWebflowEventBuilder.MFA_EVENT_ID_PREFIX + AUTHN_METHOD, ev.getId());
+        assertSame(this.authentication, this.mfaTransaction.getPrimaryAuthentication());
+        verify(this.cas, never()).createTicketGrantingTicket(any(Credential.class));
+    }
+
+    @Test
+    public void testDeferredTicketGrantingTicketForPrincipalAttributeMfaRequest() throws Exception {
+        when(this.multiFactorAuthenticationRequestResolver.resolve(eq(this.authentication), any(WebApplicationService.class),
+                any(Response.ResponseType.class)))
+                .thenReturn(Collections.singletonList(new MultiFactorAuthenticationRequestContext(this.mfaService, 1)));
+        matchMfaTransition();
+        this.action.setDeferPrimaryTicketGrantingTicket(true);
+
+        final Event ev = this.action.doAuthentication(this.ctx, mock(Credential.class), this.msgCtx, "credentials");
+        assertEquals(MultiFactorAuthenticationSpringWebflowEventBuilder.MFA_EVENT_ID_PREFIX + AUTHN_METHOD, ev.getId());
+        assertEquals(1, this.mfaTransaction.getMfaRequests().size());
+        assertSame(this.authentication, this.mfaTransaction.getPrimaryAuthentication());
+        verify(this.cas, never()).createTicketGrantingTicket(any(Credential.class));
+    }
+
+    @Test
+    public void testDeferredTicketGrantingTicketIsCreatedOnceWithoutMfaRequest() throws Exception {
+        final TicketGrantingTicket tgt = mock(TicketGrantingTicket.class);
+        when(tgt.getId()).thenReturn("TGT-2");
+        when(this.cas.createTicketGrantingTicket(any(Credential.class))).thenReturn(tgt);
+        this.action.setDeferPrimaryTicketGrantingTicket(true);
+
+        final Event ev = this.action.doAuthentication(this.ctx, mock(Credential.class), this.msgCtx, "credentials");
+        assertEquals("success", ev.getId());
+        assertNull(this.mfaTransaction.getPrimaryAuthentication());
+        verify(this.cas, times(1)).createTicketGrantingTicket(any(Credential.class));
+        verify(this.ctx.getRequestScope()).put("ticketGrantingTicketId", "TGT-2");
+    }
+
+    private void matchMfaTransition() {
+        final TransitionDefinition def = mock(TransitionDefinition.class);
+        when(def.getId()).thenReturn(MultiFactorAuthenticationSpringWebflowEventBuilder.MFA_EVENT_ID_PREFIX + AUTHN_METHOD);
+        when(this.ctx.getMatchingTransition(anyString())).thenReturn(def);
+    }
+
     private Credentials getCredentials() {
         final UsernamePasswordCredentials c = new UsernamePasswordCredentials();
         c.setUsername("user");